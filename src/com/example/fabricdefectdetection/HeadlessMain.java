@@ -0,0 +1,470 @@
+package com.example.fabricdefectdetection;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.example.fabricdefectdetection.analysis.DefectAnalysisReport;
+import com.example.fabricdefectdetection.detection.BatchCoordinator;
+import com.example.fabricdefectdetection.detection.BatchProcessor;
+import com.example.fabricdefectdetection.detection.BatchTaskResult;
+import com.example.fabricdefectdetection.detection.BatchWorker;
+import com.example.fabricdefectdetection.util.ConfigurationManager;
+import com.example.fabricdefectdetection.util.OpenCVLoader;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * 无界面命令行入口
+ *
+ * 用于在没有图形环境的检测服务器上运行批量检测，不加载任何Swing组件。
+ * 每张图片的检测结果和每轮处理的吞吐量统计以JSON Lines格式输出。
+ * 也可以作为分布式批处理的协调器（--coordinator）或工作节点（--worker）运行。
+ *
+ * 用法:
+ * <pre>
+ * java -cp "bin;libs/*" com.example.fabricdefectdetection.HeadlessMain \
+ *      --input &lt;图片目录&gt; [--config &lt;配置文件&gt;] [--output &lt;结果文件&gt;]
+ *      [--threads &lt;线程数&gt;] [--daemon] [--poll-interval &lt;秒&gt;]
+ *      [--coordinator &lt;端口&gt;]
+ * java ... HeadlessMain --worker &lt;协调器主机:端口&gt; [--threads &lt;线程数&gt;]
+ * </pre>
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public class HeadlessMain {
+
+    private static final Logger logger = Logger.getLogger(HeadlessMain.class.getName());
+
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_USAGE = 1;
+    private static final int EXIT_OPENCV = 2;
+    private static final int EXIT_FAILURES = 3;
+
+    private static final int DEFAULT_POLL_INTERVAL_SECONDS = 10;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final PrintWriter output;
+    private final BatchProcessor batchProcessor;
+    private final int threadCount;
+
+    /**
+     * 构造函数
+     *
+     * @param output 结果输出
+     * @param threadCount 处理线程数
+     */
+    private HeadlessMain(PrintWriter output, int threadCount) {
+        this.output = output;
+        this.threadCount = threadCount;
+        this.batchProcessor = new BatchProcessor(threadCount);
+    }
+
+    /**
+     * 命令行主入口
+     *
+     * @param args 命令行参数
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = parseArguments(args);
+        if (options == null || options.containsKey("help")
+                || (!options.containsKey("input") && !options.containsKey("worker"))) {
+            printUsage();
+            System.exit(options != null && options.containsKey("help") ? EXIT_OK : EXIT_USAGE);
+            return;
+        }
+
+        File inputDirectory = new File(options.getOrDefault("input", "."));
+        if (!options.containsKey("worker") && !inputDirectory.isDirectory()) {
+            System.err.println("输入目录不存在或不是一个目录: " + inputDirectory);
+            System.exit(EXIT_USAGE);
+            return;
+        }
+
+        // 配置文件必须在其他组件读取配置之前指定
+        if (options.containsKey("config")) {
+            File configFile = new File(options.get("config"));
+            if (!configFile.isFile()) {
+                System.err.println("配置文件不存在: " + configFile);
+                System.exit(EXIT_USAGE);
+                return;
+            }
+            ConfigurationManager.useConfigFile(configFile.getPath());
+        }
+
+        if (!OpenCVLoader.loadOpenCV(false)) {
+            System.exit(EXIT_OPENCV);
+            return;
+        }
+
+        int threadCount;
+        int pollInterval;
+        try {
+            threadCount = options.containsKey("threads")
+                    ? Integer.parseInt(options.get("threads"))
+                    : ConfigurationManager.getInstance().getIntProperty("system.thread-count",
+                            Runtime.getRuntime().availableProcessors());
+            pollInterval = options.containsKey("poll-interval")
+                    ? Integer.parseInt(options.get("poll-interval"))
+                    : DEFAULT_POLL_INTERVAL_SECONDS;
+        } catch (NumberFormatException e) {
+            System.err.println("参数必须为整数: " + e.getMessage());
+            System.exit(EXIT_USAGE);
+            return;
+        }
+        if (threadCount <= 0 || pollInterval <= 0) {
+            System.err.println("线程数和轮询间隔必须为正数");
+            System.exit(EXIT_USAGE);
+            return;
+        }
+
+        int exitCode;
+        try (PrintWriter output = openOutput(options.get("output"))) {
+            HeadlessMain runner = new HeadlessMain(output, threadCount);
+            Runtime.getRuntime().addShutdownHook(new Thread(runner::shutdown, "headless-shutdown"));
+
+            if (options.containsKey("worker")) {
+                exitCode = runner.runWorker(options.get("worker"));
+            } else if (options.containsKey("coordinator")) {
+                exitCode = runner.runCoordinator(BatchProcessor.listImageFiles(inputDirectory),
+                        Integer.parseInt(options.get("coordinator")));
+            } else if (options.containsKey("daemon")) {
+                runner.runDaemon(inputDirectory, pollInterval);
+                exitCode = EXIT_OK;
+            } else {
+                exitCode = runner.runOnce(BatchProcessor.listImageFiles(inputDirectory));
+            }
+        } catch (IOException e) {
+            System.err.println("无法打开结果输出或监听端口: " + e.getMessage());
+            exitCode = EXIT_USAGE;
+        } catch (NumberFormatException e) {
+            System.err.println("端口必须为整数: " + e.getMessage());
+            exitCode = EXIT_USAGE;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exitCode = EXIT_FAILURES;
+        }
+
+        System.exit(exitCode);
+    }
+
+    /**
+     * 处理一组图片并输出结果和吞吐量统计
+     *
+     * @param imageFiles 图片文件列表
+     * @return 退出码
+     * @throws InterruptedException 如果等待被中断
+     */
+    private int runOnce(List<File> imageFiles) throws InterruptedException {
+        List<BatchTaskResult> results = processBatch(imageFiles);
+        if (results == null) {
+            return EXIT_FAILURES;
+        }
+        for (BatchTaskResult result : results) {
+            if (result.isFailed()) {
+                return EXIT_FAILURES;
+            }
+        }
+        return EXIT_OK;
+    }
+
+    /**
+     * 处理一组图片，等待全部完成后输出整卷报告和汇总结果
+     *
+     * @param imageFiles 图片文件列表
+     * @return 任务结果列表，与图片文件顺序一致；已有批处理任务正在运行时返回null
+     * @throws InterruptedException 如果等待被中断
+     */
+    private List<BatchTaskResult> processBatch(List<File> imageFiles) throws InterruptedException {
+        long startTime = System.currentTimeMillis();
+
+        List<BatchTaskResult> results = batchProcessor.startProcessing(imageFiles, this::onProgress);
+        if (results == null) {
+            return null;
+        }
+        batchProcessor.awaitCompletion(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        writeRollReport();
+
+        long elapsed = System.currentTimeMillis() - startTime;
+        writeSummary(results, elapsed);
+        return results;
+    }
+
+    /**
+     * 整卷分析模式下等待并输出整卷分析报告
+     */
+    private void writeRollReport() {
+        CompletableFuture<DefectAnalysisReport> rollReport = batchProcessor.getRollReport();
+        if (rollReport == null) {
+            return;
+        }
+
+        DefectAnalysisReport report = rollReport.join();
+        ObjectNode node = objectMapper.createObjectNode();
+        node.put("type", "roll-analysis");
+        node.put("batchId", batchProcessor.getCurrentBatchId());
+        node.put("totalDefects", report.getDefectCount());
+        node.put("qualityLevel", report.getQualityLevel());
+        node.put("aiEnhanced", report.isAiEnhanced());
+        node.put("analysis", report.getAnalysisContent());
+        writeLine(node);
+    }
+
+    /**
+     * 协调器模式：将图片分发给工作节点处理，并输出汇总结果
+     *
+     * @param imageFiles 图片文件列表
+     * @param port 监听端口
+     * @return 退出码
+     * @throws IOException 如果端口无法绑定
+     * @throws InterruptedException 如果等待被中断
+     */
+    private int runCoordinator(List<File> imageFiles, int port) throws IOException, InterruptedException {
+        long startTime = System.currentTimeMillis();
+
+        BatchCoordinator coordinator = new BatchCoordinator(imageFiles, this::onProgress);
+        coordinator.start(port);
+        try {
+            coordinator.awaitCompletion(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            coordinator.shutdown();
+        }
+
+        long elapsed = System.currentTimeMillis() - startTime;
+        int failed = writeSummary(coordinator.getTaskResults(), elapsed);
+        return failed > 0 ? EXIT_FAILURES : EXIT_OK;
+    }
+
+    /**
+     * 工作节点模式：从协调器领取任务并在本地处理
+     *
+     * @param address 协调器地址（主机:端口）
+     * @return 退出码
+     */
+    private int runWorker(String address) {
+        int separator = address.lastIndexOf(':');
+        if (separator <= 0) {
+            System.err.println("协调器地址格式应为 主机:端口: " + address);
+            return EXIT_USAGE;
+        }
+
+        String host = address.substring(0, separator);
+        int port = Integer.parseInt(address.substring(separator + 1));
+        new BatchWorker(host, port, threadCount, batchProcessor::processFile).run();
+        return EXIT_OK;
+    }
+
+    /**
+     * 守护模式：定期扫描目录，处理新增或修改过的图片
+     *
+     * 只记录处理成功的图片，处理失败的图片在下一次扫描时重试。
+     *
+     * @param inputDirectory 图片目录
+     * @param pollIntervalSeconds 扫描间隔（秒）
+     * @throws InterruptedException 如果线程被中断
+     */
+    private void runDaemon(File inputDirectory, int pollIntervalSeconds) throws InterruptedException {
+        logger.info("守护模式已启动，监视目录: " + inputDirectory.getAbsolutePath());
+        Map<String, Long> processed = new HashMap<>();
+
+        while (!Thread.currentThread().isInterrupted()) {
+            List<File> pending = new ArrayList<>();
+            List<Long> pendingModified = new ArrayList<>();
+            for (File file : BatchProcessor.listImageFiles(inputDirectory)) {
+                // 取扫描时的修改时间，处理期间再次修改的图片下一次扫描时重新处理
+                long modified = file.lastModified();
+                Long lastModified = processed.get(file.getAbsolutePath());
+                if (lastModified == null || lastModified != modified) {
+                    pending.add(file);
+                    pendingModified.add(modified);
+                }
+            }
+
+            if (!pending.isEmpty()) {
+                List<BatchTaskResult> results = processBatch(pending);
+                if (results != null) {
+                    for (int i = 0; i < pending.size(); i++) {
+                        if (results.get(i).getStatus() == BatchTaskResult.Status.COMPLETED) {
+                            processed.put(pending.get(i).getAbsolutePath(), pendingModified.get(i));
+                        }
+                    }
+                }
+            }
+
+            TimeUnit.SECONDS.sleep(pollIntervalSeconds);
+        }
+    }
+
+    /**
+     * 进度回调，在任务完成或失败时输出一行结果
+     *
+     * @param result 任务结果
+     */
+    private void onProgress(BatchTaskResult result) {
+        if (!result.isCompleted() && !result.isFailed()) {
+            return;
+        }
+
+        ObjectNode node = objectMapper.createObjectNode();
+        node.put("type", "result");
+        node.put("file", result.getFileName());
+        node.put("status", result.getStatus().name());
+        node.put("defectCount", result.getDefectCount());
+        node.put("qualityLevel", result.getQualityLevel());
+        node.put("processingTimeMs", result.getProcessingTimeMs());
+        if (result.getErrorMessage() != null) {
+            node.put("error", result.getErrorMessage());
+        }
+        writeLine(node);
+    }
+
+    /**
+     * 输出一轮处理的吞吐量统计
+     *
+     * @param results 任务结果
+     * @param elapsedMs 总耗时（毫秒）
+     * @return 失败的任务数
+     */
+    private int writeSummary(List<BatchTaskResult> results, long elapsedMs) {
+        int completed = 0;
+        int failed = 0;
+        long totalDefects = 0;
+        long totalProcessingMs = 0;
+
+        for (BatchTaskResult result : results) {
+            if (result.isCompleted()) {
+                completed++;
+                totalDefects += result.getDefectCount();
+            } else if (result.isFailed()) {
+                failed++;
+            }
+            totalProcessingMs += result.getProcessingTimeMs();
+        }
+
+        ObjectNode node = objectMapper.createObjectNode();
+        node.put("type", "summary");
+        node.put("total", results.size());
+        node.put("completed", completed);
+        node.put("failed", failed);
+        node.put("totalDefects", totalDefects);
+        node.put("threads", threadCount);
+        node.put("elapsedMs", elapsedMs);
+        node.put("imagesPerSecond", elapsedMs > 0 ? results.size() * 1000.0 / elapsedMs : 0.0);
+        node.put("avgProcessingMs", results.isEmpty() ? 0.0 : (double) totalProcessingMs / results.size());
+        node.put("decodeMemoryBudgetBytes", batchProcessor.getMemoryBudget().getBudgetBytes());
+        node.put("decodeMemoryPeakBytes", batchProcessor.getMemoryBudget().getPeakInFlightBytes());
+        writeLine(node);
+
+        return failed;
+    }
+
+    /**
+     * 线程安全地输出一行JSON
+     *
+     * @param node JSON对象
+     */
+    private void writeLine(ObjectNode node) {
+        try {
+            String line = objectMapper.writeValueAsString(node);
+            synchronized (output) {
+                output.println(line);
+                output.flush();
+            }
+        } catch (JsonProcessingException e) {
+            logger.log(Level.WARNING, "序列化结果失败", e);
+        }
+    }
+
+    /**
+     * 关闭批处理器
+     */
+    private void shutdown() {
+        batchProcessor.shutdown();
+        synchronized (output) {
+            output.flush();
+        }
+    }
+
+    /**
+     * 打开结果输出，未指定或为"-"时输出到标准输出
+     *
+     * @param path 输出文件路径
+     * @return 输出流
+     * @throws IOException 如果文件无法打开
+     */
+    private static PrintWriter openOutput(String path) throws IOException {
+        if (path == null || "-".equals(path)) {
+            return new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        }
+        return new PrintWriter(new OutputStreamWriter(new FileOutputStream(path, true), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析命令行参数
+     *
+     * @param args 命令行参数
+     * @return 参数名到参数值的映射，参数无效时返回null
+     */
+    private static Map<String, String> parseArguments(String[] args) {
+        Map<String, String> options = new HashMap<>();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--help":
+                case "-h":
+                    options.put("help", "true");
+                    break;
+                case "--daemon":
+                    options.put("daemon", "true");
+                    break;
+                case "--input":
+                case "--config":
+                case "--output":
+                case "--threads":
+                case "--poll-interval":
+                case "--coordinator":
+                case "--worker":
+                    if (i + 1 >= args.length) {
+                        System.err.println("参数缺少取值: " + arg);
+                        return null;
+                    }
+                    options.put(arg.substring(2), args[++i]);
+                    break;
+                default:
+                    System.err.println("未知参数: " + arg);
+                    return null;
+            }
+        }
+
+        return options;
+    }
+
+    /**
+     * 输出用法说明
+     */
+    private static void printUsage() {
+        System.err.println("用法: HeadlessMain --input <图片目录> [选项]");
+        System.err.println("      HeadlessMain --worker <协调器主机:端口> [--threads <数量>]");
+        System.err.println("  --config <文件>         使用指定的配置文件");
+        System.err.println("  --output <文件>         结果输出文件（JSON Lines，默认标准输出）");
+        System.err.println("  --threads <数量>        处理线程数（默认取配置 system.thread-count）");
+        System.err.println("  --daemon                守护模式，持续监视目录中的新图片");
+        System.err.println("  --poll-interval <秒>    守护模式的扫描间隔（默认 " + DEFAULT_POLL_INTERVAL_SECONDS + " 秒）");
+        System.err.println("  --coordinator <端口>    作为协调器运行，将图片分发给工作节点处理");
+        System.err.println("  --worker <主机:端口>    作为工作节点运行，从协调器领取任务");
+    }
+}
@@ -1,33 +1,30 @@
 package com.example.fabricdefectdetection.analysis;
 
-import java.io.ByteArrayOutputStream;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfByte;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
-import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 
+import com.example.fabricdefectdetection.detection.DefectDetector;
 import com.example.fabricdefectdetection.detection.DetectionResult;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.fabricdefectdetection.util.ConfigurationManager;
 
 /**
  * AI图像检测器
  * 
  * 使用图像和语言AI模型直接从图像中检测布匹缺陷
+ * 
+ * 发送前由ImagePayloadPlanner按字节数和token预算缩小、裁剪和压缩图像，
+ * 裁剪区域取本地检测器找到的候选缺陷区域（ai-detection.roi-crop），返回的坐标换算回原图。
  */
 public class AIImageDetector {
     
@@ -36,18 +33,22 @@ public class AIImageDetector {
     private static final String BASE_URL = "https://vip.apiyi.com/v1";
     private static final String MODEL_NAME = "deepseek-chat";
     private static final Duration TIMEOUT = Duration.parse("PT180S");
+    private static final LlmClient.Endpoint ENDPOINT = new LlmClient.Endpoint("image-detection", BASE_URL, API_KEY);
+    private static final String SYSTEM_PROMPT = "你是一个专业的布匹缺陷检测专家，擅长从图像中识别各类布匹缺陷。"
+            + "你能精确地识别出图像中的破洞、污渍、断线等缺陷，并给出它们的类型、位置和大小。";
     
-    private final HttpClient client;
-    private final ObjectMapper objectMapper;
+    private final LlmClient llmClient;
+    private final ImagePayloadPlanner payloadPlanner;
+    private final DefectDetector candidateDetector;
     
     /**
      * 构造函数
      */
     public AIImageDetector() {
-        this.client = HttpClient.newBuilder()
-                .connectTimeout(TIMEOUT)
-                .build();
-        this.objectMapper = new ObjectMapper();
+        this.llmClient = LlmClient.getInstance();
+        this.payloadPlanner = ImagePayloadPlanner.fromConfig();
+        this.candidateDetector = ConfigurationManager.getInstance().getBooleanProperty("ai-detection.roi-crop", true)
+                ? new DefectDetector() : null;
         
         System.out.println("AI图像检测器初始化完成");
     }
@@ -66,22 +67,25 @@ public class AIImageDetector {
         long startTime = System.currentTimeMillis();
         
         try {
-            // 1. 将图像转换为Base64
-            String base64Image = matToBase64(originalImage);
-            if (base64Image == null) {
-                throw new Exception("图像转换失败");
-            }
+            // 1. 按预算规划发送的图像（裁剪到候选区域、缩小、调整JPEG质量）
+            // 提示词中的图像尺寸按最大位数计入token
+            String promptText = SYSTEM_PROMPT + buildPrompt(9999, 9999, "");
+            ImagePayloadPlanner.Plan plan = payloadPlanner.plan(originalImage, findCandidates(originalImage), promptText);
+            System.out.println("AI检测图像载荷: " + plan);
             
             // 2. 构建提示词
-            String prompt = buildPrompt(base64Image);
+            String prompt = buildPrompt(plan.getWidth(), plan.getHeight(), plan.getImageBase64());
             
             // 3. 调用AI API
             System.out.println("正在调用AI分析图像...");
             String response = callApi(prompt);
             System.out.println("AI响应: " + response);
             
-            // 4. 解析AI返回的缺陷描述
-            List<DefectInfo> defects = parseAIResponse(response);
+            // 4. 解析AI返回的缺陷描述，坐标换算回原图
+            List<DefectInfo> defects = new ArrayList<>();
+            for (DefectInfo defect : parseAIResponse(response)) {
+                defects.add(new DefectInfo(defect.type, plan.toOriginal(defect.rect)));
+            }
             System.out.println("解析出 " + defects.size() + " 个缺陷");
             
             // 5. 绘制检测结果
@@ -124,37 +128,38 @@ public class AIImageDetector {
     }
     
     /**
-     * 将Mat图像转换为Base64编码字符串
+     * 用本地检测器查找候选缺陷区域，作为裁剪发送图像的依据
      */
-    private String matToBase64(Mat mat) {
+    private List<Rect> findCandidates(Mat image) {
+        if (candidateDetector == null) {
+            return Collections.emptyList();
+        }
         try {
-            // 将Mat转换为字节数组
-            MatOfByte matOfByte = new MatOfByte();
-            Imgcodecs.imencode(".jpg", mat, matOfByte);
-            byte[] imageBytes = matOfByte.toArray();
-            
-            // 进行Base64编码
-            return Base64.getEncoder().encodeToString(imageBytes);
-        } catch (Exception e) {
-            System.err.println("图像转换失败: " + e.getMessage());
-            return null;
+            DetectionResult local = candidateDetector.detectDefects(image);
+            local.getResultImageMat().release();
+            return local.getDefectRects();
+        } catch (RuntimeException e) {
+            // 找不到候选区域时发送整幅图像
+            System.err.println("查找候选缺陷区域失败: " + e.getMessage());
+            return Collections.emptyList();
         }
     }
     
     /**
      * 构建API请求提示词
      */
-    private String buildPrompt(String base64Image) {
+    private String buildPrompt(int width, int height, String base64Image) {
         StringBuilder sb = new StringBuilder();
         
-        sb.append("我有一张布匹图像需要检测缺陷。请分析图像中是否存在以下类型的缺陷：破洞、污渍、断线等。\n");
+        sb.append("我有一张布匹图像需要检测缺陷，图像尺寸为").append(width).append("x").append(height)
+          .append("像素，位置和大小均以该尺寸的像素为单位。请分析图像中是否存在以下类型的缺陷：破洞、污渍、断线等。\n");
         sb.append("如果发现缺陷，请给出每个缺陷的类型、位置和大小。格式如下：\n");
         sb.append("缺陷1：类型=污渍，位置=(x,y)，大小=宽x高\n");
         sb.append("缺陷2：类型=破洞，位置=(x,y)，大小=宽x高\n");
         sb.append("...\n\n");
         sb.append("请只输出缺陷信息，不要其他解释。如果没有检测到缺陷，请输出\"未检测到缺陷\"。\n\n");
         
-        // 添加图像数据
+        // 添加图像数据（JPEG）
         sb.append("图像数据 (base64): ");
         sb.append(base64Image);
         
@@ -167,41 +172,17 @@ public class AIImageDetector {
     private String callApi(String prompt) throws Exception {
         String requestBody = String.format(
                 "{\"model\": \"%s\", \"messages\": ["
-                + "{\"role\": \"system\", \"content\": \"你是一个专业的布匹缺陷检测专家，擅长从图像中识别各类布匹缺陷。你能精确地识别出图像中的破洞、污渍、断线等缺陷，并给出它们的类型、位置和大小。\"}, "
+                + "{\"role\": \"system\", \"content\": \"%s\"}, "
                 + "{\"role\": \"user\", \"content\": \"%s\"}"
                 + "], \"max_tokens\": 2000}",
-                MODEL_NAME, escapeJson(prompt));
-        
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(BASE_URL + "/chat/completions"))
-                .header("Content-Type", "application/json")
-                .header("Authorization", "Bearer " + API_KEY)
-                .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                .timeout(TIMEOUT)
-                .build();
+                MODEL_NAME, escapeJson(SYSTEM_PROMPT), escapeJson(prompt));
         
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        
-        if (response.statusCode() != 200) {
-            throw new Exception("API调用失败，状态码: " + response.statusCode() + ", 响应: " + response.body());
-        }
-        
-        // 解析JSON响应
-        JsonNode rootNode = objectMapper.readTree(response.body());
-        JsonNode choices = rootNode.get("choices");
-        
-        if (choices != null && choices.isArray() && choices.size() > 0) {
-            JsonNode firstChoice = choices.get(0);
-            JsonNode message = firstChoice.get("message");
-            if (message != null) {
-                JsonNode content = message.get("content");
-                if (content != null && content.isTextual()) {
-                    return content.asText();
-                }
-            }
+        // 经由共享的异步客户端发送（含重试和熔断），本方法在检测线程中等待结果
+        try {
+            return llmClient.complete(ENDPOINT, requestBody, TIMEOUT).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
         }
-        
-        throw new Exception("无法从API响应中提取内容");
     }
     
     /**
@@ -0,0 +1,358 @@
+package com.example.fabricdefectdetection.analysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.example.fabricdefectdetection.util.ConfigurationManager;
+
+/**
+ * AI分析结果缓存
+ *
+ * 同一卷布上的图像大多得到几乎相同的缺陷描述（缺陷类型、数量和大小相近），
+ * 以归一化的缺陷特征和模型名称为键缓存AI分析内容，命中时不再调用大语言模型API。
+ *
+ * 缓存分两级：
+ * - 内存：按最近使用顺序淘汰的LRU表，命中只需一次哈希查找
+ * - 磁盘：每个条目一个文件（按键的SHA-256分目录存放），进程重启后仍可命中，
+ *   命中后放回内存
+ *
+ * 条目超过有效期（analysis.cache.ttl-hours）后不再返回。analysis.cache.enabled为false时
+ * 绕过缓存：不读取缓存，但仍用新的分析结果刷新缓存，关闭后可立即得到最新的分析。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public final class AnalysisCache {
+
+    private static final Logger logger = Logger.getLogger(AnalysisCache.class.getName());
+
+    private static final String DEFAULT_DIRECTORY = "analysis-cache";
+    private static final int DEFAULT_MEMORY_ENTRIES = 1000;
+    private static final int DEFAULT_TTL_HOURS = 168;
+
+    private static AnalysisCache instance;
+
+    private final File directory;
+    private final int memoryEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> memory;
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+
+    /**
+     * 构造函数
+     *
+     * @param directory 磁盘缓存目录
+     * @param memoryEntries 内存中最多保留的条目数
+     * @param ttlMillis 条目有效期（毫秒）
+     */
+    public AnalysisCache(File directory, int memoryEntries, long ttlMillis) {
+        this.directory = directory;
+        this.memoryEntries = Math.max(1, memoryEntries);
+        this.ttlMillis = ttlMillis;
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > AnalysisCache.this.memoryEntries;
+            }
+        };
+    }
+
+    /**
+     * 获取全局共享的分析结果缓存
+     *
+     * 缓存目录、内存条目数和有效期分别取配置项 analysis.cache.dir、analysis.cache.memory-entries
+     * 和 analysis.cache.ttl-hours。创建时在后台删除已过期的磁盘条目。
+     *
+     * @return 分析结果缓存
+     */
+    public static synchronized AnalysisCache getInstance() {
+        if (instance == null) {
+            ConfigurationManager config = ConfigurationManager.getInstance();
+            instance = new AnalysisCache(new File(config.getProperty("analysis.cache.dir", DEFAULT_DIRECTORY)),
+                    config.getIntProperty("analysis.cache.memory-entries", DEFAULT_MEMORY_ENTRIES),
+                    TimeUnit.HOURS.toMillis(config.getIntProperty("analysis.cache.ttl-hours", DEFAULT_TTL_HOURS)));
+
+            AnalysisCache cache = instance;
+            Thread purge = new Thread(cache::purgeExpired, "analysis-cache-purge");
+            purge.setDaemon(true);
+            purge.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(
+                    () -> logger.info("AI分析缓存统计: " + cache.getStats()), "analysis-cache-shutdown"));
+        }
+        return instance;
+    }
+
+    /**
+     * 查找缓存的分析内容
+     *
+     * @param modelName 模型名称
+     * @param signature 归一化的缺陷特征
+     * @return 分析内容，未命中、已过期或缓存被绕过时为null
+     */
+    public String get(String modelName, String signature) {
+        if (!isEnabled()) {
+            bypassed.increment();
+            return null;
+        }
+
+        String key = key(modelName, signature);
+        long now = System.currentTimeMillis();
+
+        Entry entry;
+        synchronized (memory) {
+            entry = memory.get(key);
+            if (entry != null && isExpired(entry, now)) {
+                memory.remove(key);
+                entry = null;
+            }
+        }
+        if (entry != null) {
+            memoryHits.increment();
+            return entry.content;
+        }
+
+        entry = readFromDisk(key, now);
+        if (entry != null) {
+            synchronized (memory) {
+                memory.put(key, entry);
+            }
+            diskHits.increment();
+            return entry.content;
+        }
+
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * 缓存分析内容，同时写入内存和磁盘
+     *
+     * @param modelName 模型名称
+     * @param signature 归一化的缺陷特征
+     * @param content 分析内容
+     */
+    public void put(String modelName, String signature, String content) {
+        String key = key(modelName, signature);
+        Entry entry = new Entry(System.currentTimeMillis(), content);
+        synchronized (memory) {
+            memory.put(key, entry);
+        }
+        writeToDisk(key, entry);
+    }
+
+    /**
+     * 判断缓存是否启用（配置项 analysis.cache.enabled）
+     *
+     * @return 是否启用
+     */
+    public boolean isEnabled() {
+        return ConfigurationManager.getInstance().getBooleanProperty("analysis.cache.enabled", true);
+    }
+
+    /**
+     * 获取命中统计
+     *
+     * @return 当前的命中统计
+     */
+    public Stats getStats() {
+        int size;
+        synchronized (memory) {
+            size = memory.size();
+        }
+        return new Stats(memoryHits.sum(), diskHits.sum(), misses.sum(), bypassed.sum(), size);
+    }
+
+    /**
+     * 删除磁盘上已过期的条目
+     */
+    void purgeExpired() {
+        File[] shards = directory.listFiles(File::isDirectory);
+        if (shards == null) {
+            return;
+        }
+
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        int purged = 0;
+        for (File shard : shards) {
+            File[] files = shard.listFiles((dir, name) -> name.endsWith(".txt"));
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (file.lastModified() < cutoff && file.delete()) {
+                    purged++;
+                }
+            }
+        }
+        if (purged > 0) {
+            logger.info("已删除过期的AI分析缓存 " + purged + " 条");
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.createdMillis > ttlMillis;
+    }
+
+    /**
+     * 读取磁盘条目，文件格式为：键、创建时间（毫秒）、分析内容，前两项各占一行
+     */
+    private Entry readFromDisk(String key, long now) {
+        File file = fileFor(key);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            int keyEnd = text.indexOf('\n');
+            int timeEnd = keyEnd < 0 ? -1 : text.indexOf('\n', keyEnd + 1);
+            // 键不同说明是哈希冲突，按未命中处理
+            if (timeEnd < 0 || !key.equals(text.substring(0, keyEnd))) {
+                return null;
+            }
+
+            Entry entry = new Entry(Long.parseLong(text.substring(keyEnd + 1, timeEnd)), text.substring(timeEnd + 1));
+            if (isExpired(entry, now)) {
+                Files.deleteIfExists(file.toPath());
+                return null;
+            }
+            return entry;
+
+        } catch (IOException | NumberFormatException e) {
+            logger.log(Level.WARNING, "读取AI分析缓存失败: " + file, e);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, Entry entry) {
+        File file = fileFor(key);
+        File parent = file.getParentFile();
+        try {
+            if (!parent.exists() && !parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException("无法创建目录: " + parent);
+            }
+            byte[] bytes = (key + "\n" + entry.createdMillis + "\n" + entry.content).getBytes(StandardCharsets.UTF_8);
+            File temp = File.createTempFile(file.getName(), ".tmp", parent);
+            try {
+                Files.write(temp.toPath(), bytes);
+                try {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp.toPath());
+            }
+
+        } catch (IOException e) {
+            // 磁盘缓存写入失败只影响重启后的命中
+            logger.log(Level.WARNING, "写入AI分析缓存失败: " + file, e);
+        }
+    }
+
+    private File fileFor(String key) {
+        String hash = sha256(key);
+        return new File(new File(directory, hash.substring(0, 2)), hash + ".txt");
+    }
+
+    private static String key(String modelName, String signature) {
+        // 键写在磁盘文件的第一行，不能含换行
+        return (modelName + "|" + signature).replace('\n', ' ');
+    }
+
+    private static String sha256(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+
+    private static final class Entry {
+        final long createdMillis;
+        final String content;
+
+        Entry(long createdMillis, String content) {
+            this.createdMillis = createdMillis;
+            this.content = content;
+        }
+    }
+
+    /**
+     * 缓存命中统计
+     */
+    public static final class Stats {
+        private final long memoryHits;
+        private final long diskHits;
+        private final long misses;
+        private final long bypassed;
+        private final int memorySize;
+
+        Stats(long memoryHits, long diskHits, long misses, long bypassed, int memorySize) {
+            this.memoryHits = memoryHits;
+            this.diskHits = diskHits;
+            this.misses = misses;
+            this.bypassed = bypassed;
+            this.memorySize = memorySize;
+        }
+
+        public long getMemoryHits() {
+            return memoryHits;
+        }
+
+        public long getDiskHits() {
+            return diskHits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getBypassed() {
+            return bypassed;
+        }
+
+        public int getMemorySize() {
+            return memorySize;
+        }
+
+        /**
+         * 命中率（内存和磁盘命中之和/查找次数），绕过缓存的请求不计入
+         *
+         * @return 0到1之间的命中率，没有查找时为0
+         */
+        public double getHitRate() {
+            long lookups = memoryHits + diskHits + misses;
+            return lookups == 0 ? 0 : (double) (memoryHits + diskHits) / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("命中率 %.1f%%（内存 %d，磁盘 %d，未命中 %d，绕过 %d），内存条目 %d",
+                    getHitRate() * 100, memoryHits, diskHits, misses, bypassed, memorySize);
+        }
+    }
+}
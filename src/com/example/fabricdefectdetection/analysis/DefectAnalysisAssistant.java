@@ -1,21 +1,20 @@
 package com.example.fabricdefectdetection.analysis;
 
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.URI;
 import java.net.URL;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,7 +22,6 @@ import org.opencv.core.Rect;
 
 import com.example.fabricdefectdetection.detection.DefectType;
 import com.example.fabricdefectdetection.detection.DetectionResult;
-import com.example.fabricdefectdetection.database.DetectionResultDAO;
 import com.example.fabricdefectdetection.util.ConfigurationManager;
 
 /**
@@ -45,15 +43,24 @@ public class DefectAnalysisAssistant {
     private static final String HARDCODED_MODEL_NAME = "deepseek-chat";
     private static final String HARDCODED_TIMEOUT = "PT60S";
     
+    // 提示词或缺陷描述格式变化时修改，使按旧提示词缓存的分析不再命中
+    private static final String PROMPT_VERSION = "v1";
+    private static final String ENDPOINT_NAME = "defect-analysis";
+    
+    private static final String DEFECT_SYSTEM_PROMPT =
+            "你是一个专业的布匹质量控制专家。你需要分析布匹缺陷检测结果，并提供专业的分析和建议。"
+            + "请根据检测到的缺陷类型、数量、位置和大小，判断布匹的总体质量，分析可能的原因，并给出改进建议。"
+            + "分析应该包括：1. 缺陷统计和分布情况 2. 缺陷成因分析 3. 质量等级评估 4. 改进建议。"
+            + "回答要专业、有条理，使用纺织行业的术语。所有回答需要用中文。";
+    
     private final String apiKey;
     private final String baseUrl;
     private final String modelName;
     private final Duration timeout;
-    private final HttpClient client;
-    private boolean apiAvailable = false;
-
-    // 添加DAO对象
-    private final DetectionResultDAO resultDAO;
+    private final LlmClient llmClient;
+    private final LlmClient.Endpoint endpoint;
+    private final AnalysisCache analysisCache;
+    private final boolean apiKeyConfigured;
 
     /**
      * 构造函数，初始化AI分析助手
@@ -74,91 +81,189 @@ public class DefectAnalysisAssistant {
         logger.info("API密钥: " + (apiKey.length() > 10 ? apiKey.substring(0, 5) + "..." : apiKey));
         if (apiKey == null || apiKey.isEmpty() || "YOUR_DEEPSEEK_API_KEY".equals(apiKey)) {
             logger.warning("提示: DeepSeek API 密钥未配置，AI分析功能将不可用。");
-            apiAvailable = false;
+            apiKeyConfigured = false;
         } else {
-            apiAvailable = true;
+            apiKeyConfigured = true;
             logger.info("API密钥有效，长度: " + apiKey.length() + "字符");
         }
         
-        // 创建HttpClient
-        this.client = HttpClient.newBuilder()
-                .connectTimeout(this.timeout)
-                .build();
-        
-        // 初始化DAO
-        this.resultDAO = new DetectionResultDAO();
+        // API请求经由共享的异步客户端发送，并发、重试和熔断由客户端统一处理
+        this.llmClient = LlmClient.getInstance();
+        this.endpoint = new LlmClient.Endpoint(ENDPOINT_NAME, baseUrl, apiKey);
+        this.analysisCache = AnalysisCache.getInstance();
         
-        logger.info("布匹缺陷分析助手初始化完成" + (apiAvailable ? "，AI分析功能已启用" : "，AI分析功能未启用"));
+        logger.info("布匹缺陷分析助手初始化完成" + (apiKeyConfigured ? "，AI分析功能已启用" : "，AI分析功能未启用"));
     }
     
     /**
-     * 分析检测结果，提供专业建议
+     * 分析检测结果，提供专业建议，在分析完成前阻塞
+     * 
+     * 本方法只生成报告，不保存报告，保存由DetectionResultSink统一完成。
      * 
      * @param result 检测结果
      * @return 分析报告
+     * @see #analyzeDefectsAsync(DetectionResult)
      */
     public DefectAnalysisReport analyzeDefects(DetectionResult result) {
-        if (!apiAvailable) {
-            DefectAnalysisReport basicReport = generateBasicReport(result);
-            
-            // 保存到数据库
-            saveReportToDatabase(basicReport, result);
-            
-            // 保存到文件
-            saveReportToFile(basicReport, result);
-            
-            return basicReport;
+        return analyzeDefectsAsync(result).join();
+    }
+    
+    /**
+     * 异步分析检测结果
+     * 
+     * 缺陷特征相同的检测结果复用缓存的AI分析内容，参见AnalysisCache。
+     * API调用失败（重试后仍失败）或服务处于熔断状态时返回基本报告，返回的Future不会异常完成。
+     * 
+     * @param result 检测结果
+     * @return 以分析报告完成的Future
+     */
+    public CompletableFuture<DefectAnalysisReport> analyzeDefectsAsync(DetectionResult result) {
+        if (!isApiAvailable()) {
+            return CompletableFuture.completedFuture(generateBasicReport(result));
         }
         
+        String signature;
+        String requestBody;
         try {
-            // 构建检测结果描述
-            String defectsDescription = buildDefectsDescription(result);
-            logger.info("准备发送检测结果到AI助手分析...");
-            
-            // 构建系统提示
-            String systemPrompt = "你是一个专业的布匹质量控制专家。你需要分析布匹缺陷检测结果，并提供专业的分析和建议。"
-                    + "请根据检测到的缺陷类型、数量、位置和大小，判断布匹的总体质量，分析可能的原因，并给出改进建议。"
-                    + "分析应该包括：1. 缺陷统计和分布情况 2. 缺陷成因分析 3. 质量等级评估 4. 改进建议。"
-                    + "回答要专业、有条理，使用纺织行业的术语。所有回答需要用中文。";
-            
-            // 构建请求体
-            String requestBody = String.format(
-                    "{\"model\": \"%s\", \"messages\": ["
-                    + "{\"role\": \"system\", \"content\": \"%s\"}, "
-                    + "{\"role\": \"user\", \"content\": \"%s\"}"
-                    + "]}",
-                    modelName, escapeJson(systemPrompt), escapeJson(defectsDescription));
+            signature = buildDefectSignature(result);
+            String cached = analysisCache.get(modelName, signature);
+            if (cached != null) {
+                logger.fine("AI分析缓存命中: " + signature);
+                return CompletableFuture.completedFuture(
+                        new DefectAnalysisReport(result.getDefectCount(), cached, evaluateQualityLevel(result), true));
+            }
             
-            String analysisContent = callApi(requestBody);
+            logger.info("准备发送检测结果到AI助手分析...");
+            requestBody = buildRequestBody(DEFECT_SYSTEM_PROMPT, buildDefectsDescription(result), false);
             
-            // 创建分析报告
-            DefectAnalysisReport report = new DefectAnalysisReport(
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "分析缺陷时发生错误", e);
+            return CompletableFuture.completedFuture(generateBasicReport(result));
+        }
+        
+        return llmClient.complete(endpoint, requestBody, timeout).handle((analysisContent, error) -> {
+            if (error != null) {
+                logger.log(Level.WARNING, "AI分析失败，使用基本报告: " + error.getMessage());
+                return generateBasicReport(result);
+            }
+            analysisCache.put(modelName, signature, analysisContent);
+            return new DefectAnalysisReport(
                 result.getDefectCount(),
                 analysisContent,
                 evaluateQualityLevel(result),
                 true
             );
-            
-            // 保存到数据库
-            saveReportToDatabase(report, result);
-            
-            // 保存到文件
-            saveReportToFile(report, result);
-            
-            return report;
-            
-        } catch (Exception e) {
+        });
+    }
+    
+    /**
+     * 以流式方式分析检测结果，分析内容边生成边交给onToken，首段内容通常在一秒内到达
+     * 
+     * onToken在网络线程中按顺序调用，不能阻塞，更新界面需转到事件分发线程。
+     * 缓存命中时整段缓存内容作为一个片段交出；API不可用或在交出任何内容之前失败时返回基本报告，
+     * 不调用onToken。已经交出部分内容后失败时，报告保留已收到的内容并注明分析中断。
+     * 
+     * 取消返回的Future会中止API请求并释放连接。
+     * 
+     * @param result 检测结果
+     * @param onToken 分析内容片段的接收者
+     * @return 以完整分析报告完成的Future，除被取消外不会异常完成
+     */
+    public CompletableFuture<DefectAnalysisReport> analyzeDefectsStreaming(DetectionResult result,
+                                                                           Consumer<String> onToken) {
+        if (!isApiAvailable()) {
+            return CompletableFuture.completedFuture(generateBasicReport(result));
+        }
+        
+        String signature;
+        String requestBody;
+        try {
+            signature = buildDefectSignature(result);
+            String cached = analysisCache.get(modelName, signature);
+            if (cached != null) {
+                logger.fine("AI分析缓存命中: " + signature);
+                onToken.accept(cached);
+                return CompletableFuture.completedFuture(
+                        new DefectAnalysisReport(result.getDefectCount(), cached, evaluateQualityLevel(result), true));
+            }
+            requestBody = buildRequestBody(DEFECT_SYSTEM_PROMPT, buildDefectsDescription(result), true);
+        } catch (RuntimeException e) {
             logger.log(Level.SEVERE, "分析缺陷时发生错误", e);
-            DefectAnalysisReport fallbackReport = generateBasicReport(result);
-            
-            // 保存到数据库
-            saveReportToDatabase(fallbackReport, result);
-            
-            // 保存到文件
-            saveReportToFile(fallbackReport, result);
-            
-            return fallbackReport;
+            return CompletableFuture.completedFuture(generateBasicReport(result));
         }
+        
+        // 超时中止时网络线程可能仍在交出片段，使用线程安全的StringBuffer
+        StringBuffer received = new StringBuffer();
+        CompletableFuture<String> stream = llmClient.stream(endpoint, requestBody, timeout, token -> {
+            received.append(token);
+            onToken.accept(token);
+        });
+        CompletableFuture<DefectAnalysisReport> report = stream.handle((analysisContent, error) -> {
+            if (error == null) {
+                analysisCache.put(modelName, signature, analysisContent);
+                return new DefectAnalysisReport(result.getDefectCount(), analysisContent,
+                        evaluateQualityLevel(result), true);
+            }
+            logger.log(Level.WARNING, "AI分析失败: " + error.getMessage());
+            if (received.length() == 0) {
+                return generateBasicReport(result);
+            }
+            return new DefectAnalysisReport(result.getDefectCount(),
+                    received + "\n\n（AI分析中断: " + error.getMessage() + "）", evaluateQualityLevel(result), true);
+        });
+        // handle得到的是新的Future，取消它时需要同时取消API请求
+        report.whenComplete((ignored, error) -> {
+            if (report.isCancelled()) {
+                stream.cancel(true);
+            }
+        });
+        return report;
+    }
+    
+    /**
+     * 只用本地规则生成报告，不调用大语言模型
+     * 
+     * 整卷分析模式下每张图片的报告由本方法生成，整卷结束后再由analyzeRollAsync统一分析。
+     * 
+     * @param result 检测结果
+     * @return 基本报告
+     */
+    public DefectAnalysisReport analyzeDefectsLocally(DetectionResult result) {
+        return generateBasicReport(result);
+    }
+    
+    /**
+     * 异步生成整卷分析：把一卷布全部图片的汇总统计通过一次API调用发给大语言模型
+     * 
+     * API不可用或调用失败时返回本地汇总报告，返回的Future不会异常完成。
+     * 
+     * @param statistics 整卷缺陷汇总统计
+     * @return 以整卷分析报告完成的Future，报告的质量等级为整卷质量等级
+     */
+    public CompletableFuture<DefectAnalysisReport> analyzeRollAsync(RollDefectStatistics statistics) {
+        DefectAnalysisReport localReport = new DefectAnalysisReport(statistics.getTotalDefects(),
+                statistics.toLocalReport(), statistics.getRollQualityLevel(), false);
+        if (!isApiAvailable()) {
+            return CompletableFuture.completedFuture(localReport);
+        }
+        
+        String systemPrompt = "你是一个专业的布匹质量控制专家。你需要根据一整卷布料的缺陷检测汇总统计，"
+                + "对整卷布料的质量给出专业的分析和建议。"
+                + "分析应该包括：1. 整卷缺陷统计和分布规律 2. 缺陷成因分析（结合空间分布和沿卷长的聚集情况） "
+                + "3. 整卷质量等级评估 4. 工艺和设备改进建议。"
+                + "回答要专业、有条理，使用纺织行业的术语。所有回答需要用中文。";
+        String requestBody = buildRequestBody(systemPrompt, statistics.toPromptText(), false);
+        
+        logger.info("发送批次 " + statistics.getBatchId() + " 的整卷汇总（" + statistics.getImageCount()
+                + " 张图片）到AI助手分析...");
+        return llmClient.complete(endpoint, requestBody, timeout).handle((analysisContent, error) -> {
+            if (error != null) {
+                logger.log(Level.WARNING, "整卷AI分析失败，使用本地汇总报告: " + error.getMessage());
+                return localReport;
+            }
+            return new DefectAnalysisReport(statistics.getTotalDefects(), analysisContent,
+                    statistics.getRollQualityLevel(), true);
+        });
     }
     
     /**
@@ -229,6 +334,36 @@ public class DefectAnalysisAssistant {
         }
     }
     
+    /**
+     * 构建归一化的缺陷特征，作为AI分析缓存的键
+     * 
+     * 按缺陷类型统计各面积档（按2的幂分档）的缺陷数，不含缺陷位置，
+     * 类型、数量和大小相近的检测结果得到相同的特征，例如 "v1|3|破洞:9x2,污渍:12x1"。
+     */
+    private String buildDefectSignature(DetectionResult result) {
+        Map<String, Map<Integer, Integer>> buckets = new TreeMap<>();
+        List<String> defectTypes = result.getDefectTypes();
+        List<Rect> defectRects = result.getDefectRects();
+        for (int i = 0; i < defectTypes.size(); i++) {
+            Rect rect = defectRects.get(i);
+            int area = Math.max(1, rect.width * rect.height);
+            int bucket = 31 - Integer.numberOfLeadingZeros(area);
+            buckets.computeIfAbsent(defectTypes.get(i), type -> new TreeMap<>()).merge(bucket, 1, Integer::sum);
+        }
+        
+        StringBuilder signature = new StringBuilder(PROMPT_VERSION)
+                .append('|').append(result.getDefectCount()).append('|');
+        String separator = "";
+        for (Map.Entry<String, Map<Integer, Integer>> type : buckets.entrySet()) {
+            for (Map.Entry<Integer, Integer> bucket : type.getValue().entrySet()) {
+                signature.append(separator).append(type.getKey()).append(':')
+                         .append(bucket.getKey()).append('x').append(bucket.getValue());
+                separator = ",";
+            }
+        }
+        return signature.toString();
+    }
+    
     /**
      * 构建缺陷描述文本
      */
@@ -258,67 +393,15 @@ public class DefectAnalysisAssistant {
     }
     
     /**
-     * 调用API并处理响应
-     * 
-     * @param requestBody JSON请求体
-     * @return API响应中提取的内容
-     * @throws Exception 如果API调用失败
+     * 构建对话补全请求体
      */
-    protected String callApi(String requestBody) throws Exception {
-        logger.info("发送API请求...");
-        
-        // 构建HTTP请求
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(baseUrl + "/chat/completions"))
-                .header("Content-Type", "application/json")
-                .header("Authorization", "Bearer " + apiKey)
-                .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                .timeout(timeout)
-                .build();
-        
-        // 发送请求
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        
-        // 检查响应状态
-        if (response.statusCode() != 200) {
-            logger.log(Level.WARNING, "API返回错误状态码: " + response.statusCode());
-            return "无法获取AI分析。错误代码: " + response.statusCode();
-        }
-        
-        // 解析响应
-        String responseBody = response.body();
-        
-        // 手动解析JSON响应，提取content字段
-        try {
-            // 先找到choices数组的第一个元素
-            int choicesIdx = responseBody.indexOf("\"choices\"");
-            if (choicesIdx != -1) {
-                // 找到message对象
-                int messageIdx = responseBody.indexOf("\"message\"", choicesIdx);
-                if (messageIdx != -1) {
-                    // 找到content字段
-                    int contentIdx = responseBody.indexOf("\"content\"", messageIdx);
-                    if (contentIdx != -1) {
-                        // 提取content的值
-                        int valueStart = responseBody.indexOf("\"", contentIdx + "\"content\"".length()) + 1;
-                        int valueEnd = responseBody.indexOf("\"", valueStart);
-                        if (valueStart != -1 && valueEnd != -1) {
-                            return responseBody.substring(valueStart, valueEnd)
-                                    .replace("\\n", "\n")
-                                    .replace("\\\"", "\"")
-                                    .replace("\\\\", "\\");
-                        }
-                    }
-                }
-            }
-            
-            // 如果解析失败，返回整个响应体
-            logger.warning("无法解析API响应，返回完整响应");
-            return responseBody;
-        } catch (Exception e) {
-            logger.log(Level.WARNING, "解析API响应失败", e);
-            return responseBody;
-        }
+    private String buildRequestBody(String systemPrompt, String userContent, boolean stream) {
+        return String.format(
+                "{\"model\": \"%s\", \"stream\": %s, \"messages\": ["
+                + "{\"role\": \"system\", \"content\": \"%s\"}, "
+                + "{\"role\": \"user\", \"content\": \"%s\"}"
+                + "]}",
+                modelName, stream, escapeJson(systemPrompt), escapeJson(userContent));
     }
     
     /**
@@ -334,10 +417,10 @@ public class DefectAnalysisAssistant {
     }
     
     /**
-     * 判断AI分析功能是否可用
+     * 判断AI分析功能是否可用：已配置API密钥，且服务当前未处于熔断状态
      */
     public boolean isApiAvailable() {
-        return apiAvailable;
+        return apiKeyConfigured && llmClient.isAvailable(endpoint);
     }
     
     /**
@@ -400,50 +483,4 @@ public class DefectAnalysisAssistant {
         
         return properties;
     }
-
-    /**
-     * 将分析报告保存到数据库
-     * 
-     * @param report 要保存的分析报告
-     * @param result 检测结果对象，包含图片名称
-     */
-    private void saveReportToDatabase(DefectAnalysisReport report, DetectionResult result) {
-        try {
-            // 使用DAO保存到数据库
-            resultDAO.saveResult(report, result.getImageName());
-            logger.info("分析报告已保存到数据库: " + result.getImageName());
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "保存分析报告到数据库失败", e);
-        }
-    }
-
-    /**
-     * 将分析报告保存到文件
-     * 
-     * @param report 要保存的分析报告
-     * @param result 检测结果对象，包含图片名称
-     */
-    private void saveReportToFile(DefectAnalysisReport report, DetectionResult result) {
-        try {
-            // 确保reports目录存在
-            File reportsDir = new File("reports");
-            if (!reportsDir.exists()) {
-                reportsDir.mkdirs();
-            }
-            
-            // 创建文件名，格式：report_日期时间_质量等级.md
-            String timestamp = java.time.LocalDateTime.now().format(
-                    java.time.format.DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-            String fileName = String.format("reports/report_%s_%s.md", timestamp, report.getQualityLevel());
-            
-            // 写入报告内容
-            try (java.io.FileWriter writer = new java.io.FileWriter(fileName)) {
-                writer.write(report.getMarkdownReport());
-            }
-            
-            logger.info("分析报告已保存到文件: " + fileName);
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "保存分析报告到文件失败", e);
-        }
-    }
 } 
\ No newline at end of file
@@ -0,0 +1,344 @@
+package com.example.fabricdefectdetection.analysis;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import com.example.fabricdefectdetection.util.ConfigurationManager;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+
+/**
+ * AI图像检测请求的图像载荷规划器
+ *
+ * 图像以base64文本写入提示词，每个base64字符约占0.7个token，全分辨率JPEG很容易超出模型的上下文长度。
+ * 发送前按预算规划要发送的图像：
+ * 1. 有候选缺陷区域时，若候选区域（加边距后）的外接矩形明显小于原图，只发送该区域
+ * 2. 长边超过 ai-detection.max-dimension 时按比例缩小
+ * 3. 在 ai-detection.jpeg-quality-max 和 ai-detection.jpeg-quality-min 之间取满足预算的最高JPEG质量：
+ *    图像字节数不超过 ai-detection.max-image-bytes，提示词总token数不超过 ai-detection.max-prompt-tokens
+ * 4. 最低质量仍超出预算时继续缩小，直到长边小于 ai-detection.min-dimension 为止
+ *
+ * token数用jtokkit的cl100k_base编码计算，与服务端的分词器不完全相同，预算应留有余量。
+ * 模型返回的坐标以发送的图像为准，用Plan.toOriginal换算回原图坐标。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public final class ImagePayloadPlanner {
+
+    private static final Logger logger = Logger.getLogger(ImagePayloadPlanner.class.getName());
+
+    private static final int DEFAULT_MAX_PROMPT_TOKENS = 48000;
+    private static final int DEFAULT_MAX_IMAGE_BYTES = 65536;
+    private static final int DEFAULT_MAX_DIMENSION = 1024;
+    private static final int DEFAULT_MIN_DIMENSION = 256;
+    private static final int DEFAULT_JPEG_QUALITY_MAX = 85;
+    private static final int DEFAULT_JPEG_QUALITY_MIN = 30;
+    private static final int DEFAULT_ROI_PADDING = 32;
+
+    /**
+     * 候选区域的外接矩形面积不超过原图的该比例时才裁剪
+     */
+    private static final double ROI_MAX_AREA_RATIO = 0.6;
+
+    /**
+     * 最低质量仍超出预算时每次缩小的比例
+     */
+    private static final double DOWNSCALE_STEP = 0.75;
+
+    private static final Encoding TOKEN_ENCODING =
+            Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    private final int maxPromptTokens;
+    private final int maxImageBytes;
+    private final int maxDimension;
+    private final int minDimension;
+    private final int maxJpegQuality;
+    private final int minJpegQuality;
+    private final int roiPadding;
+
+    /**
+     * 构造函数
+     *
+     * @param maxPromptTokens 提示词（含图像）的token上限
+     * @param maxImageBytes JPEG图像的字节数上限
+     * @param maxDimension 发送图像的长边上限（像素）
+     * @param minDimension 发送图像的长边下限（像素），缩小到此仍超出预算时放弃
+     * @param maxJpegQuality JPEG质量上限（1-100）
+     * @param minJpegQuality JPEG质量下限（1-100）
+     * @param roiPadding 候选区域四周保留的边距（像素）
+     */
+    public ImagePayloadPlanner(int maxPromptTokens, int maxImageBytes, int maxDimension, int minDimension,
+                               int maxJpegQuality, int minJpegQuality, int roiPadding) {
+        this.maxPromptTokens = maxPromptTokens;
+        this.maxImageBytes = maxImageBytes;
+        this.maxDimension = Math.max(1, maxDimension);
+        this.minDimension = Math.max(1, Math.min(minDimension, this.maxDimension));
+        this.maxJpegQuality = Math.max(1, Math.min(100, maxJpegQuality));
+        this.minJpegQuality = Math.max(1, Math.min(this.maxJpegQuality, minJpegQuality));
+        this.roiPadding = Math.max(0, roiPadding);
+    }
+
+    /**
+     * 按 ai-detection.* 配置项创建规划器
+     *
+     * @return 规划器
+     */
+    public static ImagePayloadPlanner fromConfig() {
+        ConfigurationManager config = ConfigurationManager.getInstance();
+        return new ImagePayloadPlanner(
+                config.getIntProperty("ai-detection.max-prompt-tokens", DEFAULT_MAX_PROMPT_TOKENS),
+                config.getIntProperty("ai-detection.max-image-bytes", DEFAULT_MAX_IMAGE_BYTES),
+                config.getIntProperty("ai-detection.max-dimension", DEFAULT_MAX_DIMENSION),
+                config.getIntProperty("ai-detection.min-dimension", DEFAULT_MIN_DIMENSION),
+                config.getIntProperty("ai-detection.jpeg-quality-max", DEFAULT_JPEG_QUALITY_MAX),
+                config.getIntProperty("ai-detection.jpeg-quality-min", DEFAULT_JPEG_QUALITY_MIN),
+                config.getIntProperty("ai-detection.roi-padding", DEFAULT_ROI_PADDING));
+    }
+
+    /**
+     * 计算文本的token数
+     *
+     * @param text 文本
+     * @return token数
+     */
+    public static int countTokens(String text) {
+        return TOKEN_ENCODING.countTokens(text);
+    }
+
+    /**
+     * 规划要发送的图像
+     *
+     * @param image 原始图像
+     * @param candidates 候选缺陷区域（原图坐标），为空时发送整幅图像
+     * @param promptText 除图像数据外的全部提示词文本（系统提示和用户提示），用于计算token数
+     * @return 图像载荷
+     * @throws IllegalStateException 如果缩小到最小尺寸、最低质量仍超出预算
+     */
+    public Plan plan(Mat image, List<Rect> candidates, String promptText) {
+        Rect region = selectRegion(image.cols(), image.rows(), candidates);
+        int textTokens = countTokens(promptText);
+        if (textTokens >= maxPromptTokens) {
+            throw new IllegalStateException("提示词文本已有 " + textTokens + " 个token，超出预算 " + maxPromptTokens);
+        }
+
+        Mat source = region.width == image.cols() && region.height == image.rows() ? image : image.submat(region);
+        double scale = Math.min(1.0, (double) maxDimension / Math.max(region.width, region.height));
+        try {
+            while (true) {
+                int width = Math.max(1, (int) Math.round(region.width * scale));
+                int height = Math.max(1, (int) Math.round(region.height * scale));
+                Plan plan = encodeWithinBudget(source, region, scale, width, height, textTokens);
+                if (plan != null) {
+                    logger.fine("AI检测图像载荷: " + plan);
+                    return plan;
+                }
+                if (Math.max(width, height) * DOWNSCALE_STEP < minDimension) {
+                    throw new IllegalStateException(String.format(
+                            "图像缩小到 %dx%d、JPEG质量 %d 仍超出预算（%d 字节，%d token）",
+                            width, height, minJpegQuality, maxImageBytes, maxPromptTokens));
+                }
+                scale *= DOWNSCALE_STEP;
+            }
+        } finally {
+            if (source != image) {
+                source.release();
+            }
+        }
+    }
+
+    /**
+     * 选择发送的区域：候选区域加边距后的外接矩形，明显小于原图时才裁剪
+     */
+    private Rect selectRegion(int imageWidth, int imageHeight, List<Rect> candidates) {
+        Rect full = new Rect(0, 0, imageWidth, imageHeight);
+        if (candidates == null || candidates.isEmpty()) {
+            return full;
+        }
+
+        int left = imageWidth;
+        int top = imageHeight;
+        int right = 0;
+        int bottom = 0;
+        for (Rect candidate : candidates) {
+            left = Math.min(left, candidate.x - roiPadding);
+            top = Math.min(top, candidate.y - roiPadding);
+            right = Math.max(right, candidate.x + candidate.width + roiPadding);
+            bottom = Math.max(bottom, candidate.y + candidate.height + roiPadding);
+        }
+        left = Math.max(0, left);
+        top = Math.max(0, top);
+        right = Math.min(imageWidth, right);
+        bottom = Math.min(imageHeight, bottom);
+        if (right <= left || bottom <= top
+                || (double) (right - left) * (bottom - top) > ROI_MAX_AREA_RATIO * imageWidth * imageHeight) {
+            return full;
+        }
+        return new Rect(left, top, right - left, bottom - top);
+    }
+
+    /**
+     * 在给定尺寸下二分查找满足预算的最高JPEG质量
+     *
+     * @return 满足预算的载荷，最低质量仍超出预算时为null
+     */
+    private Plan encodeWithinBudget(Mat source, Rect region, double scale, int width, int height, int textTokens) {
+        Mat resized = source;
+        if (width != region.width || height != region.height) {
+            resized = new Mat();
+            Imgproc.resize(source, resized, new Size(width, height), 0, 0, Imgproc.INTER_AREA);
+        }
+
+        try {
+            Plan best = null;
+            int low = minJpegQuality;
+            int high = maxJpegQuality;
+            while (low <= high) {
+                // 先试最高质量，多数图像缩小后直接满足预算
+                int quality = best == null && high == maxJpegQuality ? high : (low + high + 1) / 2;
+                Plan plan = encode(resized, region, scale, quality, textTokens);
+                if (plan != null) {
+                    best = plan;
+                    low = quality + 1;
+                } else {
+                    high = quality - 1;
+                }
+            }
+            return best;
+        } finally {
+            if (resized != source) {
+                resized.release();
+            }
+        }
+    }
+
+    private Plan encode(Mat image, Rect region, double scale, int quality, int textTokens) {
+        MatOfByte buffer = new MatOfByte();
+        MatOfInt params = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, quality);
+        try {
+            if (!Imgcodecs.imencode(".jpg", image, buffer, params)) {
+                throw new IllegalStateException("JPEG编码失败");
+            }
+            byte[] bytes = buffer.toArray();
+            if (bytes.length > maxImageBytes) {
+                return null;
+            }
+            String base64 = Base64.getEncoder().encodeToString(bytes);
+            int tokens = textTokens + countTokens(base64);
+            if (tokens > maxPromptTokens) {
+                return null;
+            }
+            return new Plan(base64, region, scale, image.cols(), image.rows(), quality, bytes.length, tokens);
+        } finally {
+            buffer.release();
+            params.release();
+        }
+    }
+
+    /**
+     * 规划得到的图像载荷及其与原图的坐标对应关系
+     */
+    public static final class Plan {
+        private final String imageBase64;
+        private final Rect region;
+        private final double scale;
+        private final int width;
+        private final int height;
+        private final int jpegQuality;
+        private final int imageBytes;
+        private final int promptTokens;
+
+        Plan(String imageBase64, Rect region, double scale, int width, int height,
+             int jpegQuality, int imageBytes, int promptTokens) {
+            this.imageBase64 = imageBase64;
+            this.region = region;
+            this.scale = scale;
+            this.width = width;
+            this.height = height;
+            this.jpegQuality = jpegQuality;
+            this.imageBytes = imageBytes;
+            this.promptTokens = promptTokens;
+        }
+
+        /**
+         * 获取base64编码的JPEG图像
+         */
+        public String getImageBase64() {
+            return imageBase64;
+        }
+
+        /**
+         * 获取发送的区域（原图坐标）
+         */
+        public Rect getRegion() {
+            return region;
+        }
+
+        /**
+         * 获取发送图像与原图区域的尺寸比例
+         */
+        public double getScale() {
+            return scale;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getJpegQuality() {
+            return jpegQuality;
+        }
+
+        public int getImageBytes() {
+            return imageBytes;
+        }
+
+        /**
+         * 获取提示词（含图像）的token数
+         */
+        public int getPromptTokens() {
+            return promptTokens;
+        }
+
+        /**
+         * 把发送图像上的坐标换算为原图坐标，超出发送区域的部分被截掉
+         *
+         * @param rect 发送图像上的矩形
+         * @return 原图上的矩形
+         */
+        public Rect toOriginal(Rect rect) {
+            int left = clamp(region.x + (int) Math.floor(rect.x / scale), region.x, region.x + region.width);
+            int top = clamp(region.y + (int) Math.floor(rect.y / scale), region.y, region.y + region.height);
+            int right = clamp(region.x + (int) Math.ceil((rect.x + rect.width) / scale),
+                    left, region.x + region.width);
+            int bottom = clamp(region.y + (int) Math.ceil((rect.y + rect.height) / scale),
+                    top, region.y + region.height);
+            return new Rect(left, top, right - left, bottom - top);
+        }
+
+        private static int clamp(int value, int min, int max) {
+            return Math.max(min, Math.min(max, value));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("区域 %dx%d+%d+%d，发送 %dx%d，JPEG质量 %d，%d 字节，%d token",
+                    region.width, region.height, region.x, region.y, width, height,
+                    jpegQuality, imageBytes, promptTokens);
+        }
+    }
+}
@@ -0,0 +1,803 @@
+package com.example.fabricdefectdetection.analysis;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.example.fabricdefectdetection.util.ConfigurationManager;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * 大语言模型API的异步客户端
+ *
+ * 所有对话补全请求（/chat/completions）经由本类以HttpClient.sendAsync发送，调用线程不等待网络：
+ * - 并发限制：同时在途的请求不超过 llm.max-in-flight 个，其余排队，不阻塞提交线程
+ * - 重试：网络错误、超时、429和5xx按指数退避加随机抖动（full jitter）重试，
+ *   共尝试 llm.max-attempts 次，退避时间从 llm.backoff-initial-ms 倍增，不超过 llm.backoff-max-ms
+ * - 熔断：同一服务地址连续失败 llm.breaker-failure-threshold 次后熔断，
+ *   llm.breaker-open-seconds 内的请求立即以LlmException失败；之后放行一个探测请求，
+ *   成功则恢复，失败则继续熔断
+ * - 指标：按调用方命名的接口统计请求数、失败数、重试数、熔断拒绝数和延迟
+ *
+ * 熔断按服务地址计算，不同接口访问同一服务时共享熔断状态。
+ *
+ * stream方法以流式（server-sent events）方式请求，回复内容边生成边交给调用方，
+ * 流式请求在整个回复接收完之前一直占用一个在途额度。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public final class LlmClient {
+
+    private static final Logger logger = Logger.getLogger(LlmClient.class.getName());
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final int DEFAULT_BACKOFF_INITIAL_MS = 500;
+    private static final int DEFAULT_BACKOFF_MAX_MS = 8000;
+    private static final int DEFAULT_BREAKER_FAILURE_THRESHOLD = 5;
+    private static final int DEFAULT_BREAKER_OPEN_SECONDS = 30;
+
+    private static LlmClient instance;
+
+    /**
+     * 一个调用方使用的API接口
+     */
+    public static final class Endpoint {
+        private final String name;
+        private final String baseUrl;
+        private final String apiKey;
+
+        /**
+         * 构造函数
+         *
+         * @param name 接口名称，用于统计指标
+         * @param baseUrl 服务地址
+         * @param apiKey API密钥
+         */
+        public Endpoint(String name, String baseUrl, String apiKey) {
+            this.name = name;
+            this.baseUrl = baseUrl;
+            this.apiKey = apiKey;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+    }
+
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final int maxInFlight;
+    private final int maxAttempts;
+    private final long backoffInitialMs;
+    private final long backoffMaxMs;
+    private final int breakerFailureThreshold;
+    private final long breakerOpenMillis;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final Map<String, EndpointMetrics> metrics = new ConcurrentHashMap<>();
+
+    /**
+     * 构造函数
+     *
+     * @param maxInFlight 同时在途的最大请求数
+     * @param maxAttempts 每个请求最多尝试的次数（含第一次）
+     * @param backoffInitialMs 第一次重试前的最长退避时间（毫秒）
+     * @param backoffMaxMs 退避时间上限（毫秒）
+     * @param breakerFailureThreshold 触发熔断的连续失败次数
+     * @param breakerOpenMillis 熔断持续时间（毫秒）
+     */
+    public LlmClient(int maxInFlight, int maxAttempts, long backoffInitialMs, long backoffMaxMs,
+                     int breakerFailureThreshold, long breakerOpenMillis) {
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build();
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffInitialMs = Math.max(1, backoffInitialMs);
+        this.backoffMaxMs = Math.max(this.backoffInitialMs, backoffMaxMs);
+        this.breakerFailureThreshold = Math.max(1, breakerFailureThreshold);
+        this.breakerOpenMillis = Math.max(0, breakerOpenMillis);
+    }
+
+    /**
+     * 获取全局共享的客户端，参数取 llm.* 配置项
+     *
+     * @return 客户端
+     */
+    public static synchronized LlmClient getInstance() {
+        if (instance == null) {
+            ConfigurationManager config = ConfigurationManager.getInstance();
+            instance = new LlmClient(
+                    config.getIntProperty("llm.max-in-flight", DEFAULT_MAX_IN_FLIGHT),
+                    config.getIntProperty("llm.max-attempts", DEFAULT_MAX_ATTEMPTS),
+                    config.getIntProperty("llm.backoff-initial-ms", DEFAULT_BACKOFF_INITIAL_MS),
+                    config.getIntProperty("llm.backoff-max-ms", DEFAULT_BACKOFF_MAX_MS),
+                    config.getIntProperty("llm.breaker-failure-threshold", DEFAULT_BREAKER_FAILURE_THRESHOLD),
+                    TimeUnit.SECONDS.toMillis(
+                            config.getIntProperty("llm.breaker-open-seconds", DEFAULT_BREAKER_OPEN_SECONDS)));
+
+            LlmClient client = instance;
+            Runtime.getRuntime().addShutdownHook(new Thread(
+                    () -> logger.info("大语言模型API调用统计: " + client.getStats().values()), "llm-client-shutdown"));
+        }
+        return instance;
+    }
+
+    /**
+     * 异步发送对话补全请求
+     *
+     * 返回的Future被取消或由调用方超时完成时，立即中止正在进行的HTTP请求，退避等待中的重试不再发出。
+     *
+     * @param endpoint 接口
+     * @param requestBody JSON请求体
+     * @param timeout 单次请求的超时时间，重试时每次重新计时
+     * @return 以回复内容（choices[0].message.content）完成的Future；
+     *         所有尝试都失败或服务处于熔断状态时以LlmException异常完成
+     */
+    public CompletableFuture<String> complete(Endpoint endpoint, String requestBody, Duration timeout) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        attempt(endpoint, buildRequest(endpoint, requestBody, timeout).build(), 1, result);
+        return result;
+    }
+
+    /**
+     * 异步发送流式对话补全请求，回复内容每到一段就交给onToken
+     *
+     * 请求体中需要带 "stream": true。onToken在HttpClient的线程中按到达顺序依次调用，
+     * 不能阻塞，更新界面需转到事件分发线程。只有在收到第一段内容之前失败才会重试，
+     * 已经交出内容后失败不再重试，避免调用方收到重复的内容。
+     *
+     * 取消返回的Future会立即中止HTTP请求并释放连接。
+     *
+     * @param endpoint 接口
+     * @param requestBody JSON请求体
+     * @param idleTimeout 空闲超时：等待响应头或两段内容之间的最长间隔
+     * @param onToken 内容片段（choices[0].delta.content）的接收者
+     * @return 以完整回复内容完成的Future；失败或服务处于熔断状态时以LlmException异常完成
+     */
+    public CompletableFuture<String> stream(Endpoint endpoint, String requestBody, Duration idleTimeout,
+                                            Consumer<String> onToken) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        HttpRequest request = buildRequest(endpoint, requestBody, idleTimeout)
+                .header("Accept", "text/event-stream")
+                .build();
+        attemptStream(endpoint, request, idleTimeout.toMillis(), onToken, 1, result);
+        return result;
+    }
+
+    /**
+     * 判断接口所在的服务当前是否可用（未处于熔断状态）
+     *
+     * @param endpoint 接口
+     * @return 是否可用
+     */
+    public boolean isAvailable(Endpoint endpoint) {
+        return !breaker(endpoint).isOpen(System.currentTimeMillis());
+    }
+
+    /**
+     * 获取各接口的调用统计
+     *
+     * @return 接口名称到统计的映射，按名称排序
+     */
+    public Map<String, EndpointStats> getStats() {
+        Map<String, EndpointStats> stats = new TreeMap<>();
+        metrics.forEach((name, endpointMetrics) -> stats.put(name, endpointMetrics.snapshot(name)));
+        return stats;
+    }
+
+    private static HttpRequest.Builder buildRequest(Endpoint endpoint, String requestBody, Duration timeout) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(endpoint.baseUrl + "/chat/completions"))
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + endpoint.apiKey)
+                .POST(HttpRequest.BodyPublishers.ofString(requestBody))
+                .timeout(timeout);
+    }
+
+    private void attempt(Endpoint endpoint, HttpRequest request, int attemptNumber, CompletableFuture<String> result) {
+        if (result.isDone()) {
+            // 退避期间已被取消或超时
+            return;
+        }
+        EndpointMetrics endpointMetrics = metrics(endpoint);
+        CircuitBreaker breaker = breaker(endpoint);
+        int permit = breaker.tryAcquire(System.currentTimeMillis());
+        if (permit == CircuitBreaker.REJECTED) {
+            endpointMetrics.rejected.increment();
+            result.completeExceptionally(new LlmException("服务 " + endpoint.baseUrl + " 暂时不可用（已熔断）", true, null));
+            return;
+        }
+        boolean probe = permit == CircuitBreaker.PROBE;
+
+        runWhenPermitted(() -> {
+            if (result.isDone()) {
+                // 排队期间已被取消或超时，探测请求未发出，让下一个请求重新探测
+                releasePermit();
+                if (probe) {
+                    breaker.releaseProbe();
+                }
+                return;
+            }
+            long startTime = System.nanoTime();
+            CompletableFuture<HttpResponse<String>> exchange =
+                    httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+            // 调用方取消或超时后中止HTTP请求并释放连接
+            result.whenComplete((content, error) -> exchange.cancel(true));
+
+            exchange.whenComplete((response, error) -> {
+                releasePermit();
+                if (result.isDone()) {
+                    // 被取消或超时的请求不能说明服务是否恢复，探测请求让出探测资格
+                    if (probe) {
+                        breaker.releaseProbe();
+                    }
+                    return;
+                }
+                long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                try {
+                    onResponse(endpoint, request, attemptNumber, result, response, error, latencyMs);
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(new LlmException("处理API响应失败", false, e));
+                }
+            });
+        });
+    }
+
+    private void onResponse(Endpoint endpoint, HttpRequest request, int attemptNumber, CompletableFuture<String> result,
+                            HttpResponse<String> response, Throwable error, long latencyMs) {
+        LlmException failure;
+        String content = null;
+        try {
+            content = error == null ? extractContent(response) : null;
+            failure = error == null ? null : classify(error);
+        } catch (LlmException e) {
+            failure = e;
+        }
+        metrics(endpoint).record(latencyMs, failure == null);
+
+        CircuitBreaker breaker = breaker(endpoint);
+        if (failure == null) {
+            breaker.onSuccess();
+            result.complete(content);
+            return;
+        }
+
+        if (!failure.isRetryable()) {
+            // 服务有响应，只是请求本身有问题，不计入熔断
+            breaker.onSuccess();
+            result.completeExceptionally(failure);
+            return;
+        }
+
+        breaker.onFailure(System.currentTimeMillis(), endpoint.baseUrl);
+        if (attemptNumber >= maxAttempts || result.isDone()) {
+            result.completeExceptionally(failure);
+            return;
+        }
+
+        long delayMs = backoff(attemptNumber);
+        metrics(endpoint).retries.increment();
+        logger.info("调用 " + endpoint.name + " 失败（第 " + attemptNumber + " 次）: "
+                + failure.getMessage() + "，" + delayMs + "ms后重试");
+        CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS)
+                .execute(() -> attempt(endpoint, request, attemptNumber + 1, result));
+    }
+
+    private void attemptStream(Endpoint endpoint, HttpRequest request, long idleTimeoutMs, Consumer<String> onToken,
+                               int attemptNumber, CompletableFuture<String> result) {
+        if (result.isDone()) {
+            // 退避期间已被取消
+            return;
+        }
+        EndpointMetrics endpointMetrics = metrics(endpoint);
+        CircuitBreaker breaker = breaker(endpoint);
+        int permit = breaker.tryAcquire(System.currentTimeMillis());
+        if (permit == CircuitBreaker.REJECTED) {
+            endpointMetrics.rejected.increment();
+            result.completeExceptionally(new LlmException("服务 " + endpoint.baseUrl + " 暂时不可用（已熔断）", true, null));
+            return;
+        }
+        boolean probe = permit == CircuitBreaker.PROBE;
+
+        runWhenPermitted(() -> {
+            if (result.isDone()) {
+                // 排队期间已被取消，探测请求未发出，让下一个请求重新探测
+                releasePermit();
+                if (probe) {
+                    breaker.releaseProbe();
+                }
+                return;
+            }
+            StreamAttempt attempt = new StreamAttempt(endpointMetrics, onToken, idleTimeoutMs);
+            CompletableFuture<HttpResponse<Void>> exchange = httpClient.sendAsync(request, info ->
+                    info.statusCode() == 200
+                            ? HttpResponse.BodySubscribers.fromLineSubscriber(attempt)
+                            : HttpResponse.BodySubscribers.discarding());
+            attempt.start(exchange);
+            result.whenComplete((content, error) -> {
+                if (result.isCancelled()) {
+                    attempt.abort(null);
+                }
+            });
+
+            exchange.whenComplete((response, error) -> {
+                releasePermit();
+                try {
+                    onStreamEnd(endpoint, request, idleTimeoutMs, onToken, attemptNumber, probe, result,
+                            attempt, response, error);
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(new LlmException("处理API响应失败", false, e));
+                }
+            });
+        });
+    }
+
+    private void onStreamEnd(Endpoint endpoint, HttpRequest request, long idleTimeoutMs, Consumer<String> onToken,
+                             int attemptNumber, boolean probe, CompletableFuture<String> result,
+                             StreamAttempt attempt, HttpResponse<Void> response, Throwable error) {
+        if (result.isCancelled()) {
+            // 被取消的请求不能说明服务是否恢复，探测请求让出探测资格
+            if (probe) {
+                breaker(endpoint).releaseProbe();
+            }
+            return;
+        }
+        long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - attempt.startTime);
+
+        LlmException failure = attempt.failure;
+        if (failure == null && error != null) {
+            failure = classify(error);
+        }
+        if (failure == null && response.statusCode() != 200) {
+            int status = response.statusCode();
+            failure = new LlmException("API返回错误状态码: " + status, status == 429 || status >= 500, null);
+        }
+        if (failure == null && !attempt.done && attempt.content.length() == 0) {
+            failure = new LlmException("流式响应中没有内容", false, null);
+        }
+        metrics(endpoint).record(latencyMs, failure == null);
+
+        CircuitBreaker breaker = breaker(endpoint);
+        if (failure == null) {
+            breaker.onSuccess();
+            result.complete(attempt.content.toString());
+            return;
+        }
+
+        if (!failure.isRetryable()) {
+            breaker.onSuccess();
+            result.completeExceptionally(failure);
+            return;
+        }
+
+        breaker.onFailure(System.currentTimeMillis(), endpoint.baseUrl);
+        if (attemptNumber >= maxAttempts || attempt.tokens > 0) {
+            result.completeExceptionally(failure);
+            return;
+        }
+
+        long delayMs = backoff(attemptNumber);
+        metrics(endpoint).retries.increment();
+        logger.info("调用 " + endpoint.name + " 失败（第 " + attemptNumber + " 次）: "
+                + failure.getMessage() + "，" + delayMs + "ms后重试");
+        CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS)
+                .execute(() -> attemptStream(endpoint, request, idleTimeoutMs, onToken, attemptNumber + 1, result));
+    }
+
+    /**
+     * 指数退避加全随机抖动：在[0, min(上限, 初始值×2^(n-1))]中均匀取值，避免多个请求同时重试
+     */
+    private long backoff(int attemptNumber) {
+        long ceiling = backoffInitialMs << Math.min(attemptNumber - 1, 20);
+        return ThreadLocalRandom.current().nextLong(Math.min(backoffMaxMs, ceiling) + 1);
+    }
+
+    /**
+     * 在途请求数未达上限时立即执行，否则排队，由先完成的请求释放额度后执行
+     */
+    private void runWhenPermitted(Runnable task) {
+        waiting.add(task);
+        drainWaiting();
+    }
+
+    private void releasePermit() {
+        inFlight.decrementAndGet();
+        drainWaiting();
+    }
+
+    private void drainWaiting() {
+        while (!waiting.isEmpty()) {
+            int current = inFlight.get();
+            if (current >= maxInFlight) {
+                return;
+            }
+            if (!inFlight.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            Runnable task = waiting.poll();
+            if (task == null) {
+                inFlight.decrementAndGet();
+                continue;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "发送大语言模型API请求失败", e);
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private String extractContent(HttpResponse<String> response) throws LlmException {
+        int status = response.statusCode();
+        if (status != 200) {
+            boolean retryable = status == 429 || status >= 500;
+            throw new LlmException("API返回错误状态码: " + status, retryable, null);
+        }
+
+        try {
+            JsonNode choices = objectMapper.readTree(response.body()).get("choices");
+            if (choices != null && choices.isArray() && choices.size() > 0) {
+                JsonNode content = choices.get(0).path("message").get("content");
+                if (content != null && content.isTextual()) {
+                    return content.asText();
+                }
+            }
+        } catch (IOException e) {
+            throw new LlmException("无法解析API响应", false, e);
+        }
+        throw new LlmException("无法从API响应中提取内容", false, null);
+    }
+
+    private static LlmException classify(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof HttpTimeoutException) {
+            return new LlmException("API请求超时", true, cause);
+        }
+        if (cause instanceof IOException) {
+            return new LlmException("API请求失败: " + cause.getMessage(), true, cause);
+        }
+        return new LlmException("API请求失败: " + cause, false, cause);
+    }
+
+    private CircuitBreaker breaker(Endpoint endpoint) {
+        return breakers.computeIfAbsent(endpoint.baseUrl, url -> new CircuitBreaker());
+    }
+
+    private EndpointMetrics metrics(Endpoint endpoint) {
+        return metrics.computeIfAbsent(endpoint.name, name -> new EndpointMetrics());
+    }
+
+    /**
+     * 一次流式请求：逐行解析server-sent events，取出每个事件中的内容片段
+     *
+     * 只处理单行的data字段（OpenAI兼容接口的格式），"data: [DONE]"表示回复结束。
+     * 解析出错、服务返回错误事件或空闲超时时中止请求，失败原因记录在failure中。
+     */
+    private final class StreamAttempt implements Flow.Subscriber<String> {
+        final long startTime = System.nanoTime();
+        final StringBuilder content = new StringBuilder();
+        private final EndpointMetrics endpointMetrics;
+        private final Consumer<String> onToken;
+        private final long idleTimeoutMs;
+        private volatile CompletableFuture<HttpResponse<Void>> exchange;
+        private volatile Flow.Subscription subscription;
+        private volatile long lastActivity = System.nanoTime();
+        volatile LlmException failure;
+        volatile boolean done;
+        volatile int tokens;
+
+        StreamAttempt(EndpointMetrics endpointMetrics, Consumer<String> onToken, long idleTimeoutMs) {
+            this.endpointMetrics = endpointMetrics;
+            this.onToken = onToken;
+            this.idleTimeoutMs = Math.max(1, idleTimeoutMs);
+        }
+
+        synchronized void start(CompletableFuture<HttpResponse<Void>> exchange) {
+            this.exchange = exchange;
+            if (failure != null) {
+                // 响应在sendAsync返回之前就已出错
+                exchange.cancel(true);
+                return;
+            }
+            scheduleIdleCheck(idleTimeoutMs);
+        }
+
+        /**
+         * 中止请求并释放连接
+         *
+         * @param reason 失败原因，调用方取消时为null
+         */
+        synchronized void abort(LlmException reason) {
+            if (failure == null) {
+                failure = reason;
+            }
+            Flow.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+            if (exchange != null) {
+                exchange.cancel(true);
+            }
+        }
+
+        private void scheduleIdleCheck(long delayMs) {
+            CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS).execute(() -> {
+                if (exchange.isDone()) {
+                    return;
+                }
+                long idleMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastActivity);
+                if (idleMs >= idleTimeoutMs) {
+                    // 已经交出内容后超时不再重试，见attemptStream
+                    abort(new LlmException("API响应超时（" + idleMs + "ms未收到数据）", true, null));
+                } else {
+                    scheduleIdleCheck(idleTimeoutMs - idleMs);
+                }
+            });
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            lastActivity = System.nanoTime();
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            lastActivity = System.nanoTime();
+            if (done || !line.startsWith("data:")) {
+                // 空行、注释和event等其他字段
+                return;
+            }
+            String data = line.substring(5).trim();
+            if ("[DONE]".equals(data)) {
+                done = true;
+                return;
+            }
+
+            String token;
+            try {
+                JsonNode event = objectMapper.readTree(data);
+                JsonNode error = event.get("error");
+                if (error != null) {
+                    abort(new LlmException("API返回错误: " + error.path("message").asText(error.toString()), false, null));
+                    return;
+                }
+                JsonNode choices = event.get("choices");
+                JsonNode delta = choices != null && choices.isArray() && choices.size() > 0
+                        ? choices.get(0).path("delta").get("content") : null;
+                token = delta != null && delta.isTextual() ? delta.asText() : "";
+            } catch (IOException e) {
+                abort(new LlmException("无法解析API流式响应", false, e));
+                return;
+            }
+            if (token.isEmpty()) {
+                return;
+            }
+
+            if (tokens++ == 0) {
+                endpointMetrics.recordFirstToken(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            }
+            content.append(token);
+            try {
+                onToken.accept(token);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "处理流式响应内容失败", e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            // 由exchange异常完成处理
+        }
+
+        @Override
+        public void onComplete() {
+            // 由exchange正常完成处理
+        }
+    }
+
+    /**
+     * 熔断器：关闭（正常）→ 连续失败达到阈值后打开（拒绝请求）→ 持续时间过后半开（放行一个探测请求）
+     */
+    private final class CircuitBreaker {
+        static final int REJECTED = 0;
+        static final int ACQUIRED = 1;
+        static final int PROBE = 2;
+
+        private boolean open;
+        private boolean probing;
+        private int consecutiveFailures;
+        private long openedAt;
+
+        /**
+         * @return REJECTED表示已熔断；PROBE表示本请求是熔断后的探测请求，结束时必须报告结果或让出探测资格
+         */
+        synchronized int tryAcquire(long now) {
+            if (!open) {
+                return ACQUIRED;
+            }
+            if (probing || now - openedAt < breakerOpenMillis) {
+                return REJECTED;
+            }
+            probing = true;
+            return PROBE;
+        }
+
+        /**
+         * 探测请求被取消、没有得到结果时调用，保持熔断状态，由下一个请求重新探测
+         */
+        synchronized void releaseProbe() {
+            probing = false;
+        }
+
+        synchronized void onSuccess() {
+            if (open) {
+                logger.info("大语言模型API已恢复");
+            }
+            open = false;
+            probing = false;
+            consecutiveFailures = 0;
+        }
+
+        synchronized void onFailure(long now, String baseUrl) {
+            consecutiveFailures++;
+            if (probing || (!open && consecutiveFailures >= breakerFailureThreshold)) {
+                if (!open) {
+                    logger.warning("服务 " + baseUrl + " 连续失败 " + consecutiveFailures + " 次，熔断 "
+                            + breakerOpenMillis / 1000 + " 秒");
+                }
+                open = true;
+                probing = false;
+                openedAt = now;
+            }
+        }
+
+        synchronized boolean isOpen(long now) {
+            return open && (probing || now - openedAt < breakerOpenMillis);
+        }
+    }
+
+    private static final class EndpointMetrics {
+        final LongAdder requests = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder retries = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder totalLatencyMs = new LongAdder();
+        final AtomicLong maxLatencyMs = new AtomicLong();
+        final LongAdder firstTokens = new LongAdder();
+        final LongAdder totalFirstTokenMs = new LongAdder();
+
+        void record(long latencyMs, boolean success) {
+            requests.increment();
+            if (!success) {
+                failures.increment();
+            }
+            totalLatencyMs.add(latencyMs);
+            maxLatencyMs.accumulateAndGet(latencyMs, Math::max);
+        }
+
+        void recordFirstToken(long latencyMs) {
+            firstTokens.increment();
+            totalFirstTokenMs.add(latencyMs);
+        }
+
+        EndpointStats snapshot(String name) {
+            return new EndpointStats(name, requests.sum(), failures.sum(), retries.sum(), rejected.sum(),
+                    totalLatencyMs.sum(), maxLatencyMs.get(), firstTokens.sum(), totalFirstTokenMs.sum());
+        }
+    }
+
+    /**
+     * 一个接口的调用统计
+     */
+    public static final class EndpointStats {
+        private final String name;
+        private final long requests;
+        private final long failures;
+        private final long retries;
+        private final long rejected;
+        private final long totalLatencyMs;
+        private final long maxLatencyMs;
+        private final long firstTokens;
+        private final long totalFirstTokenMs;
+
+        EndpointStats(String name, long requests, long failures, long retries, long rejected,
+                      long totalLatencyMs, long maxLatencyMs, long firstTokens, long totalFirstTokenMs) {
+            this.name = name;
+            this.requests = requests;
+            this.failures = failures;
+            this.retries = retries;
+            this.rejected = rejected;
+            this.totalLatencyMs = totalLatencyMs;
+            this.maxLatencyMs = maxLatencyMs;
+            this.firstTokens = firstTokens;
+            this.totalFirstTokenMs = totalFirstTokenMs;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 已发出的HTTP请求数（每次重试单独计数）
+         */
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        /**
+         * 因熔断未发出的请求数
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        public double getErrorRate() {
+            return requests == 0 ? 0 : (double) failures / requests;
+        }
+
+        public long getAverageLatencyMs() {
+            return requests == 0 ? 0 : totalLatencyMs / requests;
+        }
+
+        public long getMaxLatencyMs() {
+            return maxLatencyMs;
+        }
+
+        /**
+         * 流式请求从发出到收到第一段内容的平均时间
+         */
+        public long getAverageFirstTokenMs() {
+            return firstTokens == 0 ? 0 : totalFirstTokenMs / firstTokens;
+        }
+
+        @Override
+        public String toString() {
+            String text = String.format("%s: 请求 %d，失败 %d（%.1f%%），重试 %d，熔断拒绝 %d，平均延迟 %dms，最大延迟 %dms",
+                    name, requests, failures, getErrorRate() * 100, retries, rejected,
+                    getAverageLatencyMs(), maxLatencyMs);
+            return firstTokens == 0 ? text : text + "，平均首字延迟 " + getAverageFirstTokenMs() + "ms";
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.fabricdefectdetection.analysis;
+
+/**
+ * 大语言模型API调用失败
+ *
+ * 网络错误、超时、限流（429）和服务端错误（5xx）可以重试，其余错误（如请求格式错误、
+ * 密钥无效、响应无法解析）重试也不会成功。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public class LlmException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean retryable;
+
+    /**
+     * 构造函数
+     *
+     * @param message 错误信息
+     * @param retryable 是否可以重试
+     * @param cause 原始异常，可以为null
+     */
+    public LlmException(String message, boolean retryable, Throwable cause) {
+        super(message, cause);
+        this.retryable = retryable;
+    }
+
+    /**
+     * 判断是否可以重试
+     *
+     * @return 是否可以重试
+     */
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
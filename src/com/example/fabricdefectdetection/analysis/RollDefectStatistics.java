@@ -0,0 +1,280 @@
+package com.example.fabricdefectdetection.analysis;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.opencv.core.Rect;
+
+import com.example.fabricdefectdetection.detection.DetectionResult;
+
+/**
+ * 一卷布（一次批量处理）的缺陷汇总统计
+ *
+ * 批处理的各工作线程在每张图片检测完成后调用add，批次结束后由
+ * DefectAnalysisAssistant.analyzeRollAsync把汇总结果一次性发给大语言模型，生成整卷分析。
+ * 汇总内容包括：缺陷类型分布（数量和平均面积）、质量等级分布、缺陷在图像内的空间分布
+ * （按相对位置划分的网格）以及缺陷沿卷长方向的聚集情况（连续出现缺陷的图片段）。
+ *
+ * 所有方法都是线程安全的。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public final class RollDefectStatistics {
+
+    /**
+     * 空间分布网格的划分数
+     */
+    public static final int GRID_SIZE = 4;
+
+    /**
+     * 缺陷数超过平均值该倍数的网格视为缺陷集中区域
+     */
+    private static final double HOTSPOT_FACTOR = 2.0;
+    private static final int MIN_HOTSPOT_DEFECTS = 3;
+
+    private static final String[] QUALITY_LEVELS = {"优等品", "一等品", "二等品", "不合格品"};
+
+    private final String batchId;
+    private final int totalImages;
+    private final int[] defectCountsByImage;
+    private final boolean[] recorded;
+    private final Map<String, Integer> typeCounts = new TreeMap<>();
+    private final Map<String, Long> typeAreas = new TreeMap<>();
+    private final Map<String, Integer> qualityLevels = new LinkedHashMap<>();
+    private final int[][] grid = new int[GRID_SIZE][GRID_SIZE];
+    private int imageCount;
+    private int totalDefects;
+
+    /**
+     * 构造函数
+     *
+     * @param batchId 批次编号
+     * @param totalImages 本批次的图片数，图片序号为0到totalImages-1，按卷长方向排列
+     */
+    public RollDefectStatistics(String batchId, int totalImages) {
+        this.batchId = batchId;
+        this.totalImages = totalImages;
+        this.defectCountsByImage = new int[totalImages];
+        this.recorded = new boolean[totalImages];
+        for (String level : QUALITY_LEVELS) {
+            qualityLevels.put(level, 0);
+        }
+    }
+
+    /**
+     * 记录一张图片的检测结果
+     *
+     * @param imageIndex 图片序号
+     * @param result 检测结果
+     * @param qualityLevel 该图片的质量等级
+     * @param imageWidth 检测所用图像的宽度，缺陷位置按它换算为相对位置
+     * @param imageHeight 检测所用图像的高度
+     */
+    public synchronized void add(int imageIndex, DetectionResult result, String qualityLevel,
+                                 int imageWidth, int imageHeight) {
+        if (imageIndex < 0 || imageIndex >= totalImages || recorded[imageIndex]) {
+            return;
+        }
+        recorded[imageIndex] = true;
+        imageCount++;
+        totalDefects += result.getDefectCount();
+        defectCountsByImage[imageIndex] = result.getDefectCount();
+        qualityLevels.merge(qualityLevel, 1, Integer::sum);
+
+        List<String> types = result.getDefectTypes();
+        List<Rect> rects = result.getDefectRects();
+        for (int i = 0; i < types.size(); i++) {
+            Rect rect = rects.get(i);
+            typeCounts.merge(types.get(i), 1, Integer::sum);
+            typeAreas.merge(types.get(i), (long) rect.width * rect.height, Long::sum);
+
+            if (imageWidth > 0 && imageHeight > 0) {
+                int column = cell(rect.x + rect.width / 2.0, imageWidth);
+                int row = cell(rect.y + rect.height / 2.0, imageHeight);
+                grid[row][column]++;
+            }
+        }
+    }
+
+    public String getBatchId() {
+        return batchId;
+    }
+
+    public synchronized int getImageCount() {
+        return imageCount;
+    }
+
+    public synchronized int getTotalDefects() {
+        return totalDefects;
+    }
+
+    /**
+     * 获取各类型缺陷的数量
+     *
+     * @return 缺陷类型到数量的映射
+     */
+    public synchronized Map<String, Integer> getTypeCounts() {
+        return new TreeMap<>(typeCounts);
+    }
+
+    /**
+     * 获取各质量等级的图片数
+     *
+     * @return 质量等级到图片数的映射，按等级从高到低
+     */
+    public synchronized Map<String, Integer> getQualityLevelHistogram() {
+        return new LinkedHashMap<>(qualityLevels);
+    }
+
+    /**
+     * 整卷的质量等级：图片数最多的等级，数量相同时取较低的等级
+     *
+     * @return 质量等级，没有记录任何图片时为"未知"
+     */
+    public synchronized String getRollQualityLevel() {
+        String level = "未知";
+        int best = 0;
+        for (Map.Entry<String, Integer> entry : qualityLevels.entrySet()) {
+            if (entry.getValue() > 0 && entry.getValue() >= best) {
+                level = entry.getKey();
+                best = entry.getValue();
+            }
+        }
+        return level;
+    }
+
+    /**
+     * 获取缺陷中心点的空间分布
+     *
+     * @return GRID_SIZE×GRID_SIZE的缺陷计数，下标为[行][列]
+     */
+    public synchronized int[][] getGrid() {
+        int[][] copy = new int[GRID_SIZE][];
+        for (int row = 0; row < GRID_SIZE; row++) {
+            copy[row] = grid[row].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * 生成发送给大语言模型的汇总描述
+     *
+     * @return 汇总描述文本
+     */
+    public synchronized String toPromptText() {
+        StringBuilder text = new StringBuilder();
+        text.append("以下是一卷布料（批次 ").append(batchId).append("）全部图片的缺陷检测汇总，请据此对整卷布料进行分析。\n\n");
+        appendStatistics(text);
+        text.append("\n请分析整卷布料的质量情况、缺陷的分布规律（是否集中在某些区域或卷长的某些段落）、")
+            .append("可能的工艺或设备原因，以及相应的改进建议。");
+        return text.toString();
+    }
+
+    /**
+     * 生成不经大语言模型的整卷汇总报告
+     *
+     * @return Markdown格式的汇总报告
+     */
+    public synchronized String toLocalReport() {
+        StringBuilder text = new StringBuilder();
+        text.append("## 整卷缺陷检测汇总报告\n\n");
+        appendStatistics(text);
+        text.append("\n### 质量评估\n");
+        text.append("- 整卷质量等级: ").append(getRollQualityLevel()).append("\n");
+        text.append("\n注: 此为基本报告。启用AI分析功能可获得更详细的专业分析。");
+        return text.toString();
+    }
+
+    private void appendStatistics(StringBuilder text) {
+        text.append("### 总体情况\n");
+        text.append("- 已检测图片: ").append(imageCount).append("/").append(totalImages).append(" 张\n");
+        text.append("- 缺陷总数: ").append(totalDefects).append("\n");
+        text.append("- 平均每张图片缺陷数: ")
+            .append(String.format("%.2f", imageCount == 0 ? 0.0 : (double) totalDefects / imageCount)).append("\n");
+
+        text.append("\n### 缺陷类型分布\n");
+        if (typeCounts.isEmpty()) {
+            text.append("- 未检测到缺陷\n");
+        }
+        for (Map.Entry<String, Integer> entry : typeCounts.entrySet()) {
+            text.append("- ").append(entry.getKey()).append(": ").append(entry.getValue()).append(" 个，平均面积 ")
+                .append(typeAreas.get(entry.getKey()) / entry.getValue()).append(" 像素\n");
+        }
+
+        text.append("\n### 质量等级分布（图片数）\n");
+        for (Map.Entry<String, Integer> entry : qualityLevels.entrySet()) {
+            text.append("- ").append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+        }
+
+        text.append("\n### 缺陷在图像内的空间分布（").append(GRID_SIZE).append("×").append(GRID_SIZE)
+            .append("网格，行从上到下，列从左到右）\n");
+        for (int[] row : grid) {
+            text.append("- ");
+            for (int column = 0; column < GRID_SIZE; column++) {
+                text.append(column > 0 ? " " : "").append(row[column]);
+            }
+            text.append("\n");
+        }
+        appendHotspots(text);
+        appendRuns(text);
+    }
+
+    private void appendHotspots(StringBuilder text) {
+        int total = 0;
+        for (int[] row : grid) {
+            for (int count : row) {
+                total += count;
+            }
+        }
+        double threshold = HOTSPOT_FACTOR * total / (GRID_SIZE * GRID_SIZE);
+        StringBuilder hotspots = new StringBuilder();
+        for (int row = 0; row < GRID_SIZE; row++) {
+            for (int column = 0; column < GRID_SIZE; column++) {
+                if (grid[row][column] >= MIN_HOTSPOT_DEFECTS && grid[row][column] > threshold) {
+                    hotspots.append(hotspots.length() > 0 ? "，" : "")
+                            .append("第").append(row + 1).append("行第").append(column + 1).append("列");
+                }
+            }
+        }
+        text.append("- 缺陷集中区域: ").append(hotspots.length() > 0 ? hotspots : "无明显集中").append("\n");
+    }
+
+    /**
+     * 统计沿卷长方向连续出现缺陷的图片段
+     */
+    private void appendRuns(StringBuilder text) {
+        int runs = 0;
+        int longest = 0;
+        int longestStart = -1;
+        int current = 0;
+        for (int i = 0; i <= totalImages; i++) {
+            if (i < totalImages && recorded[i] && defectCountsByImage[i] > 0) {
+                current++;
+                continue;
+            }
+            if (current >= 2) {
+                runs++;
+            }
+            if (current > longest) {
+                longest = current;
+                longestStart = i - current;
+            }
+            current = 0;
+        }
+
+        text.append("\n### 缺陷沿卷长方向的分布\n");
+        text.append("- 连续两张及以上图片出现缺陷的段落: ").append(runs).append(" 段\n");
+        if (longest > 0) {
+            text.append("- 最长的连续缺陷段: 第 ").append(longestStart + 1).append(" 至 ")
+                .append(longestStart + longest).append(" 张，共 ").append(longest).append(" 张\n");
+        }
+    }
+
+    private static int cell(double position, int extent) {
+        // 位于右边缘或下边缘的缺陷归入最后一格
+        return Math.max(0, Math.min(GRID_SIZE - 1, (int) (position * GRID_SIZE / extent)));
+    }
+}
@@ -0,0 +1,379 @@
+package com.example.fabricdefectdetection.analysis.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.fabricdefectdetection.analysis.LlmClient;
+import com.example.fabricdefectdetection.analysis.LlmClient.Endpoint;
+import com.example.fabricdefectdetection.analysis.LlmClient.EndpointStats;
+import com.example.fabricdefectdetection.analysis.LlmException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 大语言模型API客户端测试类
+ *
+ * 在本机启动一个模拟的对话补全服务，按设定依次返回500、429或200，
+ * 验证失败重试、熔断的打开/探测/恢复、被取消的探测请求让出探测资格和在途额度以及在途请求数上限，
+ * 不需要真实的API密钥和网络
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public class LlmClientTest {
+
+    private static final String REQUEST_BODY = "{\"model\":\"test\",\"messages\":[]}";
+    private static final String REPLY_BODY = "{\"choices\":[{\"message\":{\"content\":\"分析完成\"}}]}";
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    private static final long BREAKER_OPEN_MS = 300;
+
+    private static MockServer server;
+
+    /**
+     * 测试主方法
+     *
+     * @param args 命令行参数
+     */
+    public static void main(String[] args) {
+        System.out.println("开始大语言模型API客户端测试...");
+
+        try {
+            server = new MockServer();
+
+            // 测试失败重试
+            testRetry();
+
+            // 测试熔断打开、探测和恢复
+            testCircuitBreaker();
+
+            // 测试被取消的探测请求
+            testCancelledProbe();
+
+            // 测试被取消的非流式探测请求
+            testCancelledCompleteProbe();
+
+            // 测试在途请求数上限
+            testInFlightLimit();
+
+            System.out.println("所有测试通过!");
+
+        } catch (Exception e) {
+            System.err.println("测试失败: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    /**
+     * 500和429按退避重试，第三次成功；400不重试
+     *
+     * @throws Exception 如果测试失败
+     */
+    private static void testRetry() throws Exception {
+        System.out.println("测试失败重试...");
+
+        LlmClient client = new LlmClient(4, 3, 10, 50, 10, BREAKER_OPEN_MS);
+        Endpoint endpoint = server.endpoint("retry");
+
+        server.reset(200, 500, 429);
+        String content = client.complete(endpoint, REQUEST_BODY, TIMEOUT).get(10, TimeUnit.SECONDS);
+        if (!"分析完成".equals(content) || server.requests.get() != 3) {
+            throw new IllegalStateException("重试后应在第3次成功，实际请求 " + server.requests.get() + " 次");
+        }
+        EndpointStats stats = client.getStats().get("retry");
+        if (stats.getRetries() != 2 || stats.getFailures() != 2) {
+            throw new IllegalStateException("重试统计不正确: " + stats);
+        }
+
+        // 请求本身有问题时不重试
+        server.reset(400);
+        LlmException failure = expectFailure(client.complete(endpoint, REQUEST_BODY, TIMEOUT));
+        if (failure.isRetryable() || server.requests.get() != 1) {
+            throw new IllegalStateException("400不应重试，实际请求 " + server.requests.get() + " 次");
+        }
+
+        // 所有尝试都失败时以最后一次的错误结束
+        server.reset(503);
+        failure = expectFailure(client.complete(endpoint, REQUEST_BODY, TIMEOUT));
+        if (!failure.isRetryable() || server.requests.get() != 3) {
+            throw new IllegalStateException("应尝试3次后失败，实际请求 " + server.requests.get() + " 次");
+        }
+        System.out.println("  " + client.getStats().get("retry"));
+    }
+
+    /**
+     * 连续失败后熔断，熔断期间请求不发出；熔断到期后放行一个探测请求，失败继续熔断，成功则恢复
+     *
+     * @throws Exception 如果测试失败
+     */
+    private static void testCircuitBreaker() throws Exception {
+        System.out.println("测试熔断...");
+
+        LlmClient client = new LlmClient(4, 1, 10, 50, 2, BREAKER_OPEN_MS);
+        Endpoint endpoint = server.endpoint("breaker");
+
+        server.reset(500);
+        expectFailure(client.complete(endpoint, REQUEST_BODY, TIMEOUT));
+        expectFailure(client.complete(endpoint, REQUEST_BODY, TIMEOUT));
+        if (client.isAvailable(endpoint)) {
+            throw new IllegalStateException("连续失败2次后应熔断");
+        }
+
+        // 熔断期间立即失败，不访问服务
+        int before = server.requests.get();
+        expectFailure(client.complete(endpoint, REQUEST_BODY, TIMEOUT));
+        if (server.requests.get() != before || client.getStats().get("breaker").getRejected() != 1) {
+            throw new IllegalStateException("熔断期间的请求不应发出");
+        }
+
+        // 探测失败，继续熔断
+        Thread.sleep(BREAKER_OPEN_MS + 50);
+        expectFailure(client.complete(endpoint, REQUEST_BODY, TIMEOUT));
+        if (server.requests.get() != before + 1 || client.isAvailable(endpoint)) {
+            throw new IllegalStateException("探测失败后应继续熔断");
+        }
+
+        // 探测成功，恢复
+        Thread.sleep(BREAKER_OPEN_MS + 50);
+        server.reset(200);
+        client.complete(endpoint, REQUEST_BODY, TIMEOUT).get(10, TimeUnit.SECONDS);
+        if (!client.isAvailable(endpoint)) {
+            throw new IllegalStateException("探测成功后应恢复");
+        }
+        client.complete(endpoint, REQUEST_BODY, TIMEOUT).get(10, TimeUnit.SECONDS);
+        System.out.println("  " + client.getStats().get("breaker"));
+    }
+
+    /**
+     * 熔断到期后的探测请求（流式）被取消，下一个请求应能重新探测，而不是一直被拒绝
+     *
+     * @throws Exception 如果测试失败
+     */
+    private static void testCancelledProbe() throws Exception {
+        System.out.println("测试被取消的探测请求...");
+
+        LlmClient client = new LlmClient(4, 1, 10, 50, 1, BREAKER_OPEN_MS);
+        Endpoint endpoint = server.endpoint("probe");
+
+        server.reset(500);
+        expectFailure(client.complete(endpoint, REQUEST_BODY, TIMEOUT));
+        Thread.sleep(BREAKER_OPEN_MS + 50);
+
+        // 流式探测请求收到响应头后服务不再发送内容，调用方取消
+        server.reset(200);
+        server.stallRequests = new CountDownLatch(1);
+        CompletableFuture<String> probe = client.stream(endpoint, REQUEST_BODY, TIMEOUT, token -> { });
+        waitFor(() -> server.stalled.get() == 1, "探测请求未到达服务");
+        probe.cancel(true);
+        server.stallRequests.countDown();
+
+        waitFor(() -> client.isAvailable(endpoint), "取消探测请求后熔断器一直拒绝请求");
+        String content = client.complete(endpoint, REQUEST_BODY, TIMEOUT).get(10, TimeUnit.SECONDS);
+        if (!"分析完成".equals(content)) {
+            throw new IllegalStateException("重新探测的回复不正确: " + content);
+        }
+        System.out.println("  " + client.getStats().get("probe"));
+    }
+
+    /**
+     * 非流式探测请求在服务端迟迟不返回时被取消：HTTP请求应立即中止，让出在途额度和探测资格，
+     * 在途上限为1时下一个请求不必等服务端返回就能重新探测
+     *
+     * @throws Exception 如果测试失败
+     */
+    private static void testCancelledCompleteProbe() throws Exception {
+        System.out.println("测试被取消的非流式探测请求...");
+
+        LlmClient client = new LlmClient(1, 1, 10, 50, 1, BREAKER_OPEN_MS);
+        Endpoint endpoint = server.endpoint("complete-probe");
+
+        server.reset(500);
+        expectFailure(client.complete(endpoint, REQUEST_BODY, TIMEOUT));
+        Thread.sleep(BREAKER_OPEN_MS + 50);
+
+        server.reset(200);
+        CountDownLatch stall = new CountDownLatch(1);
+        server.stallRequests = stall;
+        CompletableFuture<String> probe = client.complete(endpoint, REQUEST_BODY, TIMEOUT);
+        waitFor(() -> server.stalled.get() == 1, "探测请求未到达服务");
+        server.stallRequests = null;
+        probe.cancel(true);
+
+        try {
+            waitFor(() -> client.isAvailable(endpoint), "取消探测请求后熔断器一直拒绝请求");
+            String content = client.complete(endpoint, REQUEST_BODY, TIMEOUT).get(3, TimeUnit.SECONDS);
+            if (!"分析完成".equals(content)) {
+                throw new IllegalStateException("重新探测的回复不正确: " + content);
+            }
+        } finally {
+            stall.countDown();
+        }
+        if (server.requests.get() != 2) {
+            throw new IllegalStateException("被取消的请求不应重试，实际请求 " + server.requests.get() + " 次");
+        }
+        System.out.println("  " + client.getStats().get("complete-probe"));
+    }
+
+    /**
+     * 同时提交的请求数超过上限时，服务端同时处理的请求数不超过上限，其余排队后全部完成
+     *
+     * @throws Exception 如果测试失败
+     */
+    private static void testInFlightLimit() throws Exception {
+        System.out.println("测试在途请求数上限...");
+
+        int maxInFlight = 2;
+        int requestCount = 8;
+        LlmClient client = new LlmClient(maxInFlight, 1, 10, 50, 10, BREAKER_OPEN_MS);
+        Endpoint endpoint = server.endpoint("limit");
+
+        server.reset(200);
+        server.responseDelayMs = 100;
+        long startTime = System.currentTimeMillis();
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < requestCount; i++) {
+            futures.add(client.complete(endpoint, REQUEST_BODY, TIMEOUT));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+        long elapsed = System.currentTimeMillis() - startTime;
+        server.responseDelayMs = 0;
+
+        if (server.maxConcurrent.get() != maxInFlight) {
+            throw new IllegalStateException("服务端最大并发请求数应为 " + maxInFlight + "，实际 "
+                    + server.maxConcurrent.get());
+        }
+        if (server.requests.get() != requestCount) {
+            throw new IllegalStateException("请求数不符: " + server.requests.get());
+        }
+        System.out.println("  " + requestCount + " 个请求，最大并发 " + server.maxConcurrent.get()
+                + "，耗时 " + elapsed + "ms");
+    }
+
+    private static LlmException expectFailure(CompletableFuture<String> future) throws Exception {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof LlmException) {
+                return (LlmException) e.getCause();
+            }
+            throw e;
+        }
+        throw new IllegalStateException("请求应该失败");
+    }
+
+    private static void waitFor(java.util.function.BooleanSupplier condition, String message)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException(message);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * 模拟的对话补全服务：先依次返回设定的状态码，用完后一直返回默认状态码
+     */
+    private static final class MockServer {
+        final HttpServer httpServer;
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final Queue<Integer> statuses = new ConcurrentLinkedQueue<>();
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        final AtomicInteger stalled = new AtomicInteger();
+        volatile int defaultStatus = 200;
+        volatile long responseDelayMs = 0;
+        volatile CountDownLatch stallRequests;
+
+        MockServer() throws IOException {
+            httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            httpServer.createContext("/chat/completions", this::handle);
+            httpServer.setExecutor(executor);
+            httpServer.start();
+        }
+
+        Endpoint endpoint(String name) {
+            return new Endpoint(name, "http://127.0.0.1:" + httpServer.getAddress().getPort(), "test-key");
+        }
+
+        /**
+         * 清空计数，设置默认状态码和之前依次返回的状态码
+         */
+        void reset(int defaultStatus, int... firstStatuses) {
+            statuses.clear();
+            for (int status : firstStatuses) {
+                statuses.add(status);
+            }
+            this.defaultStatus = defaultStatus;
+            requests.set(0);
+            maxConcurrent.set(0);
+            stalled.set(0);
+            stallRequests = null;
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            int current = concurrent.incrementAndGet();
+            maxConcurrent.accumulateAndGet(current, Math::max);
+            requests.incrementAndGet();
+            try {
+                exchange.getRequestBody().readAllBytes();
+                Integer next = statuses.poll();
+                int status = next != null ? next : defaultStatus;
+
+                // 流式请求发出响应头后不再发送内容，非流式请求迟迟不返回
+                CountDownLatch stall = stallRequests;
+                if (stall != null && status == 200) {
+                    if ("text/event-stream".equals(exchange.getRequestHeaders().getFirst("Accept"))) {
+                        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+                        exchange.sendResponseHeaders(200, 0);
+                        exchange.getResponseBody().flush();
+                        stalled.incrementAndGet();
+                        stall.await(10, TimeUnit.SECONDS);
+                        return;
+                    }
+                    stalled.incrementAndGet();
+                    stall.await(10, TimeUnit.SECONDS);
+                }
+
+                if (responseDelayMs > 0) {
+                    Thread.sleep(responseDelayMs);
+                }
+                byte[] body = (status == 200 ? REPLY_BODY : "{\"error\":\"test\"}").getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(status, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                concurrent.decrementAndGet();
+                exchange.close();
+            }
+        }
+
+        void stop() {
+            httpServer.stop(0);
+            executor.shutdownNow();
+        }
+    }
+}
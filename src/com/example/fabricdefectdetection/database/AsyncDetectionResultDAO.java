@@ -0,0 +1,383 @@
+package com.example.fabricdefectdetection.database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import com.example.fabricdefectdetection.analysis.DefectAnalysisReport;
+import com.example.fabricdefectdetection.util.ConfigurationManager;
+
+/**
+ * 检测结果数据访问对象的异步接口
+ *
+ * 查询在专用的数据库线程池中执行，立即返回CompletableFuture，界面线程不再等待磁盘。
+ * 查询的返回值和出错时的默认值与DetectionResultDAO中的同名方法相同。
+ *
+ * 保存、分页、报告、图像以及按ID和按日期删除经由本产线配置的检测结果存储（ResultStores.getDefault()），
+ * 日志存储后端的结果同样可以查看和删除。统计报表、全文搜索、逐条导出和按批次删除只有SQLite后端支持，
+ * 存储不支持时以UnsupportedOperationException完成，界面应先通过supportsAnalytics和supportsBatchDelete检查。
+ *
+ * 统计报表、全文搜索和逐条导出在单独的分析线程池中执行，使用数据库的分析连接，
+ * 耗时的报表不会占满数据库线程而让历史记录分页、报告查看和删除排队等待。
+ *
+ * 超过超时时间的查询以TimeoutException完成。超时或被调用方取消（cancel）的查询：
+ * 尚未开始的不再执行；正在执行的线程被中断，跨多个历史分区的查询在下一个分区之前停止。
+ *
+ * 写入由检测结果存储排队合并后持久化，Future在写入持久化后完成；
+ * 已进入写队列的写入不受取消影响，也不设超时。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public final class AsyncDetectionResultDAO {
+
+    private static final Logger logger = Logger.getLogger(AsyncDetectionResultDAO.class.getName());
+
+    private static final int DEFAULT_THREADS = 4;
+    private static final int DEFAULT_ANALYTICS_THREADS = 2;
+    private static final int DEFAULT_QUERY_TIMEOUT_MS = 30000;
+
+    private static AsyncDetectionResultDAO instance;
+
+    private final DetectionResultDAO resultDAO;
+    private final ResultStore resultStore;
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor analyticsExecutor;
+    private final long queryTimeoutMs;
+
+    /**
+     * 构造函数
+     *
+     * @param resultDAO 同步数据访问对象，用于仅SQLite后端支持的统计、搜索、导出和按批次删除
+     * @param resultStore 检测结果存储
+     * @param threads 数据库线程数
+     * @param analyticsThreads 分析查询线程数
+     * @param queryTimeoutMs 查询超时时间（毫秒），0表示不设超时
+     */
+    public AsyncDetectionResultDAO(DetectionResultDAO resultDAO, ResultStore resultStore, int threads,
+                                   int analyticsThreads, long queryTimeoutMs) {
+        this.resultDAO = resultDAO;
+        this.resultStore = resultStore;
+        this.queryTimeoutMs = Math.max(0, queryTimeoutMs);
+        this.executor = newExecutor("db-query-", threads);
+        this.analyticsExecutor = newExecutor("db-analytics-", analyticsThreads);
+    }
+
+    private static ThreadPoolExecutor newExecutor(String namePrefix, int threads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        int poolSize = Math.max(1, threads);
+        return new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, namePrefix + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * 获取全局共享的异步数据访问对象
+     *
+     * 线程数和查询超时时间分别取配置项 database.async-threads 和 database.query-timeout-ms，
+     * 分析线程数与分析连接数相同，取配置项 database.analytics-readers。
+     *
+     * @return 异步数据访问对象
+     */
+    public static synchronized AsyncDetectionResultDAO getInstance() {
+        if (instance == null) {
+            ConfigurationManager config = ConfigurationManager.getInstance();
+            instance = new AsyncDetectionResultDAO(new DetectionResultDAO(), ResultStores.getDefault(),
+                    config.getIntProperty("database.async-threads", DEFAULT_THREADS),
+                    config.getIntProperty("database.analytics-readers", DEFAULT_ANALYTICS_THREADS),
+                    config.getIntProperty("database.query-timeout-ms", DEFAULT_QUERY_TIMEOUT_MS));
+
+            AsyncDetectionResultDAO dao = instance;
+            Runtime.getRuntime().addShutdownHook(new Thread(dao::close, "async-dao-shutdown"));
+        }
+        return instance;
+    }
+
+    /**
+     * 异步保存检测结果和分析报告，Future在写入持久化后完成
+     *
+     * @param report 分析报告
+     * @param imageName 图片名称
+     * @return 新记录的ID
+     */
+    public CompletableFuture<Long> saveResult(DefectAnalysisReport report, String imageName) {
+        return resultStore.save(report, imageName, Collections.emptyList(), 0, 0, null);
+    }
+
+    /**
+     * 异步按日期范围分页查询检测结果
+     *
+     * @see ResultStore#findResultsPage(String, String, HistoryPage.Cursor, int)
+     */
+    public CompletableFuture<HistoryPage> findResultsPage(String startDate, String endDate, HistoryPage.Cursor after,
+                                                          int pageSize) {
+        return supply(() -> resultStore.findResultsPage(startDate, endDate, after, pageSize));
+    }
+
+    /**
+     * 异步按日期范围逐条读取检测结果，回调在数据库线程上执行
+     *
+     * 逐条读取的总耗时与记录数成正比，本方法不设超时，需要时由调用方取消。
+     *
+     * @see DetectionResultDAO#streamResultsByDateRange(String, String, Consumer)
+     */
+    public CompletableFuture<Boolean> streamResultsByDateRange(String startDate, String endDate,
+                                                               Consumer<HistoryRecord> consumer) {
+        if (!resultStore.supportsAnalytics()) {
+            return unsupported("逐条导出");
+        }
+        return supply(analyticsExecutor, () -> resultDAO.streamResultsByDateRange(startDate, endDate, consumer), 0);
+    }
+
+    /**
+     * 异步按日期范围查询检测摘要
+     *
+     * @see DetectionResultDAO#findDetectionSummaries(String, String)
+     */
+    public CompletableFuture<HistoryFrame> findDetectionSummaries(String startDate, String endDate) {
+        if (!resultStore.supportsAnalytics()) {
+            return unsupported("统计报表");
+        }
+        return supply(analyticsExecutor, () -> resultDAO.findDetectionSummaries(startDate, endDate), queryTimeoutMs);
+    }
+
+    /**
+     * 异步按日期范围统计各类型缺陷的数量
+     *
+     * @see DetectionResultDAO#findDefectTypeDistribution(String, String)
+     */
+    public CompletableFuture<Map<String, Integer>> findDefectTypeDistribution(String startDate, String endDate) {
+        if (!resultStore.supportsAnalytics()) {
+            return unsupported("统计报表");
+        }
+        return supply(analyticsExecutor, () -> resultDAO.findDefectTypeDistribution(startDate, endDate), queryTimeoutMs);
+    }
+
+    /**
+     * 异步按日期范围统计各质量等级的检测数
+     *
+     * @see DetectionResultDAO#findQualityLevelDistribution(String, String)
+     */
+    public CompletableFuture<Map<String, Integer>> findQualityLevelDistribution(String startDate, String endDate) {
+        if (!resultStore.supportsAnalytics()) {
+            return unsupported("统计报表");
+        }
+        return supply(analyticsExecutor, () -> resultDAO.findQualityLevelDistribution(startDate, endDate), queryTimeoutMs);
+    }
+
+    /**
+     * 异步按日期范围统计平均缺陷数趋势
+     *
+     * @see DetectionResultDAO#findDefectTrend(String, String, boolean)
+     */
+    public CompletableFuture<Map<String, Double>> findDefectTrend(String startDate, String endDate, boolean hourly) {
+        if (!resultStore.supportsAnalytics()) {
+            return unsupported("统计报表");
+        }
+        return supply(analyticsExecutor, () -> resultDAO.findDefectTrend(startDate, endDate, hourly), queryTimeoutMs);
+    }
+
+    /**
+     * 异步按日期范围统计缺陷位置热力图
+     *
+     * @see DetectionResultDAO#findDefectHeatmap(String, String, int)
+     */
+    public CompletableFuture<int[][]> findDefectHeatmap(String startDate, String endDate, int gridSize) {
+        if (!resultStore.supportsAnalytics()) {
+            return unsupported("统计报表");
+        }
+        return supply(analyticsExecutor, () -> resultDAO.findDefectHeatmap(startDate, endDate, gridSize), queryTimeoutMs);
+    }
+
+    /**
+     * 异步获取完整的分析报告
+     *
+     * @see ResultStore#getAnalysisReportById(int)
+     */
+    public CompletableFuture<String> getAnalysisReportById(int id) {
+        return supply(() -> resultStore.getAnalysisReportById(id));
+    }
+
+    /**
+     * 异步按关键词全文搜索分析报告
+     *
+     * @see DetectionResultDAO#searchReports(String, int)
+     */
+    public CompletableFuture<List<HistoryRecord>> searchReports(String query, int limit) {
+        if (!resultStore.supportsAnalytics()) {
+            return unsupported("报告搜索");
+        }
+        return supply(analyticsExecutor, () -> resultDAO.searchReports(query, limit), queryTimeoutMs);
+    }
+
+    /**
+     * 异步获取检测结果图像的哈希
+     *
+     * @see ResultStore#findImageHashes(int)
+     */
+    public CompletableFuture<String[]> findImageHashes(int id) {
+        return supply(() -> resultStore.findImageHashes(id));
+    }
+
+    /**
+     * 异步删除检测结果记录
+     *
+     * 删除可能跨越主数据库和历史分区，开始执行后不再响应取消和超时。
+     *
+     * @see ResultStore#deleteResult(int)
+     */
+    public CompletableFuture<Boolean> deleteResult(int id) {
+        return supply(() -> resultStore.deleteResult(id), 0);
+    }
+
+    /**
+     * 异步批量删除检测结果记录，不设超时；取消时在当前一块删除完成后停止，已删除的记录不会恢复
+     *
+     * @see ResultStore#deleteResults(Collection)
+     */
+    public CompletableFuture<Integer> deleteResults(Collection<Integer> ids) {
+        List<Integer> copy = new ArrayList<>(ids);
+        return supply(() -> resultStore.deleteResults(copy), 0);
+    }
+
+    /**
+     * 异步删除日期范围内的全部检测结果记录，超时和取消与deleteResults相同
+     *
+     * @see ResultStore#deleteResultsByDateRange(String, String)
+     */
+    public CompletableFuture<Integer> deleteResultsByDateRange(String startDate, String endDate) {
+        return supply(() -> resultStore.deleteResultsByDateRange(startDate, endDate), 0);
+    }
+
+    /**
+     * 异步删除一个批处理任务保存的全部检测结果记录，超时和取消与deleteResults相同
+     *
+     * @see DetectionResultDAO#deleteResultsByBatch(String)
+     */
+    public CompletableFuture<Integer> deleteResultsByBatch(String batchId) {
+        if (!resultStore.supportsBatchDelete()) {
+            return unsupported("按批次删除");
+        }
+        return supply(() -> resultDAO.deleteResultsByBatch(batchId), 0);
+    }
+
+    /**
+     * 检测结果存储是否支持统计报表、报告搜索和逐条导出
+     *
+     * @return 是否支持
+     */
+    public boolean supportsAnalytics() {
+        return resultStore.supportsAnalytics();
+    }
+
+    /**
+     * 检测结果存储是否支持按批次删除
+     *
+     * @return 是否支持
+     */
+    public boolean supportsBatchDelete() {
+        return resultStore.supportsBatchDelete();
+    }
+
+    private static <T> CompletableFuture<T> unsupported(String operation) {
+        return CompletableFuture.failedFuture(
+                new UnsupportedOperationException("当前检测结果存储不支持" + operation));
+    }
+
+    /**
+     * 在数据库线程池中执行任务，使用默认的查询超时时间
+     *
+     * @param task 任务
+     * @param <T> 返回值类型
+     * @return 任务完成、出错、超时或取消时完成的Future
+     */
+    public <T> CompletableFuture<T> supply(Callable<T> task) {
+        return supply(task, queryTimeoutMs);
+    }
+
+    /**
+     * 在数据库线程池中执行任务
+     *
+     * @param task 任务
+     * @param timeoutMs 超时时间（毫秒），0表示不设超时
+     * @param <T> 返回值类型
+     * @return 任务完成、出错、超时或取消时完成的Future
+     */
+    public <T> CompletableFuture<T> supply(Callable<T> task, long timeoutMs) {
+        return supply(executor, task, timeoutMs);
+    }
+
+    private <T> CompletableFuture<T> supply(ThreadPoolExecutor target, Callable<T> task, long timeoutMs) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        FutureTask<Void> runner = new FutureTask<>(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+            return null;
+        });
+
+        // 调用方取消或超时后中断正在执行的任务，尚未开始的任务不再执行
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled() || error instanceof TimeoutException) {
+                runner.cancel(true);
+            }
+        });
+
+        try {
+            target.execute(runner);
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new SQLException("数据库线程池已关闭", e));
+            return future;
+        }
+
+        return timeoutMs > 0 ? future.orTimeout(timeoutMs, TimeUnit.MILLISECONDS) : future;
+    }
+
+    /**
+     * 获取排队等待执行的任务数（含分析查询）
+     *
+     * @return 任务数
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size() + analyticsExecutor.getQueue().size();
+    }
+
+    /**
+     * 停止接受新任务，等待已提交的任务执行完毕
+     */
+    public void close() {
+        executor.shutdown();
+        analyticsExecutor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)
+                    || !analyticsExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warning("部分数据库查询未在关闭前完成");
+                executor.shutdownNow();
+                analyticsExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+            analyticsExecutor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.fabricdefectdetection.database;
+
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 分块后台数据迁移
+ *
+ * 结构升级后需要改写的旧数据不在启动时一次性处理，而是由后台线程按块迁移：
+ * 每块在独立的短事务中提交，两块之间稍作停顿，迁移期间不阻塞正常的检测写入。
+ * 迁移中断（程序退出或出错）后，下次启动时从尚未迁移的数据继续。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+abstract class ChunkedMigration implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(ChunkedMigration.class.getName());
+    private static final long PAUSE_BETWEEN_CHUNKS_MS = 20;
+
+    private final String description;
+    private final Runnable onComplete;
+
+    /**
+     * 构造函数
+     *
+     * @param description 迁移名称，用于日志
+     * @param onComplete 全部迁移完成后的回调，可以为null
+     */
+    protected ChunkedMigration(String description, Runnable onComplete) {
+        this.description = description;
+        this.onComplete = onComplete;
+    }
+
+    /**
+     * 迁移一块数据
+     *
+     * @return 本块迁移的记录数，为0表示已全部迁移
+     * @throws SQLException 如果SQL执行失败
+     */
+    protected abstract int migrateChunk() throws SQLException;
+
+    /**
+     * 在后台守护线程中执行迁移
+     *
+     * @param threadName 线程名称
+     */
+    void start(String threadName) {
+        Thread thread = new Thread(this, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        long startTime = System.currentTimeMillis();
+        long total = 0;
+
+        try {
+            int migrated;
+            while ((migrated = migrateChunk()) > 0) {
+                total += migrated;
+                Thread.sleep(PAUSE_BETWEEN_CHUNKS_MS);
+            }
+
+            if (onComplete != null) {
+                onComplete.run();
+            }
+            if (total > 0) {
+                logger.info(description + "完成，共 " + total + " 条，耗时 "
+                        + (System.currentTimeMillis() - startTime) + "ms");
+            }
+
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, description + "失败，已处理 " + total + " 条，下次启动时继续", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package com.example.fabricdefectdetection.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SQLite连接池
+ *
+ * 数据库以WAL模式打开：一个写连接由公平锁保护，所有写操作在其上串行执行并各自
+ * 作为一个事务提交；若干只读连接放在阻塞队列中供并发查询使用，读操作不会被写
+ * 事务阻塞。每个连接都缓存预编译语句，连接在进程生命周期内保持打开，不再每次
+ * 访问都重新打开数据库文件。
+ *
+ * 统计报表等耗时查询使用单独的一组分析连接（readSnapshot），不与检测流程和历史记录分页
+ * 争用普通只读连接。每次分析查询在一个只读事务中执行，事务内的多条语句看到同一个WAL快照；
+ * 查询超时或执行线程被中断时由看门狗中止正在执行的SQL，使快照尽早释放，长时间挂起的
+ * 快照会阻止检查点回收WAL，使WAL文件持续增长并拖慢写入。
+ *
+ * 连接参数：
+ * - journal_mode=WAL：读写并发
+ * - synchronous=NORMAL：WAL模式下只在检查点时同步，断电最多丢失最近提交的事务，
+ *   不会损坏数据库，对检测历史记录足够
+ * - mmap_size：读操作通过内存映射访问数据库文件
+ * - busy_timeout：其他进程持有锁时等待而不是立即失败
+ * - foreign_keys：删除检测记录时级联删除缺陷明细
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public final class ConnectionPool {
+
+    private static final Logger logger = Logger.getLogger(ConnectionPool.class.getName());
+
+    private static final int STATEMENT_CACHE_SIZE = 32;
+    private static final long MMAP_SIZE_BYTES = 256L * 1024 * 1024;
+    private static final int BUSY_TIMEOUT_MS = 5000;
+    private static final long READER_WAIT_SECONDS = 30;
+    private static final long WATCHDOG_INTERVAL_MS = 100;
+
+    /**
+     * 在池化连接上执行的数据库操作
+     *
+     * @param <T> 返回值类型
+     */
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        /**
+         * 执行数据库操作
+         *
+         * @param connection 池化连接
+         * @return 操作结果
+         * @throws SQLException 如果SQL执行失败
+         */
+        T execute(PooledConnection connection) throws SQLException;
+    }
+
+    private final String url;
+    private final PooledConnection writer;
+    private final ReentrantLock writeLock = new ReentrantLock(true);
+    private final BlockingQueue<PooledConnection> readers;
+    private final int readerCount;
+    private final List<PooledConnection> allReaders = new ArrayList<>();
+    private final BlockingQueue<PooledConnection> analyticsReaders;
+    private final int analyticsReaderCount;
+    private final long analyticsTimeoutMs;
+    private final ScheduledExecutorService watchdog;
+    private volatile boolean closed = false;
+
+    /**
+     * 构造函数，打开写连接、只读连接和分析连接
+     *
+     * @param url JDBC连接地址
+     * @param readerCount 只读连接数
+     * @param analyticsReaderCount 分析查询专用的只读连接数
+     * @param analyticsTimeoutMs 分析查询的超时时间（毫秒），0表示不设超时
+     * @throws SQLException 如果连接无法打开
+     */
+    public ConnectionPool(String url, int readerCount, int analyticsReaderCount, long analyticsTimeoutMs)
+            throws SQLException {
+        this.url = url;
+        int count = Math.max(1, readerCount);
+        int analyticsCount = Math.max(1, analyticsReaderCount);
+        this.readerCount = count;
+        this.analyticsReaderCount = analyticsCount;
+        this.readers = new ArrayBlockingQueue<>(count);
+        this.analyticsReaders = new ArrayBlockingQueue<>(analyticsCount);
+        this.analyticsTimeoutMs = Math.max(0, analyticsTimeoutMs);
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "db-query-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Connection writeConnection = openConnection(false);
+        try (Statement stmt = writeConnection.createStatement()) {
+            // 只对新建的数据库生效，必须在切换到WAL模式之前设置；已有数据库由SpaceReclaimer转换
+            stmt.execute("PRAGMA auto_vacuum=INCREMENTAL");
+        }
+        try (Statement stmt = writeConnection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA journal_mode=WAL")) {
+            if (rs.next() && !"wal".equalsIgnoreCase(rs.getString(1))) {
+                logger.warning("数据库未能切换到WAL模式，当前模式: " + rs.getString(1));
+            }
+        }
+        this.writer = new PooledConnection(writeConnection, STATEMENT_CACHE_SIZE);
+
+        for (int i = 0; i < count; i++) {
+            PooledConnection reader = new PooledConnection(openConnection(true), STATEMENT_CACHE_SIZE);
+            allReaders.add(reader);
+            readers.add(reader);
+        }
+        for (int i = 0; i < analyticsCount; i++) {
+            PooledConnection reader = new PooledConnection(openConnection(true), STATEMENT_CACHE_SIZE);
+            allReaders.add(reader);
+            analyticsReaders.add(reader);
+        }
+
+        logger.info("数据库连接池已创建: 1个写连接，" + count + "个只读连接，" + analyticsCount + "个分析连接");
+    }
+
+    /**
+     * 在只读连接上执行查询，多个查询可以并发执行
+     *
+     * @param work 查询操作
+     * @param <T> 返回值类型
+     * @return 查询结果
+     * @throws SQLException 如果查询失败或等待连接超时
+     */
+    public <T> T read(SqlWork<T> work) throws SQLException {
+        PooledConnection reader = acquireReader(readers);
+        try {
+            return work.execute(reader);
+        } finally {
+            readers.add(reader);
+        }
+    }
+
+    /**
+     * 在分析连接上以只读事务执行查询，事务内的所有语句看到同一个数据库快照
+     *
+     * 执行超过分析查询超时时间，或执行线程被中断（异步查询被取消）时，正在执行的SQL被中止。
+     *
+     * @param work 查询操作
+     * @param <T> 返回值类型
+     * @return 查询结果
+     * @throws SQLTimeoutException 如果查询超时被中止
+     * @throws SQLException 如果查询失败、被取消或等待连接超时
+     */
+    public <T> T readSnapshot(SqlWork<T> work) throws SQLException {
+        PooledConnection reader = acquireReader(analyticsReaders);
+        Connection connection = reader.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            QueryGuard guard = new QueryGuard(reader, Thread.currentThread());
+            try {
+                return work.execute(reader);
+            } catch (SQLException e) {
+                throw guard.translate(e);
+            } finally {
+                guard.stop();
+                try {
+                    // 只读事务没有需要提交的修改，回滚即结束快照
+                    connection.rollback();
+                } catch (SQLException rollbackError) {
+                    logger.log(Level.WARNING, "结束只读事务失败", rollbackError);
+                }
+                connection.setAutoCommit(true);
+            }
+        } finally {
+            analyticsReaders.add(reader);
+        }
+    }
+
+    /**
+     * 在写连接上以单个事务执行写操作，异常时回滚
+     *
+     * @param work 写操作
+     * @param <T> 返回值类型
+     * @return 操作结果
+     * @throws SQLException 如果写入失败
+     */
+    public <T> T write(SqlWork<T> work) throws SQLException {
+        checkOpen();
+        writeLock.lock();
+        try {
+            Connection connection = writer.getConnection();
+            connection.setAutoCommit(false);
+            try {
+                T result = work.execute(writer);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackError) {
+                    logger.log(Level.WARNING, "回滚事务失败", rollbackError);
+                }
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 在写连接上以自动提交模式执行不能放在事务中的语句（如VACUUM），期间其他写操作等待
+     *
+     * @param work 写操作
+     * @param <T> 返回值类型
+     * @return 操作结果
+     * @throws SQLException 如果执行失败
+     */
+    public <T> T writeWithoutTransaction(SqlWork<T> work) throws SQLException {
+        checkOpen();
+        writeLock.lock();
+        try {
+            return work.execute(writer);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 打开一个不属于连接池的连接（已设置连接参数），调用方负责关闭
+     *
+     * @return 数据库连接
+     * @throws SQLException 如果连接无法打开
+     */
+    public Connection openUnpooledConnection() throws SQLException {
+        return openConnection(false);
+    }
+
+    /**
+     * 关闭所有连接
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        watchdog.shutdownNow();
+
+        writeLock.lock();
+        try {
+            writer.close();
+        } finally {
+            writeLock.unlock();
+        }
+
+        // 等待借出的只读连接归还后再关闭
+        awaitReturned(readers, readerCount);
+        awaitReturned(analyticsReaders, analyticsReaderCount);
+        for (PooledConnection reader : allReaders) {
+            reader.close();
+        }
+        logger.info("数据库连接池已关闭");
+    }
+
+    private static boolean awaitReturned(BlockingQueue<PooledConnection> queue, int count) {
+        for (int i = 0; i < count; i++) {
+            try {
+                PooledConnection reader = queue.poll(READER_WAIT_SECONDS, TimeUnit.SECONDS);
+                if (reader == null) {
+                    logger.warning("部分只读连接未归还，直接关闭");
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private PooledConnection acquireReader(BlockingQueue<PooledConnection> queue) throws SQLException {
+        checkOpen();
+        try {
+            PooledConnection reader = queue.poll(READER_WAIT_SECONDS, TimeUnit.SECONDS);
+            if (reader == null) {
+                throw new SQLException("等待只读数据库连接超时");
+            }
+            return reader;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待只读数据库连接时被中断", e);
+        }
+    }
+
+    /**
+     * 分析查询的看门狗
+     *
+     * 定期检查查询是否超时、执行线程是否被中断，满足任一条件时中止连接上正在执行的SQL。
+     * SQLite在执行过程中不响应Java线程中断，只能通过中止语句让查询尽快返回。
+     *
+     * 检查和stop在同一把锁内进行，stop返回后不会再有中止落到已归还连接的下一个使用者身上。
+     */
+    private final class QueryGuard {
+        private final PooledConnection connection;
+        private final Thread owner;
+        private final long deadline;
+        private final ScheduledFuture<?> check;
+        private volatile boolean timedOut;
+        private volatile boolean cancelled;
+        private boolean stopped;  // 由this保护
+
+        QueryGuard(PooledConnection connection, Thread owner) {
+            this.connection = connection;
+            this.owner = owner;
+            this.deadline = analyticsTimeoutMs > 0 ? System.currentTimeMillis() + analyticsTimeoutMs : Long.MAX_VALUE;
+            this.check = watchdog.scheduleWithFixedDelay(this::check, WATCHDOG_INTERVAL_MS, WATCHDOG_INTERVAL_MS,
+                    TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void check() {
+            if (stopped) {
+                return;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                timedOut = true;
+            } else if (owner.isInterrupted()) {
+                cancelled = true;
+            } else {
+                return;
+            }
+            // 语句之间调用时不影响后续语句，因此每次检查都重新中止，直到查询返回
+            connection.interrupt();
+        }
+
+        void stop() {
+            synchronized (this) {
+                stopped = true;
+            }
+            check.cancel(false);
+        }
+
+        SQLException translate(SQLException e) {
+            if (timedOut) {
+                return new SQLTimeoutException("分析查询超过 " + analyticsTimeoutMs + "ms，已中止", e);
+            }
+            if (cancelled) {
+                return new SQLException("查询已取消", e);
+            }
+            return e;
+        }
+    }
+
+    private void checkOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("数据库连接池已关闭");
+        }
+    }
+
+    /**
+     * 打开连接并设置连接参数
+     *
+     * @param readOnly 是否为只读连接
+     * @return 数据库连接
+     * @throws SQLException 如果连接无法打开
+     */
+    private Connection openConnection(boolean readOnly) throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout=" + BUSY_TIMEOUT_MS);
+            stmt.execute("PRAGMA synchronous=NORMAL");
+            stmt.execute("PRAGMA mmap_size=" + MMAP_SIZE_BYTES);
+            stmt.execute("PRAGMA temp_store=MEMORY");
+            stmt.execute("PRAGMA foreign_keys=ON");
+            if (readOnly) {
+                stmt.execute("PRAGMA query_only=1");
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+}
@@ -1,7 +1,10 @@
 package com.example.fabricdefectdetection.database;
 
+import com.example.fabricdefectdetection.util.ConfigurationManager;
+
+import java.io.File;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.logging.Level;
@@ -10,7 +13,8 @@ import java.util.logging.Logger;
 /**
  * 数据库管理器
  * 
- * 管理SQLite数据库连接和初始化数据库结构
+ * 管理SQLite数据库连接池和初始化数据库结构。
+ * 数据访问代码通过read/write在池化连接上执行，不直接持有连接。
  * 
  * @author FabricDefectDetection
  * @version 1.0
@@ -19,23 +23,49 @@ public final class DatabaseManager {
     
     private static final Logger logger = Logger.getLogger(DatabaseManager.class.getName());
     private static final String DB_URL = "jdbc:sqlite:fabric_detection.db";
+    private static final int READER_CONNECTIONS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int DEFAULT_ANALYTICS_READERS = 2;
+    private static final int DEFAULT_ANALYTICS_TIMEOUT_MS = 30000;
+    
+    // 数据库结构版本，保存在PRAGMA user_version中
+    private static final int SCHEMA_VERSION = 9;
     private static DatabaseManager instance;
     
-    private Connection connection;
+    private ConnectionPool connectionPool;
+    private HistoryPartitions historyPartitions;
+    private SpaceReclaimer spaceReclaimer;
+    private volatile boolean timestampBackfillComplete = false;
+    private volatile boolean reportIndexComplete = false;
     
     /**
-     * 私有构造函数，初始化数据库连接和表结构
+     * 私有构造函数，初始化连接池和表结构
      */
     private DatabaseManager() {
         try {
             // 加载SQLite JDBC驱动
             Class.forName("org.sqlite.JDBC");
-            connection = DriverManager.getConnection(DB_URL);
+            ConfigurationManager config = ConfigurationManager.getInstance();
+            connectionPool = new ConnectionPool(DB_URL, READER_CONNECTIONS,
+                    config.getIntProperty("database.analytics-readers", DEFAULT_ANALYTICS_READERS),
+                    config.getIntProperty("database.analytics-timeout-ms", DEFAULT_ANALYTICS_TIMEOUT_MS));
             logger.info("成功连接到数据库");
             
             // 初始化数据库表结构
             initDatabase();
             
+            // 在后台为旧记录补齐整数时间戳，把内联的报告正文移入report_body表，并为旧报告建立全文索引
+            startTimestampBackfill();
+            new ReportBodyMigration(connectionPool).start("report-body-migration");
+            new ReportIndexBuild(connectionPool, () -> reportIndexComplete = true).start("report-index-build");
+            
+            // 早于热数据窗口的记录由后台任务按月移入历史分区
+            startHistoryPartitions();
+            
+            // 批量删除后在后台回收空闲页
+            spaceReclaimer = new SpaceReclaimer(connectionPool,
+                    config.getIntProperty("database.full-vacuum-free-percent", 25));
+            spaceReclaimer.start();
+            
         } catch (ClassNotFoundException e) {
             logger.log(Level.SEVERE, "无法加载SQLite JDBC驱动", e);
         } catch (SQLException e) {
@@ -61,19 +91,49 @@ public final class DatabaseManager {
      * @throws SQLException 如果SQL执行失败
      */
     private void initDatabase() throws SQLException {
-        try (Statement stmt = connection.createStatement()) {
-            // 创建检测历史表
-            String createTableSQL = 
-                "CREATE TABLE IF NOT EXISTS detection_history (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "detection_timestamp TEXT NOT NULL, " +
-                "image_name TEXT, " +
-                "defect_count INTEGER, " +
-                "quality_level TEXT, " +
-                "is_ai_enhanced INTEGER, " +
-                "analysis_report TEXT)";
-            
-            stmt.execute(createTableSQL);
+        try {
+            connectionPool.write(conn -> {
+                try (Statement stmt = conn.getConnection().createStatement()) {
+                    // 创建检测历史表
+                    String createTableSQL = 
+                        "CREATE TABLE IF NOT EXISTS detection_history (" +
+                        "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        "detection_timestamp TEXT NOT NULL, " +
+                        "image_name TEXT, " +
+                        "defect_count INTEGER, " +
+                        "quality_level TEXT, " +
+                        "is_ai_enhanced INTEGER, " +
+                        "analysis_report TEXT)";
+                    
+                    stmt.execute(createTableSQL);
+                    
+                    // 图像尺寸，用于把缺陷位置归一化后统计热力图
+                    addColumnIfMissing(stmt, "detection_history", "image_width", "INTEGER");
+                    addColumnIfMissing(stmt, "detection_history", "image_height", "INTEGER");
+                    
+                    // 创建缺陷明细表，每个缺陷一行
+                    String createDefectTableSQL = 
+                        "CREATE TABLE IF NOT EXISTS defect (" +
+                        "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        "detection_id INTEGER NOT NULL REFERENCES detection_history(id) ON DELETE CASCADE, " +
+                        "defect_type TEXT NOT NULL, " +
+                        "x INTEGER NOT NULL, " +
+                        "y INTEGER NOT NULL, " +
+                        "width INTEGER NOT NULL, " +
+                        "height INTEGER NOT NULL, " +
+                        "area INTEGER NOT NULL)";
+                    stmt.execute(createDefectTableSQL);
+                    
+                    // 按时间范围筛选检测记录，再按类型聚合缺陷
+                    stmt.execute("CREATE INDEX IF NOT EXISTS idx_history_timestamp " +
+                                 "ON detection_history(detection_timestamp)");
+                    stmt.execute("CREATE INDEX IF NOT EXISTS idx_defect_detection ON defect(detection_id)");
+                    stmt.execute("CREATE INDEX IF NOT EXISTS idx_defect_type ON defect(defect_type, detection_id)");
+                    
+                    migrateSchema(stmt);
+                }
+                return null;
+            });
             logger.info("成功初始化数据库表结构");
             
         } catch (SQLException e) {
@@ -83,29 +143,281 @@ public final class DatabaseManager {
     }
     
     /**
-     * 获取数据库连接
+     * 按PRAGMA user_version依次执行尚未执行的结构迁移
+     * 
+     * @param stmt SQL语句对象
+     * @throws SQLException 如果SQL执行失败
+     */
+    private static void migrateSchema(Statement stmt) throws SQLException {
+        int version;
+        try (ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            version = rs.next() ? rs.getInt(1) : 0;
+        }
+        
+        if (version < 1) {
+            // 版本1：整数毫秒时间戳（detection_ts）和时间范围查询的覆盖索引，
+            // 旧记录的detection_ts由TimestampBackfill在后台分批补齐
+            addColumnIfMissing(stmt, "detection_history", "detection_ts", "INTEGER");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_history_ts_covering " +
+                         "ON detection_history(detection_ts, quality_level, defect_count, is_ai_enhanced)");
+        }
+        
+        if (version < 2) {
+            // 版本2：历史记录按(detection_ts, id)键集分页，索引顺序与排序一致，不需要额外排序
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_history_ts_id ON detection_history(detection_ts, id)");
+        }
+        
+        if (version < 3) {
+            // 版本3：记录产线标识，按小时/按天的统计汇总表，并由已有记录生成初始汇总
+            addColumnIfMissing(stmt, "detection_history", "line_id",
+                    "TEXT NOT NULL DEFAULT '" + DetectionRollups.DEFAULT_LINE_ID + "'");
+            DetectionRollups.createTables(stmt);
+            DetectionRollups.rebuild(stmt);
+        }
+        
+        if (version < 4) {
+            // 版本4：报告正文压缩后单独存放，旧记录的正文由ReportBodyMigration在后台移入
+            stmt.execute("CREATE TABLE IF NOT EXISTS report_body (" +
+                         "detection_id INTEGER PRIMARY KEY REFERENCES detection_history(id) ON DELETE CASCADE, " +
+                         "codec INTEGER NOT NULL, " +
+                         "original_length INTEGER NOT NULL, " +
+                         "body BLOB NOT NULL)");
+        }
+        
+        if (version < 5) {
+            // 版本5：检测结果图像的哈希索引（参见ImageStore），检测记录引用缩略图和完整图像
+            addColumnIfMissing(stmt, "detection_history", "thumbnail_hash", "TEXT");
+            addColumnIfMissing(stmt, "detection_history", "image_hash", "TEXT");
+            stmt.execute("CREATE TABLE IF NOT EXISTS image_blob (" +
+                         "hash TEXT PRIMARY KEY, " +
+                         "size_bytes INTEGER NOT NULL, " +
+                         "last_used INTEGER NOT NULL) WITHOUT ROWID");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_image_blob_last_used ON image_blob(last_used)");
+        }
+        
+        if (version < 6) {
+            // 版本6：按月历史分区的目录（参见HistoryPartitions）
+            stmt.execute("CREATE TABLE IF NOT EXISTS history_partition (" +
+                         "month TEXT PRIMARY KEY, " +
+                         "file TEXT NOT NULL, " +
+                         "state TEXT NOT NULL, " +
+                         "min_id INTEGER NOT NULL, " +
+                         "max_id INTEGER NOT NULL)");
+        }
+        
+        if (version < 7) {
+            // 版本7：分析报告全文索引（参见ReportSearchIndex），已有报告由ReportIndexBuild在后台补建
+            ReportSearchIndex.createTable(stmt);
+        }
+        
+        if (version < 8) {
+            // 版本8：检测摘要增加产线列，覆盖索引随之加入line_id
+            stmt.execute("DROP INDEX IF EXISTS idx_history_ts_covering");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_history_ts_line_covering " +
+                         "ON detection_history(detection_ts, quality_level, defect_count, is_ai_enhanced, line_id)");
+        }
+        
+        if (version < 9) {
+            // 版本9：记录所属的批处理任务，按批次删除时使用
+            addColumnIfMissing(stmt, "detection_history", "batch_id", "TEXT");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_history_batch " +
+                         "ON detection_history(batch_id) WHERE batch_id IS NOT NULL");
+        }
+        
+        if (version < SCHEMA_VERSION) {
+            stmt.execute("PRAGMA user_version = " + SCHEMA_VERSION);
+            logger.info("数据库结构已从版本 " + version + " 升级到版本 " + SCHEMA_VERSION);
+        }
+    }
+    
+    /**
+     * 检查是否有记录缺少整数时间戳，有则启动后台补齐线程
+     */
+    private void startTimestampBackfill() {
+        try {
+            boolean pending = connectionPool.read(conn -> {
+                try (Statement stmt = conn.getConnection().createStatement();
+                     ResultSet rs = stmt.executeQuery(
+                             "SELECT EXISTS(SELECT 1 FROM detection_history WHERE detection_ts IS NULL)")) {
+                    return rs.next() && rs.getInt(1) == 1;
+                }
+            });
+            
+            if (!pending) {
+                timestampBackfillComplete = true;
+                return;
+            }
+            
+            new TimestampBackfill(connectionPool, () -> timestampBackfillComplete = true).start("timestamp-backfill");
+            
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "检查时间戳补齐状态失败", e);
+        }
+    }
+    
+    /**
+     * 打开历史分区目录并启动后台维护
+     * 
+     * 参数分别取配置项 history.partition-dir、history.hot-months、history.archive-after-months、
+     * history.retention-months 和 history.maintenance-interval-hours。
+     */
+    private void startHistoryPartitions() {
+        ConfigurationManager config = ConfigurationManager.getInstance();
+        historyPartitions = new HistoryPartitions(
+                new File(config.getProperty("history.partition-dir", "history")),
+                this,
+                config.getIntProperty("history.hot-months", 3),
+                config.getIntProperty("history.archive-after-months", 12),
+                config.getIntProperty("history.retention-months", 0));
+        historyPartitions.start(config.getIntProperty("history.maintenance-interval-hours", 6));
+    }
+    
+    /**
+     * 获取按月历史分区
+     * 
+     * @return 历史分区
+     * @throws SQLException 如果数据库不可用
+     */
+    HistoryPartitions getHistoryPartitions() throws SQLException {
+        if (historyPartitions == null) {
+            throw new SQLException("数据库不可用");
+        }
+        return historyPartitions;
+    }
+    
+    /**
+     * 请求在后台回收删除记录后留下的空闲页
+     */
+    void requestSpaceReclaim() {
+        if (spaceReclaimer != null) {
+            spaceReclaimer.request();
+        }
+    }
+    
+    /**
+     * 判断旧记录的整数时间戳是否已全部补齐
+     * 
+     * 补齐完成前，按时间范围查询需要同时匹配文本时间戳，参见DetectionResultDAO
+     * 
+     * @return 是否已补齐
+     */
+    public boolean isTimestampBackfillComplete() {
+        return timestampBackfillComplete;
+    }
+    
+    /**
+     * 判断已有报告的全文索引是否已全部建立
+     * 
+     * @return 是否已建立
+     */
+    public boolean isReportIndexComplete() {
+        return reportIndexComplete;
+    }
+    
+    /**
+     * 如果表中不存在指定列则添加该列
+     * 
+     * @param stmt SQL语句对象
+     * @param table 表名
+     * @param column 列名
+     * @param definition 列定义
+     * @throws SQLException 如果SQL执行失败
+     */
+    private static void addColumnIfMissing(Statement stmt, String table, String column, String definition) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) {
+                    return;
+                }
+            }
+        }
+        stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+        logger.info("已为表 " + table + " 添加列 " + column);
+    }
+    
+    /**
+     * 在只读连接上执行查询，多个查询可以并发执行
+     * 
+     * @param work 查询操作
+     * @param <T> 返回值类型
+     * @return 查询结果
+     * @throws SQLException 如果数据库不可用或查询失败
+     */
+    public <T> T read(ConnectionPool.SqlWork<T> work) throws SQLException {
+        return requirePool().read(work);
+    }
+    
+    /**
+     * 在分析专用的只读连接上执行统计报表等耗时查询
+     * 
+     * 查询在一个只读事务中执行，所有语句看到同一个快照，不占用普通只读连接，也不阻塞写入。
+     * 超过配置项 database.analytics-timeout-ms 的查询被中止。
+     * 
+     * @param work 查询操作
+     * @param <T> 返回值类型
+     * @return 查询结果
+     * @throws SQLException 如果数据库不可用、查询失败、超时或被取消
+     */
+    public <T> T readSnapshot(ConnectionPool.SqlWork<T> work) throws SQLException {
+        return requirePool().readSnapshot(work);
+    }
+    
+    /**
+     * 在写连接上以单个事务执行写操作，所有写操作串行执行
+     * 
+     * @param work 写操作
+     * @param <T> 返回值类型
+     * @return 操作结果
+     * @throws SQLException 如果数据库不可用或写入失败
+     */
+    public <T> T write(ConnectionPool.SqlWork<T> work) throws SQLException {
+        return requirePool().write(work);
+    }
+    
+    /**
+     * 在写连接上以自动提交模式执行操作，期间其他写操作等待
+     * 
+     * 用于不能放在JDBC事务中的语句（如ATTACH），需要事务时由操作自行BEGIN和COMMIT。
+     * 
+     * @param work 写操作
+     * @param <T> 返回值类型
+     * @return 操作结果
+     * @throws SQLException 如果数据库不可用或执行失败
+     */
+    public <T> T writeWithoutTransaction(ConnectionPool.SqlWork<T> work) throws SQLException {
+        return requirePool().writeWithoutTransaction(work);
+    }
+    
+    /**
+     * 获取一个独立的数据库连接（不属于连接池），调用方负责关闭
      * 
      * @return 数据库连接对象
      * @throws SQLException 如果连接不可用
      */
     public Connection getConnection() throws SQLException {
-        if (connection == null || connection.isClosed()) {
-            connection = DriverManager.getConnection(DB_URL);
-        }
-        return connection;
+        return requirePool().openUnpooledConnection();
     }
     
     /**
-     * 关闭数据库连接
+     * 关闭数据库连接池
      */
     public void closeConnection() {
-        if (connection != null) {
-            try {
-                connection.close();
-                logger.info("数据库连接已关闭");
-            } catch (SQLException e) {
-                logger.log(Level.WARNING, "关闭数据库连接失败", e);
-            }
+        if (historyPartitions != null) {
+            historyPartitions.close();
+        }
+        if (spaceReclaimer != null) {
+            spaceReclaimer.close();
+        }
+        if (connectionPool != null) {
+            connectionPool.close();
+            logger.info("数据库连接已关闭");
+        }
+    }
+    
+    private ConnectionPool requirePool() throws SQLException {
+        if (connectionPool == null) {
+            throw new SQLException("数据库不可用");
         }
+        return connectionPool;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,105 @@
+package com.example.fabricdefectdetection.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.opencv.core.Rect;
+
+import com.example.fabricdefectdetection.detection.DefectType;
+import com.example.fabricdefectdetection.detection.DetectionResult;
+
+/**
+ * 单个缺陷记录
+ *
+ * 对应defect表中的一行：缺陷类型和在原图中的外接矩形（像素坐标）。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public final class DefectRecord {
+
+    private final String type;
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+
+    /**
+     * 构造函数
+     *
+     * @param type 缺陷类型（显示名称）
+     * @param x 外接矩形左上角X坐标
+     * @param y 外接矩形左上角Y坐标
+     * @param width 外接矩形宽度
+     * @param height 外接矩形高度
+     */
+    public DefectRecord(String type, int x, int y, int width, int height) {
+        this.type = type;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * 从检测结果中提取缺陷记录
+     *
+     * 缺陷类型统一为DefectType的显示名称；无法识别的类型保留原文。
+     *
+     * @param result 检测结果
+     * @return 缺陷记录列表
+     */
+    public static List<DefectRecord> fromDetectionResult(DetectionResult result) {
+        List<Rect> rects = result.getDefectBoundingBoxes();
+        List<String> types = result.getDefectTypes();
+        if (rects == null || rects.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<DefectRecord> records = new ArrayList<>(rects.size());
+        for (int i = 0; i < rects.size(); i++) {
+            Rect rect = rects.get(i);
+            String rawType = types != null && i < types.size() ? types.get(i) : null;
+            records.add(new DefectRecord(normalizeType(rawType), rect.x, rect.y, rect.width, rect.height));
+        }
+        return records;
+    }
+
+    private static String normalizeType(String rawType) {
+        DefectType type = DefectType.fromString(rawType);
+        if (type == DefectType.UNKNOWN && rawType != null && !rawType.trim().isEmpty()) {
+            return rawType.trim();
+        }
+        return type.getDisplayName();
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 获取外接矩形面积（像素）
+     *
+     * @return 面积
+     */
+    public long getArea() {
+        return (long) width * height;
+    }
+}
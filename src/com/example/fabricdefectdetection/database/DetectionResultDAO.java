@@ -1,167 +1,1253 @@
 package com.example.fabricdefectdetection.database;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.example.fabricdefectdetection.analysis.DefectAnalysisReport;
+import com.example.fabricdefectdetection.util.ConfigurationManager;
 
 /**
  * 检测结果数据访问对象
- * 
- * 提供对检测结果数据的访问和操作方法
- * 
+ *
+ * 提供对检测结果数据的访问和操作方法。
+ * 查询在连接池的只读连接上并发执行，写入在写连接上串行执行，
+ * SQL语句由连接缓存，不再每次调用都重新打开数据库和编译语句。
+ *
+ * 按时间范围的查询使用整数毫秒时间戳detection_ts和半开区间[当日0点, 次日0点)，
+ * 走idx_history_ts_line_covering索引。旧记录的detection_ts补齐之前，
+ * 查询同时按文本时间戳匹配尚未补齐的记录。
+ *
+ * 质量等级分布、缺陷类型分布和缺陷趋势读取DetectionRollups维护的汇总表，
+ * 汇总表在写入和删除检测记录的同一事务中更新。
+ *
+ * 报告正文压缩后存放在report_body表中，只有getAnalysisReportById读取，
+ * detection_history只保留窄列，按时间范围扫描时不再读入报告正文。
+ * 报告正文同时写入全文索引（参见ReportSearchIndex），searchReports按关键词查询。
+ *
+ * 早于热数据窗口的记录按月存放在历史分区中（参见HistoryPartitions）。明细查询分发到
+ * 主数据库和时间范围重叠的分区后合并；按ID的查询先查主数据库，再查ID范围包含该ID的分区。
+ *
  * @author FabricDefectDetection
  * @version 1.0
  */
 public class DetectionResultDAO {
-    
+
     private static final Logger logger = Logger.getLogger(DetectionResultDAO.class.getName());
     private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-    
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final DateTimeFormatter HOUR_LABEL_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH时");
+
+    private static final String INSERT_SQL =
+            "INSERT INTO detection_history " +
+            "(detection_timestamp, image_name, defect_count, quality_level, is_ai_enhanced, " +
+            "image_width, image_height, detection_ts, line_id, batch_id) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_REPORT_BODY_SQL =
+            "INSERT INTO report_body (detection_id, codec, original_length, body) VALUES (?, ?, ?, ?)";
+
+    private static final String INSERT_DEFECT_SQL =
+            "INSERT INTO defect (detection_id, defect_type, x, y, width, height, area) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String DEFECT_TYPE_DISTRIBUTION_SQL =
+            "SELECT defect_type, SUM(defect_count) AS defect_total " +
+            "FROM defect_rollup " +
+            "WHERE period = 'day' AND bucket_start >= ? AND bucket_start < ? " +
+            "GROUP BY defect_type " +
+            "HAVING defect_total > 0 " +
+            "ORDER BY defect_total DESC";
+
+    private static final String QUALITY_LEVEL_DISTRIBUTION_SQL =
+            "SELECT quality_level, SUM(detection_count) AS detection_total " +
+            "FROM history_rollup " +
+            "WHERE period = 'day' AND bucket_start >= ? AND bucket_start < ? " +
+            "GROUP BY quality_level " +
+            "HAVING detection_total > 0";
+
+    private static final String DEFECT_TREND_SQL =
+            "SELECT bucket_start, SUM(detection_count) AS detection_total, SUM(defect_total) AS defect_sum " +
+            "FROM history_rollup " +
+            "WHERE period = ? AND bucket_start >= ? AND bucket_start < ? " +
+            "GROUP BY bucket_start " +
+            "HAVING detection_total > 0 " +
+            "ORDER BY bucket_start";
+
+    // 按缺陷中心点在图像中的相对位置划分网格计数
+    private static final String DEFECT_HEATMAP_SQL =
+            "SELECT CAST((d.x + d.width / 2.0) * ? / h.image_width AS INTEGER) AS grid_x, " +
+            "CAST((d.y + d.height / 2.0) * ? / h.image_height AS INTEGER) AS grid_y, " +
+            "COUNT(*) AS defect_total " +
+            "FROM detection_history h JOIN defect d ON d.detection_id = h.id " +
+            "WHERE %s AND h.image_width > 0 AND h.image_height > 0 " +
+            "GROUP BY grid_x, grid_y";
+
+    // 排序和键集分页条件由historySql追加
+    private static final String FIND_HISTORY_SQL =
+            "SELECT h.id, %s AS ts, h.detection_timestamp, h.image_name, h.defect_count, h.quality_level, " +
+            "h.is_ai_enhanced " +
+            "FROM detection_history h " +
+            "WHERE %s";
+
+    private static final String FIND_BY_ID_SQL =
+            String.format(FIND_HISTORY_SQL, "h.detection_ts", "h.id = ?");
+
+    // 只读取覆盖索引中的列，查询不需要回表
+    private static final String FIND_SUMMARIES_SQL =
+            "SELECT %s AS ts, h.quality_level, h.defect_count, h.is_ai_enhanced, h.line_id " +
+            "FROM detection_history h " +
+            "WHERE %s";
+
+    private static final String TS_RANGE = "h.detection_ts >= ? AND h.detection_ts < ?";
+    private static final String LEGACY_TS_RANGE =
+            "(h.detection_ts >= ? AND h.detection_ts < ? " +
+            "OR h.detection_ts IS NULL AND h.detection_timestamp BETWEEN ? AND ?)";
+    private static final String LEGACY_TS_COLUMN =
+            "COALESCE(h.detection_ts, CAST(strftime('%s', h.detection_timestamp, 'utc') AS INTEGER) * 1000)";
+
+    // 尚未迁移的旧记录的报告正文仍在analysis_report列中
+    private static final String FIND_REPORT_SQL =
+            "SELECT h.analysis_report, b.codec, b.original_length, b.body " +
+            "FROM detection_history h LEFT JOIN report_body b ON b.detection_id = h.id " +
+            "WHERE h.id = ?";
+
+    private static final String DELETE_SQL = "DELETE FROM detection_history WHERE id = ?";
+
+    private static final String UPDATE_IMAGE_HASHES_SQL =
+            "UPDATE detection_history SET thumbnail_hash = ?, image_hash = ? WHERE id = ?";
+
+    private static final String FIND_IMAGE_HASHES_SQL =
+            "SELECT thumbnail_hash, image_hash FROM detection_history WHERE id = ?";
+
+    private static final String FIND_ROLLUP_KEY_SQL =
+            "SELECT %s AS ts, h.line_id, h.quality_level, h.defect_count " +
+            "FROM detection_history h WHERE h.id = ?";
+
+    private static final String SELECT_RANGE_IDS_SQL = "SELECT h.id FROM detection_history h WHERE %s LIMIT ?";
+    private static final String SELECT_BATCH_IDS_SQL = "SELECT id FROM detection_history WHERE batch_id = ? LIMIT ?";
+
+    private static final String FIND_DEFECT_COUNTS_SQL =
+            "SELECT defect_type, COUNT(*) AS defect_total FROM defect WHERE detection_id = ? GROUP BY defect_type";
+
+    // streamResultsByDateRange每次读取的记录数
+    private static final int STREAM_PAGE_SIZE = 1000;
+
+    // 批量删除时每个事务删除的记录数
+    private static final int DELETE_CHUNK_SIZE = 500;
+
+    private final String lineId;
+
+    /**
+     * 构造函数，产线标识取自配置项detection.line-id
+     */
+    public DetectionResultDAO() {
+        this.lineId = ConfigurationManager.getInstance()
+                .getProperty("detection.line-id", DetectionRollups.DEFAULT_LINE_ID);
+    }
+
     /**
      * 保存检测结果和分析报告到数据库
-     * 
+     *
+     * 写入经由组提交写入器与其他线程的写入合并到同一事务中，本方法在事务提交后返回。
+     *
      * @param report 分析报告
      * @param imageName 图片名称
      */
     public void saveResult(DefectAnalysisReport report, String imageName) {
-        String sql = "INSERT INTO detection_history " +
-                     "(detection_timestamp, image_name, defect_count, quality_level, is_ai_enhanced, analysis_report) " +
-                     "VALUES (?, ?, ?, ?, ?, ?)";
-                     
-        try (Connection conn = DatabaseManager.getInstance().getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            // 设置参数
-            pstmt.setString(1, LocalDateTime.now().format(DATE_FORMAT));
-            pstmt.setString(2, imageName);
-            pstmt.setInt(3, report.getDefectCount());
-            pstmt.setString(4, report.getQualityLevel());
-            pstmt.setInt(5, report.isAiEnhanced() ? 1 : 0);
-            pstmt.setString(6, report.getAnalysisContent());
-            
-            // 执行SQL
-            int rowsAffected = pstmt.executeUpdate();
-            
-            if (rowsAffected > 0) {
-                logger.info("成功保存检测结果: " + imageName);
-            } else {
-                logger.warning("保存检测结果失败: " + imageName);
+        try {
+            GroupCommitWriter.getInstance().submit(conn -> insertResult(conn, report, imageName)).join();
+            logger.info("成功保存检测结果: " + imageName);
+
+        } catch (CompletionException e) {
+            logger.log(Level.SEVERE, "保存检测结果到数据库时发生错误", e.getCause());
+        }
+    }
+
+    /**
+     * 在给定连接上插入一条检测结果，由调用方所在的事务提交
+     *
+     * @param conn 池化连接
+     * @param report 分析报告
+     * @param imageName 图片名称
+     * @return 新记录的ID
+     * @throws SQLException 如果SQL执行失败
+     */
+    long insertResult(PooledConnection conn, DefectAnalysisReport report, String imageName) throws SQLException {
+        return insertResult(conn, report, imageName, 0, 0);
+    }
+
+    /**
+     * 在给定连接上插入一条检测结果（含图像尺寸），由调用方所在的事务提交
+     *
+     * @param conn 池化连接
+     * @param report 分析报告
+     * @param imageName 图片名称
+     * @param imageWidth 图像宽度，未知时为0
+     * @param imageHeight 图像高度，未知时为0
+     * @return 新记录的ID
+     * @throws SQLException 如果SQL执行失败
+     */
+    long insertResult(PooledConnection conn, DefectAnalysisReport report, String imageName,
+                      int imageWidth, int imageHeight) throws SQLException {
+        return insertResult(conn, report, imageName, imageWidth, imageHeight, System.currentTimeMillis());
+    }
+
+    /**
+     * 在给定连接上插入一条检测结果并累加统计汇总，由调用方所在的事务提交
+     *
+     * @param conn 池化连接
+     * @param report 分析报告
+     * @param imageName 图片名称
+     * @param imageWidth 图像宽度，未知时为0
+     * @param imageHeight 图像高度，未知时为0
+     * @param detectionTs 检测时间（毫秒时间戳）
+     * @return 新记录的ID
+     * @throws SQLException 如果SQL执行失败
+     */
+    long insertResult(PooledConnection conn, DefectAnalysisReport report, String imageName,
+                      int imageWidth, int imageHeight, long detectionTs) throws SQLException {
+        return insertResult(conn, report, imageName, imageWidth, imageHeight, detectionTs, null);
+    }
+
+    /**
+     * 在给定连接上插入一条属于批处理任务的检测结果并累加统计汇总，由调用方所在的事务提交
+     *
+     * @param conn 池化连接
+     * @param report 分析报告
+     * @param imageName 图片名称
+     * @param imageWidth 图像宽度，未知时为0
+     * @param imageHeight 图像高度，未知时为0
+     * @param detectionTs 检测时间（毫秒时间戳）
+     * @param batchId 批处理任务编号，不属于批处理时为null
+     * @return 新记录的ID
+     * @throws SQLException 如果SQL执行失败
+     */
+    long insertResult(PooledConnection conn, DefectAnalysisReport report, String imageName,
+                      int imageWidth, int imageHeight, long detectionTs, String batchId) throws SQLException {
+        PreparedStatement pstmt = conn.prepare(INSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+
+        // 设置参数
+        pstmt.setString(1, LocalDateTime.ofInstant(Instant.ofEpochMilli(detectionTs), ZoneId.systemDefault())
+                .format(DATE_FORMAT));
+        pstmt.setString(2, imageName);
+        pstmt.setInt(3, report.getDefectCount());
+        pstmt.setString(4, report.getQualityLevel());
+        pstmt.setInt(5, report.isAiEnhanced() ? 1 : 0);
+        setPositiveOrNull(pstmt, 6, imageWidth);
+        setPositiveOrNull(pstmt, 7, imageHeight);
+        pstmt.setLong(8, detectionTs);
+        pstmt.setString(9, lineId);
+        pstmt.setString(10, batchId);
+
+        // 执行SQL
+        if (pstmt.executeUpdate() == 0) {
+            throw new SQLException("保存检测结果失败: " + imageName);
+        }
+
+        long resultId;
+        try (ResultSet keys = pstmt.getGeneratedKeys()) {
+            resultId = keys.next() ? keys.getLong(1) : -1;
+        }
+
+        String content = report.getAnalysisContent();
+        if (content != null && resultId > 0) {
+            ReportCodec.Encoded body = ReportCodec.encode(content);
+            PreparedStatement bodyStmt = conn.prepare(INSERT_REPORT_BODY_SQL);
+            bodyStmt.setLong(1, resultId);
+            bodyStmt.setInt(2, body.codec);
+            bodyStmt.setInt(3, body.originalLength);
+            bodyStmt.setBytes(4, body.body);
+            bodyStmt.executeUpdate();
+
+            ReportSearchIndex.add(conn, resultId, content);
+        }
+
+        DetectionRollups.addDetection(conn, detectionTs, lineId, report.getQualityLevel(), report.getDefectCount(), 1);
+        return resultId;
+    }
+
+    /**
+     * 在给定连接上批量插入一条检测结果的缺陷明细并累加缺陷类型汇总，由调用方所在的事务提交
+     *
+     * @param conn 池化连接
+     * @param detectionId 检测记录ID
+     * @param detectionTs 检测时间（毫秒时间戳），与insertResult使用的时间相同
+     * @param defects 缺陷记录
+     * @throws SQLException 如果SQL执行失败
+     */
+    void insertDefects(PooledConnection conn, long detectionId, long detectionTs, List<DefectRecord> defects)
+            throws SQLException {
+        if (defects.isEmpty()) {
+            return;
+        }
+
+        PreparedStatement pstmt = conn.prepare(INSERT_DEFECT_SQL);
+        for (DefectRecord defect : defects) {
+            pstmt.setLong(1, detectionId);
+            pstmt.setString(2, defect.getType());
+            pstmt.setInt(3, defect.getX());
+            pstmt.setInt(4, defect.getY());
+            pstmt.setInt(5, defect.getWidth());
+            pstmt.setInt(6, defect.getHeight());
+            pstmt.setLong(7, defect.getArea());
+            pstmt.addBatch();
+        }
+        pstmt.executeBatch();
+
+        DetectionRollups.addDefects(conn, detectionTs, lineId, defects, 1);
+    }
+
+    private static void setPositiveOrNull(PreparedStatement pstmt, int index, int value) throws SQLException {
+        if (value > 0) {
+            pstmt.setInt(index, value);
+        } else {
+            pstmt.setNull(index, Types.INTEGER);
+        }
+    }
+
+    /**
+     * 生成时间范围条件，旧记录补齐之前同时匹配文本时间戳
+     */
+    private static String rangePredicate(boolean legacy) {
+        return legacy ? LEGACY_TS_RANGE : TS_RANGE;
+    }
+
+    /**
+     * 绑定时间范围参数
+     *
+     * @return 下一个参数的下标
+     * @throws SQLException 如果日期格式不正确
+     */
+    private static int bindRange(PreparedStatement pstmt, int index, String startDate, String endDate, boolean legacy)
+            throws SQLException {
+        long[] range = dayRange(startDate, endDate);
+        pstmt.setLong(index++, range[0]);
+        pstmt.setLong(index++, range[1]);
+        if (legacy) {
+            pstmt.setString(index++, startDate + " 00:00:00");
+            pstmt.setString(index++, endDate + " 23:59:59");
+        }
+        return index;
+    }
+
+    /**
+     * 把日期范围换算为毫秒时间戳区间[开始日0点, 结束日次日0点)
+     *
+     * @throws SQLException 如果日期格式不正确
+     */
+    private static long[] dayRange(String startDate, String endDate) throws SQLException {
+        LocalDate start;
+        LocalDate end;
+        try {
+            start = LocalDate.parse(startDate, DAY_FORMAT);
+            end = LocalDate.parse(endDate, DAY_FORMAT);
+        } catch (DateTimeParseException e) {
+            throw new SQLException("日期格式不正确: " + startDate + " ~ " + endDate, e);
+        }
+
+        ZoneId zone = ZoneId.systemDefault();
+        return new long[] {
+            start.atStartOfDay(zone).toInstant().toEpochMilli(),
+            end.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli()
+        };
+    }
+
+    private static boolean isLegacyRange() {
+        return !DatabaseManager.getInstance().isTimestampBackfillComplete();
+    }
+
+    /**
+     * 在主数据库和一个数据源上执行的时间范围查询
+     */
+    @FunctionalInterface
+    private interface RangeQuery {
+        /**
+         * @param conn 数据源的连接
+         * @param legacy 是否需要匹配尚未补齐整数时间戳的旧记录（历史分区中的记录都已补齐）
+         */
+        void execute(PooledConnection conn, boolean legacy) throws SQLException;
+    }
+
+    /**
+     * 依次在主数据库和时间范围重叠的历史分区上执行统计查询，主数据库使用分析连接
+     *
+     * @throws SQLException 如果日期格式不正确或任一数据源查询失败
+     */
+    private static void queryRange(String startDate, String endDate, RangeQuery query) throws SQLException {
+        DatabaseManager database = DatabaseManager.getInstance();
+        boolean legacy = isLegacyRange();
+        database.readSnapshot(conn -> {
+            query.execute(conn, legacy);
+            return null;
+        });
+
+        long[] range = dayRange(startDate, endDate);
+        HistoryPartitions partitions = database.getHistoryPartitions();
+        for (HistoryPartitions.Partition partition : partitions.overlapping(range[0], range[1])) {
+            checkInterrupted();
+            partitions.read(partition, conn -> {
+                query.execute(conn, false);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * 按ID查询，先查主数据库，未找到时再查ID范围包含该ID的历史分区
+     *
+     * @return 查询结果，所有数据源都返回null时为null
+     * @throws SQLException 如果任一数据源查询失败
+     */
+    private static <T> T findById(long id, ConnectionPool.SqlWork<T> work) throws SQLException {
+        DatabaseManager database = DatabaseManager.getInstance();
+        T result = database.read(work);
+        if (result != null) {
+            return result;
+        }
+
+        HistoryPartitions partitions = database.getHistoryPartitions();
+        for (HistoryPartitions.Partition partition : partitions.containing(id)) {
+            result = partitions.read(partition, work);
+            if (result != null) {
+                return result;
             }
-            
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "保存检测结果到数据库时发生错误", e);
         }
+        return null;
     }
-    
+
     /**
      * 按日期范围查询检测结果
-     * 
+     *
+     * 所有记录一次性加载到内存，记录较多时应使用findResultsPage或streamResultsByDateRange。
+     *
      * @param startDate 开始日期 (yyyy-MM-dd)
      * @param endDate 结束日期 (yyyy-MM-dd)
      * @return 检测结果数据列表
      */
-    public List<Object[]> findResultsByDateRange(String startDate, String endDate) {
-        List<Object[]> results = new ArrayList<>();
-        
-        String sql = "SELECT id, detection_timestamp, image_name, defect_count, quality_level, is_ai_enhanced " +
-                     "FROM detection_history " +
-                     "WHERE detection_timestamp BETWEEN ? AND ? " +
-                     "ORDER BY detection_timestamp DESC";
-                     
-        try (Connection conn = DatabaseManager.getInstance().getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            // 转换日期格式添加时间部分
-            pstmt.setString(1, startDate + " 00:00:00");
-            pstmt.setString(2, endDate + " 23:59:59");
-            
+    public List<HistoryRecord> findResultsByDateRange(String startDate, String endDate) {
+        List<HistoryRecord> results = new ArrayList<>();
+        streamResultsByDateRange(startDate, endDate, results::add);
+
+        logger.info("查询到 " + results.size() + " 条检测结果记录");
+        return results;
+    }
+
+    /**
+     * 按日期范围逐条读取检测结果，按检测时间降序交给回调处理，不在内存中保留结果集
+     *
+     * 记录按页读取，回调在每页读取完成后执行，不占用数据库连接。
+     *
+     * @param startDate 开始日期 (yyyy-MM-dd)
+     * @param endDate 结束日期 (yyyy-MM-dd)
+     * @param consumer 处理每条记录的回调
+     * @return 是否已读取全部记录，查询出错时为false
+     */
+    public boolean streamResultsByDateRange(String startDate, String endDate, Consumer<HistoryRecord> consumer) {
+        try {
+            HistoryPage.Cursor cursor = null;
+            do {
+                checkInterrupted();
+                HistoryPage page = readPage(startDate, endDate, cursor, STREAM_PAGE_SIZE, true);
+                page.getRows().forEach(consumer);
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+            return true;
+
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "查询检测结果时发生错误", e);
+            return false;
+        }
+    }
+
+    /**
+     * 按日期范围分页查询检测结果，按(检测时间, ID)降序排列
+     *
+     * @param startDate 开始日期 (yyyy-MM-dd)
+     * @param endDate 结束日期 (yyyy-MM-dd)
+     * @param after 上一页返回的游标，查询第一页时为null
+     * @param pageSize 每页记录数
+     * @return 一页检测结果，查询出错时返回空页
+     */
+    public HistoryPage findResultsPage(String startDate, String endDate, HistoryPage.Cursor after, int pageSize) {
+        try {
+            return readPage(startDate, endDate, after, pageSize, false);
+
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "分页查询检测结果时发生错误", e);
+            return new HistoryPage(new ArrayList<>(), null);
+        }
+    }
+
+    /**
+     * 读取一页检测结果
+     *
+     * 每个数据源各自按键集读取至多pageSize+1条，合并排序后取前pageSize条，多出的一条用于判断
+     * 是否还有下一页。分区按月份从新到旧读取，已读到足够多比该分区更新的记录时不再打开更早的分区。
+     *
+     * @param analytics 主数据库是否使用分析连接（逐条导出等长时间读取），界面分页使用普通只读连接
+     */
+    private static HistoryPage readPage(String startDate, String endDate, HistoryPage.Cursor after, int pageSize,
+                                        boolean analytics) throws SQLException {
+        List<HistoryRecord> candidates = new ArrayList<>();
+        int limit = pageSize + 1;
+
+        RangeQuery query = (conn, legacy) -> {
+            PreparedStatement pstmt = conn.prepare(historySql(legacy, after != null));
+            int index = bindRange(pstmt, 1, startDate, endDate, legacy);
+            if (after != null) {
+                pstmt.setLong(index++, after.getTimestamp());
+                pstmt.setLong(index++, after.getId());
+            }
+            pstmt.setInt(index, limit);
+
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    Object[] row = new Object[6];
-                    row[0] = rs.getInt("id");
-                    row[1] = rs.getString("detection_timestamp");
-                    row[2] = rs.getString("image_name");
-                    row[3] = rs.getInt("defect_count");
-                    row[4] = rs.getString("quality_level");
-                    row[5] = rs.getBoolean("is_ai_enhanced");
-                    
-                    results.add(row);
+                    candidates.add(readHistoryRecord(rs));
                 }
             }
-            
-            logger.info("查询到 " + results.size() + " 条检测结果记录");
-            
+        };
+
+        DatabaseManager database = DatabaseManager.getInstance();
+        boolean legacy = isLegacyRange();
+        ConnectionPool.SqlWork<Void> mainQuery = conn -> {
+            query.execute(conn, legacy);
+            return null;
+        };
+        if (analytics) {
+            database.readSnapshot(mainQuery);
+        } else {
+            database.read(mainQuery);
+        }
+
+        long[] range = dayRange(startDate, endDate);
+        HistoryPartitions partitions = database.getHistoryPartitions();
+        for (HistoryPartitions.Partition partition : partitions.overlapping(range[0], range[1])) {
+            if (countNewerThan(candidates, partition.endMillis) >= limit) {
+                break;
+            }
+            checkInterrupted();
+            partitions.read(partition, conn -> {
+                query.execute(conn, false);
+                return null;
+            });
+        }
+
+        candidates.sort(HistoryRecord.NEWEST_FIRST);
+        if (candidates.size() <= pageSize) {
+            return new HistoryPage(candidates, null);
+        }
+        HistoryRecord last = candidates.get(pageSize - 1);
+        return new HistoryPage(new ArrayList<>(candidates.subList(0, pageSize)),
+                new HistoryPage.Cursor(last.getTimestamp(), last.getId()));
+    }
+
+    /**
+     * 查询线程被中断（异步查询被取消或超时）时停止读取后续数据源
+     *
+     * @throws SQLException 如果当前线程已被中断
+     */
+    private static void checkInterrupted() throws SQLException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new SQLException("查询已取消");
+        }
+    }
+
+    private static int countNewerThan(List<HistoryRecord> records, long timestamp) {
+        int count = 0;
+        for (HistoryRecord record : records) {
+            if (record.getTimestamp() >= timestamp) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 生成历史记录查询语句
+     *
+     * @param legacy 是否需要匹配尚未补齐整数时间戳的旧记录
+     * @param afterCursor 是否从游标之后开始读取
+     */
+    private static String historySql(boolean legacy, boolean afterCursor) {
+        String tsColumn = legacy ? LEGACY_TS_COLUMN : "h.detection_ts";
+        StringBuilder sql = new StringBuilder(String.format(FIND_HISTORY_SQL, tsColumn, rangePredicate(legacy)));
+        if (afterCursor) {
+            sql.append(" AND (").append(tsColumn).append(", h.id) < (?, ?)");
+        }
+        sql.append(" ORDER BY ").append(tsColumn).append(" DESC, h.id DESC LIMIT ?");
+        return sql.toString();
+    }
+
+    private static HistoryRecord readHistoryRecord(ResultSet rs) throws SQLException {
+        return new HistoryRecord(rs.getLong("id"), rs.getLong("ts"), rs.getString("detection_timestamp"),
+                rs.getString("image_name"), rs.getInt("defect_count"), rs.getString("quality_level"),
+                rs.getBoolean("is_ai_enhanced"));
+    }
+
+    /**
+     * 按日期范围查询检测摘要（时间、质量等级、缺陷数、是否AI增强、产线），用于汇总表中没有的统计
+     *
+     * 查询只涉及覆盖索引中的列，不读取报告正文等大字段。结果按列存放，参见HistoryFrame。
+     *
+     * @param startDate 开始日期 (yyyy-MM-dd)
+     * @param endDate 结束日期 (yyyy-MM-dd)
+     * @return 检测摘要，查询出错时为空
+     */
+    public HistoryFrame findDetectionSummaries(String startDate, String endDate) {
+        HistoryFrame.Builder summaries = new HistoryFrame.Builder();
+
+        try {
+            queryRange(startDate, endDate, (conn, legacy) -> {
+                String sql = legacy
+                        ? String.format(FIND_SUMMARIES_SQL, LEGACY_TS_COLUMN, LEGACY_TS_RANGE)
+                        : String.format(FIND_SUMMARIES_SQL, "h.detection_ts", TS_RANGE);
+                PreparedStatement pstmt = conn.prepare(sql);
+                bindRange(pstmt, 1, startDate, endDate, legacy);
+
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        summaries.add(rs.getLong("ts"), rs.getString("quality_level"), rs.getInt("defect_count"),
+                                rs.getBoolean("is_ai_enhanced"), rs.getString("line_id"));
+                    }
+                }
+            });
+
         } catch (SQLException e) {
-            logger.log(Level.SEVERE, "查询检测结果时发生错误", e);
+            logger.log(Level.SEVERE, "查询检测摘要时发生错误", e);
+            return new HistoryFrame.Builder(0).build();
         }
-        
-        return results;
+
+        return summaries.build();
+    }
+
+    /**
+     * 按日期范围统计各类型缺陷的数量（读取按天汇总表，包含所有产线）
+     *
+     * @param startDate 开始日期 (yyyy-MM-dd)
+     * @param endDate 结束日期 (yyyy-MM-dd)
+     * @return 缺陷类型到数量的映射，按数量降序
+     */
+    public Map<String, Integer> findDefectTypeDistribution(String startDate, String endDate) {
+        Map<String, Integer> distribution = new LinkedHashMap<>();
+
+        try {
+            DatabaseManager.getInstance().readSnapshot(conn -> {
+                PreparedStatement pstmt = conn.prepare(DEFECT_TYPE_DISTRIBUTION_SQL);
+                bindRange(pstmt, 1, startDate, endDate, false);
+
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        distribution.put(rs.getString("defect_type"), rs.getInt("defect_total"));
+                    }
+                }
+                return null;
+            });
+
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "统计缺陷类型分布时发生错误", e);
+        }
+
+        return distribution;
+    }
+
+    /**
+     * 按日期范围统计各质量等级的检测数（读取按天汇总表，包含所有产线）
+     *
+     * @param startDate 开始日期 (yyyy-MM-dd)
+     * @param endDate 结束日期 (yyyy-MM-dd)
+     * @return 质量等级到检测数的映射
+     */
+    public Map<String, Integer> findQualityLevelDistribution(String startDate, String endDate) {
+        Map<String, Integer> distribution = new LinkedHashMap<>();
+
+        try {
+            DatabaseManager.getInstance().readSnapshot(conn -> {
+                PreparedStatement pstmt = conn.prepare(QUALITY_LEVEL_DISTRIBUTION_SQL);
+                bindRange(pstmt, 1, startDate, endDate, false);
+
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        distribution.put(rs.getString("quality_level"), rs.getInt("detection_total"));
+                    }
+                }
+                return null;
+            });
+
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "统计质量等级分布时发生错误", e);
+        }
+
+        return distribution;
     }
-    
+
+    /**
+     * 按日期范围统计平均缺陷数（缺陷总数/检测数）趋势，包含所有产线
+     *
+     * @param startDate 开始日期 (yyyy-MM-dd)
+     * @param endDate 结束日期 (yyyy-MM-dd)
+     * @param hourly 为true时按小时统计，时间标签为"yyyy-MM-dd HH时"；否则按天统计，时间标签为"yyyy-MM-dd"
+     * @return 时间标签到平均缺陷数的映射，按时间升序
+     */
+    public Map<String, Double> findDefectTrend(String startDate, String endDate, boolean hourly) {
+        Map<String, Double> trend = new LinkedHashMap<>();
+        DateTimeFormatter labelFormat = hourly ? HOUR_LABEL_FORMAT : DAY_FORMAT;
+
+        try {
+            DatabaseManager.getInstance().readSnapshot(conn -> {
+                PreparedStatement pstmt = conn.prepare(DEFECT_TREND_SQL);
+                pstmt.setString(1, hourly ? DetectionRollups.PERIOD_HOUR : DetectionRollups.PERIOD_DAY);
+                bindRange(pstmt, 2, startDate, endDate, false);
+
+                ZoneId zone = ZoneId.systemDefault();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        String label = Instant.ofEpochMilli(rs.getLong("bucket_start")).atZone(zone).format(labelFormat);
+                        trend.put(label, (double) rs.getLong("defect_sum") / rs.getLong("detection_total"));
+                    }
+                }
+                return null;
+            });
+
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "统计缺陷趋势时发生错误", e);
+        }
+
+        return trend;
+    }
+
+    /**
+     * 按日期范围统计缺陷位置热力图
+     *
+     * 将图像按相对位置划分为gridSize×gridSize的网格，统计中心点落在每个网格内的缺陷数。
+     * 没有记录图像尺寸的检测结果不参与统计。
+     *
+     * @param startDate 开始日期 (yyyy-MM-dd)
+     * @param endDate 结束日期 (yyyy-MM-dd)
+     * @param gridSize 网格划分数
+     * @return 缺陷计数，下标为[行][列]
+     */
+    public int[][] findDefectHeatmap(String startDate, String endDate, int gridSize) {
+        int[][] heatmap = new int[gridSize][gridSize];
+
+        try {
+            queryRange(startDate, endDate, (conn, legacy) -> {
+                PreparedStatement pstmt = conn.prepare(String.format(DEFECT_HEATMAP_SQL, rangePredicate(legacy)));
+                pstmt.setInt(1, gridSize);
+                pstmt.setInt(2, gridSize);
+                bindRange(pstmt, 3, startDate, endDate, legacy);
+
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        // 位于图像右边缘或下边缘的缺陷归入最后一格
+                        int column = Math.max(0, Math.min(gridSize - 1, rs.getInt("grid_x")));
+                        int row = Math.max(0, Math.min(gridSize - 1, rs.getInt("grid_y")));
+                        heatmap[row][column] += rs.getInt("defect_total");
+                    }
+                }
+            });
+
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "统计缺陷热力图时发生错误", e);
+        }
+
+        return heatmap;
+    }
+
     /**
      * 根据ID获取完整的分析报告
-     * 
+     *
      * @param id 检测结果ID
      * @return 分析报告文本
      */
     public String getAnalysisReportById(int id) {
-        String report = null;
-        String sql = "SELECT analysis_report FROM detection_history WHERE id = ?";
-                     
-        try (Connection conn = DatabaseManager.getInstance().getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setInt(1, id);
-            
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    report = rs.getString("analysis_report");
+        try {
+            return findById(id, conn -> readReport(conn, id));
+
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "获取分析报告时发生错误", e);
+        }
+
+        return null;
+    }
+
+    /**
+     * 在给定连接上读取报告正文
+     *
+     * @return 报告正文，记录不存在或没有报告时为null
+     */
+    private static String readReport(PooledConnection conn, int id) throws SQLException {
+        PreparedStatement pstmt = conn.prepare(FIND_REPORT_SQL);
+        pstmt.setInt(1, id);
+
+        try (ResultSet rs = pstmt.executeQuery()) {
+            if (!rs.next()) {
+                return null;
+            }
+            byte[] body = rs.getBytes("body");
+            if (body == null) {
+                return rs.getString("analysis_report");
+            }
+            return ReportCodec.decode(rs.getInt("codec"), rs.getInt("original_length"), body);
+        }
+    }
+
+    /**
+     * 按关键词全文搜索分析报告
+     *
+     * 多个关键词以空白分隔，须全部出现在报告中；结果按相关度（BM25）降序排列。
+     * 索引在主数据库中，命中的记录可能位于历史分区。
+     *
+     * @param query 关键词
+     * @param limit 最多返回的记录数
+     * @return 检测结果列表
+     */
+    public List<HistoryRecord> searchReports(String query, int limit) {
+        List<HistoryRecord> results = new ArrayList<>();
+
+        try {
+            List<Long> ids = DatabaseManager.getInstance().readSnapshot(conn -> ReportSearchIndex.search(conn, query, limit));
+            for (long id : ids) {
+                checkInterrupted();
+                HistoryRecord record = findById(id, conn -> {
+                    PreparedStatement pstmt = conn.prepare(FIND_BY_ID_SQL);
+                    pstmt.setLong(1, id);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        return rs.next() ? readHistoryRecord(rs) : null;
+                    }
+                });
+                // 所在分区已超过保留期限删除的记录不再返回
+                if (record != null) {
+                    results.add(record);
                 }
             }
-            
+
         } catch (SQLException e) {
-            logger.log(Level.SEVERE, "获取分析报告时发生错误", e);
+            logger.log(Level.SEVERE, "搜索分析报告时发生错误", e);
+        }
+
+        return results;
+    }
+
+    /**
+     * 在给定连接上记录检测结果图像的哈希，由调用方所在的事务提交
+     *
+     * @param conn 池化连接
+     * @param detectionId 检测记录ID
+     * @param images 已保存的图像
+     * @throws SQLException 如果SQL执行失败
+     */
+    void updateImageHashes(PooledConnection conn, long detectionId, ImageStore.StoredImages images)
+            throws SQLException {
+        PreparedStatement pstmt = conn.prepare(UPDATE_IMAGE_HASHES_SQL);
+        pstmt.setString(1, images.getThumbnailHash());
+        pstmt.setString(2, images.getImageHash());
+        pstmt.setLong(3, detectionId);
+        pstmt.executeUpdate();
+    }
+
+    /**
+     * 根据ID获取检测结果图像的哈希
+     *
+     * @param id 检测结果ID
+     * @return 缩略图哈希和完整图像哈希（均可能为null），记录不存在时返回null
+     */
+    public String[] findImageHashes(int id) {
+        try {
+            return findById(id, conn -> {
+                PreparedStatement pstmt = conn.prepare(FIND_IMAGE_HASHES_SQL);
+                pstmt.setInt(1, id);
+
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next() ? new String[] {rs.getString("thumbnail_hash"), rs.getString("image_hash")} : null;
+                }
+            });
+
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "获取检测结果图像时发生错误", e);
         }
-        
-        return report;
+
+        return null;
     }
-    
+
     /**
-     * 删除检测结果记录
-     * 
+     * 删除检测结果记录，并在同一事务中从统计汇总中减去该记录、从全文索引中删除该报告
+     *
+     * 主数据库中没有该记录时到历史分区中删除，统计汇总和全文索引随后在主数据库中单独更新。
+     * 已归档的分区只读，其中的记录不能删除。
+     *
      * @param id 检测结果ID
      * @return 是否删除成功
      */
     public boolean deleteResult(int id) {
-        String sql = "DELETE FROM detection_history WHERE id = ?";
-                     
-        try (Connection conn = DatabaseManager.getInstance().getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setInt(1, id);
-            
-            int rowsAffected = pstmt.executeUpdate();
-            
+        try {
+            DatabaseManager database = DatabaseManager.getInstance();
+            int rowsAffected = database.write(conn -> deleteInTransaction(conn, id) ? 1 : 0);
+
+            if (rowsAffected == 0) {
+                rowsAffected = deleteFromPartitions(database, id);
+            }
+
             if (rowsAffected > 0) {
                 logger.info("成功删除ID为" + id + "的检测结果");
                 return true;
             } else {
                 logger.warning("未找到ID为" + id + "的检测结果");
             }
-            
+
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "删除检测结果时发生错误", e);
         }
-        
+
+        return false;
+    }
+
+    private static int deleteFromPartitions(DatabaseManager database, int id) throws SQLException {
+        HistoryPartitions partitions = database.getHistoryPartitions();
+        for (HistoryPartitions.Partition partition : partitions.containing(id)) {
+            DerivedEntries key = partitions.read(partition, conn -> findDerivedEntries(conn, id));
+            if (key == null) {
+                continue;
+            }
+
+            partitions.write(partition, conn -> {
+                PreparedStatement pstmt = conn.prepare(DELETE_SQL);
+                pstmt.setInt(1, id);
+                return pstmt.executeUpdate();
+            });
+            database.write(conn -> {
+                key.remove(conn, id);
+                return null;
+            });
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * 批量删除检测结果记录
+     *
+     * 每个事务删除至多DELETE_CHUNK_SIZE条，两个事务之间其他写入可以继续进行；
+     * 每条记录在统计汇总和全文索引中的条目与记录在同一事务中删除，缺陷明细级联删除。
+     * 已归档分区中的记录不能删除，会被跳过。删除后在后台回收空闲页。
+     *
+     * @param ids 检测结果ID
+     * @return 删除的记录数，出错时为已删除的记录数
+     */
+    public int deleteResults(Collection<Integer> ids) {
+        List<Integer> remaining = new ArrayList<>(new LinkedHashSet<>(ids));
+        List<Integer> notInMain = new ArrayList<>();
+        int deleted = 0;
+
+        try {
+            DatabaseManager database = DatabaseManager.getInstance();
+            for (int from = 0; from < remaining.size(); from += DELETE_CHUNK_SIZE) {
+                checkInterrupted();
+                List<Integer> chunk = remaining.subList(from, Math.min(from + DELETE_CHUNK_SIZE, remaining.size()));
+                deleted += database.write(conn -> {
+                    int count = 0;
+                    for (int id : chunk) {
+                        if (deleteInTransaction(conn, id)) {
+                            count++;
+                        } else {
+                            notInMain.add(id);
+                        }
+                    }
+                    return count;
+                });
+            }
+
+            // 主数据库中没有的记录按ID范围到历史分区中删除
+            HistoryPartitions partitions = database.getHistoryPartitions();
+            Map<HistoryPartitions.Partition, List<Integer>> byPartition = new LinkedHashMap<>();
+            for (int id : notInMain) {
+                for (HistoryPartitions.Partition partition : partitions.containing(id)) {
+                    byPartition.computeIfAbsent(partition, p -> new ArrayList<>()).add(id);
+                }
+            }
+            for (Map.Entry<HistoryPartitions.Partition, List<Integer>> entry : byPartition.entrySet()) {
+                List<Integer> partitionIds = entry.getValue();
+                int[] next = {0};
+                deleted += deleteFromPartition(database, entry.getKey(), conn -> {
+                    int from = next[0];
+                    next[0] = Math.min(from + DELETE_CHUNK_SIZE, partitionIds.size());
+                    return new ArrayList<>(partitionIds.subList(from, next[0]));
+                });
+            }
+
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "批量删除检测结果时发生错误，已删除 " + deleted + " 条", e);
+        }
+
+        return finishBulkDelete("按ID", deleted);
+    }
+
+    /**
+     * 删除日期范围内的全部检测结果记录，分块事务和一致性与deleteResults相同
+     *
+     * @param startDate 开始日期 (yyyy-MM-dd)
+     * @param endDate 结束日期 (yyyy-MM-dd)
+     * @return 删除的记录数，出错时为已删除的记录数
+     */
+    public int deleteResultsByDateRange(String startDate, String endDate) {
+        int deleted = 0;
+
+        try {
+            DatabaseManager database = DatabaseManager.getInstance();
+            boolean legacy = isLegacyRange();
+            String mainSql = String.format(SELECT_RANGE_IDS_SQL, rangePredicate(legacy));
+            deleted += deleteFromMain(database, conn -> {
+                PreparedStatement pstmt = conn.prepare(mainSql);
+                int index = bindRange(pstmt, 1, startDate, endDate, legacy);
+                pstmt.setInt(index, DELETE_CHUNK_SIZE);
+                return readIds(pstmt);
+            });
+
+            long[] range = dayRange(startDate, endDate);
+            String partitionSql = String.format(SELECT_RANGE_IDS_SQL, rangePredicate(false));
+            HistoryPartitions partitions = database.getHistoryPartitions();
+            for (HistoryPartitions.Partition partition : partitions.overlapping(range[0], range[1])) {
+                deleted += deleteFromPartition(database, partition, conn -> {
+                    PreparedStatement pstmt = conn.prepare(partitionSql);
+                    int index = bindRange(pstmt, 1, startDate, endDate, false);
+                    pstmt.setInt(index, DELETE_CHUNK_SIZE);
+                    return readIds(pstmt);
+                });
+            }
+
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "按日期范围删除检测结果时发生错误，已删除 " + deleted + " 条", e);
+        }
+
+        return finishBulkDelete(startDate + " ~ " + endDate, deleted);
+    }
+
+    /**
+     * 删除一个批处理任务保存的全部检测结果记录，分块事务和一致性与deleteResults相同
+     *
+     * @param batchId 批处理任务编号
+     * @return 删除的记录数，出错时为已删除的记录数
+     */
+    public int deleteResultsByBatch(String batchId) {
+        int deleted = 0;
+
+        try {
+            DatabaseManager database = DatabaseManager.getInstance();
+            ConnectionPool.SqlWork<List<Integer>> selectChunk = conn -> {
+                PreparedStatement pstmt = conn.prepare(SELECT_BATCH_IDS_SQL);
+                pstmt.setString(1, batchId);
+                pstmt.setInt(2, DELETE_CHUNK_SIZE);
+                return readIds(pstmt);
+            };
+            deleted += deleteFromMain(database, selectChunk);
+
+            // 批次编号不对应时间范围，检查所有分区；建立批次编号之前的分区没有该列
+            HistoryPartitions partitions = database.getHistoryPartitions();
+            for (HistoryPartitions.Partition partition : partitions.overlapping(Long.MIN_VALUE, Long.MAX_VALUE)) {
+                if (partitions.read(partition, conn -> hasColumn(conn, "detection_history", "batch_id"))) {
+                    deleted += deleteFromPartition(database, partition, selectChunk);
+                }
+            }
+
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "按批次删除检测结果时发生错误，已删除 " + deleted + " 条", e);
+        }
+
+        return finishBulkDelete("批次 " + batchId, deleted);
+    }
+
+    /**
+     * 在主数据库中反复选出一块记录并在同一事务中删除，直到没有匹配的记录
+     */
+    private static int deleteFromMain(DatabaseManager database, ConnectionPool.SqlWork<List<Integer>> selectChunk)
+            throws SQLException {
+        int deleted = 0;
+        while (true) {
+            checkInterrupted();
+            int count = database.write(conn -> {
+                int chunkDeleted = 0;
+                for (int id : selectChunk.execute(conn)) {
+                    if (deleteInTransaction(conn, id)) {
+                        chunkDeleted++;
+                    }
+                }
+                return chunkDeleted;
+            });
+            if (count == 0) {
+                return deleted;
+            }
+            deleted += count;
+        }
+    }
+
+    /**
+     * 在历史分区中分块删除：读取一块记录的派生条目，在分区中删除记录，再在主数据库中删除派生条目
+     *
+     * @param selectChunk 选出下一块候选记录ID，返回空列表表示没有更多候选；候选记录不存在时跳过
+     */
+    private static int deleteFromPartition(DatabaseManager database, HistoryPartitions.Partition partition,
+                                           ConnectionPool.SqlWork<List<Integer>> selectChunk) throws SQLException {
+        if (HistoryPartitions.STATE_ARCHIVED.equals(partition.state)) {
+            logger.warning("历史分区 " + partition.month + " 已归档为只读，跳过其中的记录");
+            return 0;
+        }
+
+        HistoryPartitions partitions = database.getHistoryPartitions();
+        int deleted = 0;
+        while (true) {
+            checkInterrupted();
+            Map<Integer, DerivedEntries> chunk = new LinkedHashMap<>();
+            boolean hasCandidates = partitions.read(partition, conn -> {
+                List<Integer> ids = selectChunk.execute(conn);
+                for (int id : ids) {
+                    DerivedEntries key = findDerivedEntries(conn, id);
+                    if (key != null) {
+                        chunk.put(id, key);
+                    }
+                }
+                return !ids.isEmpty();
+            });
+            if (!hasCandidates) {
+                return deleted;
+            }
+            if (chunk.isEmpty()) {
+                continue;
+            }
+
+            partitions.write(partition, conn -> {
+                PreparedStatement pstmt = conn.prepare(DELETE_SQL);
+                for (int id : chunk.keySet()) {
+                    pstmt.setInt(1, id);
+                    pstmt.executeUpdate();
+                }
+                return null;
+            });
+            database.write(conn -> {
+                for (Map.Entry<Integer, DerivedEntries> entry : chunk.entrySet()) {
+                    entry.getValue().remove(conn, entry.getKey());
+                }
+                return null;
+            });
+            deleted += chunk.size();
+        }
+    }
+
+    /**
+     * 在主数据库的写事务中删除一条记录及其统计汇总和全文索引条目
+     *
+     * @return 主数据库中是否有该记录
+     */
+    private static boolean deleteInTransaction(PooledConnection conn, int id) throws SQLException {
+        DerivedEntries key = findDerivedEntries(conn, id);
+        if (key == null) {
+            return false;
+        }
+        key.remove(conn, id);
+
+        PreparedStatement pstmt = conn.prepare(DELETE_SQL);
+        pstmt.setInt(1, id);
+        return pstmt.executeUpdate() > 0;
+    }
+
+    private static List<Integer> readIds(PreparedStatement pstmt) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                ids.add(rs.getInt(1));
+            }
+        }
+        return ids;
+    }
+
+    private static boolean hasColumn(PooledConnection conn, String table, String column) throws SQLException {
+        try (Statement stmt = conn.getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) {
+                    return true;
+                }
+            }
+        }
         return false;
     }
-} 
\ No newline at end of file
+
+    private static int finishBulkDelete(String description, int deleted) {
+        if (deleted > 0) {
+            logger.info("批量删除检测结果（" + description + "）: " + deleted + " 条");
+            DatabaseManager.getInstance().requestSpaceReclaim();
+        }
+        return deleted;
+    }
+
+    /**
+     * 读取检测记录在统计汇总中的键、缺陷类型计数和报告正文
+     *
+     * @return 记录不存在时返回null
+     */
+    private static DerivedEntries findDerivedEntries(PooledConnection conn, int id) throws SQLException {
+        PreparedStatement keyStmt = conn.prepare(String.format(FIND_ROLLUP_KEY_SQL, LEGACY_TS_COLUMN));
+        keyStmt.setInt(1, id);
+        DerivedEntries key;
+        try (ResultSet rs = keyStmt.executeQuery()) {
+            if (!rs.next()) {
+                return null;
+            }
+            key = new DerivedEntries(rs.getLong("ts"), rs.getString("line_id"), rs.getString("quality_level"),
+                    rs.getInt("defect_count"));
+        }
+
+        PreparedStatement defectStmt = conn.prepare(FIND_DEFECT_COUNTS_SQL);
+        defectStmt.setInt(1, id);
+        try (ResultSet rs = defectStmt.executeQuery()) {
+            while (rs.next()) {
+                key.defectCounts.put(rs.getString("defect_type"), rs.getInt("defect_total"));
+            }
+        }
+
+        key.reportText = readReport(conn, id);
+        return key;
+    }
+
+    /**
+     * 一条检测记录在统计汇总和全文索引中的条目
+     */
+    private static final class DerivedEntries {
+        final long timestamp;
+        final String lineId;
+        final String qualityLevel;
+        final int defectCount;
+        final Map<String, Integer> defectCounts = new LinkedHashMap<>();
+        String reportText;
+
+        DerivedEntries(long timestamp, String lineId, String qualityLevel, int defectCount) {
+            this.timestamp = timestamp;
+            this.lineId = lineId;
+            this.qualityLevel = qualityLevel;
+            this.defectCount = defectCount;
+        }
+
+        void remove(PooledConnection conn, long id) throws SQLException {
+            DetectionRollups.addDetection(conn, timestamp, lineId, qualityLevel, defectCount, -1);
+            DetectionRollups.addDefectCounts(conn, timestamp, lineId, defectCounts, -1);
+            ReportSearchIndex.remove(conn, id, reportText);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.fabricdefectdetection.database;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opencv.core.Mat;
+
+import com.example.fabricdefectdetection.analysis.DefectAnalysisReport;
+import com.example.fabricdefectdetection.detection.DetectionResult;
+
+/**
+ * 检测结果持久化单元
+ *
+ * 分析助手只负责生成报告，报告的保存统一由本类完成：每个检测结果只写一次，
+ * 检测记录、缺陷明细和报告正文交给本产线配置的检测结果存储后端（参见ResultStores）保存。
+ *
+ * 标注后的结果图像交给图像存储在后台编码保存，保存完成后再把图像哈希写入检测记录，
+ * 检测记录的提交不等待图像编码。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public class DetectionResultSink {
+
+    private static final Logger logger = Logger.getLogger(DetectionResultSink.class.getName());
+
+    private final ResultStore resultStore;
+    private final ImageStore imageStore;
+
+    /**
+     * 构造函数，使用本产线配置的检测结果存储和全局图像存储
+     */
+    public DetectionResultSink() {
+        this(ResultStores.getDefault(), ImageStore.getInstance());
+    }
+
+    /**
+     * 构造函数，不保存结果图像
+     *
+     * @param resultDAO 检测结果数据访问对象
+     * @param commitWriter 组提交写入器
+     */
+    public DetectionResultSink(DetectionResultDAO resultDAO, GroupCommitWriter commitWriter) {
+        this(resultDAO, commitWriter, null);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param resultDAO 检测结果数据访问对象
+     * @param commitWriter 组提交写入器
+     * @param imageStore 图像存储，为null时不保存结果图像
+     */
+    public DetectionResultSink(DetectionResultDAO resultDAO, GroupCommitWriter commitWriter,
+                               ImageStore imageStore) {
+        this(new SqliteResultStore(resultDAO, commitWriter, imageStore), imageStore);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param resultStore 检测结果存储
+     * @param imageStore 图像存储，为null时不保存结果图像
+     */
+    public DetectionResultSink(ResultStore resultStore, ImageStore imageStore) {
+        this.resultStore = resultStore;
+        this.imageStore = imageStore;
+    }
+
+    /**
+     * 保存检测结果（含缺陷明细）和分析报告，在数据库事务提交后返回
+     *
+     * @param result 检测结果
+     * @param report 分析报告
+     * @return 检测记录ID
+     * @throws SQLException 如果数据库写入失败
+     */
+    public long persist(DetectionResult result, DefectAnalysisReport report) throws SQLException {
+        return persist(result, report, null);
+    }
+
+    /**
+     * 保存批处理任务中的一个检测结果（含缺陷明细）和分析报告，在数据库事务提交后返回
+     *
+     * @param result 检测结果
+     * @param report 分析报告
+     * @param batchId 批处理任务编号，按批次删除时使用
+     * @return 检测记录ID
+     * @throws SQLException 如果数据库写入失败
+     */
+    public long persist(DetectionResult result, DefectAnalysisReport report, String batchId) throws SQLException {
+        return await(persistAsync(result, report, batchId), result.getImageName());
+    }
+
+    /**
+     * 保存一个没有缺陷明细的分析报告，在数据库事务提交后返回
+     *
+     * @param report 分析报告
+     * @param imageName 图片名称
+     * @return 检测记录ID
+     * @throws SQLException 如果数据库写入失败
+     */
+    public long persist(DefectAnalysisReport report, String imageName) throws SQLException {
+        return await(persistAsync(report, imageName), imageName);
+    }
+
+    /**
+     * 异步保存检测结果（含缺陷明细）和分析报告
+     *
+     * 检测记录及其缺陷明细一起写入，并由存储后端与其他记录合并提交，
+     * 返回的Future在写入持久化后以检测记录ID完成。缺陷明细、图像尺寸和待编码的图像副本
+     * 在调用线程中提取，返回后即可释放检测结果中的图像。
+     *
+     * @param result 检测结果
+     * @param report 分析报告
+     * @return 事务提交后完成的Future
+     */
+    public CompletableFuture<Long> persistAsync(DetectionResult result, DefectAnalysisReport report) {
+        return persistAsync(result, report, null);
+    }
+
+    /**
+     * 异步保存批处理任务中的一个检测结果（含缺陷明细）和分析报告
+     *
+     * @param result 检测结果
+     * @param report 分析报告
+     * @param batchId 批处理任务编号，不属于批处理时为null
+     * @return 事务提交后完成的Future
+     * @see #persistAsync(DetectionResult, DefectAnalysisReport)
+     */
+    public CompletableFuture<Long> persistAsync(DetectionResult result, DefectAnalysisReport report, String batchId) {
+        Mat image = result.getResultImageMat();
+        boolean hasImage = image != null && !image.empty();
+        CompletableFuture<ImageStore.StoredImages> images = imageStore != null && hasImage
+                ? imageStore.storeAsync(image)
+                : CompletableFuture.completedFuture(null);
+
+        CompletableFuture<Long> saved = resultStore.save(report, result.getImageName(),
+                DefectRecord.fromDetectionResult(result), hasImage ? image.cols() : 0, hasImage ? image.rows() : 0,
+                batchId);
+        saved.thenAcceptBoth(images, (resultId, stored) -> {
+            if (stored != null) {
+                linkImages(resultId, stored);
+            }
+        });
+        return saved;
+    }
+
+    /**
+     * 图像保存完成后登记图像并写入检测记录的图像哈希
+     */
+    private void linkImages(long resultId, ImageStore.StoredImages stored) {
+        resultStore.attachImages(resultId, stored).exceptionally(error -> {
+            logger.log(Level.WARNING, "记录检测结果图像失败，记录ID: " + resultId, error);
+            return null;
+        });
+    }
+
+    /**
+     * 异步保存一个没有缺陷明细的分析报告
+     *
+     * @param report 分析报告
+     * @param imageName 图片名称
+     * @return 事务提交后完成的Future
+     */
+    public CompletableFuture<Long> persistAsync(DefectAnalysisReport report, String imageName) {
+        return resultStore.save(report, imageName, Collections.emptyList(), 0, 0, null);
+    }
+
+    private static long await(CompletableFuture<Long> future, String imageName) throws SQLException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new SQLException("保存检测结果失败: " + imageName, cause);
+        }
+    }
+
+    /**
+     * 获取检测结果存储
+     *
+     * @return 检测结果存储
+     */
+    public ResultStore getResultStore() {
+        return resultStore;
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.fabricdefectdetection.database;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 检测统计汇总表维护
+ *
+ * 按小时和按天两种粒度，以(时间段起点, 产线, 质量等级)汇总检测数和缺陷总数，
+ * 以(时间段起点, 产线, 缺陷类型)汇总缺陷数。汇总表在写入或删除检测记录的同一事务中
+ * 增量更新，统计看板直接读取汇总表，时间跨度再长也只需读取少量汇总行。
+ *
+ * 时间段起点为本地时区整点或零点的毫秒时间戳。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+final class DetectionRollups {
+
+    /** 按小时汇总 */
+    static final String PERIOD_HOUR = "hour";
+
+    /** 按天汇总 */
+    static final String PERIOD_DAY = "day";
+
+    /** 未配置产线时使用的产线标识 */
+    static final String DEFAULT_LINE_ID = "default";
+
+    private static final String UPSERT_HISTORY_SQL =
+            "INSERT INTO history_rollup (period, bucket_start, line_id, quality_level, detection_count, defect_total) " +
+            "VALUES (?, ?, ?, ?, ?, ?) " +
+            "ON CONFLICT (period, bucket_start, line_id, quality_level) DO UPDATE SET " +
+            "detection_count = detection_count + excluded.detection_count, " +
+            "defect_total = defect_total + excluded.defect_total";
+
+    private static final String UPSERT_DEFECT_SQL =
+            "INSERT INTO defect_rollup (period, bucket_start, line_id, defect_type, defect_count) " +
+            "VALUES (?, ?, ?, ?, ?) " +
+            "ON CONFLICT (period, bucket_start, line_id, defect_type) DO UPDATE SET " +
+            "defect_count = defect_count + excluded.defect_count";
+
+    private DetectionRollups() {
+    }
+
+    /**
+     * 创建汇总表
+     *
+     * @param stmt SQL语句对象
+     * @throws SQLException 如果SQL执行失败
+     */
+    static void createTables(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS history_rollup (" +
+                     "period TEXT NOT NULL, " +
+                     "bucket_start INTEGER NOT NULL, " +
+                     "line_id TEXT NOT NULL, " +
+                     "quality_level TEXT NOT NULL, " +
+                     "detection_count INTEGER NOT NULL, " +
+                     "defect_total INTEGER NOT NULL, " +
+                     "PRIMARY KEY (period, bucket_start, line_id, quality_level)) WITHOUT ROWID");
+        stmt.execute("CREATE TABLE IF NOT EXISTS defect_rollup (" +
+                     "period TEXT NOT NULL, " +
+                     "bucket_start INTEGER NOT NULL, " +
+                     "line_id TEXT NOT NULL, " +
+                     "defect_type TEXT NOT NULL, " +
+                     "defect_count INTEGER NOT NULL, " +
+                     "PRIMARY KEY (period, bucket_start, line_id, defect_type)) WITHOUT ROWID");
+    }
+
+    /**
+     * 根据已有的检测记录重建汇总表
+     *
+     * 以文本时间戳（本地时间）计算时间段，不依赖整数时间戳是否已补齐。
+     *
+     * @param stmt SQL语句对象
+     * @throws SQLException 如果SQL执行失败
+     */
+    static void rebuild(Statement stmt) throws SQLException {
+        stmt.execute("DELETE FROM history_rollup");
+        stmt.execute("DELETE FROM defect_rollup");
+
+        String[][] buckets = {
+            {PERIOD_HOUR, "strftime('%Y-%m-%d %H:00:00', h.detection_timestamp)"},
+            {PERIOD_DAY, "date(h.detection_timestamp)"}
+        };
+        for (String[] bucket : buckets) {
+            String bucketStart = "CAST(strftime('%s', " + bucket[1] + ", 'utc') AS INTEGER) * 1000";
+            stmt.execute("INSERT INTO history_rollup " +
+                         "SELECT '" + bucket[0] + "', " + bucketStart + " AS bucket_start, h.line_id, " +
+                         "COALESCE(h.quality_level, '') AS level, COUNT(*), SUM(COALESCE(h.defect_count, 0)) " +
+                         "FROM detection_history h " +
+                         "WHERE bucket_start IS NOT NULL " +
+                         "GROUP BY bucket_start, h.line_id, level");
+            stmt.execute("INSERT INTO defect_rollup " +
+                         "SELECT '" + bucket[0] + "', " + bucketStart + " AS bucket_start, h.line_id, " +
+                         "d.defect_type, COUNT(*) " +
+                         "FROM detection_history h JOIN defect d ON d.detection_id = h.id " +
+                         "WHERE bucket_start IS NOT NULL " +
+                         "GROUP BY bucket_start, h.line_id, d.defect_type");
+        }
+    }
+
+    /**
+     * 在给定连接上累加一条检测记录的汇总，由调用方所在的事务提交
+     *
+     * @param conn 池化连接
+     * @param timestamp 检测时间（毫秒时间戳）
+     * @param lineId 产线标识
+     * @param qualityLevel 质量等级
+     * @param defectCount 缺陷数
+     * @param sign 1表示新增记录，-1表示删除记录
+     * @throws SQLException 如果SQL执行失败
+     */
+    static void addDetection(PooledConnection conn, long timestamp, String lineId, String qualityLevel,
+                             int defectCount, int sign) throws SQLException {
+        PreparedStatement pstmt = conn.prepare(UPSERT_HISTORY_SQL);
+        String level = qualityLevel != null ? qualityLevel : "";
+        for (String period : new String[] {PERIOD_HOUR, PERIOD_DAY}) {
+            pstmt.setString(1, period);
+            pstmt.setLong(2, bucketStart(timestamp, period));
+            pstmt.setString(3, lineId);
+            pstmt.setString(4, level);
+            pstmt.setInt(5, sign);
+            pstmt.setLong(6, (long) sign * defectCount);
+            pstmt.addBatch();
+        }
+        pstmt.executeBatch();
+    }
+
+    /**
+     * 在给定连接上累加一条检测记录中各类型缺陷的汇总，由调用方所在的事务提交
+     *
+     * @param conn 池化连接
+     * @param timestamp 检测时间（毫秒时间戳）
+     * @param lineId 产线标识
+     * @param defects 缺陷记录
+     * @param sign 1表示新增记录，-1表示删除记录
+     * @throws SQLException 如果SQL执行失败
+     */
+    static void addDefects(PooledConnection conn, long timestamp, String lineId, List<DefectRecord> defects,
+                           int sign) throws SQLException {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (DefectRecord defect : defects) {
+            counts.merge(defect.getType(), 1, Integer::sum);
+        }
+        addDefectCounts(conn, timestamp, lineId, counts, sign);
+    }
+
+    /**
+     * 在给定连接上按类型累加缺陷数，由调用方所在的事务提交
+     *
+     * @param conn 池化连接
+     * @param timestamp 检测时间（毫秒时间戳）
+     * @param lineId 产线标识
+     * @param counts 缺陷类型到数量的映射
+     * @param sign 1表示新增记录，-1表示删除记录
+     * @throws SQLException 如果SQL执行失败
+     */
+    static void addDefectCounts(PooledConnection conn, long timestamp, String lineId, Map<String, Integer> counts,
+                                int sign) throws SQLException {
+        if (counts.isEmpty()) {
+            return;
+        }
+
+        PreparedStatement pstmt = conn.prepare(UPSERT_DEFECT_SQL);
+        for (String period : new String[] {PERIOD_HOUR, PERIOD_DAY}) {
+            long bucketStart = bucketStart(timestamp, period);
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                pstmt.setString(1, period);
+                pstmt.setLong(2, bucketStart);
+                pstmt.setString(3, lineId);
+                pstmt.setString(4, entry.getKey());
+                pstmt.setInt(5, sign * entry.getValue());
+                pstmt.addBatch();
+            }
+        }
+        pstmt.executeBatch();
+    }
+
+    /**
+     * 计算时间所在时间段的起点
+     *
+     * @param timestamp 毫秒时间戳
+     * @param period 汇总粒度
+     * @return 本地时区整点或零点的毫秒时间戳
+     */
+    static long bucketStart(long timestamp, String period) {
+        ZonedDateTime time = Instant.ofEpochMilli(timestamp).atZone(ZoneId.systemDefault());
+        ZonedDateTime start = PERIOD_HOUR.equals(period)
+                ? time.truncatedTo(ChronoUnit.HOURS)
+                : time.toLocalDate().atStartOfDay(time.getZone());
+        return start.toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.fabricdefectdetection.database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.example.fabricdefectdetection.util.ConfigurationManager;
+
+/**
+ * 数据库组提交写入器
+ *
+ * 每次自动提交的INSERT都要等待一次磁盘同步，批量检测的写入吞吐量因此受限于磁盘延迟。
+ * 本类把写操作放入队列，由单个后台线程合并成事务提交：凑满N条或等待T毫秒后
+ * （以先到者为准）在一个事务中执行整批写操作，多条记录共用一次提交。
+ * 每个写操作返回一个CompletableFuture，在所在事务提交后完成，用作持久化确认。
+ *
+ * 整批事务失败时，该批写操作逐条重试，只有本身出错的写操作会以异常完成。
+ * 进程退出时自动提交队列中剩余的写操作。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public final class GroupCommitWriter {
+
+    private static final Logger logger = Logger.getLogger(GroupCommitWriter.class.getName());
+
+    private static final int DEFAULT_BATCH_SIZE = 256;
+    private static final int DEFAULT_COMMIT_INTERVAL_MS = 50;
+
+    private static GroupCommitWriter instance;
+
+    private final DatabaseManager databaseManager;
+    private final int batchSize;
+    private final long commitIntervalMs;
+    private final BlockingQueue<PendingWrite<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    private final AtomicLong committedCount = new AtomicLong();
+    private final AtomicLong transactionCount = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * 构造函数，启动后台提交线程
+     *
+     * @param databaseManager 数据库管理器
+     * @param batchSize 每个事务最多包含的写操作数
+     * @param commitIntervalMs 凑批的最长等待时间（毫秒）
+     */
+    public GroupCommitWriter(DatabaseManager databaseManager, int batchSize, long commitIntervalMs) {
+        this.databaseManager = databaseManager;
+        this.batchSize = Math.max(1, batchSize);
+        this.commitIntervalMs = Math.max(0, commitIntervalMs);
+
+        writerThread = new Thread(this::commitLoop, "group-commit-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * 获取全局共享的组提交写入器
+     *
+     * 批大小和等待时间分别取配置项 database.commit-batch-size 和 database.commit-interval-ms。
+     *
+     * @return 组提交写入器
+     */
+    public static synchronized GroupCommitWriter getInstance() {
+        if (instance == null) {
+            ConfigurationManager config = ConfigurationManager.getInstance();
+            instance = new GroupCommitWriter(DatabaseManager.getInstance(),
+                    config.getIntProperty("database.commit-batch-size", DEFAULT_BATCH_SIZE),
+                    config.getIntProperty("database.commit-interval-ms", DEFAULT_COMMIT_INTERVAL_MS));
+
+            GroupCommitWriter writer = instance;
+            Runtime.getRuntime().addShutdownHook(new Thread(writer::close, "group-commit-shutdown"));
+        }
+        return instance;
+    }
+
+    /**
+     * 提交一个写操作，由后台线程与其他写操作合并到同一事务中执行
+     *
+     * @param work 写操作
+     * @param <T> 返回值类型
+     * @return 写操作所在事务提交后完成的Future
+     */
+    public <T> CompletableFuture<T> submit(ConnectionPool.SqlWork<T> work) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        synchronized (queue) {
+            if (closed) {
+                future.completeExceptionally(new SQLException("组提交写入器已关闭"));
+                return future;
+            }
+            queue.add(new PendingWrite<>(work, future));
+        }
+        return future;
+    }
+
+    /**
+     * 阻塞直到此前提交的所有写操作都已提交
+     */
+    public void flush() {
+        submit(conn -> null).join();
+    }
+
+    /**
+     * 获取已提交的写操作总数
+     *
+     * @return 写操作数
+     */
+    public long getCommittedCount() {
+        return committedCount.get();
+    }
+
+    /**
+     * 获取已执行的事务数
+     *
+     * @return 事务数
+     */
+    public long getTransactionCount() {
+        return transactionCount.get();
+    }
+
+    /**
+     * 提交队列中剩余的写操作并停止后台线程
+     */
+    public void close() {
+        synchronized (queue) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // 唤醒阻塞在take上的提交线程
+            queue.add(new PendingWrite<>(conn -> null, new CompletableFuture<>()));
+        }
+
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("组提交写入器已关闭，共提交 " + committedCount.get() + " 条，事务 " + transactionCount.get() + " 个");
+    }
+
+    /**
+     * 提交线程主循环：取出一条后在等待时间内继续凑批，然后在一个事务中执行
+     */
+    private void commitLoop() {
+        List<PendingWrite<?>> batch = new ArrayList<>(batchSize);
+        while (!closed || !queue.isEmpty()) {
+            batch.clear();
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(commitIntervalMs);
+                while (batch.size() < batchSize) {
+                    // 先取走已经排队的写操作，队列为空时才等待
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    PendingWrite<?> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                queue.drainTo(batch);
+                closed = true;
+            }
+            commitBatch(batch);
+        }
+    }
+
+    /**
+     * 在一个事务中执行整批写操作，失败时逐条重试
+     *
+     * @param batch 写操作
+     */
+    private void commitBatch(List<PendingWrite<?>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<Object> results = new ArrayList<>(batch.size());
+        try {
+            databaseManager.write(conn -> {
+                results.clear();
+                for (PendingWrite<?> write : batch) {
+                    results.add(write.work.execute(conn));
+                }
+                return null;
+            });
+            transactionCount.incrementAndGet();
+            committedCount.addAndGet(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).complete(results.get(i));
+            }
+        } catch (SQLException | RuntimeException e) {
+            logger.log(Level.WARNING, "批量提交失败，逐条重试 " + batch.size() + " 个写操作", e);
+            for (PendingWrite<?> write : batch) {
+                commitSingle(write);
+            }
+        }
+    }
+
+    private void commitSingle(PendingWrite<?> write) {
+        try {
+            Object result = databaseManager.write(write.work::execute);
+            transactionCount.incrementAndGet();
+            committedCount.incrementAndGet();
+            write.complete(result);
+        } catch (SQLException | RuntimeException e) {
+            write.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 排队中的写操作
+     *
+     * @param <T> 返回值类型
+     */
+    private static final class PendingWrite<T> {
+        private final ConnectionPool.SqlWork<T> work;
+        private final CompletableFuture<T> future;
+
+        PendingWrite(ConnectionPool.SqlWork<T> work, CompletableFuture<T> future) {
+            this.work = work;
+            this.future = future;
+        }
+
+        @SuppressWarnings("unchecked")
+        void complete(Object result) {
+            future.complete((T) result);
+        }
+    }
+}
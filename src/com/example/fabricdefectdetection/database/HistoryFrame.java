@@ -0,0 +1,367 @@
+package com.example.fabricdefectdetection.database;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 按列存放的检测摘要（检测时间、质量等级、缺陷数、是否AI增强、产线）
+ *
+ * 每列是一个基本类型数组，质量等级和产线这类取值很少的文本列按字典编码为整数。
+ * 大日期范围的统计只需遍历数组，不再为每条记录创建对象和装箱的数值，内存占用和GC压力都小得多。
+ * 统计看板用它计算汇总表中没有的指标，例如各产线的AI增强比例。
+ *
+ * 实例创建后不再修改，可以在线程间共享。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public final class HistoryFrame {
+
+    private final int size;
+    private final long[] timestamps;
+    private final int[] defectCounts;
+    private final boolean[] aiEnhanced;
+    private final int[] qualityCodes;
+    private final List<String> qualityLevels;
+    private final int[] lineCodes;
+    private final List<String> lineIds;
+
+    private HistoryFrame(Builder builder) {
+        this.size = builder.size;
+        this.timestamps = Arrays.copyOf(builder.timestamps, size);
+        this.defectCounts = Arrays.copyOf(builder.defectCounts, size);
+        this.aiEnhanced = Arrays.copyOf(builder.aiEnhanced, size);
+        this.qualityCodes = Arrays.copyOf(builder.qualityCodes, size);
+        this.qualityLevels = Collections.unmodifiableList(new ArrayList<>(builder.qualityDictionary.values));
+        this.lineCodes = Arrays.copyOf(builder.lineCodes, size);
+        this.lineIds = Collections.unmodifiableList(new ArrayList<>(builder.lineDictionary.values));
+    }
+
+    /**
+     * 获取记录数
+     *
+     * @return 记录数
+     */
+    public int size() {
+        return size;
+    }
+
+    public long getTimestamp(int row) {
+        return timestamps[checkRow(row)];
+    }
+
+    public int getDefectCount(int row) {
+        return defectCounts[checkRow(row)];
+    }
+
+    public boolean isAiEnhanced(int row) {
+        return aiEnhanced[checkRow(row)];
+    }
+
+    public String getQualityLevel(int row) {
+        return qualityLevels.get(qualityCodes[checkRow(row)]);
+    }
+
+    public String getLineId(int row) {
+        return lineIds.get(lineCodes[checkRow(row)]);
+    }
+
+    /**
+     * 获取质量等级字典，getQualityCode返回的编码是其中的下标
+     *
+     * @return 按首次出现顺序排列的质量等级
+     */
+    public List<String> getQualityLevels() {
+        return qualityLevels;
+    }
+
+    public int getQualityCode(int row) {
+        return qualityCodes[checkRow(row)];
+    }
+
+    /**
+     * 获取产线字典，getLineCode返回的编码是其中的下标
+     *
+     * @return 按首次出现顺序排列的产线标识
+     */
+    public List<String> getLineIds() {
+        return lineIds;
+    }
+
+    public int getLineCode(int row) {
+        return lineCodes[checkRow(row)];
+    }
+
+    /**
+     * 缺陷总数
+     *
+     * @return 所有记录的缺陷数之和
+     */
+    public long totalDefects() {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += defectCounts[i];
+        }
+        return total;
+    }
+
+    /**
+     * 按质量等级统计检测数
+     *
+     * @return 质量等级到检测数的映射，按首次出现的顺序
+     */
+    public Map<String, Integer> countByQualityLevel() {
+        return toMap(qualityLevels, countByCode(qualityCodes, qualityLevels.size()));
+    }
+
+    /**
+     * 按产线统计检测数
+     *
+     * @return 产线标识到检测数的映射，按首次出现的顺序
+     */
+    public Map<String, Integer> countByLine() {
+        return toMap(lineIds, countByCode(lineCodes, lineIds.size()));
+    }
+
+    /**
+     * 按产线汇总检测数、平均缺陷数和AI增强比例
+     *
+     * @return 产线标识到汇总的映射，按首次出现的顺序
+     */
+    public Map<String, GroupSummary> summarizeByLine() {
+        int groups = lineIds.size();
+        int[] counts = new int[groups];
+        long[] defects = new long[groups];
+        int[] aiCounts = new int[groups];
+        for (int i = 0; i < size; i++) {
+            int code = lineCodes[i];
+            counts[code]++;
+            defects[code] += defectCounts[i];
+            if (aiEnhanced[i]) {
+                aiCounts[code]++;
+            }
+        }
+
+        Map<String, GroupSummary> summaries = new LinkedHashMap<>();
+        for (int code = 0; code < groups; code++) {
+            summaries.put(lineIds.get(code), new GroupSummary(counts[code], defects[code], aiCounts[code]));
+        }
+        return summaries;
+    }
+
+    /**
+     * 按天统计检测数
+     *
+     * @param zone 划分日期使用的时区
+     * @return 日期到检测数的映射，按日期升序
+     */
+    public Map<LocalDate, Integer> countByDay(ZoneId zone) {
+        Map<LocalDate, Integer> counts = new TreeMap<>();
+        DayBuckets buckets = new DayBuckets(zone);
+        if (buckets.days.length > 0) {
+            int[] perDay = new int[buckets.span];
+            for (int day : buckets.days) {
+                perDay[day]++;
+            }
+            for (int day = 0; day < perDay.length; day++) {
+                if (perDay[day] > 0) {
+                    counts.put(LocalDate.ofEpochDay(buckets.firstDay + day), perDay[day]);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 按天统计平均缺陷数
+     *
+     * @param zone 划分日期使用的时区
+     * @return 日期到平均缺陷数的映射，按日期升序
+     */
+    public Map<LocalDate, Double> averageDefectsByDay(ZoneId zone) {
+        Map<LocalDate, Double> averages = new TreeMap<>();
+        DayBuckets buckets = new DayBuckets(zone);
+        if (buckets.days.length > 0) {
+            int[] perDay = new int[buckets.span];
+            long[] defectsPerDay = new long[buckets.span];
+            for (int i = 0; i < size; i++) {
+                perDay[buckets.days[i]]++;
+                defectsPerDay[buckets.days[i]] += defectCounts[i];
+            }
+            for (int day = 0; day < perDay.length; day++) {
+                if (perDay[day] > 0) {
+                    averages.put(LocalDate.ofEpochDay(buckets.firstDay + day), (double) defectsPerDay[day] / perDay[day]);
+                }
+            }
+        }
+        return averages;
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("行号超出范围: " + row + "，记录数: " + size);
+        }
+        return row;
+    }
+
+    private int[] countByCode(int[] codes, int dictionarySize) {
+        int[] counts = new int[dictionarySize];
+        for (int i = 0; i < size; i++) {
+            counts[codes[i]]++;
+        }
+        return counts;
+    }
+
+    private static Map<String, Integer> toMap(List<String> dictionary, int[] counts) {
+        Map<String, Integer> map = new LinkedHashMap<>();
+        for (int code = 0; code < counts.length; code++) {
+            map.put(dictionary.get(code), counts[code]);
+        }
+        return map;
+    }
+
+    /**
+     * 每条记录所在的日期，以相对最早日期的天数表示
+     */
+    private final class DayBuckets {
+        final int[] days = new int[size];
+        long firstDay;
+        int span;
+
+        DayBuckets(ZoneId zone) {
+            if (size == 0) {
+                return;
+            }
+
+            // 同一天的记录复用上一次计算的当天起止时间，只在跨天时按时区重新计算
+            long[] epochDays = new long[size];
+            long dayStart = Long.MAX_VALUE;
+            long dayEnd = Long.MIN_VALUE;
+            long epochDay = 0;
+            long minDay = Long.MAX_VALUE;
+            long maxDay = Long.MIN_VALUE;
+            for (int i = 0; i < size; i++) {
+                long ts = timestamps[i];
+                if (ts < dayStart || ts >= dayEnd) {
+                    LocalDate date = LocalDate.ofInstant(Instant.ofEpochMilli(ts), zone);
+                    epochDay = date.toEpochDay();
+                    dayStart = date.atStartOfDay(zone).toInstant().toEpochMilli();
+                    dayEnd = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+                }
+                epochDays[i] = epochDay;
+                minDay = Math.min(minDay, epochDay);
+                maxDay = Math.max(maxDay, epochDay);
+            }
+
+            firstDay = minDay;
+            span = (int) Math.min(Integer.MAX_VALUE, maxDay - minDay + 1);
+            for (int i = 0; i < size; i++) {
+                days[i] = (int) (epochDays[i] - minDay);
+            }
+        }
+    }
+
+    /**
+     * 一组记录的汇总
+     */
+    public static final class GroupSummary {
+        private final int count;
+        private final long totalDefects;
+        private final int aiEnhancedCount;
+
+        GroupSummary(int count, long totalDefects, int aiEnhancedCount) {
+            this.count = count;
+            this.totalDefects = totalDefects;
+            this.aiEnhancedCount = aiEnhancedCount;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public double getAverageDefects() {
+            return count > 0 ? (double) totalDefects / count : 0;
+        }
+
+        public double getAiEnhancedRatio() {
+            return count > 0 ? (double) aiEnhancedCount / count : 0;
+        }
+    }
+
+    /**
+     * 逐行追加记录，数组按需倍增
+     */
+    static final class Builder {
+        private int size;
+        private long[] timestamps;
+        private int[] defectCounts;
+        private boolean[] aiEnhanced;
+        private int[] qualityCodes;
+        private int[] lineCodes;
+        private final Dictionary qualityDictionary = new Dictionary();
+        private final Dictionary lineDictionary = new Dictionary();
+
+        Builder() {
+            this(256);
+        }
+
+        Builder(int initialCapacity) {
+            int capacity = Math.max(16, initialCapacity);
+            timestamps = new long[capacity];
+            defectCounts = new int[capacity];
+            aiEnhanced = new boolean[capacity];
+            qualityCodes = new int[capacity];
+            lineCodes = new int[capacity];
+        }
+
+        Builder add(long timestamp, String qualityLevel, int defectCount, boolean ai, String lineId) {
+            if (size == timestamps.length) {
+                int capacity = size * 2;
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                defectCounts = Arrays.copyOf(defectCounts, capacity);
+                aiEnhanced = Arrays.copyOf(aiEnhanced, capacity);
+                qualityCodes = Arrays.copyOf(qualityCodes, capacity);
+                lineCodes = Arrays.copyOf(lineCodes, capacity);
+            }
+            timestamps[size] = timestamp;
+            defectCounts[size] = defectCount;
+            aiEnhanced[size] = ai;
+            qualityCodes[size] = qualityDictionary.encode(qualityLevel);
+            lineCodes[size] = lineDictionary.encode(lineId);
+            size++;
+            return this;
+        }
+
+        HistoryFrame build() {
+            return new HistoryFrame(this);
+        }
+    }
+
+    /**
+     * 文本列的字典编码，null按空字符串处理
+     */
+    private static final class Dictionary {
+        final List<String> values = new ArrayList<>();
+        final Map<String, Integer> codes = new HashMap<>();
+
+        int encode(String value) {
+            String key = value != null ? value : "";
+            Integer code = codes.get(key);
+            if (code == null) {
+                code = values.size();
+                values.add(key);
+                codes.put(key, code);
+            }
+            return code;
+        }
+    }
+}
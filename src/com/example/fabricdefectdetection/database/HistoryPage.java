@@ -0,0 +1,86 @@
+package com.example.fabricdefectdetection.database;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 检测历史的一页查询结果
+ *
+ * 历史记录按(检测时间, ID)降序排列，翻页使用键集分页：下一页从上一页最后一条记录的
+ * (检测时间, ID)之后继续读取，不使用OFFSET，翻到第几页查询代价都相同，
+ * 翻页期间新写入的记录也不会导致重复或遗漏。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public final class HistoryPage {
+
+    private final List<HistoryRecord> rows;
+    private final Cursor nextCursor;
+
+    /**
+     * 构造函数
+     *
+     * @param rows 本页记录
+     * @param nextCursor 下一页的游标，没有更多记录时为null
+     */
+    HistoryPage(List<HistoryRecord> rows, Cursor nextCursor) {
+        this.rows = Collections.unmodifiableList(rows);
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * 获取本页记录
+     *
+     * @return 本页记录
+     */
+    public List<HistoryRecord> getRows() {
+        return rows;
+    }
+
+    /**
+     * 获取下一页的游标
+     *
+     * @return 下一页的游标，没有更多记录时为null
+     */
+    public Cursor getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * 判断是否还有下一页
+     *
+     * @return 是否还有更多记录
+     */
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+
+    /**
+     * 分页游标：上一页最后一条记录的检测时间（毫秒时间戳）和ID
+     */
+    public static final class Cursor {
+
+        private final long timestamp;
+        private final long id;
+
+        /**
+         * 构造函数
+         *
+         * @param timestamp 检测时间（毫秒时间戳）
+         * @param id 记录ID
+         */
+        public Cursor(long timestamp, long id) {
+            this.timestamp = timestamp;
+            this.id = id;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getId() {
+            return id;
+        }
+    }
+}
@@ -0,0 +1,726 @@
+package com.example.fabricdefectdetection.database;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 按月分区的检测历史
+ *
+ * 主数据库只保留最近几个月（热数据）的明细记录，更早的记录由后台维护任务按月移入
+ * 独立的分区文件（history_yyyy_MM.db），每个分区保留原记录ID以及对应的缺陷明细和报告正文。
+ * history_partition表是分区目录，记录每个分区的月份、文件、状态和ID范围。
+ * 统计汇总表和报告全文索引始终保留在主数据库中，统计看板和报告搜索不受分区影响。
+ *
+ * 分区的生命周期：
+ * - cold：普通SQLite文件，保留(detection_ts, id)索引，查询时按需打开
+ * - archiving：正在归档，文件仍可读取但不能修改；归档中途失败时下次维护继续归档
+ * - archived：超过归档期限后删除全部索引、VACUUM并以gzip压缩；查询时解压到缓存目录
+ * - 超过保留期限（history.retention-months，0表示永久保留）后删除分区文件
+ *
+ * 按时间范围的查询由DetectionResultDAO分发到主数据库和时间范围重叠的各个分区后合并结果，
+ * 只查询最近数据时不会打开任何分区文件。
+ *
+ * 每个分区有一把读写锁：查询和修改分区时持有读锁，归档和删除分区文件时持有写锁，
+ * 归档开始前已提交的修改都包含在归档中，归档期间的查询和修改等待归档完成后按新状态执行。
+ * 分区文件以不创建的方式打开，文件已被删除时查询失败，而不会留下空的分区文件。
+ *
+ * 移动记录在主数据库的写连接上进行（持有连接池的写锁），与组提交写入器串行执行。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public final class HistoryPartitions {
+
+    private static final Logger logger = Logger.getLogger(HistoryPartitions.class.getName());
+
+    static final String STATE_COLD = "cold";
+    static final String STATE_ARCHIVING = "archiving";
+    static final String STATE_ARCHIVED = "archived";
+
+    // sqlite-jdbc的open_mode连接属性（SQLiteConfig.setOpenMode），不含SQLITE_OPEN_CREATE
+    private static final String OPEN_MODE_PROPERTY = "open_mode";
+    private static final int SQLITE_OPEN_READONLY = 0x01;
+    private static final int SQLITE_OPEN_READWRITE = 0x02;
+
+    private static final int MOVE_CHUNK_SIZE = 500;
+    private static final long PAUSE_BETWEEN_CHUNKS_MS = 20;
+    private static final int PARTITION_STATEMENT_CACHE_SIZE = 8;
+    private static final long CACHE_MAX_AGE_MS = TimeUnit.HOURS.toMillis(24);
+    private static final String CACHE_DIRECTORY = ".cache";
+
+    // 随检测记录一起移动的表，按外键依赖顺序排列
+    private static final String[] MOVED_TABLES = {"detection_history", "defect", "report_body"};
+
+    private static final String CATALOG_SQL =
+            "SELECT month, file, state, min_id, max_id FROM history_partition ORDER BY month DESC";
+    private static final String SELECT_REPORTS_SQL =
+            "SELECT h.id, h.analysis_report, b.codec, b.original_length, b.body " +
+            "FROM detection_history h LEFT JOIN report_body b ON b.detection_id = h.id " +
+            "WHERE h.id > ? ORDER BY h.id LIMIT ?";
+    private static final String UPSERT_CATALOG_SQL =
+            "INSERT INTO main.history_partition (month, file, state, min_id, max_id) VALUES (?, ?, 'cold', ?, ?) " +
+            "ON CONFLICT (month) DO UPDATE SET " +
+            "min_id = MIN(min_id, excluded.min_id), max_id = MAX(max_id, excluded.max_id)";
+
+    /**
+     * 分区目录中的一个分区
+     */
+    static final class Partition {
+        final YearMonth month;
+        final String file;
+        final String state;
+        final long minId;
+        final long maxId;
+        final long startMillis;
+        final long endMillis;
+
+        Partition(YearMonth month, String file, String state, long minId, long maxId) {
+            this.month = month;
+            this.file = file;
+            this.state = state;
+            this.minId = minId;
+            this.maxId = maxId;
+            ZoneId zone = ZoneId.systemDefault();
+            this.startMillis = month.atDay(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            this.endMillis = month.plusMonths(1).atDay(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+    }
+
+    private final File directory;
+    private final DatabaseManager databaseManager;
+    private final int hotMonths;
+    private final int archiveAfterMonths;
+    private final int retentionMonths;
+    private final ScheduledExecutorService maintenance;
+
+    private final Map<YearMonth, ReentrantReadWriteLock> partitionLocks = new ConcurrentHashMap<>();
+
+    private volatile List<Partition> catalog = Collections.emptyList();
+
+    /**
+     * 构造函数
+     *
+     * @param directory 分区文件目录
+     * @param databaseManager 主数据库
+     * @param hotMonths 主数据库保留的月数（含当月）
+     * @param archiveAfterMonths 超过多少个月的分区压缩归档
+     * @param retentionMonths 超过多少个月的分区删除，0表示永久保留
+     */
+    HistoryPartitions(File directory, DatabaseManager databaseManager, int hotMonths, int archiveAfterMonths,
+                      int retentionMonths) {
+        this.directory = directory;
+        this.databaseManager = databaseManager;
+        this.hotMonths = Math.max(1, hotMonths);
+        this.archiveAfterMonths = Math.max(this.hotMonths, archiveAfterMonths);
+        this.retentionMonths = retentionMonths;
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "history-partition-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 读取分区目录并按固定间隔在后台执行维护
+     *
+     * @param intervalHours 维护间隔（小时）
+     */
+    void start(long intervalHours) {
+        try {
+            reloadCatalog();
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "读取历史分区目录失败", e);
+        }
+        maintenance.scheduleWithFixedDelay(this::maintain, 1, Math.max(1, intervalHours) * 60, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 停止后台维护
+     */
+    void close() {
+        maintenance.shutdownNow();
+    }
+
+    /**
+     * 获取与时间范围重叠的分区，按月份从新到旧排列
+     *
+     * @param startMillis 开始时间（含）
+     * @param endMillis 结束时间（不含）
+     * @return 分区列表
+     */
+    List<Partition> overlapping(long startMillis, long endMillis) {
+        List<Partition> result = new ArrayList<>();
+        for (Partition partition : catalog) {
+            if (partition.startMillis < endMillis && partition.endMillis > startMillis) {
+                result.add(partition);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 查找ID范围包含指定记录ID的分区
+     *
+     * @param id 记录ID
+     * @return 分区列表（ID范围可能因时钟调整而重叠），按月份从新到旧排列
+     */
+    List<Partition> containing(long id) {
+        List<Partition> result = new ArrayList<>();
+        for (Partition partition : catalog) {
+            if (id >= partition.minId && id <= partition.maxId) {
+                result.add(partition);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 在分区上执行只读查询
+     *
+     * @param partition 分区
+     * @param work 查询操作
+     * @param <T> 返回值类型
+     * @return 查询结果
+     * @throws SQLException 如果分区无法打开或查询失败
+     */
+    <T> T read(Partition partition, ConnectionPool.SqlWork<T> work) throws SQLException {
+        Lock lock = lockFor(partition.month).readLock();
+        lock.lock();
+        try {
+            // 调用方持有的可能是旧目录中的分区，按当前目录中的状态和文件打开
+            Partition current = current(partition.month);
+            File file = STATE_ARCHIVED.equals(current.state)
+                    ? extractArchived(current) : new File(directory, current.file);
+            try (Connection connection = openPartition(file, true);
+                 Statement stmt = connection.createStatement()) {
+                stmt.execute("PRAGMA query_only=1");
+                PooledConnection pooled = new PooledConnection(connection, PARTITION_STATEMENT_CACHE_SIZE);
+                try {
+                    return work.execute(pooled);
+                } finally {
+                    pooled.close();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 在未归档的分区上以单个事务执行写操作
+     *
+     * @param partition 分区
+     * @param work 写操作
+     * @param <T> 返回值类型
+     * @return 操作结果
+     * @throws SQLException 如果分区已归档、无法打开或写入失败
+     */
+    <T> T write(Partition partition, ConnectionPool.SqlWork<T> work) throws SQLException {
+        Lock lock = lockFor(partition.month).readLock();
+        lock.lock();
+        try {
+            Partition current = current(partition.month);
+            if (!STATE_COLD.equals(current.state)) {
+                throw new SQLException("分区 " + partition.month + " 已归档，不能修改");
+            }
+            try (Connection connection = openPartition(new File(directory, current.file), false)) {
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("PRAGMA busy_timeout=5000");
+                    stmt.execute("PRAGMA foreign_keys=ON");
+                }
+                PooledConnection pooled = new PooledConnection(connection, PARTITION_STATEMENT_CACHE_SIZE);
+                connection.setAutoCommit(false);
+                try {
+                    T result = work.execute(pooled);
+                    connection.commit();
+                    return result;
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    pooled.close();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 打开已存在的分区文件，文件不存在时失败而不创建
+     */
+    private static Connection openPartition(File file, boolean readOnly) throws SQLException {
+        Properties properties = new Properties();
+        properties.setProperty(OPEN_MODE_PROPERTY,
+                Integer.toString(readOnly ? SQLITE_OPEN_READONLY : SQLITE_OPEN_READWRITE));
+        return DriverManager.getConnection("jdbc:sqlite:" + file.getPath(), properties);
+    }
+
+    private ReentrantReadWriteLock lockFor(YearMonth month) {
+        return partitionLocks.computeIfAbsent(month, key -> new ReentrantReadWriteLock());
+    }
+
+    /**
+     * 获取当前目录中的分区
+     *
+     * @throws SQLException 如果分区已被删除
+     */
+    private Partition current(YearMonth month) throws SQLException {
+        for (Partition partition : catalog) {
+            if (partition.month.equals(month)) {
+                return partition;
+            }
+        }
+        throw new SQLException("历史分区 " + month + " 已删除");
+    }
+
+    /**
+     * 执行一次维护：移出过期的热数据、归档旧分区、删除超过保留期限的分区
+     */
+    void maintain() {
+        try {
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("无法创建历史分区目录: " + directory.getAbsolutePath());
+            }
+
+            moveColdRows();
+            archiveOldPartitions();
+            applyRetention();
+            cleanCache();
+
+        } catch (SQLException | IOException e) {
+            logger.log(Level.SEVERE, "历史分区维护失败", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 把早于热数据窗口的记录按月移入分区文件
+     *
+     * 每块记录的复制和删除在写连接上的同一个BEGIN IMMEDIATE事务中完成，期间持有连接池的写锁，
+     * 两块之间释放写锁，检测结果的写入可以继续进行。分区中使用INSERT OR REPLACE，
+     * 中途退出后重新执行不会产生重复记录。
+     */
+    private void moveColdRows() throws SQLException, InterruptedException {
+        // 整数时间戳补齐之前无法按月划分旧记录；移出的记录不再补建全文索引
+        if (!databaseManager.isTimestampBackfillComplete() || !databaseManager.isReportIndexComplete()) {
+            return;
+        }
+
+        ZoneId zone = ZoneId.systemDefault();
+        long cutoff = YearMonth.now().minusMonths(hotMonths - 1).atDay(1).atStartOfDay(zone).toInstant().toEpochMilli();
+
+        while (true) {
+            // 无法解析时间的记录（detection_ts为0）留在主数据库中
+            long oldest = databaseManager.read(conn -> {
+                try (ResultSet rs = conn.prepare(
+                        "SELECT MIN(detection_ts) FROM detection_history WHERE detection_ts > 0").executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : 0L;
+                }
+            });
+            if (oldest == 0 || oldest >= cutoff) {
+                return;
+            }
+
+            YearMonth month = YearMonth.from(Instant.ofEpochMilli(oldest).atZone(zone));
+            int moved = moveMonth(month);
+            logger.info("已将 " + month + " 的 " + moved + " 条检测记录移入历史分区");
+        }
+    }
+
+    private int moveMonth(YearMonth month) throws SQLException, InterruptedException {
+        Partition target = new Partition(month, fileName(month), STATE_COLD, 0, 0);
+        File file = new File(directory, target.file);
+
+        int total = 0;
+        boolean first = true;
+        while (true) {
+            boolean createSchema = first;
+            int moved = databaseManager.writeWithoutTransaction(conn -> {
+                Connection connection = conn.getConnection();
+                // ATTACH不能在事务中执行，每块在写锁内单独挂载分区
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("ATTACH DATABASE '" + file.getPath().replace("'", "''") + "' AS part");
+                }
+                try {
+                    if (createSchema) {
+                        createPartitionSchema(connection);
+                        try (Statement stmt = connection.createStatement()) {
+                            stmt.execute("CREATE TEMP TABLE IF NOT EXISTS move_ids (id INTEGER PRIMARY KEY)");
+                        }
+                    }
+                    return moveChunk(connection, target);
+                } finally {
+                    try (Statement stmt = connection.createStatement()) {
+                        stmt.execute("DETACH DATABASE part");
+                    }
+                }
+            });
+            first = false;
+            if (moved == 0) {
+                break;
+            }
+            total += moved;
+            // 移出的记录立即对查询可见
+            reloadCatalog();
+            Thread.sleep(PAUSE_BETWEEN_CHUNKS_MS);
+        }
+        return total;
+    }
+
+    /**
+     * 移动一块记录，调用方持有写锁；以BEGIN IMMEDIATE开始事务，先取得写锁再读取，
+     * 不会在提交前因快照过期（SQLITE_BUSY_SNAPSHOT）而失败
+     */
+    private int moveChunk(Connection connection, Partition target) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("BEGIN IMMEDIATE");
+        }
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DELETE FROM temp.move_ids");
+
+            int count;
+            try (PreparedStatement select = connection.prepareStatement(
+                    "INSERT INTO temp.move_ids SELECT id FROM main.detection_history " +
+                    "WHERE detection_ts >= ? AND detection_ts < ? ORDER BY detection_ts LIMIT ?")) {
+                select.setLong(1, target.startMillis);
+                select.setLong(2, target.endMillis);
+                select.setInt(3, MOVE_CHUNK_SIZE);
+                count = select.executeUpdate();
+            }
+            if (count == 0) {
+                stmt.execute("COMMIT");
+                return 0;
+            }
+
+            stmt.execute("INSERT OR REPLACE INTO part.detection_history " +
+                         "SELECT * FROM main.detection_history WHERE id IN (SELECT id FROM temp.move_ids)");
+            stmt.execute("INSERT OR REPLACE INTO part.defect " +
+                         "SELECT * FROM main.defect WHERE detection_id IN (SELECT id FROM temp.move_ids)");
+            stmt.execute("INSERT OR REPLACE INTO part.report_body " +
+                         "SELECT * FROM main.report_body WHERE detection_id IN (SELECT id FROM temp.move_ids)");
+
+            long minId;
+            long maxId;
+            try (ResultSet rs = stmt.executeQuery("SELECT MIN(id), MAX(id) FROM temp.move_ids")) {
+                rs.next();
+                minId = rs.getLong(1);
+                maxId = rs.getLong(2);
+            }
+            try (PreparedStatement catalogStmt = connection.prepareStatement(UPSERT_CATALOG_SQL)) {
+                catalogStmt.setString(1, target.month.toString());
+                catalogStmt.setString(2, target.file);
+                catalogStmt.setLong(3, minId);
+                catalogStmt.setLong(4, maxId);
+                catalogStmt.executeUpdate();
+            }
+
+            // 缺陷明细和报告正文随外键级联删除；统计汇总保留在主数据库中，不做扣减
+            stmt.execute("DELETE FROM main.detection_history WHERE id IN (SELECT id FROM temp.move_ids)");
+
+            stmt.execute("COMMIT");
+            return count;
+
+        } catch (SQLException | RuntimeException e) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("ROLLBACK");
+            } catch (SQLException rollbackError) {
+                logger.log(Level.WARNING, "回滚移动事务失败", rollbackError);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 按主数据库中的表结构在分区中建表，并建立按时间查询的索引
+     *
+     * 分区建立后主数据库的表又增加了列时，在分区的表中补上这些列，保持两边列的顺序一致。
+     */
+    private static void createPartitionSchema(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            for (String table : MOVED_TABLES) {
+                String ddl;
+                try (ResultSet rs = stmt.executeQuery(
+                        "SELECT sql FROM main.sqlite_master WHERE type = 'table' AND name = '" + table + "'")) {
+                    if (!rs.next()) {
+                        throw new SQLException("主数据库中不存在表 " + table);
+                    }
+                    ddl = rs.getString(1);
+                }
+                String prefix = "CREATE TABLE " + table;
+                if (!ddl.startsWith(prefix)) {
+                    ddl = ddl.replaceFirst("(?i)^CREATE TABLE\\s+(IF NOT EXISTS\\s+)?\"?" + table + "\"?", prefix);
+                }
+                stmt.execute("CREATE TABLE IF NOT EXISTS part." + table + ddl.substring(prefix.length()));
+                addMissingColumns(stmt, table);
+            }
+            stmt.execute("CREATE INDEX IF NOT EXISTS part.idx_history_ts_id ON detection_history(detection_ts, id)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS part.idx_defect_detection ON defect(detection_id)");
+        }
+    }
+
+    private static void addMissingColumns(Statement stmt, String table) throws SQLException {
+        List<String> partitionColumns = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery("PRAGMA part.table_info(" + table + ")")) {
+            while (rs.next()) {
+                partitionColumns.add(rs.getString("name").toLowerCase());
+            }
+        }
+
+        List<String> additions = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery("PRAGMA main.table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (partitionColumns.contains(rs.getString("name").toLowerCase())) {
+                    continue;
+                }
+                String defaultValue = rs.getString("dflt_value");
+                StringBuilder definition = new StringBuilder(rs.getString("name")).append(' ').append(rs.getString("type"));
+                if (defaultValue != null) {
+                    definition.append(rs.getInt("notnull") == 1 ? " NOT NULL" : "").append(" DEFAULT ").append(defaultValue);
+                }
+                additions.add(definition.toString());
+            }
+        }
+
+        for (String definition : additions) {
+            stmt.execute("ALTER TABLE part." + table + " ADD COLUMN " + definition);
+        }
+    }
+
+    /**
+     * 把超过归档期限的分区删除索引、VACUUM后压缩
+     *
+     * 归档全程持有分区的写锁：先把分区标记为archiving，之后的修改被拒绝；
+     * 压缩完成并更新目录后才删除原文件，期间的查询等待归档完成后读取压缩文件。
+     */
+    private void archiveOldPartitions() throws SQLException, IOException {
+        YearMonth archiveBefore = YearMonth.now().minusMonths(archiveAfterMonths - 1);
+        for (Partition partition : catalog) {
+            boolean pending = STATE_COLD.equals(partition.state) || STATE_ARCHIVING.equals(partition.state);
+            if (!pending || !partition.month.isBefore(archiveBefore)) {
+                continue;
+            }
+
+            Lock lock = lockFor(partition.month).writeLock();
+            lock.lock();
+            try {
+                archive(partition);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void archive(Partition partition) throws SQLException, IOException {
+        databaseManager.write(conn -> {
+            PreparedStatement pstmt = conn.prepare("UPDATE history_partition SET state = 'archiving' WHERE month = ?");
+            pstmt.setString(1, partition.month.toString());
+            return pstmt.executeUpdate();
+        });
+        reloadCatalog();
+
+        File file = new File(directory, partition.file);
+        try (Connection connection = openPartition(file, false);
+             Statement stmt = connection.createStatement()) {
+            List<String> indexes = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery(
+                    "SELECT name FROM sqlite_master WHERE type = 'index' AND sql IS NOT NULL")) {
+                while (rs.next()) {
+                    indexes.add(rs.getString(1));
+                }
+            }
+            for (String index : indexes) {
+                stmt.execute("DROP INDEX \"" + index + "\"");
+            }
+            stmt.execute("VACUUM");
+        }
+
+        String archivedName = partition.file + ".gz";
+        File archived = new File(directory, archivedName);
+        File temp = new File(directory, archivedName + ".tmp");
+        try (InputStream in = new FileInputStream(file);
+             OutputStream out = new GZIPOutputStream(new FileOutputStream(temp), 64 * 1024)) {
+            in.transferTo(out);
+        }
+        Files.move(temp.toPath(), archived.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        databaseManager.write(conn -> {
+            PreparedStatement pstmt = conn.prepare(
+                    "UPDATE history_partition SET file = ?, state = 'archived' WHERE month = ?");
+            pstmt.setString(1, archivedName);
+            pstmt.setString(2, partition.month.toString());
+            return pstmt.executeUpdate();
+        });
+        reloadCatalog();
+        long originalBytes = file.length();
+        Files.deleteIfExists(file.toPath());
+
+        logger.info("历史分区 " + partition.month + " 已归档: " + originalBytes / 1024 + "KB -> "
+                + archived.length() / 1024 + "KB");
+    }
+
+    /**
+     * 删除超过保留期限的分区
+     */
+    private void applyRetention() throws SQLException, IOException {
+        if (retentionMonths <= 0) {
+            return;
+        }
+
+        YearMonth keepFrom = YearMonth.now().minusMonths(retentionMonths - 1);
+        for (Partition partition : catalog) {
+            if (!partition.month.isBefore(keepFrom)) {
+                continue;
+            }
+
+            Lock lock = lockFor(partition.month).writeLock();
+            lock.lock();
+            try {
+                removeFromSearchIndex(partition);
+                databaseManager.write(conn -> {
+                    PreparedStatement pstmt = conn.prepare("DELETE FROM history_partition WHERE month = ?");
+                    pstmt.setString(1, partition.month.toString());
+                    return pstmt.executeUpdate();
+                });
+                reloadCatalog();
+                Files.deleteIfExists(new File(directory, partition.file).toPath());
+                Files.deleteIfExists(cacheFile(partition).toPath());
+            } finally {
+                lock.unlock();
+            }
+            logger.info("历史分区 " + partition.month + " 超过保留期限，已删除");
+        }
+    }
+
+    /**
+     * 从主数据库的全文索引中删除分区内的报告，按ID分块处理
+     */
+    private void removeFromSearchIndex(Partition partition) throws SQLException {
+        long lastId = 0;
+        while (true) {
+            long afterId = lastId;
+            List<Object[]> reports = read(partition, conn -> {
+                PreparedStatement pstmt = conn.prepare(SELECT_REPORTS_SQL);
+                pstmt.setLong(1, afterId);
+                pstmt.setInt(2, MOVE_CHUNK_SIZE);
+                List<Object[]> rows = new ArrayList<>();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        byte[] body = rs.getBytes("body");
+                        rows.add(new Object[] {rs.getLong("id"), body == null
+                                ? rs.getString("analysis_report")
+                                : ReportCodec.decode(rs.getInt("codec"), rs.getInt("original_length"), body)});
+                    }
+                }
+                return rows;
+            });
+            if (reports.isEmpty()) {
+                return;
+            }
+
+            databaseManager.write(conn -> {
+                for (Object[] report : reports) {
+                    ReportSearchIndex.remove(conn, (Long) report[0], (String) report[1]);
+                }
+                return null;
+            });
+            lastId = (Long) reports.get(reports.size() - 1)[0];
+        }
+    }
+
+    /**
+     * 解压已归档的分区到缓存目录
+     */
+    private synchronized File extractArchived(Partition partition) throws SQLException {
+        File cached = cacheFile(partition);
+        if (cached.isFile()) {
+            cached.setLastModified(System.currentTimeMillis());
+            return cached;
+        }
+
+        File cacheDir = cached.getParentFile();
+        File temp = new File(cacheDir, cached.getName() + ".tmp");
+        try {
+            if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+                throw new IOException("无法创建分区缓存目录: " + cacheDir);
+            }
+            try (InputStream in = new GZIPInputStream(new FileInputStream(new File(directory, partition.file)), 64 * 1024);
+                 OutputStream out = new FileOutputStream(temp)) {
+                in.transferTo(out);
+            }
+            Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return cached;
+        } catch (IOException e) {
+            temp.delete();
+            throw new SQLException("无法解压历史分区 " + partition.month, e);
+        }
+    }
+
+    /**
+     * 删除一天内未使用的解压缓存
+     */
+    private synchronized void cleanCache() {
+        File[] files = new File(directory, CACHE_DIRECTORY).listFiles();
+        if (files == null) {
+            return;
+        }
+        long expireBefore = System.currentTimeMillis() - CACHE_MAX_AGE_MS;
+        for (File file : files) {
+            if (file.lastModified() < expireBefore && !file.delete()) {
+                logger.warning("无法删除分区缓存: " + file);
+            }
+        }
+    }
+
+    private void reloadCatalog() throws SQLException {
+        catalog = Collections.unmodifiableList(databaseManager.read(conn -> {
+            List<Partition> partitions = new ArrayList<>();
+            try (ResultSet rs = conn.prepare(CATALOG_SQL).executeQuery()) {
+                while (rs.next()) {
+                    partitions.add(new Partition(YearMonth.parse(rs.getString("month")), rs.getString("file"),
+                            rs.getString("state"), rs.getLong("min_id"), rs.getLong("max_id")));
+                }
+            }
+            return partitions;
+        }));
+    }
+
+    private File cacheFile(Partition partition) {
+        return new File(new File(directory, CACHE_DIRECTORY), fileName(partition.month));
+    }
+
+    private static String fileName(YearMonth month) {
+        return String.format("history_%04d_%02d.db", month.getYear(), month.getMonthValue());
+    }
+}
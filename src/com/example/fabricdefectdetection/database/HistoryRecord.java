@@ -0,0 +1,84 @@
+package com.example.fabricdefectdetection.database;
+
+import java.util.Comparator;
+
+/**
+ * 一条检测历史记录（不含报告正文和缺陷明细）
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public final class HistoryRecord {
+
+    /**
+     * 按(检测时间, ID)降序排列，与历史记录分页的顺序一致
+     */
+    static final Comparator<HistoryRecord> NEWEST_FIRST = Comparator
+            .comparingLong(HistoryRecord::getTimestamp)
+            .thenComparingLong(HistoryRecord::getId)
+            .reversed();
+
+    private final long id;
+    private final long timestamp;
+    private final String detectionTime;
+    private final String imageName;
+    private final int defectCount;
+    private final String qualityLevel;
+    private final boolean aiEnhanced;
+
+    /**
+     * 构造函数
+     *
+     * @param id 记录ID
+     * @param timestamp 检测时间（毫秒时间戳）
+     * @param detectionTime 检测时间文本 (yyyy-MM-dd HH:mm:ss)
+     * @param imageName 图片名称
+     * @param defectCount 缺陷数
+     * @param qualityLevel 质量等级
+     * @param aiEnhanced 是否AI增强
+     */
+    HistoryRecord(long id, long timestamp, String detectionTime, String imageName, int defectCount,
+                  String qualityLevel, boolean aiEnhanced) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.detectionTime = detectionTime;
+        this.imageName = imageName;
+        this.defectCount = defectCount;
+        this.qualityLevel = qualityLevel;
+        this.aiEnhanced = aiEnhanced;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getDetectionTime() {
+        return detectionTime;
+    }
+
+    public String getImageName() {
+        return imageName;
+    }
+
+    public int getDefectCount() {
+        return defectCount;
+    }
+
+    public String getQualityLevel() {
+        return qualityLevel;
+    }
+
+    public boolean isAiEnhanced() {
+        return aiEnhanced;
+    }
+
+    @Override
+    public String toString() {
+        return "HistoryRecord{id=" + id + ", detectionTime=" + detectionTime + ", imageName=" + imageName
+                + ", defectCount=" + defectCount + ", qualityLevel=" + qualityLevel + "}";
+    }
+}
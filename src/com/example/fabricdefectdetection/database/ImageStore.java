@@ -0,0 +1,484 @@
+package com.example.fabricdefectdetection.database;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import com.example.fabricdefectdetection.util.ConfigurationManager;
+
+/**
+ * 检测结果图像存储
+ *
+ * 标注后的检测结果图像编码为JPEG缩略图（可选同时保存完整图像），按内容的SHA-256
+ * 命名存放在两级分片目录（ab/cd/abcd....jpg）中，内容相同的图像只保存一份。
+ * image_blob表是图像的哈希索引，记录每个文件的大小和最近使用时间；
+ * detection_history通过thumbnail_hash和image_hash引用图像。
+ *
+ * 缩放和复制在调用线程中完成，JPEG编码、计算哈希和写文件在后台线程池中执行，
+ * 队列满时由调用线程自己编码，避免积压的图像占用过多内存。
+ * 存储总大小超过上限时按最近使用时间淘汰最旧的图像，被淘汰图像的检测记录不再显示图像。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public final class ImageStore {
+
+    private static final Logger logger = Logger.getLogger(ImageStore.class.getName());
+
+    private static final String DEFAULT_DIRECTORY = "images";
+    private static final int DEFAULT_THUMBNAIL_SIZE = 320;
+    private static final int DEFAULT_JPEG_QUALITY = 85;
+    private static final int DEFAULT_MAX_STORE_MB = 2048;
+    private static final int DEFAULT_ENCODER_THREADS = 2;
+    private static final int ENCODE_QUEUE_CAPACITY = 64;
+    private static final int EVICTION_BATCH_SIZE = 500;
+    private static final double EVICTION_TARGET_RATIO = 0.9;
+
+    private static final String INSERT_BLOB_SQL =
+            "INSERT OR IGNORE INTO image_blob (hash, size_bytes, last_used) VALUES (?, ?, ?)";
+    private static final String TOUCH_BLOB_SQL = "UPDATE image_blob SET last_used = ? WHERE hash = ?";
+    private static final String TOTAL_SIZE_SQL = "SELECT COALESCE(SUM(size_bytes), 0) FROM image_blob";
+    private static final String OLDEST_BLOBS_SQL =
+            "SELECT hash, size_bytes FROM image_blob ORDER BY last_used LIMIT ?";
+    private static final String DELETE_BLOB_SQL = "DELETE FROM image_blob WHERE hash = ?";
+
+    private static ImageStore instance;
+
+    private final File directory;
+    private final int thumbnailSize;
+    private final boolean storeFullImage;
+    private final int jpegQuality;
+    private final long maxStoreBytes;
+    private final DatabaseManager databaseManager;
+    private final ThreadPoolExecutor encoder;
+    private final ExecutorService evictor;
+
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicBoolean evictionScheduled = new AtomicBoolean(false);
+
+    /**
+     * 保存后的图像哈希
+     */
+    public static final class StoredImages {
+        private final String thumbnailHash;
+        private final long thumbnailBytes;
+        private final String imageHash;
+        private final long imageBytes;
+
+        StoredImages(String thumbnailHash, long thumbnailBytes, String imageHash, long imageBytes) {
+            this.thumbnailHash = thumbnailHash;
+            this.thumbnailBytes = thumbnailBytes;
+            this.imageHash = imageHash;
+            this.imageBytes = imageBytes;
+        }
+
+        public String getThumbnailHash() {
+            return thumbnailHash;
+        }
+
+        /**
+         * 获取完整图像的哈希
+         *
+         * @return 哈希，未保存完整图像时为null
+         */
+        public String getImageHash() {
+            return imageHash;
+        }
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param directory 存储目录
+     * @param thumbnailSize 缩略图最长边（像素）
+     * @param storeFullImage 是否同时保存完整图像
+     * @param jpegQuality JPEG质量（0-100）
+     * @param maxStoreBytes 存储总大小上限
+     * @param encoderThreads 编码线程数
+     * @param databaseManager 保存哈希索引的数据库
+     * @throws IOException 如果存储目录无法创建
+     */
+    public ImageStore(File directory, int thumbnailSize, boolean storeFullImage, int jpegQuality,
+                      long maxStoreBytes, int encoderThreads, DatabaseManager databaseManager) throws IOException {
+        this.directory = directory;
+        this.thumbnailSize = Math.max(16, thumbnailSize);
+        this.storeFullImage = storeFullImage;
+        this.jpegQuality = Math.max(0, Math.min(100, jpegQuality));
+        this.maxStoreBytes = maxStoreBytes;
+        this.databaseManager = databaseManager;
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("无法创建图像存储目录: " + directory.getAbsolutePath());
+        }
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        int threads = Math.max(1, encoderThreads);
+        this.encoder = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(ENCODE_QUEUE_CAPACITY), runnable -> {
+                    Thread thread = new Thread(runnable, "image-encoder-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        // 淘汰在独立线程中执行：编码队列满时CallerRunsPolicy会让任务在调用线程中运行，
+        // 而register由组提交写入器在未提交的事务中调用，淘汰不能在那里写数据库
+        this.evictor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "image-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            storedBytes.set(databaseManager.read(conn -> {
+                try (ResultSet rs = conn.prepare(TOTAL_SIZE_SQL).executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : 0L;
+                }
+            }));
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "读取图像存储大小失败", e);
+        }
+
+        logger.info("图像存储已打开: " + directory.getAbsolutePath() + "，已用 "
+                + storedBytes.get() / (1024 * 1024) + "MB");
+    }
+
+    /**
+     * 获取全局共享的图像存储实例
+     *
+     * 参数分别取配置项 image.store-dir、image.thumbnail-size、image.store-full、
+     * image.jpeg-quality、image.max-store-mb 和 image.encoder-threads。
+     *
+     * @return 图像存储实例
+     */
+    public static synchronized ImageStore getInstance() {
+        if (instance == null) {
+            ConfigurationManager config = ConfigurationManager.getInstance();
+            try {
+                instance = new ImageStore(
+                        new File(config.getProperty("image.store-dir", DEFAULT_DIRECTORY)),
+                        config.getIntProperty("image.thumbnail-size", DEFAULT_THUMBNAIL_SIZE),
+                        config.getBooleanProperty("image.store-full", false),
+                        config.getIntProperty("image.jpeg-quality", DEFAULT_JPEG_QUALITY),
+                        config.getIntProperty("image.max-store-mb", DEFAULT_MAX_STORE_MB) * 1024L * 1024L,
+                        config.getIntProperty("image.encoder-threads", DEFAULT_ENCODER_THREADS),
+                        DatabaseManager.getInstance());
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "无法打开图像存储", e);
+                throw new UncheckedIOException(e);
+            }
+
+            ImageStore store = instance;
+            Runtime.getRuntime().addShutdownHook(new Thread(store::close, "image-store-shutdown"));
+        }
+        return instance;
+    }
+
+    /**
+     * 异步保存检测结果图像
+     *
+     * 缩略图和完整图像的副本在调用线程中生成，返回后调用方即可释放原图像。
+     *
+     * @param image 标注后的检测结果图像
+     * @return 保存完成后以图像哈希完成的Future；图像为空或保存失败时以null完成
+     */
+    public CompletableFuture<StoredImages> storeAsync(Mat image) {
+        if (image == null || image.empty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Mat thumbnail = createThumbnail(image);
+        Mat fullImage = storeFullImage ? image.clone() : null;
+
+        CompletableFuture<StoredImages> future = new CompletableFuture<>();
+        try {
+            encoder.execute(() -> {
+                try {
+                    long[] thumbnailBytes = new long[1];
+                    String thumbnailHash = encodeAndWrite(thumbnail, thumbnailBytes);
+                    long[] imageBytes = new long[1];
+                    String imageHash = fullImage != null ? encodeAndWrite(fullImage, imageBytes) : null;
+                    future.complete(new StoredImages(thumbnailHash, thumbnailBytes[0], imageHash, imageBytes[0]));
+                } catch (IOException | RuntimeException e) {
+                    logger.log(Level.WARNING, "保存检测结果图像失败", e);
+                    future.complete(null);
+                } finally {
+                    thumbnail.release();
+                    if (fullImage != null) {
+                        fullImage.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // 线程池已关闭
+            thumbnail.release();
+            if (fullImage != null) {
+                fullImage.release();
+            }
+            logger.log(Level.WARNING, "图像存储已关闭，未保存图像", e);
+            future.complete(null);
+        }
+        return future;
+    }
+
+    /**
+     * 在给定连接上登记已保存的图像，由调用方所在的事务提交
+     *
+     * 已存在的图像只更新最近使用时间。存储总大小超过上限时在后台淘汰旧图像。
+     *
+     * @param conn 池化连接
+     * @param images 已保存的图像
+     * @throws SQLException 如果SQL执行失败
+     */
+    void register(PooledConnection conn, StoredImages images) throws SQLException {
+        long now = System.currentTimeMillis();
+        long addedBytes = registerBlob(conn, images.thumbnailHash, images.thumbnailBytes, now);
+        if (images.imageHash != null) {
+            addedBytes += registerBlob(conn, images.imageHash, images.imageBytes, now);
+        }
+
+        if (storedBytes.addAndGet(addedBytes) > maxStoreBytes && evictionScheduled.compareAndSet(false, true)) {
+            try {
+                evictor.execute(this::evict);
+            } catch (RuntimeException e) {
+                evictionScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * 经组提交写入器异步登记已保存的图像，供不在SQLite中保存检测记录的存储后端使用
+     *
+     * @param images 已保存的图像
+     * @return 登记事务提交后完成的Future
+     */
+    public CompletableFuture<Void> registerAsync(StoredImages images) {
+        return GroupCommitWriter.getInstance().submit(conn -> {
+            register(conn, images);
+            return null;
+        });
+    }
+
+    /**
+     * 登记一个图像文件
+     *
+     * @return 新增的字节数，图像已存在（重复内容）时为0
+     */
+    private static long registerBlob(PooledConnection conn, String hash, long size, long now) throws SQLException {
+        PreparedStatement insert = conn.prepare(INSERT_BLOB_SQL);
+        insert.setString(1, hash);
+        insert.setLong(2, size);
+        insert.setLong(3, now);
+        if (insert.executeUpdate() > 0) {
+            return size;
+        }
+
+        PreparedStatement touch = conn.prepare(TOUCH_BLOB_SQL);
+        touch.setLong(1, now);
+        touch.setString(2, hash);
+        touch.executeUpdate();
+        return 0;
+    }
+
+    /**
+     * 按内容哈希读取图像
+     *
+     * @param hash 图像哈希
+     * @return 图像，文件不存在（已被淘汰）时返回null
+     */
+    public BufferedImage loadImage(String hash) {
+        if (hash == null) {
+            return null;
+        }
+        File file = fileFor(hash);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return ImageIO.read(file);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "读取图像失败: " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * 等待已提交的图像编码完成并停止编码线程
+     */
+    public void close() {
+        evictor.shutdown();
+        encoder.shutdown();
+        try {
+            if (!encoder.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warning("图像编码未能在10秒内完成");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Mat createThumbnail(Mat image) {
+        double scale = Math.min(1.0, (double) thumbnailSize / Math.max(image.cols(), image.rows()));
+        Mat thumbnail = new Mat();
+        if (scale < 1.0) {
+            Imgproc.resize(image, thumbnail, new Size(), scale, scale, Imgproc.INTER_AREA);
+        } else {
+            image.copyTo(thumbnail);
+        }
+        return thumbnail;
+    }
+
+    /**
+     * 编码为JPEG并按内容哈希写入文件，文件已存在时不重复写入
+     *
+     * @param image 图像
+     * @param size 输出：编码后的字节数
+     * @return 内容哈希
+     * @throws IOException 如果编码或写文件失败
+     */
+    private String encodeAndWrite(Mat image, long[] size) throws IOException {
+        MatOfByte buffer = new MatOfByte();
+        MatOfInt params = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, jpegQuality);
+        byte[] bytes;
+        try {
+            if (!Imgcodecs.imencode(".jpg", image, buffer, params)) {
+                throw new IOException("JPEG编码失败");
+            }
+            bytes = buffer.toArray();
+        } finally {
+            buffer.release();
+            params.release();
+        }
+
+        String hash = sha256(bytes);
+        size[0] = bytes.length;
+
+        File file = fileFor(hash);
+        if (file.isFile()) {
+            return hash;
+        }
+
+        File parent = file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("无法创建目录: " + parent);
+        }
+        File temp = File.createTempFile(hash, ".tmp", parent);
+        try {
+            Files.write(temp.toPath(), bytes);
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+        return hash;
+    }
+
+    /**
+     * 淘汰最久未使用的图像，直到总大小降到上限的90%以下
+     */
+    private void evict() {
+        try {
+            long total = databaseManager.read(conn -> {
+                try (ResultSet rs = conn.prepare(TOTAL_SIZE_SQL).executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : 0L;
+                }
+            });
+            long target = (long) (maxStoreBytes * EVICTION_TARGET_RATIO);
+            int evicted = 0;
+
+            while (total > target) {
+                List<String> hashes = new ArrayList<>();
+                long[] freed = new long[1];
+                long excess = total - target;
+                databaseManager.write(conn -> {
+                    PreparedStatement select = conn.prepare(OLDEST_BLOBS_SQL);
+                    select.setInt(1, EVICTION_BATCH_SIZE);
+                    try (ResultSet rs = select.executeQuery()) {
+                        while (rs.next() && freed[0] < excess) {
+                            hashes.add(rs.getString(1));
+                            freed[0] += rs.getLong(2);
+                        }
+                    }
+
+                    PreparedStatement delete = conn.prepare(DELETE_BLOB_SQL);
+                    for (String hash : hashes) {
+                        delete.setString(1, hash);
+                        delete.addBatch();
+                    }
+                    delete.executeBatch();
+                    return null;
+                });
+
+                if (hashes.isEmpty()) {
+                    break;
+                }
+                // 索引记录删除并提交后再删除文件
+                for (String hash : hashes) {
+                    Files.deleteIfExists(fileFor(hash).toPath());
+                }
+                total -= freed[0];
+                evicted += hashes.size();
+            }
+
+            storedBytes.set(total);
+            if (evicted > 0) {
+                logger.info("图像存储超过上限，已淘汰 " + evicted + " 个图像，当前 " + total / (1024 * 1024) + "MB");
+            }
+
+        } catch (SQLException | IOException e) {
+            logger.log(Level.WARNING, "淘汰旧图像失败", e);
+        } finally {
+            evictionScheduled.set(false);
+        }
+    }
+
+    private File fileFor(String hash) {
+        File shard = new File(new File(directory, hash.substring(0, 2)), hash.substring(2, 4));
+        return new File(shard, hash + ".jpg");
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+}
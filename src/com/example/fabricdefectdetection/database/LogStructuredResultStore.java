@@ -0,0 +1,1124 @@
+package com.example.fabricdefectdetection.database;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import com.example.fabricdefectdetection.analysis.DefectAnalysisReport;
+
+/**
+ * 日志结构检测结果存储
+ *
+ * 面向高速写入的产线：检测结果、删除标记和图像哈希都作为记录由单个后台写线程顺序追加到
+ * 滚动的段文件（segment_NNNNNN.log）中，多条记录合并为一批写入并刷盘后才确认写入完成。
+ * 内存中只保存每条检测记录的位置、时间和图像哈希，按ID或按时间范围查询时定位读取段文件。
+ *
+ * 段文件记录格式：魔数(4) + 负载长度(4) + 负载 + CRC32(4)，负载的第一个字节为
+ * 记录类型。启动时按顺序重放所有段文件重建内存索引，末尾不完整的记录会被截断。
+ *
+ * 一批写入失败时，该批的写入全部以异常完成，段文件回退到最后一次确认写入的位置（丢弃缓冲区中
+ * 未刷盘的字节和写了一半的记录），之后的写入从该位置继续，重启时不会因为损坏的记录截断掉之后已确认的
+ * 记录，也不会出现调用方认为失败的记录。回退本身失败时存储停止接收新的写入。
+ *
+ * 删除和更新会在旧段文件中留下无效记录。后台定期把无效字节比例超过阈值的已封闭段文件中仍然有效的
+ * 记录复制到当前段文件末尾后删除该段文件。复制在写线程中执行，与其他写入严格排序。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public final class LogStructuredResultStore implements ResultStore {
+
+    private static final Logger logger = Logger.getLogger(LogStructuredResultStore.class.getName());
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    private static final int RECORD_MAGIC = 0x44455431;  // "DET1"
+    private static final int RECORD_OVERHEAD = 12;
+    private static final String SEGMENT_FILE_FORMAT = "segment_%06d.log";
+    private static final String SEGMENT_FILE_PATTERN = "segment_\\d{6}\\.log";
+
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_DELETE = 2;
+    private static final byte TYPE_IMAGES = 3;
+
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private final File directory;
+    private final long maxSegmentBytes;
+    private final double compactGarbageRatio;
+    private final ImageStore imageStore;
+
+    // 内存索引：当前有效的检测记录，以及按(检测时间, ID)降序排列的键
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final NavigableSet<TimeKey> byTime = new ConcurrentSkipListSet<>();
+    private final Map<Integer, FileChannel> readChannels = new ConcurrentHashMap<>();
+
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    private final ScheduledExecutorService compactionScheduler;
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    // 以下字段只由写线程访问（构造完成前由构造线程访问）
+    private final TreeMap<Integer, long[]> segmentStats = new TreeMap<>();  // 段号 -> [总字节数, 有效字节数]
+    private FileOutputStream segmentFile;
+    private OutputStream segmentOut;
+    private int currentSegment;
+    private long currentSegmentSize;
+    private int committedSegment;
+    private long committedSize;
+
+    private volatile boolean closed = false;
+    private volatile IOException writeFailure;
+
+    /**
+     * 构造函数，打开（或创建）存储目录、重建内存索引并启动写线程
+     *
+     * @param directory 存储目录
+     * @param maxSegmentBytes 单个段文件的最大字节数
+     * @param compactGarbageRatio 无效字节比例超过该值的段文件被压实
+     * @param compactIntervalMinutes 压实检查间隔（分钟）
+     * @param imageStore 图像存储，登记检测结果图像时使用，可以为null
+     * @throws IOException 如果段文件无法打开
+     */
+    public LogStructuredResultStore(File directory, long maxSegmentBytes, double compactGarbageRatio,
+                                    long compactIntervalMinutes, ImageStore imageStore) throws IOException {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.compactGarbageRatio = compactGarbageRatio;
+        this.imageStore = imageStore;
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("无法创建检测结果存储目录: " + directory.getAbsolutePath());
+        }
+
+        replaySegments();
+        currentSegment = segmentStats.isEmpty() ? 1 : segmentStats.lastKey();
+        File file = segmentFile(currentSegment);
+        currentSegmentSize = file.exists() ? file.length() : 0;
+        segmentStats.computeIfAbsent(currentSegment, segment -> new long[2]);
+        segmentFile = new FileOutputStream(file, true);
+        segmentOut = new BufferedOutputStream(segmentFile, 64 * 1024);
+        markCommitted();
+
+        writerThread = new Thread(this::writeLoop, "result-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        compactionScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "result-log-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, compactIntervalMinutes);
+        compactionScheduler.scheduleWithFixedDelay(this::requestCompaction, interval, interval, TimeUnit.MINUTES);
+
+        logger.info("检测结果存储已打开: " + directory.getAbsolutePath() + "，有效记录 " + entries.size() + " 条");
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * 本存储不支持按批次删除，不记录批处理任务编号。
+     */
+    @Override
+    public CompletableFuture<Long> save(DefectAnalysisReport report, String imageName, List<DefectRecord> defects,
+                                        int imageWidth, int imageHeight, String batchId) {
+        long timestamp = System.currentTimeMillis();
+        CompletableFuture<Object> written = new CompletableFuture<>();
+        long id;
+        try {
+            checkOpen();
+            // 压缩报告和编码记录在锁外进行，锁内只做关闭检查和入队；写入顺序不必与ID顺序一致
+            id = nextId.getAndIncrement();
+            byte[] payload = encodePut(id, timestamp, imageName, report.getDefectCount(),
+                    report.getQualityLevel(), report.isAiEnhanced(), imageWidth, imageHeight, null, null,
+                    defects, ReportCodec.encode(report.getAnalysisContent() != null
+                            ? report.getAnalysisContent() : ""));
+            synchronized (queue) {
+                checkOpen();
+                queue.add(new PendingWrite(TYPE_PUT, id, timestamp, payload, null, null, written));
+            }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return written.thenApply(ignored -> {
+            logger.info("检测结果已保存: " + imageName + "，记录ID: " + id + "，缺陷明细: " + defects.size() + "条");
+            return id;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> attachImages(long resultId, ImageStore.StoredImages images) {
+        CompletableFuture<Object> written = new CompletableFuture<>();
+        try {
+            byte[] payload = encodeImages(resultId, images.getThumbnailHash(), images.getImageHash());
+            synchronized (queue) {
+                checkOpen();
+                queue.add(new PendingWrite(TYPE_IMAGES, resultId, 0, payload,
+                        images.getThumbnailHash(), images.getImageHash(), written));
+            }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        // 图像文件的淘汰由图像存储的索引管理，与检测记录存放在哪个后端无关
+        CompletableFuture<Void> registered = imageStore != null
+                ? imageStore.registerAsync(images)
+                : CompletableFuture.completedFuture(null);
+        return CompletableFuture.allOf(written, registered);
+    }
+
+    @Override
+    public HistoryPage findResultsPage(String startDate, String endDate, HistoryPage.Cursor after, int pageSize) {
+        List<HistoryRecord> rows = new ArrayList<>(pageSize);
+        HistoryPage.Cursor nextCursor = null;
+
+        try {
+            long[] range = dayRange(startDate, endDate);
+            NavigableSet<TimeKey> keys = after != null
+                    ? byTime.tailSet(new TimeKey(after.getTimestamp(), after.getId()), false)
+                    : byTime.tailSet(new TimeKey(range[1] - 1, Long.MAX_VALUE), true);
+
+            TimeKey last = null;
+            for (TimeKey key : keys) {
+                if (key.timestamp < range[0]) {
+                    break;
+                }
+                if (rows.size() == pageSize) {
+                    nextCursor = new HistoryPage.Cursor(last.timestamp, last.id);
+                    break;
+                }
+                Record record = readRecord(key.id);
+                if (record == null) {
+                    continue;
+                }
+                rows.add(record.toHistoryRecord());
+                last = key;
+            }
+
+        } catch (DateTimeParseException | IOException e) {
+            logger.log(Level.SEVERE, "分页查询检测结果时发生错误", e);
+            return new HistoryPage(new ArrayList<>(), null);
+        }
+
+        return new HistoryPage(rows, nextCursor);
+    }
+
+    @Override
+    public String getAnalysisReportById(int id) {
+        try {
+            Record record = readRecord(id);
+            return record != null ? record.decodeReport() : null;
+
+        } catch (IOException | SQLException e) {
+            logger.log(Level.SEVERE, "获取分析报告时发生错误", e);
+        }
+        return null;
+    }
+
+    @Override
+    public String[] findImageHashes(int id) {
+        Entry entry = entries.get((long) id);
+        return entry != null ? new String[] {entry.thumbnailHash, entry.imageHash} : null;
+    }
+
+    @Override
+    public boolean deleteResult(int id) {
+        try {
+            if (Boolean.TRUE.equals(enqueueDeletes(Collections.singletonList(id)).get(0).join())) {
+                logger.info("成功删除ID为" + id + "的检测结果");
+                return true;
+            }
+            logger.warning("未找到ID为" + id + "的检测结果");
+
+        } catch (IOException | CompletionException e) {
+            logger.log(Level.SEVERE, "删除检测结果时发生错误", e);
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * 每块最多MAX_BATCH_SIZE条删除标记一起入队，由写线程合并为一批写入。
+     */
+    @Override
+    public int deleteResults(Collection<Integer> ids) {
+        List<Integer> remaining = new ArrayList<>(new LinkedHashSet<>(ids));
+        int deleted = 0;
+
+        try {
+            for (int from = 0; from < remaining.size(); from += MAX_BATCH_SIZE) {
+                if (Thread.currentThread().isInterrupted()) {
+                    logger.info("批量删除已取消，已删除 " + deleted + " 条");
+                    break;
+                }
+                List<Integer> chunk = remaining.subList(from, Math.min(from + MAX_BATCH_SIZE, remaining.size()));
+                for (CompletableFuture<Object> written : enqueueDeletes(chunk)) {
+                    if (Boolean.TRUE.equals(written.join())) {
+                        deleted++;
+                    }
+                }
+            }
+
+        } catch (IOException | CompletionException e) {
+            logger.log(Level.SEVERE, "批量删除检测结果时发生错误，已删除 " + deleted + " 条", e);
+        }
+
+        logger.info("批量删除检测结果 " + deleted + " 条");
+        return deleted;
+    }
+
+    @Override
+    public int deleteResultsByDateRange(String startDate, String endDate) {
+        List<Integer> ids = new ArrayList<>();
+        try {
+            long[] range = dayRange(startDate, endDate);
+            for (TimeKey key : byTime.tailSet(new TimeKey(range[1] - 1, Long.MAX_VALUE), true)) {
+                if (key.timestamp < range[0]) {
+                    break;
+                }
+                ids.add((int) key.id);
+            }
+
+        } catch (DateTimeParseException e) {
+            logger.log(Level.SEVERE, "按日期范围删除检测结果时发生错误", e);
+            return 0;
+        }
+
+        return deleteResults(ids);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * 本存储只有按ID和按时间的内存索引，不支持统计报表、全文搜索和逐条导出。
+     */
+    @Override
+    public boolean supportsAnalytics() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * 本存储不记录批处理任务编号，不支持按批次删除。
+     */
+    @Override
+    public boolean supportsBatchDelete() {
+        return false;
+    }
+
+    /**
+     * 立即检查并压实段文件，在压实完成后返回
+     */
+    public void compact() {
+        requestCompaction().join();
+    }
+
+    /**
+     * 获取当前有效的检测记录数
+     *
+     * @return 记录数
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * 写完队列中剩余的记录并关闭存储
+     */
+    public void close() {
+        synchronized (queue) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // 不能中断写线程（中断会关闭正在刷盘的文件通道），用空请求唤醒它写完剩余记录
+            queue.add(new PendingWrite((byte) 0, 0, 0, null, null, null, new CompletableFuture<>()));
+        }
+        compactionScheduler.shutdownNow();
+
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (FileChannel channel : readChannels.values()) {
+            closeQuietly(channel);
+        }
+        readChannels.clear();
+        logger.info("检测结果存储已关闭");
+    }
+
+    private CompletableFuture<Object> requestCompaction() {
+        CompletableFuture<Object> done = new CompletableFuture<>();
+        synchronized (queue) {
+            if (closed) {
+                done.complete(null);
+                return done;
+            }
+            queue.add(new PendingWrite(PendingWrite.COMPACT, 0, 0, null, null, null, done));
+        }
+        return done;
+    }
+
+    /**
+     * 在一次加锁中把多条删除标记加入写队列
+     *
+     * @param ids 检测记录ID
+     * @return 每条删除写入完成的Future，记录存在并已删除时以TRUE完成
+     * @throws IOException 如果存储已关闭或已停止写入
+     */
+    private List<CompletableFuture<Object>> enqueueDeletes(List<Integer> ids) throws IOException {
+        List<CompletableFuture<Object>> futures = new ArrayList<>(ids.size());
+        synchronized (queue) {
+            checkOpen();
+            for (int id : ids) {
+                CompletableFuture<Object> written = new CompletableFuture<>();
+                queue.add(new PendingWrite(TYPE_DELETE, id, 0, encodeDelete(id), null, null, written));
+                futures.add(written);
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * 把日期范围转换为本地时区的毫秒时间范围
+     *
+     * @param startDate 开始日期 (yyyy-MM-dd)
+     * @param endDate 结束日期 (yyyy-MM-dd)
+     * @return 开始日零点和结束日次日零点的毫秒时间
+     */
+    private static long[] dayRange(String startDate, String endDate) {
+        ZoneId zone = ZoneId.systemDefault();
+        return new long[] {
+                LocalDate.parse(startDate, DAY_FORMAT).atStartOfDay(zone).toInstant().toEpochMilli(),
+                LocalDate.parse(endDate, DAY_FORMAT).plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli()
+        };
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("检测结果存储已关闭");
+        }
+        if (writeFailure != null) {
+            throw new IOException("检测结果存储写入失败，已停止接收新的写入", writeFailure);
+        }
+    }
+
+    /**
+     * 写线程主循环：取出一批写请求，写入并刷盘后更新内存索引，再确认写入完成
+     */
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        try {
+            while (!closed || !queue.isEmpty()) {
+                batch.clear();
+                try {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                } catch (InterruptedException e) {
+                    // 写线程被意外中断时写完剩余记录后退出
+                    queue.drainTo(batch);
+                    closed = true;
+                }
+                writeBatch(batch);
+            }
+        } finally {
+            closeQuietly(segmentOut);
+        }
+    }
+
+    /**
+     * 写入一批请求。压实请求打断批次：之前的记录先刷盘生效，再执行压实
+     */
+    private void writeBatch(List<PendingWrite> batch) {
+        List<Runnable> updates = new ArrayList<>(batch.size());
+        List<PendingWrite> written = new ArrayList<>(batch.size());
+        try {
+            if (writeFailure != null) {
+                throw new IOException("检测结果存储写入失败，已停止接收新的写入", writeFailure);
+            }
+            for (PendingWrite write : batch) {
+                if (write.type == PendingWrite.COMPACT) {
+                    commit(updates, written);
+                    compactSegments();
+                    write.future.complete(null);
+                    continue;
+                }
+                if (write.payload != null) {
+                    updates.add(append(write));
+                }
+                written.add(write);
+            }
+            commit(updates, written);
+
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.SEVERE, "写入检测结果存储失败", e);
+            // 已确认的写入不受影响，只有尚未确认的写入以异常完成
+            for (PendingWrite write : batch) {
+                write.future.completeExceptionally(e);
+            }
+            if (writeFailure == null) {
+                rollbackToCommitted();
+            }
+        }
+    }
+
+    /**
+     * 记录当前写入位置为最后一次确认写入的位置
+     */
+    private void markCommitted() {
+        committedSegment = currentSegment;
+        committedSize = currentSegmentSize;
+    }
+
+    /**
+     * 写入失败后回退到最后一次确认写入的位置
+     *
+     * 丢弃缓冲区（不刷盘），删除之后新建的段文件，把最后确认的段文件截断到确认位置，
+     * 再从该位置继续追加。内存索引只在确认后更新，不需要回退；各段文件的有效字节数按内存索引重新统计。
+     */
+    private void rollbackToCommitted() {
+        // 只关闭底层文件，缓冲区中未确认的字节随缓冲流一起丢弃
+        closeQuietly(segmentFile);
+        try {
+            for (int segment : new ArrayList<>(segmentStats.tailMap(committedSegment, false).keySet())) {
+                segmentStats.remove(segment);
+                closeQuietly(readChannels.remove(segment));
+                Files.deleteIfExists(segmentFile(segment).toPath());
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(segmentFile(committedSegment), "rw")) {
+                raf.setLength(committedSize);
+                raf.getFD().sync();
+            }
+
+            currentSegment = committedSegment;
+            currentSegmentSize = committedSize;
+            segmentStats.computeIfAbsent(currentSegment, segment -> new long[2])[0] = committedSize;
+            for (long[] stats : segmentStats.values()) {
+                stats[1] = 0;
+            }
+            for (Entry entry : entries.values()) {
+                addLiveBytes(entry.segment, entry.length);
+            }
+
+            segmentFile = new FileOutputStream(segmentFile(currentSegment), true);
+            segmentOut = new BufferedOutputStream(segmentFile, 64 * 1024);
+            logger.warning("检测结果存储已回退到段文件 " + segmentFile(currentSegment).getName()
+                    + " 的偏移量 " + committedSize + "，继续接收写入");
+
+        } catch (IOException | RuntimeException e) {
+            writeFailure = e instanceof IOException ? (IOException) e : new IOException(e);
+            logger.log(Level.SEVERE, "检测结果存储无法回退到最后一次确认写入的位置，停止接收新的写入", e);
+        }
+    }
+
+    /**
+     * 刷盘后更新内存索引并确认写入完成
+     */
+    private void commit(List<Runnable> updates, List<PendingWrite> written) throws IOException {
+        if (written.isEmpty()) {
+            return;
+        }
+        segmentOut.flush();
+        segmentFile.getChannel().force(false);
+        markCommitted();
+
+        for (Runnable update : updates) {
+            update.run();
+        }
+        for (PendingWrite write : written) {
+            write.future.complete(write.result);
+        }
+        updates.clear();
+        written.clear();
+    }
+
+    /**
+     * 追加一条记录，返回刷盘后需要执行的内存索引更新
+     */
+    private Runnable append(PendingWrite write) throws IOException {
+        switch (write.type) {
+            case TYPE_PUT: {
+                long[] location = writeRecord(write.payload);
+                Entry entry = new Entry(write.id, write.timestamp, (int) location[0], location[1],
+                        (int) location[2], null, null);
+                addLiveBytes(entry.segment, entry.length);
+                return () -> {
+                    entries.put(entry.id, entry);
+                    byTime.add(new TimeKey(entry.timestamp, entry.id));
+                };
+            }
+            case TYPE_DELETE: {
+                Entry old = entries.get(write.id);
+                if (old == null) {
+                    write.result = Boolean.FALSE;
+                    return () -> { };
+                }
+                writeRecord(write.payload);
+                addLiveBytes(old.segment, -old.length);
+                write.result = Boolean.TRUE;
+                return () -> {
+                    entries.remove(old.id);
+                    byTime.remove(new TimeKey(old.timestamp, old.id));
+                };
+            }
+            case TYPE_IMAGES: {
+                Entry old = entries.get(write.id);
+                if (old == null) {
+                    return () -> { };
+                }
+                writeRecord(write.payload);
+                Entry updated = old.withImages(write.thumbnailHash, write.imageHash);
+                return () -> entries.put(updated.id, updated);
+            }
+            default:
+                throw new IOException("未知的记录类型: " + write.type);
+        }
+    }
+
+    /**
+     * 把记录写入当前段文件，当前段文件写满时先切换到新的段文件
+     *
+     * @return [段号, 偏移量, 记录长度]
+     */
+    private long[] writeRecord(byte[] payload) throws IOException {
+        byte[] record = frame(payload);
+        if (currentSegmentSize > 0 && currentSegmentSize + record.length > maxSegmentBytes) {
+            rollSegment();
+        }
+        long offset = currentSegmentSize;
+        segmentOut.write(record);
+        currentSegmentSize += record.length;
+        segmentStats.get(currentSegment)[0] += record.length;
+        return new long[] {currentSegment, offset, record.length};
+    }
+
+    private void addLiveBytes(int segment, long bytes) {
+        long[] stats = segmentStats.get(segment);
+        if (stats != null) {
+            stats[1] += bytes;
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        segmentOut.flush();
+        segmentFile.getChannel().force(false);
+        segmentOut.close();
+
+        currentSegment++;
+        currentSegmentSize = 0;
+        segmentStats.put(currentSegment, new long[2]);
+        segmentFile = new FileOutputStream(segmentFile(currentSegment), true);
+        segmentOut = new BufferedOutputStream(segmentFile, 64 * 1024);
+    }
+
+    /**
+     * 压实无效字节比例超过阈值的已封闭段文件，从最旧的段文件开始
+     */
+    private void compactSegments() throws IOException {
+        List<Integer> candidates = new ArrayList<>();
+        for (Map.Entry<Integer, long[]> stats : segmentStats.entrySet()) {
+            long total = stats.getValue()[0];
+            long live = stats.getValue()[1];
+            if (stats.getKey() != currentSegment && total > 0 && (double) (total - live) / total >= compactGarbageRatio) {
+                candidates.add(stats.getKey());
+            }
+        }
+
+        for (int segment : candidates) {
+            long[] stats = segmentStats.get(segment);
+            long garbage = stats[0] - stats[1];
+            compactSegment(segment);
+            logger.info("检测结果存储段文件 " + segmentFile(segment).getName() + " 已压实，回收约 "
+                    + garbage / 1024 + "KB");
+        }
+    }
+
+    /**
+     * 把段文件中仍然有效的记录复制到当前段文件，刷盘后删除该段文件
+     *
+     * - 检测记录：内存索引仍指向该位置时复制，并带上当前的图像哈希
+     * - 图像哈希：所属检测记录位于更早的段文件时复制
+     * - 删除标记：存在更早的段文件时复制，否则被删除的记录已不在任何段文件中
+     */
+    private void compactSegment(int segment) throws IOException {
+        boolean olderSegmentExists = segmentStats.lowerKey(segment) != null;
+        List<Runnable> updates = new ArrayList<>();
+
+        try (RandomAccessFile raf = new RandomAccessFile(segmentFile(segment), "r")) {
+            long position = 0;
+            while (position < raf.length()) {
+                byte[] payload = readPayload(raf, position);
+                if (payload == null) {
+                    break;
+                }
+                long recordPosition = position;
+                position += RECORD_OVERHEAD + payload.length;
+
+                byte type = payload[0];
+                long id = ByteBuffer.wrap(payload, 1, 8).getLong();
+                Entry entry = entries.get(id);
+
+                if (type == TYPE_PUT && entry != null && entry.segment == segment && entry.offset == recordPosition) {
+                    byte[] rewritten = Record.decode(payload).withImages(entry.thumbnailHash, entry.imageHash).encode();
+                    long[] location = writeRecord(rewritten);
+                    Entry moved = new Entry(id, entry.timestamp, (int) location[0], location[1], (int) location[2],
+                            entry.thumbnailHash, entry.imageHash);
+                    addLiveBytes(moved.segment, moved.length);
+                    updates.add(() -> entries.put(id, moved));
+                } else if (type == TYPE_IMAGES && entry != null && entry.segment < segment
+                        || type == TYPE_DELETE && olderSegmentExists) {
+                    writeRecord(payload);
+                }
+            }
+        }
+
+        segmentOut.flush();
+        segmentFile.getChannel().force(false);
+        markCommitted();
+        for (Runnable update : updates) {
+            update.run();
+        }
+
+        segmentStats.remove(segment);
+        FileChannel channel = readChannels.remove(segment);
+        closeQuietly(channel);
+        if (!segmentFile(segment).delete()) {
+            logger.warning("无法删除已压实的段文件: " + segmentFile(segment).getName());
+        }
+    }
+
+    /**
+     * 启动时按段号顺序重放所有段文件，重建内存索引和各段文件的字节统计
+     */
+    private void replaySegments() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.matches(SEGMENT_FILE_PATTERN));
+        List<Integer> segments = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                segments.add(Integer.parseInt(file.getName().substring(8, 14)));
+            }
+        }
+        Collections.sort(segments);
+
+        long maxId = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            int segment = segments.get(i);
+            long[] stats = new long[2];
+            segmentStats.put(segment, stats);
+
+            try (RandomAccessFile raf = new RandomAccessFile(segmentFile(segment), i == segments.size() - 1 ? "rw" : "r")) {
+                long position = 0;
+                while (position < raf.length()) {
+                    byte[] payload = readPayload(raf, position);
+                    if (payload == null) {
+                        logger.warning("检测结果存储段文件 " + segmentFile(segment).getName()
+                                + " 在偏移量 " + position + " 处记录损坏，忽略其后的记录");
+                        if (i == segments.size() - 1) {
+                            raf.setLength(position);
+                        }
+                        break;
+                    }
+                    int length = RECORD_OVERHEAD + payload.length;
+                    stats[0] += length;
+                    maxId = Math.max(maxId, replay(payload, segment, position, length));
+                    position += length;
+                }
+            }
+        }
+
+        for (Entry entry : entries.values()) {
+            segmentStats.get(entry.segment)[1] += entry.length;
+            byTime.add(new TimeKey(entry.timestamp, entry.id));
+        }
+        nextId.set(maxId + 1);
+    }
+
+    private long replay(byte[] payload, int segment, long position, int length) throws IOException {
+        long id = ByteBuffer.wrap(payload, 1, 8).getLong();
+        switch (payload[0]) {
+            case TYPE_PUT: {
+                Record record = Record.decode(payload);
+                entries.put(id, new Entry(id, record.timestamp, segment, position, length,
+                        record.thumbnailHash, record.imageHash));
+                break;
+            }
+            case TYPE_DELETE:
+                entries.remove(id);
+                break;
+            case TYPE_IMAGES: {
+                Entry entry = entries.get(id);
+                if (entry != null) {
+                    DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload, 9, payload.length - 9));
+                    entries.put(id, entry.withImages(readNullableUTF(input), readNullableUTF(input)));
+                }
+                break;
+            }
+            default:
+                throw new IOException("未知的记录类型: " + payload[0]);
+        }
+        return id;
+    }
+
+    /**
+     * 读取并校验指定位置的记录
+     *
+     * @return 记录负载，记录不完整或损坏时返回null
+     */
+    private static byte[] readPayload(RandomAccessFile raf, long position) throws IOException {
+        if (raf.length() - position < RECORD_OVERHEAD) {
+            return null;
+        }
+        raf.seek(position);
+        if (raf.readInt() != RECORD_MAGIC) {
+            return null;
+        }
+        int payloadLength = raf.readInt();
+        if (payloadLength < 9 || raf.length() - position < RECORD_OVERHEAD + (long) payloadLength) {
+            return null;
+        }
+
+        byte[] payload = new byte[payloadLength];
+        raf.readFully(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return raf.readInt() == (int) crc.getValue() ? payload : null;
+    }
+
+    /**
+     * 按ID读取检测记录。读取期间所在段文件被压实时按新位置重试
+     */
+    private Record readRecord(long id) throws IOException {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Entry entry = entries.get(id);
+            if (entry == null) {
+                return null;
+            }
+            try {
+                FileChannel channel = readChannel(entry.segment);
+                ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, entry.offset + buffer.position()) < 0) {
+                        throw new EOFException("检测记录不完整: " + id);
+                    }
+                }
+                buffer.flip();
+                if (buffer.getInt() != RECORD_MAGIC) {
+                    throw new IOException("检测记录魔数不匹配: " + id);
+                }
+                byte[] payload = new byte[buffer.getInt()];
+                buffer.get(payload);
+                return Record.decode(payload);
+
+            } catch (ClosedChannelException | java.nio.file.NoSuchFileException e) {
+                if (attempt == 1) {
+                    throw e;
+                }
+            }
+        }
+        return null;
+    }
+
+    private FileChannel readChannel(int segment) throws IOException {
+        FileChannel channel = readChannels.get(segment);
+        if (channel == null) {
+            synchronized (readChannels) {
+                channel = readChannels.get(segment);
+                if (channel == null) {
+                    channel = FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.READ);
+                    readChannels.put(segment, channel);
+                }
+            }
+        }
+        return channel;
+    }
+
+    private File segmentFile(int segment) {
+        return new File(directory, String.format(SEGMENT_FILE_FORMAT, segment));
+    }
+
+    private static byte[] frame(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + payload.length);
+        record.putInt(RECORD_MAGIC);
+        record.putInt(payload.length);
+        record.put(payload);
+        record.putInt((int) crc.getValue());
+        return record.array();
+    }
+
+    private static byte[] encodePut(long id, long timestamp, String imageName, int defectCount, String qualityLevel,
+                                    boolean aiEnhanced, int imageWidth, int imageHeight, String thumbnailHash,
+                                    String imageHash, List<DefectRecord> defects, ReportCodec.Encoded report)
+            throws IOException {
+        return new Record(id, timestamp, imageName, defectCount, qualityLevel, aiEnhanced, imageWidth, imageHeight,
+                thumbnailHash, imageHash, defects, report).encode();
+    }
+
+    private static byte[] encodeImages(long id, String thumbnailHash, String imageHash) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(160);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(TYPE_IMAGES);
+        output.writeLong(id);
+        writeNullableUTF(output, thumbnailHash);
+        writeNullableUTF(output, imageHash);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeDelete(long id) {
+        return ByteBuffer.allocate(9).put(TYPE_DELETE).putLong(id).array();
+    }
+
+    private static void writeNullableUTF(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    private static String readNullableUTF(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // 忽略关闭异常
+            }
+        }
+    }
+
+    /**
+     * 内存索引项：检测记录在段文件中的位置、检测时间和图像哈希
+     */
+    private static final class Entry {
+        final long id;
+        final long timestamp;
+        final int segment;
+        final long offset;
+        final int length;
+        final String thumbnailHash;
+        final String imageHash;
+
+        Entry(long id, long timestamp, int segment, long offset, int length, String thumbnailHash, String imageHash) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.thumbnailHash = thumbnailHash;
+            this.imageHash = imageHash;
+        }
+
+        Entry withImages(String thumbnailHash, String imageHash) {
+            return new Entry(id, timestamp, segment, offset, length, thumbnailHash, imageHash);
+        }
+    }
+
+    /**
+     * 按(检测时间, ID)降序排列的键
+     */
+    private static final class TimeKey implements Comparable<TimeKey> {
+        final long timestamp;
+        final long id;
+
+        TimeKey(long timestamp, long id) {
+            this.timestamp = timestamp;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(TimeKey other) {
+            int byTimestamp = Long.compare(other.timestamp, timestamp);
+            return byTimestamp != 0 ? byTimestamp : Long.compare(other.id, id);
+        }
+    }
+
+    /**
+     * 段文件中的一条检测记录
+     */
+    private static final class Record {
+        final long id;
+        final long timestamp;
+        final String imageName;
+        final int defectCount;
+        final String qualityLevel;
+        final boolean aiEnhanced;
+        final int imageWidth;
+        final int imageHeight;
+        final String thumbnailHash;
+        final String imageHash;
+        final List<DefectRecord> defects;
+        final ReportCodec.Encoded report;
+
+        Record(long id, long timestamp, String imageName, int defectCount, String qualityLevel, boolean aiEnhanced,
+               int imageWidth, int imageHeight, String thumbnailHash, String imageHash, List<DefectRecord> defects,
+               ReportCodec.Encoded report) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.imageName = imageName;
+            this.defectCount = defectCount;
+            this.qualityLevel = qualityLevel;
+            this.aiEnhanced = aiEnhanced;
+            this.imageWidth = imageWidth;
+            this.imageHeight = imageHeight;
+            this.thumbnailHash = thumbnailHash;
+            this.imageHash = imageHash;
+            this.defects = defects;
+            this.report = report;
+        }
+
+        Record withImages(String thumbnailHash, String imageHash) {
+            return new Record(id, timestamp, imageName, defectCount, qualityLevel, aiEnhanced, imageWidth,
+                    imageHeight, thumbnailHash, imageHash, defects, report);
+        }
+
+        HistoryRecord toHistoryRecord() {
+            String detectionTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault())
+                    .format(DATE_FORMAT);
+            return new HistoryRecord(id, timestamp, detectionTime, imageName, defectCount, qualityLevel, aiEnhanced);
+        }
+
+        String decodeReport() throws SQLException {
+            return ReportCodec.decode(report.codec, report.originalLength, report.body);
+        }
+
+        byte[] encode() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + defects.size() * 32 + report.body.length);
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeByte(TYPE_PUT);
+            output.writeLong(id);
+            output.writeLong(timestamp);
+            output.writeUTF(imageName != null ? imageName : "");
+            output.writeInt(defectCount);
+            output.writeUTF(qualityLevel != null ? qualityLevel : "");
+            output.writeBoolean(aiEnhanced);
+            output.writeInt(imageWidth);
+            output.writeInt(imageHeight);
+            writeNullableUTF(output, thumbnailHash);
+            writeNullableUTF(output, imageHash);
+            output.writeInt(defects.size());
+            for (DefectRecord defect : defects) {
+                output.writeUTF(defect.getType());
+                output.writeInt(defect.getX());
+                output.writeInt(defect.getY());
+                output.writeInt(defect.getWidth());
+                output.writeInt(defect.getHeight());
+            }
+            output.writeByte(report.codec);
+            output.writeInt(report.originalLength);
+            output.writeInt(report.body.length);
+            output.write(report.body);
+            return bytes.toByteArray();
+        }
+
+        static Record decode(byte[] payload) throws IOException {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+            if (input.readByte() != TYPE_PUT) {
+                throw new IOException("不是检测记录");
+            }
+            long id = input.readLong();
+            long timestamp = input.readLong();
+            String imageName = input.readUTF();
+            int defectCount = input.readInt();
+            String qualityLevel = input.readUTF();
+            boolean aiEnhanced = input.readBoolean();
+            int imageWidth = input.readInt();
+            int imageHeight = input.readInt();
+            String thumbnailHash = readNullableUTF(input);
+            String imageHash = readNullableUTF(input);
+
+            int defectTotal = input.readInt();
+            List<DefectRecord> defects = new ArrayList<>(defectTotal);
+            for (int i = 0; i < defectTotal; i++) {
+                defects.add(new DefectRecord(input.readUTF(), input.readInt(), input.readInt(), input.readInt(),
+                        input.readInt()));
+            }
+
+            int codec = input.readByte();
+            int originalLength = input.readInt();
+            byte[] body = new byte[input.readInt()];
+            input.readFully(body);
+            return new Record(id, timestamp, imageName, defectCount, qualityLevel, aiEnhanced, imageWidth,
+                    imageHeight, thumbnailHash, imageHash, defects, new ReportCodec.Encoded(codec, originalLength, body));
+        }
+    }
+
+    /**
+     * 待写入的记录，或压实请求
+     */
+    private static final class PendingWrite {
+        static final byte COMPACT = -1;
+
+        final byte type;
+        final long id;
+        final long timestamp;
+        final byte[] payload;
+        final String thumbnailHash;
+        final String imageHash;
+        final CompletableFuture<Object> future;
+        Object result;
+
+        PendingWrite(byte type, long id, long timestamp, byte[] payload, String thumbnailHash, String imageHash,
+                     CompletableFuture<Object> future) {
+            this.type = type;
+            this.id = id;
+            this.timestamp = timestamp;
+            this.payload = payload;
+            this.thumbnailHash = thumbnailHash;
+            this.imageHash = imageHash;
+            this.future = future;
+        }
+    }
+}
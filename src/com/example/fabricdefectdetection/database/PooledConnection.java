@@ -0,0 +1,142 @@
+package com.example.fabricdefectdetection.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 连接池中的数据库连接
+ *
+ * 包装一个SQLite连接并按SQL文本缓存预编译语句，同一条SQL在该连接上只编译一次。
+ * 缓存按最近使用顺序淘汰。通过prepare获得的语句归连接所有，调用方不应关闭，
+ * 但应关闭由语句产生的ResultSet。
+ *
+ * 同一时间只有一个线程持有某个连接（由ConnectionPool保证），因此本类不做同步；
+ * 只有interrupt可以由其他线程调用。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public final class PooledConnection {
+
+    private static final Logger logger = Logger.getLogger(PooledConnection.class.getName());
+
+    private final Connection connection;
+    private final int statementCacheSize;
+    private final LinkedHashMap<String, PreparedStatement> statementCache;
+
+    /**
+     * 构造函数
+     *
+     * @param connection 底层连接
+     * @param statementCacheSize 预编译语句缓存大小
+     */
+    PooledConnection(Connection connection, int statementCacheSize) {
+        this.connection = connection;
+        this.statementCacheSize = statementCacheSize;
+        this.statementCache = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * 获取缓存的预编译语句，不存在时编译并缓存
+     *
+     * @param sql SQL语句
+     * @return 预编译语句（已清除上次的参数）
+     * @throws SQLException 如果编译失败
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        return prepare(sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    /**
+     * 获取缓存的预编译语句，不存在时编译并缓存
+     *
+     * @param sql SQL语句
+     * @param autoGeneratedKeys 是否返回自增主键（Statement.RETURN_GENERATED_KEYS）
+     * @return 预编译语句（已清除上次的参数）
+     * @throws SQLException 如果编译失败
+     */
+    public PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K:" + sql : sql;
+        PreparedStatement statement = statementCache.get(key);
+        if (statement != null && !statement.isClosed()) {
+            statement.clearParameters();
+            return statement;
+        }
+
+        statement = connection.prepareStatement(sql, autoGeneratedKeys);
+        statementCache.put(key, statement);
+        evictIfNeeded();
+        return statement;
+    }
+
+    /**
+     * 获取底层连接，用于执行不需要缓存的语句
+     *
+     * 调用方不得关闭该连接，也不得修改其自动提交状态。
+     *
+     * @return 底层连接
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * 获取当前缓存的预编译语句数量
+     *
+     * @return 缓存的语句数量
+     */
+    public int getCachedStatementCount() {
+        return statementCache.size();
+    }
+
+    /**
+     * 中止连接上正在执行的SQL，被中止的语句抛出SQLException
+     *
+     * 可以在其他线程中调用；没有正在执行的语句时不产生影响。
+     */
+    void interrupt() {
+        try (Statement statement = connection.createStatement()) {
+            statement.cancel();
+        } catch (SQLException e) {
+            logger.log(Level.FINE, "中止数据库查询失败", e);
+        }
+    }
+
+    /**
+     * 关闭缓存的语句和底层连接
+     */
+    void close() {
+        for (PreparedStatement statement : statementCache.values()) {
+            closeQuietly(statement);
+        }
+        statementCache.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "关闭数据库连接失败", e);
+        }
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, PreparedStatement>> iterator = statementCache.entrySet().iterator();
+        while (statementCache.size() > statementCacheSize && iterator.hasNext()) {
+            closeQuietly(iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // 忽略关闭异常
+        }
+    }
+}
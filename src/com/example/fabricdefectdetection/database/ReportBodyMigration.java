@@ -0,0 +1,92 @@
+package com.example.fabricdefectdetection.database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 报告正文后台迁移任务
+ *
+ * 把旧记录中内联在detection_history.analysis_report的报告正文压缩后移入report_body表，
+ * 并清空原列。按ID顺序分块处理，每块的写入和清空在同一事务中完成。
+ * 清空后释放的页面由SQLite重用于后续写入。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+class ReportBodyMigration extends ChunkedMigration {
+
+    private static final int CHUNK_SIZE = 200;
+
+    private static final String SELECT_CHUNK_SQL =
+            "SELECT id, analysis_report FROM detection_history " +
+            "WHERE id > ? AND analysis_report IS NOT NULL ORDER BY id LIMIT ?";
+
+    // 读取后被删除的记录不再迁移
+    private static final String INSERT_SQL =
+            "INSERT OR REPLACE INTO report_body (detection_id, codec, original_length, body) " +
+            "SELECT ?, ?, ?, ? WHERE EXISTS (SELECT 1 FROM detection_history WHERE id = ?)";
+    private static final String CLEAR_SQL = "UPDATE detection_history SET analysis_report = NULL WHERE id = ?";
+
+    private final ConnectionPool connectionPool;
+    private long lastId = 0;
+
+    /**
+     * 构造函数
+     *
+     * @param connectionPool 连接池
+     */
+    ReportBodyMigration(ConnectionPool connectionPool) {
+        super("报告正文迁移", null);
+        this.connectionPool = connectionPool;
+    }
+
+    @Override
+    protected int migrateChunk() throws SQLException {
+        List<Long> ids = new ArrayList<>(CHUNK_SIZE);
+        List<ReportCodec.Encoded> bodies = new ArrayList<>(CHUNK_SIZE);
+
+        connectionPool.read(conn -> {
+            PreparedStatement pstmt = conn.prepare(SELECT_CHUNK_SQL);
+            pstmt.setLong(1, lastId);
+            pstmt.setInt(2, CHUNK_SIZE);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                    bodies.add(ReportCodec.encode(rs.getString(2)));
+                }
+            }
+            return null;
+        });
+
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        connectionPool.write(conn -> {
+            PreparedStatement insert = conn.prepare(INSERT_SQL);
+            PreparedStatement clear = conn.prepare(CLEAR_SQL);
+            for (int i = 0; i < ids.size(); i++) {
+                ReportCodec.Encoded body = bodies.get(i);
+                insert.setLong(1, ids.get(i));
+                insert.setInt(2, body.codec);
+                insert.setInt(3, body.originalLength);
+                insert.setBytes(4, body.body);
+                insert.setLong(5, ids.get(i));
+                insert.addBatch();
+
+                clear.setLong(1, ids.get(i));
+                clear.addBatch();
+            }
+            insert.executeBatch();
+            clear.executeBatch();
+            return null;
+        });
+
+        lastId = ids.get(ids.size() - 1);
+        return ids.size();
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.fabricdefectdetection.database;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 报告正文编码
+ *
+ * 报告正文以UTF-8编码后用Deflate压缩存入report_body表。压缩后没有变小的短文本
+ * 直接保存原始字节。编码方式随正文一起保存，便于以后更换压缩算法。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+final class ReportCodec {
+
+    /** 未压缩的UTF-8字节 */
+    static final int CODEC_RAW = 0;
+
+    /** Deflate压缩的UTF-8字节 */
+    static final int CODEC_DEFLATE = 1;
+
+    private ReportCodec() {
+    }
+
+    /**
+     * 编码后的报告正文
+     */
+    static final class Encoded {
+        final int codec;
+        final int originalLength;
+        final byte[] body;
+
+        Encoded(int codec, int originalLength, byte[] body) {
+            this.codec = codec;
+            this.originalLength = originalLength;
+            this.body = body;
+        }
+    }
+
+    /**
+     * 编码报告正文
+     *
+     * @param text 报告正文
+     * @return 编码结果
+     */
+    static Encoded encode(String text) {
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, raw.length / 3));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+
+            if (output.size() >= raw.length) {
+                return new Encoded(CODEC_RAW, raw.length, raw);
+            }
+            return new Encoded(CODEC_DEFLATE, raw.length, output.toByteArray());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * 解码报告正文
+     *
+     * @param codec 编码方式
+     * @param originalLength 原始UTF-8字节数
+     * @param body 编码后的字节
+     * @return 报告正文
+     * @throws SQLException 如果编码方式未知或数据损坏
+     */
+    static String decode(int codec, int originalLength, byte[] body) throws SQLException {
+        if (codec == CODEC_RAW) {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+        if (codec != CODEC_DEFLATE) {
+            throw new SQLException("未知的报告编码方式: " + codec);
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(body);
+            byte[] raw = new byte[originalLength];
+            int length = 0;
+            while (length < originalLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, length, originalLength - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != originalLength) {
+                throw new SQLException("报告正文已损坏: 期望 " + originalLength + " 字节，实际 " + length + " 字节");
+            }
+            return new String(raw, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new SQLException("报告正文已损坏", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
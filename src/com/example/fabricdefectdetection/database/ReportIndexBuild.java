@@ -0,0 +1,110 @@
+package com.example.fabricdefectdetection.database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 报告全文索引后台建立任务
+ *
+ * 新写入的报告在写入事务中加入索引。本任务为建立索引之前已有的报告补建索引：
+ * 从已建索引的最小记录ID开始按ID降序分块读取更早的记录，解码报告正文后加入索引。
+ * 新记录的ID总是大于已有记录，因此已建索引的最小ID就是下次启动时继续的位置。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+class ReportIndexBuild extends ChunkedMigration {
+
+    private static final int CHUNK_SIZE = 200;
+
+    private static final String LOWEST_INDEXED_SQL = "SELECT rowid FROM report_fts ORDER BY rowid LIMIT 1";
+    private static final String NEXT_ID_SQL = "SELECT COALESCE(MAX(id), 0) + 1 FROM detection_history";
+
+    // 尚未迁移的旧记录的报告正文仍在analysis_report列中
+    private static final String SELECT_CHUNK_SQL =
+            "SELECT h.id, h.analysis_report, b.codec, b.original_length, b.body " +
+            "FROM detection_history h LEFT JOIN report_body b ON b.detection_id = h.id " +
+            "WHERE h.id < ? ORDER BY h.id DESC LIMIT ?";
+
+    private static final String INDEXED_SQL = "SELECT 1 FROM report_fts WHERE rowid = ?";
+    private static final String STILL_EXISTS_SQL = "SELECT 1 FROM detection_history WHERE id = ?";
+
+    private final ConnectionPool connectionPool;
+    private long nextBelow = -1;
+
+    /**
+     * 构造函数
+     *
+     * @param connectionPool 连接池
+     * @param onComplete 全部建立后的回调
+     */
+    ReportIndexBuild(ConnectionPool connectionPool, Runnable onComplete) {
+        super("报告全文索引建立", onComplete);
+        this.connectionPool = connectionPool;
+    }
+
+    @Override
+    protected int migrateChunk() throws SQLException {
+        List<Long> ids = new ArrayList<>(CHUNK_SIZE);
+        List<String> texts = new ArrayList<>(CHUNK_SIZE);
+
+        connectionPool.read(conn -> {
+            if (nextBelow < 0) {
+                try (ResultSet rs = conn.prepare(LOWEST_INDEXED_SQL).executeQuery()) {
+                    if (rs.next()) {
+                        nextBelow = rs.getLong(1);
+                    }
+                }
+                if (nextBelow < 0) {
+                    try (ResultSet rs = conn.prepare(NEXT_ID_SQL).executeQuery()) {
+                        nextBelow = rs.next() ? rs.getLong(1) : 1;
+                    }
+                }
+            }
+
+            PreparedStatement pstmt = conn.prepare(SELECT_CHUNK_SQL);
+            pstmt.setLong(1, nextBelow);
+            pstmt.setInt(2, CHUNK_SIZE);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    byte[] body = rs.getBytes("body");
+                    ids.add(rs.getLong("id"));
+                    texts.add(body == null
+                            ? rs.getString("analysis_report")
+                            : ReportCodec.decode(rs.getInt("codec"), rs.getInt("original_length"), body));
+                }
+            }
+            return null;
+        });
+
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        connectionPool.write(conn -> {
+            PreparedStatement indexed = conn.prepare(INDEXED_SQL);
+            PreparedStatement exists = conn.prepare(STILL_EXISTS_SQL);
+            for (int i = 0; i < ids.size(); i++) {
+                if (texts.get(i) == null) {
+                    continue;
+                }
+                // 读取后被删除或已建索引的记录跳过
+                exists.setLong(1, ids.get(i));
+                indexed.setLong(1, ids.get(i));
+                try (ResultSet existsRs = exists.executeQuery(); ResultSet indexedRs = indexed.executeQuery()) {
+                    if (!existsRs.next() || indexedRs.next()) {
+                        continue;
+                    }
+                }
+                ReportSearchIndex.add(conn, ids.get(i), texts.get(i));
+            }
+            return null;
+        });
+
+        nextBelow = ids.get(ids.size() - 1);
+        return ids.size();
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.fabricdefectdetection.database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 分析报告全文索引
+ *
+ * 报告正文压缩后存放在report_body表中，全文索引使用不保存原文的FTS5表report_fts，
+ * rowid为检测记录ID。unicode61分词器不切分连续的汉字，因此写入前在Java中把汉字
+ * 切分为相邻两字的词组（二元分词），字母和数字按单词保留；查询词按同样方式切分后
+ * 作为短语匹配，"纬斜"、"浆斑"这类词可以在报告任意位置命中。
+ *
+ * 不保存原文的FTS5表删除条目时需要提供与写入时相同的内容，删除检测记录时由调用方
+ * 传入报告正文。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+final class ReportSearchIndex {
+
+    private static final String INSERT_SQL = "INSERT INTO report_fts (rowid, body) VALUES (?, ?)";
+    private static final String DELETE_SQL = "INSERT INTO report_fts (report_fts, rowid, body) VALUES ('delete', ?, ?)";
+    private static final String EXISTS_SQL = "SELECT 1 FROM report_fts WHERE rowid = ?";
+    private static final String SEARCH_SQL =
+            "SELECT rowid FROM report_fts WHERE report_fts MATCH ? ORDER BY rank LIMIT ?";
+
+    private ReportSearchIndex() {
+    }
+
+    /**
+     * 创建全文索引表
+     *
+     * @param stmt SQL语句对象
+     * @throws SQLException 如果SQL执行失败
+     */
+    static void createTable(Statement stmt) throws SQLException {
+        stmt.execute("CREATE VIRTUAL TABLE IF NOT EXISTS report_fts USING fts5(body, content='')");
+    }
+
+    /**
+     * 把一份报告加入索引，由调用方所在的事务提交
+     *
+     * @param conn 池化连接
+     * @param detectionId 检测记录ID
+     * @param text 报告正文
+     * @throws SQLException 如果SQL执行失败
+     */
+    static void add(PooledConnection conn, long detectionId, String text) throws SQLException {
+        String tokens = tokenize(text);
+        if (tokens.isEmpty()) {
+            return;
+        }
+        PreparedStatement pstmt = conn.prepare(INSERT_SQL);
+        pstmt.setLong(1, detectionId);
+        pstmt.setString(2, tokens);
+        pstmt.executeUpdate();
+    }
+
+    /**
+     * 从索引中删除一份报告，由调用方所在的事务提交
+     *
+     * 尚未建立索引的报告直接跳过。
+     *
+     * @param conn 池化连接
+     * @param detectionId 检测记录ID
+     * @param text 报告正文，与加入索引时相同
+     * @throws SQLException 如果SQL执行失败
+     */
+    static void remove(PooledConnection conn, long detectionId, String text) throws SQLException {
+        String tokens = text == null ? "" : tokenize(text);
+        if (tokens.isEmpty()) {
+            return;
+        }
+
+        // 删除不存在的条目会破坏不保存原文的FTS5索引
+        PreparedStatement exists = conn.prepare(EXISTS_SQL);
+        exists.setLong(1, detectionId);
+        try (ResultSet rs = exists.executeQuery()) {
+            if (!rs.next()) {
+                return;
+            }
+        }
+
+        PreparedStatement pstmt = conn.prepare(DELETE_SQL);
+        pstmt.setLong(1, detectionId);
+        pstmt.setString(2, tokens);
+        pstmt.executeUpdate();
+    }
+
+    /**
+     * 按相关度查询报告
+     *
+     * @param conn 池化连接
+     * @param query 查询词，多个词以空白分隔，须全部出现
+     * @param limit 最多返回的记录数
+     * @return 检测记录ID，按相关度降序
+     * @throws SQLException 如果SQL执行失败
+     */
+    static List<Long> search(PooledConnection conn, String query, int limit) throws SQLException {
+        List<Long> ids = new ArrayList<>();
+        String match = toMatchExpression(query);
+        if (match.isEmpty()) {
+            return ids;
+        }
+
+        PreparedStatement pstmt = conn.prepare(SEARCH_SQL);
+        pstmt.setString(1, match);
+        pstmt.setInt(2, limit);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                ids.add(rs.getLong(1));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * 把文本切分为以空格分隔的词：连续汉字切分为相邻两字的词组（只有一个字时保留单字），
+     * 连续的字母和数字作为一个词（转为小写），其余字符作为分隔符
+     *
+     * @param text 文本
+     * @return 分词结果
+     */
+    static String tokenize(String text) {
+        StringBuilder tokens = new StringBuilder(text.length() * 2);
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int codePoint = text.codePointAt(i);
+            if (isHan(codePoint)) {
+                int runStart = i;
+                while (i < length && isHan(text.codePointAt(i))) {
+                    i += Character.charCount(text.codePointAt(i));
+                }
+                appendBigrams(tokens, text.substring(runStart, i));
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                int runStart = i;
+                while (i < length) {
+                    int next = text.codePointAt(i);
+                    if (isHan(next) || !Character.isLetterOrDigit(next)) {
+                        break;
+                    }
+                    i += Character.charCount(next);
+                }
+                appendToken(tokens, text.substring(runStart, i).toLowerCase(Locale.ROOT));
+            } else {
+                i += Character.charCount(codePoint);
+            }
+        }
+        return tokens.toString();
+    }
+
+    /**
+     * 生成FTS5查询表达式：每个查询词切分后作为一个短语，各短语须同时出现。
+     * 单个汉字的查询词按前缀匹配以该字开头的词组。
+     */
+    private static String toMatchExpression(String query) {
+        StringBuilder match = new StringBuilder();
+        for (String term : query.trim().split("\\s+")) {
+            String tokens = tokenize(term);
+            if (tokens.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            // 分词结果只含字母、数字和空格，加引号后不会被解释为查询语法
+            match.append('"').append(tokens).append('"');
+            if (tokens.codePointCount(0, tokens.length()) == 1 && isHan(tokens.codePointAt(0))) {
+                match.append('*');
+            }
+        }
+        return match.toString();
+    }
+
+    private static void appendBigrams(StringBuilder tokens, String run) {
+        int[] codePoints = run.codePoints().toArray();
+        if (codePoints.length == 1) {
+            appendToken(tokens, run);
+            return;
+        }
+        for (int i = 0; i + 1 < codePoints.length; i++) {
+            appendToken(tokens, new String(codePoints, i, 2));
+        }
+    }
+
+    private static void appendToken(StringBuilder tokens, String token) {
+        if (tokens.length() > 0) {
+            tokens.append(' ');
+        }
+        tokens.append(token);
+    }
+
+    private static boolean isHan(int codePoint) {
+        return Character.UnicodeScript.of(codePoint) == Character.UnicodeScript.HAN;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.fabricdefectdetection.database;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.example.fabricdefectdetection.analysis.DefectAnalysisReport;
+
+/**
+ * 检测结果存储后端
+ *
+ * DetectionResultSink通过本接口保存检测结果，按产线选择实现（参见ResultStores）：
+ * - SqliteResultStore：SQLite数据库，支持统计汇总、全文搜索和历史分区，适合需要即席查询的产线
+ * - LogStructuredResultStore：只追加的段文件加内存索引，写入只需顺序追加，适合高速写入的产线
+ *
+ * 保存、分页、报告、图像以及按ID和按日期删除两种后端都支持；统计报表、报告搜索和逐条导出
+ * 依赖SQLite的汇总表和全文索引，按批次删除依赖数据库中的批次编号，只有SQLite后端支持，
+ * 调用方应先通过supportsAnalytics和supportsBatchDelete检查，不支持时隐藏或禁用相应的操作。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public interface ResultStore {
+
+    /**
+     * 异步保存一条检测结果
+     *
+     * @param report 分析报告
+     * @param imageName 图片名称
+     * @param defects 缺陷明细
+     * @param imageWidth 图像宽度，未知时为0
+     * @param imageHeight 图像高度，未知时为0
+     * @param batchId 批处理任务编号，不属于批处理时为null
+     * @return 写入持久化后以检测记录ID完成的Future
+     */
+    CompletableFuture<Long> save(DefectAnalysisReport report, String imageName, List<DefectRecord> defects,
+                                 int imageWidth, int imageHeight, String batchId);
+
+    /**
+     * 异步记录检测结果图像
+     *
+     * @param resultId 检测记录ID
+     * @param images 已保存的图像
+     * @return 写入持久化后完成的Future
+     */
+    CompletableFuture<Void> attachImages(long resultId, ImageStore.StoredImages images);
+
+    /**
+     * 按日期范围分页查询检测结果，按(检测时间, ID)降序排列
+     *
+     * @param startDate 开始日期 (yyyy-MM-dd)
+     * @param endDate 结束日期 (yyyy-MM-dd)
+     * @param after 上一页返回的游标，查询第一页时为null
+     * @param pageSize 每页记录数
+     * @return 一页检测结果，查询出错时返回空页
+     */
+    HistoryPage findResultsPage(String startDate, String endDate, HistoryPage.Cursor after, int pageSize);
+
+    /**
+     * 根据ID获取完整的分析报告
+     *
+     * @param id 检测记录ID
+     * @return 分析报告文本，不存在时返回null
+     */
+    String getAnalysisReportById(int id);
+
+    /**
+     * 根据ID获取检测结果图像的哈希
+     *
+     * @param id 检测记录ID
+     * @return 缩略图哈希和完整图像哈希（均可能为null），记录不存在时返回null
+     */
+    String[] findImageHashes(int id);
+
+    /**
+     * 删除检测结果记录
+     *
+     * @param id 检测记录ID
+     * @return 是否删除成功
+     */
+    boolean deleteResult(int id);
+
+    /**
+     * 批量删除检测结果记录，调用线程被中断时在当前一块删除完成后停止
+     *
+     * @param ids 检测记录ID
+     * @return 实际删除的记录数
+     */
+    int deleteResults(Collection<Integer> ids);
+
+    /**
+     * 删除日期范围内的全部检测结果记录，调用线程被中断时在当前一块删除完成后停止
+     *
+     * @param startDate 开始日期 (yyyy-MM-dd)
+     * @param endDate 结束日期 (yyyy-MM-dd)
+     * @return 实际删除的记录数
+     */
+    int deleteResultsByDateRange(String startDate, String endDate);
+
+    /**
+     * 是否支持统计报表、报告全文搜索和逐条导出
+     *
+     * @return 是否支持
+     */
+    boolean supportsAnalytics();
+
+    /**
+     * 是否支持按批处理任务编号删除检测结果
+     *
+     * @return 是否支持
+     */
+    boolean supportsBatchDelete();
+}
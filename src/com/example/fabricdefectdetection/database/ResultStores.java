@@ -0,0 +1,83 @@
+package com.example.fabricdefectdetection.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.example.fabricdefectdetection.util.ConfigurationManager;
+
+/**
+ * 检测结果存储后端的选择
+ *
+ * 本机所在产线（detection.line-id）的存储后端取配置项 storage.backend.&lt;产线ID&gt;，
+ * 未配置时取 storage.backend：sqlite（默认）或 log。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public final class ResultStores {
+
+    private static final Logger logger = Logger.getLogger(ResultStores.class.getName());
+
+    private static final String BACKEND_SQLITE = "sqlite";
+    private static final String BACKEND_LOG = "log";
+
+    private static final String DEFAULT_LOG_DIRECTORY = "results";
+    private static final int DEFAULT_SEGMENT_SIZE_MB = 64;
+    private static final int DEFAULT_COMPACT_INTERVAL_MINUTES = 10;
+    private static final int DEFAULT_COMPACT_MIN_GARBAGE_PERCENT = 50;
+
+    private static ResultStore instance;
+
+    private ResultStores() {
+    }
+
+    /**
+     * 获取本机所在产线配置的检测结果存储
+     *
+     * @return 检测结果存储
+     */
+    public static synchronized ResultStore getDefault() {
+        if (instance == null) {
+            ConfigurationManager config = ConfigurationManager.getInstance();
+            String lineId = config.getProperty("detection.line-id", "default");
+            String backend = config.getProperty("storage.backend." + lineId,
+                    config.getProperty("storage.backend", BACKEND_SQLITE));
+
+            if (BACKEND_LOG.equalsIgnoreCase(backend.trim())) {
+                instance = openLogStore(config, lineId);
+            } else {
+                if (!BACKEND_SQLITE.equalsIgnoreCase(backend.trim())) {
+                    logger.warning("未知的检测结果存储后端: " + backend + "，使用SQLite");
+                }
+                instance = new SqliteResultStore(new DetectionResultDAO(), GroupCommitWriter.getInstance(),
+                        ImageStore.getInstance());
+            }
+            logger.info("产线 " + lineId + " 的检测结果存储后端: " + instance.getClass().getSimpleName());
+        }
+        return instance;
+    }
+
+    private static ResultStore openLogStore(ConfigurationManager config, String lineId) {
+        File directory = new File(config.getProperty("store.log-dir", DEFAULT_LOG_DIRECTORY), lineId);
+        long segmentBytes = config.getIntProperty("store.segment-size-mb", DEFAULT_SEGMENT_SIZE_MB) * 1024L * 1024L;
+        int compactIntervalMinutes = config.getIntProperty("store.compact-interval-minutes",
+                DEFAULT_COMPACT_INTERVAL_MINUTES);
+        int compactMinGarbagePercent = config.getIntProperty("store.compact-min-garbage-percent",
+                DEFAULT_COMPACT_MIN_GARBAGE_PERCENT);
+
+        LogStructuredResultStore store;
+        try {
+            store = new LogStructuredResultStore(directory, segmentBytes, compactMinGarbagePercent / 100.0,
+                    compactIntervalMinutes, ImageStore.getInstance());
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "无法打开检测结果存储", e);
+            throw new UncheckedIOException(e);
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(store::close, "result-store-shutdown"));
+        return store;
+    }
+}
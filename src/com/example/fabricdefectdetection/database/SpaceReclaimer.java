@@ -0,0 +1,163 @@
+package com.example.fabricdefectdetection.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 数据库空闲页回收
+ *
+ * 删除记录后SQLite只把页面放入空闲列表，数据库文件不会变小。批量删除完成后由本类在后台回收：
+ * - auto_vacuum=INCREMENTAL的数据库每次回收一小批页面（incremental_vacuum），每批是一个很短的写事务，
+ *   两批之间让出写连接，不会长时间阻塞检测结果的写入
+ * - 旧数据库仍为auto_vacuum=NONE，只能用一次完整的VACUUM转换。完整VACUUM期间所有写入都要等待，
+ *   因此只在空闲页比例达到阈值时执行，转换后以后的回收都是增量的
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+final class SpaceReclaimer {
+
+    private static final Logger logger = Logger.getLogger(SpaceReclaimer.class.getName());
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    private static final int PAGES_PER_STEP = 1000;
+    private static final long PAUSE_BETWEEN_STEPS_MS = 50;
+    private static final long INITIAL_DELAY_MINUTES = 5;
+
+    private final ConnectionPool connectionPool;
+    private final int fullVacuumFreePercent;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    /**
+     * 构造函数
+     *
+     * @param connectionPool 连接池
+     * @param fullVacuumFreePercent 旧数据库空闲页占比达到该百分比时执行完整VACUUM，0表示不执行
+     */
+    SpaceReclaimer(ConnectionPool connectionPool, int fullVacuumFreePercent) {
+        this.connectionPool = connectionPool;
+        this.fullVacuumFreePercent = fullVacuumFreePercent;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "space-reclaimer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 启动后稍后检查一次，回收上次退出前未回收完的空闲页
+     */
+    void start() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.schedule(this::reclaim, INITIAL_DELAY_MINUTES, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * 请求在后台回收空闲页，已有回收在等待执行时不重复提交
+     */
+    void request() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::reclaim);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * 停止后台回收，正在执行的一批完成后退出
+     */
+    void close() {
+        executor.shutdownNow();
+    }
+
+    private void reclaim() {
+        scheduled.set(false);
+        try {
+            long freePages = pragma("freelist_count");
+            if (freePages == 0) {
+                return;
+            }
+
+            if (pragma("auto_vacuum") == AUTO_VACUUM_INCREMENTAL) {
+                reclaimIncrementally(freePages);
+            } else {
+                long totalPages = pragma("page_count");
+                if (fullVacuumFreePercent > 0 && freePages * 100 >= totalPages * fullVacuumFreePercent) {
+                    convertWithFullVacuum(freePages, totalPages);
+                }
+            }
+
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "回收数据库空闲页失败", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void reclaimIncrementally(long freePages) throws SQLException, InterruptedException {
+        long startTime = System.currentTimeMillis();
+        long initialFreePages = freePages;
+
+        while (freePages > 0 && !Thread.currentThread().isInterrupted()) {
+            connectionPool.write(conn -> {
+                try (Statement stmt = conn.getConnection().createStatement()) {
+                    // 每执行一步释放一页，读完结果集才会释放全部请求的页数
+                    if (stmt.execute("PRAGMA incremental_vacuum(" + PAGES_PER_STEP + ")")) {
+                        try (ResultSet rs = stmt.getResultSet()) {
+                            while (rs.next()) {
+                                // 逐页推进
+                            }
+                        }
+                    }
+                }
+                return null;
+            });
+
+            long remaining = pragma("freelist_count");
+            if (remaining >= freePages) {
+                break;
+            }
+            freePages = remaining;
+            Thread.sleep(PAUSE_BETWEEN_STEPS_MS);
+        }
+
+        logger.info("已回收数据库空闲页 " + (initialFreePages - freePages) + " 页，耗时 "
+                + (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    private void convertWithFullVacuum(long freePages, long totalPages) throws SQLException {
+        logger.info("数据库空闲页 " + freePages + "/" + totalPages + "，执行完整VACUUM并转换为增量回收模式");
+        long startTime = System.currentTimeMillis();
+
+        connectionPool.writeWithoutTransaction(conn -> {
+            try (Statement stmt = conn.getConnection().createStatement()) {
+                stmt.execute("PRAGMA auto_vacuum=INCREMENTAL");
+                stmt.execute("VACUUM");
+            }
+            return null;
+        });
+
+        logger.info("完整VACUUM完成，耗时 " + (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    private long pragma(String name) throws SQLException {
+        return connectionPool.read(conn -> {
+            try (Statement stmt = conn.getConnection().createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA " + name)) {
+                return rs.next() ? rs.getLong(1) : 0L;
+            }
+        });
+    }
+}
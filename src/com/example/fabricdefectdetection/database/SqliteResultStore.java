@@ -0,0 +1,108 @@
+package com.example.fabricdefectdetection.database;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+import com.example.fabricdefectdetection.analysis.DefectAnalysisReport;
+
+/**
+ * SQLite检测结果存储
+ *
+ * 检测记录、压缩后的报告正文（report_body）和缺陷明细经组提交写入器在同一数据库事务中写入，
+ * 报告正文只保存这一份，事务失败时全部回滚，不会留下无记录引用的报告。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public class SqliteResultStore implements ResultStore {
+
+    private static final Logger logger = Logger.getLogger(SqliteResultStore.class.getName());
+
+    private final DetectionResultDAO resultDAO;
+    private final GroupCommitWriter commitWriter;
+    private final ImageStore imageStore;
+
+    /**
+     * 构造函数
+     *
+     * @param resultDAO 检测结果数据访问对象
+     * @param commitWriter 组提交写入器
+     * @param imageStore 图像存储，登记检测结果图像时使用，可以为null
+     */
+    public SqliteResultStore(DetectionResultDAO resultDAO, GroupCommitWriter commitWriter, ImageStore imageStore) {
+        this.resultDAO = resultDAO;
+        this.commitWriter = commitWriter;
+        this.imageStore = imageStore;
+    }
+
+    @Override
+    public CompletableFuture<Long> save(DefectAnalysisReport report, String imageName, List<DefectRecord> defects,
+                                        int imageWidth, int imageHeight, String batchId) {
+        return commitWriter.submit(conn -> {
+                    long detectionTs = System.currentTimeMillis();
+                    long resultId = resultDAO.insertResult(conn, report, imageName,
+                            imageWidth, imageHeight, detectionTs, batchId);
+                    resultDAO.insertDefects(conn, resultId, detectionTs, defects);
+                    return resultId;
+                })
+                .whenComplete((resultId, error) -> {
+                    if (error == null) {
+                        logger.info("检测结果已保存: " + imageName + "，记录ID: " + resultId
+                                + "，缺陷明细: " + defects.size() + "条");
+                    }
+                });
+    }
+
+    @Override
+    public CompletableFuture<Void> attachImages(long resultId, ImageStore.StoredImages images) {
+        return commitWriter.submit(conn -> {
+            if (imageStore != null) {
+                imageStore.register(conn, images);
+            }
+            resultDAO.updateImageHashes(conn, resultId, images);
+            return null;
+        });
+    }
+
+    @Override
+    public HistoryPage findResultsPage(String startDate, String endDate, HistoryPage.Cursor after, int pageSize) {
+        return resultDAO.findResultsPage(startDate, endDate, after, pageSize);
+    }
+
+    @Override
+    public String getAnalysisReportById(int id) {
+        return resultDAO.getAnalysisReportById(id);
+    }
+
+    @Override
+    public String[] findImageHashes(int id) {
+        return resultDAO.findImageHashes(id);
+    }
+
+    @Override
+    public boolean deleteResult(int id) {
+        return resultDAO.deleteResult(id);
+    }
+
+    @Override
+    public int deleteResults(Collection<Integer> ids) {
+        return resultDAO.deleteResults(ids);
+    }
+
+    @Override
+    public int deleteResultsByDateRange(String startDate, String endDate) {
+        return resultDAO.deleteResultsByDateRange(startDate, endDate);
+    }
+
+    @Override
+    public boolean supportsAnalytics() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsBatchDelete() {
+        return true;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.fabricdefectdetection.database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * 整数时间戳后台补齐任务
+ *
+ * 结构升级后，旧记录的detection_ts为空。本任务按块读取缺少时间戳的记录，
+ * 把文本时间戳（本地时间 yyyy-MM-dd HH:mm:ss）换算为毫秒时间戳后写回。
+ * 无法解析的文本时间戳记为0，避免反复处理。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public class TimestampBackfill extends ChunkedMigration {
+
+    private static final Logger logger = Logger.getLogger(TimestampBackfill.class.getName());
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final int CHUNK_SIZE = 2000;
+
+    private static final String SELECT_CHUNK_SQL =
+            "SELECT id, detection_timestamp FROM detection_history WHERE detection_ts IS NULL LIMIT ?";
+    private static final String UPDATE_SQL = "UPDATE detection_history SET detection_ts = ? WHERE id = ?";
+
+    private final ConnectionPool connectionPool;
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    /**
+     * 构造函数
+     *
+     * @param connectionPool 连接池
+     * @param onComplete 全部补齐后的回调
+     */
+    public TimestampBackfill(ConnectionPool connectionPool, Runnable onComplete) {
+        super("整数时间戳补齐", onComplete);
+        this.connectionPool = connectionPool;
+    }
+
+    @Override
+    protected int migrateChunk() throws SQLException {
+        List<long[]> chunk = connectionPool.read(conn -> {
+            PreparedStatement pstmt = conn.prepare(SELECT_CHUNK_SQL);
+            pstmt.setInt(1, CHUNK_SIZE);
+
+            List<long[]> rows = new ArrayList<>(CHUNK_SIZE);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(new long[] {rs.getLong(1), toEpochMillis(rs.getString(2))});
+                }
+            }
+            return rows;
+        });
+
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+
+        connectionPool.write(conn -> {
+            PreparedStatement pstmt = conn.prepare(UPDATE_SQL);
+            for (long[] row : chunk) {
+                pstmt.setLong(1, row[1]);
+                pstmt.setLong(2, row[0]);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            return null;
+        });
+        return chunk.size();
+    }
+
+    private long toEpochMillis(String timestamp) {
+        try {
+            return LocalDateTime.parse(timestamp, DATE_FORMAT).atZone(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException | NullPointerException e) {
+            logger.warning("无法解析检测时间: " + timestamp);
+            return 0;
+        }
+    }
+}
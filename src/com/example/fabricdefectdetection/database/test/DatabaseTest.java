@@ -3,6 +3,7 @@ package com.example.fabricdefectdetection.database.test;
 import com.example.fabricdefectdetection.analysis.DefectAnalysisReport;
 import com.example.fabricdefectdetection.database.DatabaseManager;
 import com.example.fabricdefectdetection.database.DetectionResultDAO;
+import com.example.fabricdefectdetection.database.HistoryRecord;
 
 import java.sql.Connection;
 import java.sql.ResultSet;
@@ -110,22 +111,22 @@ public class DatabaseTest {
         
         // 查询今天的结果
         DetectionResultDAO dao = new DetectionResultDAO();
-        List<Object[]> results = dao.findResultsByDateRange(todayStr, todayStr);
+        List<HistoryRecord> results = dao.findResultsByDateRange(todayStr, todayStr);
         
         // 输出结果
         System.out.println("查询到 " + results.size() + " 条记录");
         
-        for (Object[] row : results) {
-            System.out.println("ID: " + row[0] + 
-                    ", 时间: " + row[1] + 
-                    ", 图片: " + row[2] + 
-                    ", 缺陷数: " + row[3] +
-                    ", 质量等级: " + row[4]);
+        for (HistoryRecord record : results) {
+            System.out.println("ID: " + record.getId() + 
+                    ", 时间: " + record.getDetectionTime() + 
+                    ", 图片: " + record.getImageName() + 
+                    ", 缺陷数: " + record.getDefectCount() +
+                    ", 质量等级: " + record.getQualityLevel());
         }
         
         // 如果有记录，测试获取分析报告内容
         if (!results.isEmpty()) {
-            int id = (Integer)results.get(0)[0];
+            int id = (int) results.get(0).getId();
             String report = dao.getAnalysisReportById(id);
             System.out.println("分析报告内容: " + (report != null ? report.substring(0, Math.min(report.length(), 50)) + "..." : "null"));
         }
@@ -0,0 +1,364 @@
+package com.example.fabricdefectdetection.database.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import com.example.fabricdefectdetection.analysis.DefectAnalysisReport;
+import com.example.fabricdefectdetection.database.DefectRecord;
+import com.example.fabricdefectdetection.database.HistoryPage;
+import com.example.fabricdefectdetection.database.HistoryRecord;
+import com.example.fabricdefectdetection.database.LogStructuredResultStore;
+
+/**
+ * 日志结构检测结果存储测试类
+ *
+ * 用于测试段文件滚动后重新打开时的重放、末尾不完整记录的截断、段文件压实、写入失败后的回退以及批量删除，
+ * 只使用段文件，不需要SQLite驱动
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public class LogStructuredResultStoreTest {
+
+    private static final long SEGMENT_BYTES = 4 * 1024;
+    private static final int RESULT_COUNT = 300;
+
+    /**
+     * 测试主方法
+     *
+     * @param args 命令行参数
+     */
+    public static void main(String[] args) {
+        System.out.println("开始日志结构检测结果存储测试...");
+
+        try {
+            File directory = Files.createTempDirectory("result-store-test").toFile();
+
+            // 测试写入、删除后重新打开重放段文件
+            testReplay(directory);
+
+            // 测试末尾不完整记录的截断
+            testTornTail(directory);
+
+            // 测试段文件压实
+            testCompaction(directory);
+
+            // 测试写入失败后的回退
+            testWriteFailure(directory);
+
+            // 测试按ID和按日期范围批量删除
+            testBulkDelete(directory);
+
+            System.out.println("所有测试通过!");
+
+        } catch (Exception e) {
+            System.err.println("测试失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 写入多个段文件并删除部分记录，重新打开后记录、报告和删除结果均应保留，ID继续递增
+     *
+     * @param directory 存储目录
+     * @throws Exception 如果测试失败
+     */
+    private static void testReplay(File directory) throws Exception {
+        System.out.println("测试段文件重放...");
+
+        LogStructuredResultStore store = openStore(directory);
+        long lastId = 0;
+        for (int i = 1; i <= RESULT_COUNT; i++) {
+            lastId = store.save(createReport(i), "image_" + i + ".jpg", createDefects(i), 640, 480, null).join();
+        }
+        for (int id = 1; id <= RESULT_COUNT; id += 3) {
+            if (!store.deleteResult(id)) {
+                throw new IllegalStateException("删除记录失败: " + id);
+            }
+        }
+        if (store.deleteResult(1)) {
+            throw new IllegalStateException("重复删除不应成功");
+        }
+        int expected = store.size();
+        store.close();
+
+        if (segmentFiles(directory).length < 2) {
+            throw new IllegalStateException("段文件未滚动");
+        }
+
+        store = openStore(directory);
+        if (store.size() != expected) {
+            throw new IllegalStateException("重放后记录数不符: " + store.size() + " / " + expected);
+        }
+        checkStore(store, expected);
+
+        long newId = store.save(createReport(1), "replay.jpg", createDefects(1), 640, 480, null).join();
+        if (newId != lastId + 1) {
+            throw new IllegalStateException("重新打开后ID不连续: " + newId);
+        }
+        store.close();
+        System.out.println("  重放后记录数: " + (expected + 1) + "，段文件 " + segmentFiles(directory).length + " 个");
+    }
+
+    /**
+     * 模拟写入记录时进程退出，在最后一个段文件末尾留下半条记录
+     *
+     * @param directory 存储目录
+     * @throws Exception 如果测试失败
+     */
+    private static void testTornTail(File directory) throws Exception {
+        System.out.println("测试末尾不完整记录的截断...");
+
+        File[] segments = segmentFiles(directory);
+        File lastSegment = segments[segments.length - 1];
+        long validLength = lastSegment.length();
+        appendGarbage(lastSegment);
+
+        LogStructuredResultStore store = openStore(directory);
+        if (lastSegment.length() != validLength) {
+            throw new IllegalStateException("段文件损坏的尾部未被截断");
+        }
+        int expected = store.size();
+        checkStore(store, expected);
+
+        // 截断后继续追加的记录在再次打开时应能读取
+        long id = store.save(createReport(2), "after_tail.jpg", createDefects(2), 640, 480, null).join();
+        store.close();
+
+        store = openStore(directory);
+        if (store.size() != expected + 1 || store.getAnalysisReportById((int) id) == null) {
+            throw new IllegalStateException("截断后追加的记录丢失: " + id);
+        }
+        store.close();
+        System.out.println("  截断后记录数: " + (expected + 1));
+    }
+
+    /**
+     * 删除大部分记录后压实，旧段文件应被删除，剩余记录可读且重新打开后删除结果不变
+     *
+     * @param directory 存储目录
+     * @throws Exception 如果测试失败
+     */
+    private static void testCompaction(File directory) throws Exception {
+        System.out.println("测试段文件压实...");
+
+        LogStructuredResultStore store = openStore(directory);
+        for (int id = 1; id <= RESULT_COUNT; id++) {
+            if (id % 10 != 0) {
+                store.deleteResult(id);
+            }
+        }
+        int expected = store.size();
+        long bytesBefore = totalBytes(directory);
+        int segmentsBefore = segmentFiles(directory).length;
+
+        store.compact();
+
+        long bytesAfter = totalBytes(directory);
+        if (bytesAfter >= bytesBefore) {
+            throw new IllegalStateException("压实后段文件未变小: " + bytesBefore + " -> " + bytesAfter);
+        }
+        if (new File(directory, "segment_000001.log").exists()) {
+            throw new IllegalStateException("最旧的段文件未被压实");
+        }
+        if (store.size() != expected) {
+            throw new IllegalStateException("压实后记录数不符: " + store.size() + " / " + expected);
+        }
+        checkStore(store, expected);
+        store.close();
+
+        // 被删除的记录不能因压实而在重放时复活
+        store = openStore(directory);
+        if (store.size() != expected) {
+            throw new IllegalStateException("压实后重放记录数不符: " + store.size() + " / " + expected);
+        }
+        checkStore(store, expected);
+        store.close();
+
+        System.out.println("  压实前 " + segmentsBefore + " 个段文件 " + bytesBefore / 1024 + "KB，压实后 "
+                + segmentFiles(directory).length + " 个段文件 " + bytesAfter / 1024 + "KB");
+    }
+
+    /**
+     * 用同名目录占住下一个段文件，使切换段文件时写入失败：失败的一批记录重启后不能出现，
+     * 失败前后已确认的记录重启后都应保留
+     *
+     * @param directory 存储目录
+     * @throws Exception 如果测试失败
+     */
+    private static void testWriteFailure(File directory) throws Exception {
+        System.out.println("测试写入失败后的回退...");
+
+        LogStructuredResultStore store = openStore(directory);
+        File[] segments = segmentFiles(directory);
+        String lastName = segments[segments.length - 1].getName();
+        int nextSegment = Integer.parseInt(lastName.substring(8, 14)) + 1;
+        File blocker = new File(directory, String.format("segment_%06d.log", nextSegment));
+        if (!blocker.mkdir()) {
+            throw new IllegalStateException("无法创建占位目录: " + blocker);
+        }
+
+        // 不等待逐条确认，让多条记录合并为一批，失败的一批中可能已有记录写入段文件
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            futures.add(store.save(createReport(3), "failure_" + i + ".jpg", createDefects(3), 640, 480, null));
+        }
+        Set<Long> acknowledged = new HashSet<>();
+        int failed = 0;
+        for (CompletableFuture<Long> future : futures) {
+            try {
+                acknowledged.add(future.join());
+            } catch (CompletionException e) {
+                failed++;
+            }
+        }
+        if (failed == 0) {
+            throw new IllegalStateException("切换段文件时应写入失败");
+        }
+
+        // 回退后继续接收写入，之后确认的记录不能被重启时的截断丢掉
+        for (int i = 0; i < 60; i++) {
+            acknowledged.add(store.save(createReport(3), "after_failure_" + i + ".jpg", createDefects(3), 640, 480,
+                    null).join());
+        }
+        int expected = store.size();
+        store.close();
+
+        store = openStore(directory);
+        if (store.size() != expected) {
+            throw new IllegalStateException("重启后记录数不符: " + store.size() + " / " + expected);
+        }
+        checkStore(store, expected);
+        for (long id : acknowledged) {
+            if (store.getAnalysisReportById((int) id) == null) {
+                throw new IllegalStateException("已确认的记录在重启后丢失: " + id);
+            }
+        }
+        store.close();
+        System.out.println("  失败 " + failed + " 条，已确认 " + acknowledged.size() + " 条，重启后记录数: " + expected);
+    }
+
+    /**
+     * 按ID批量删除只计入实际存在的记录，按日期范围删除当天的全部记录，重新打开后删除结果不变
+     *
+     * @param directory 存储目录
+     * @throws Exception 如果测试失败
+     */
+    private static void testBulkDelete(File directory) throws Exception {
+        System.out.println("测试批量删除...");
+
+        LogStructuredResultStore store = openStore(directory);
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            ids.add(store.save(createReport(4), "bulk_" + i + ".jpg", createDefects(4), 640, 480, null).join()
+                    .intValue());
+        }
+        int before = store.size();
+        ids.add(ids.get(0));
+        ids.add(Integer.MAX_VALUE);
+
+        int deleted = store.deleteResults(ids);
+        if (deleted != 20 || store.size() != before - 20) {
+            throw new IllegalStateException("按ID批量删除的记录数不符: " + deleted);
+        }
+
+        String today = LocalDate.now().toString();
+        int remaining = store.size();
+        deleted = store.deleteResultsByDateRange(today, today);
+        if (deleted != remaining || store.size() != 0) {
+            throw new IllegalStateException("按日期范围删除的记录数不符: " + deleted + " / " + remaining);
+        }
+        store.close();
+
+        store = openStore(directory);
+        if (store.size() != 0) {
+            throw new IllegalStateException("批量删除的记录在重放后复活: " + store.size());
+        }
+        store.close();
+        System.out.println("  按ID删除 20 条，按日期删除 " + remaining + " 条");
+    }
+
+    /**
+     * 分页读取全部记录，检查数量、排序和报告内容
+     */
+    private static void checkStore(LogStructuredResultStore store, int expected) {
+        String today = LocalDate.now().toString();
+        List<HistoryRecord> records = new ArrayList<>();
+        HistoryPage.Cursor cursor = null;
+        do {
+            HistoryPage page = store.findResultsPage(today, today, cursor, 50);
+            records.addAll(page.getRows());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        if (records.size() != expected) {
+            throw new IllegalStateException("分页读取的记录数不符: " + records.size() + " / " + expected);
+        }
+        for (int i = 1; i < records.size(); i++) {
+            HistoryRecord previous = records.get(i - 1);
+            HistoryRecord current = records.get(i);
+            if (previous.getTimestamp() < current.getTimestamp()
+                    || previous.getTimestamp() == current.getTimestamp() && previous.getId() < current.getId()) {
+                throw new IllegalStateException("分页结果未按时间降序排列: " + current.getId());
+            }
+        }
+
+        for (HistoryRecord record : records) {
+            String report = store.getAnalysisReportById((int) record.getId());
+            if (report == null || !report.contains("检测到" + record.getDefectCount() + "个缺陷")) {
+                throw new IllegalStateException("报告内容不正确: " + record.getId());
+            }
+            if (store.findImageHashes((int) record.getId()) == null) {
+                throw new IllegalStateException("记录索引缺失: " + record.getId());
+            }
+        }
+    }
+
+    private static LogStructuredResultStore openStore(File directory) throws IOException {
+        // 压实检查间隔取较大值，避免后台压实干扰测试
+        return new LogStructuredResultStore(directory, SEGMENT_BYTES, 0.5, 60, null);
+    }
+
+    private static File[] segmentFiles(File directory) {
+        File[] segments = directory.listFiles((dir, name) -> name.startsWith("segment_"));
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private static long totalBytes(File directory) {
+        long total = 0;
+        for (File segment : segmentFiles(directory)) {
+            total += segment.length();
+        }
+        return total;
+    }
+
+    private static void appendGarbage(File file) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[] {0x44, 0x45, 0x54, 0x31, 0, 0, 0x10, 0, 1, 2, 3});
+        }
+    }
+
+    private static DefectAnalysisReport createReport(int defectCount) {
+        return new DefectAnalysisReport(defectCount, "测试分析内容：检测到" + defectCount + "个缺陷。",
+                defectCount == 0 ? "一等品" : "二等品", false);
+    }
+
+    private static List<DefectRecord> createDefects(int count) {
+        List<DefectRecord> defects = new ArrayList<>();
+        for (int i = 0; i < count % 5; i++) {
+            defects.add(new DefectRecord("破洞", i * 10, i * 20, 15, 15));
+        }
+        return defects;
+    }
+}
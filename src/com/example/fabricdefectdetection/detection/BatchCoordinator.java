@@ -0,0 +1,463 @@
+package com.example.fabricdefectdetection.detection;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.example.fabricdefectdetection.detection.BatchTaskResult.Status;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * 分布式批处理协调器
+ *
+ * 将文件列表分片后以租约（lease）的形式分发给BatchWorker工作节点，
+ * 并收集工作节点回传的检测结果。协议为TCP上逐行传输的JSON：
+ * <ul>
+ * <li>工作节点发送 {"op":"lease","worker":...,"max":n} 申请最多n个任务</li>
+ * <li>协调器回复 {"op":"tasks","leaseMs":...,"leases":[{"leaseId":...,"path":...}]}，
+ *     暂无可分配任务时回复 {"op":"wait","retryMs":...}，全部完成时回复 {"op":"done"}</li>
+ * <li>工作节点在处理期间定期发送 {"op":"renew","leaseIds":[...]} 续约，
+ *     协调器把该连接仍持有的租约的超时时间从当前时间起重新计算，不回复</li>
+ * <li>工作节点每完成一个任务发送 {"op":"result","leaseId":...,...}，协调器不回复</li>
+ * </ul>
+ * 工作节点断开连接或停止续约超过租约超时时间后，其未完成的租约会重新排队，超过最大尝试次数的任务记为失败。
+ * 只要工作节点仍在续约，耗时较长的任务不会被重新分配，避免同一张图片被处理并保存两次。
+ * 文件以绝对路径下发，因此工作节点需要能够访问同一份共享存储。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public class BatchCoordinator {
+
+    private static final Logger logger = Logger.getLogger(BatchCoordinator.class.getName());
+
+    /** 默认租约超时时间（毫秒） */
+    public static final long DEFAULT_LEASE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+    /** 默认单个任务的最大尝试次数 */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    private static final long WAIT_RETRY_MS = 500;
+    private static final long REAPER_INTERVAL_MS = 1000;
+
+    private final List<File> files;
+    private final BatchTaskResult[] results;
+    private final int[] attempts;
+    private final Deque<Integer> pending = new ArrayDeque<>();
+    private final Map<Long, Lease> activeLeases = new HashMap<>();
+    private final AtomicLong leaseSequence = new AtomicLong();
+    private final CountDownLatch completionLatch;
+    private final Consumer<BatchTaskResult> onProgressUpdate;
+    private final long leaseTimeoutMs;
+    private final int maxAttempts;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private ServerSocket serverSocket;
+    private ExecutorService connectionExecutor;
+    private ScheduledExecutorService reaperExecutor;
+    private volatile boolean running = false;
+
+    /**
+     * 构造函数，使用默认的租约超时时间和最大尝试次数
+     *
+     * @param files 待处理的图片文件
+     * @param onProgressUpdate 进度更新回调（在连接处理线程中调用）
+     */
+    public BatchCoordinator(List<File> files, Consumer<BatchTaskResult> onProgressUpdate) {
+        this(files, onProgressUpdate, DEFAULT_LEASE_TIMEOUT_MS, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param files 待处理的图片文件
+     * @param onProgressUpdate 进度更新回调（在连接处理线程中调用）
+     * @param leaseTimeoutMs 租约超时时间（毫秒）
+     * @param maxAttempts 单个任务的最大尝试次数
+     */
+    public BatchCoordinator(List<File> files, Consumer<BatchTaskResult> onProgressUpdate,
+            long leaseTimeoutMs, int maxAttempts) {
+        this.files = new ArrayList<>(files);
+        this.results = new BatchTaskResult[this.files.size()];
+        this.attempts = new int[this.files.size()];
+        this.completionLatch = new CountDownLatch(this.files.size());
+        this.onProgressUpdate = onProgressUpdate;
+        this.leaseTimeoutMs = leaseTimeoutMs;
+        this.maxAttempts = maxAttempts;
+
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new BatchTaskResult(this.files.get(i).getName());
+            pending.add(i);
+        }
+    }
+
+    /**
+     * 启动协调器，开始接受工作节点连接
+     *
+     * @param port 监听端口，0表示由系统分配
+     * @return 实际监听的端口
+     * @throws IOException 如果端口无法绑定
+     */
+    public synchronized int start(int port) throws IOException {
+        if (running) {
+            throw new IllegalStateException("协调器已启动");
+        }
+
+        serverSocket = new ServerSocket(port);
+        connectionExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "batch-coordinator-conn");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaperExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "batch-coordinator-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+
+        connectionExecutor.submit(this::acceptLoop);
+        reaperExecutor.scheduleWithFixedDelay(this::reapExpiredLeases,
+                REAPER_INTERVAL_MS, REAPER_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        logger.info("批处理协调器已启动，端口: " + serverSocket.getLocalPort() + "，任务数: " + files.size());
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * 接受工作节点连接
+     */
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connectionExecutor.submit(() -> handleConnection(socket));
+            } catch (IOException e) {
+                if (running) {
+                    logger.log(Level.WARNING, "接受工作节点连接失败", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 处理单个工作节点连接，连接断开时回收该节点持有的全部租约
+     *
+     * @param socket 工作节点连接
+     */
+    private void handleConnection(Socket socket) {
+        Set<Long> ownedLeases = new HashSet<>();
+        String remote = String.valueOf(socket.getRemoteSocketAddress());
+        logger.info("工作节点已连接: " + remote);
+
+        try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter writer = new PrintWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JsonNode message = objectMapper.readTree(line);
+                String op = message.path("op").asText();
+
+                if ("lease".equals(op)) {
+                    String workerId = message.path("worker").asText(remote);
+                    int max = Math.max(1, message.path("max").asInt(1));
+                    writer.println(objectMapper.writeValueAsString(grantLeases(workerId, max, ownedLeases)));
+                    writer.flush();
+                } else if ("renew".equals(op)) {
+                    renewLeases(message, ownedLeases);
+                } else if ("result".equals(op)) {
+                    completeLease(message, ownedLeases);
+                } else {
+                    logger.warning("未知的消息类型: " + op + "，来自 " + remote);
+                }
+            }
+        } catch (SocketException e) {
+            logger.info("工作节点连接中断: " + remote);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "与工作节点通信失败: " + remote, e);
+        } finally {
+            releaseLeases(ownedLeases);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // 忽略关闭异常
+            }
+            logger.info("工作节点已断开: " + remote);
+        }
+    }
+
+    /**
+     * 为工作节点分配租约
+     *
+     * @param workerId 工作节点标识
+     * @param max 最多分配的任务数
+     * @param ownedLeases 该连接持有的租约
+     * @return 回复消息
+     */
+    private ObjectNode grantLeases(String workerId, int max, Set<Long> ownedLeases) {
+        List<BatchTaskResult> notifications = new ArrayList<>();
+        ObjectNode reply = objectMapper.createObjectNode();
+
+        synchronized (this) {
+            if (completionLatch.getCount() == 0) {
+                reply.put("op", "done");
+                return reply;
+            }
+
+            if (pending.isEmpty()) {
+                reply.put("op", "wait");
+                reply.put("retryMs", WAIT_RETRY_MS);
+                return reply;
+            }
+
+            reply.put("op", "tasks");
+            reply.put("leaseMs", leaseTimeoutMs);
+            ArrayNode leases = reply.putArray("leases");
+            long deadline = System.currentTimeMillis() + leaseTimeoutMs;
+
+            while (leases.size() < max && !pending.isEmpty()) {
+                int taskIndex = pending.poll();
+                long leaseId = leaseSequence.incrementAndGet();
+                attempts[taskIndex]++;
+
+                activeLeases.put(leaseId, new Lease(leaseId, taskIndex, workerId, deadline, ownedLeases));
+                ownedLeases.add(leaseId);
+
+                results[taskIndex].setStatus(Status.PROCESSING);
+                notifications.add(results[taskIndex]);
+
+                ObjectNode lease = leases.addObject();
+                lease.put("leaseId", leaseId);
+                lease.put("path", files.get(taskIndex).getAbsolutePath());
+            }
+        }
+
+        notifyProgress(notifications);
+        return reply;
+    }
+
+    /**
+     * 为工作节点仍持有的租约续约，已超时并被回收的租约不再恢复
+     *
+     * @param message 续约消息
+     * @param ownedLeases 该连接持有的租约
+     */
+    private synchronized void renewLeases(JsonNode message, Set<Long> ownedLeases) {
+        long deadline = System.currentTimeMillis() + leaseTimeoutMs;
+        for (JsonNode id : message.path("leaseIds")) {
+            long leaseId = id.asLong();
+            Lease lease = ownedLeases.contains(leaseId) ? activeLeases.get(leaseId) : null;
+            if (lease != null) {
+                lease.deadline = deadline;
+            }
+        }
+    }
+
+    /**
+     * 处理工作节点回传的结果
+     *
+     * @param message 结果消息
+     * @param ownedLeases 该连接持有的租约
+     */
+    private void completeLease(JsonNode message, Set<Long> ownedLeases) {
+        long leaseId = message.path("leaseId").asLong();
+        BatchTaskResult result;
+
+        synchronized (this) {
+            ownedLeases.remove(leaseId);
+            Lease lease = activeLeases.remove(leaseId);
+            if (lease == null) {
+                // 租约已超时并被重新分配，丢弃迟到的结果
+                logger.fine("忽略已失效租约的结果: " + leaseId);
+                return;
+            }
+
+            result = results[lease.taskIndex];
+            boolean completed = Status.COMPLETED.name().equals(message.path("status").asText());
+            result.setDefectCount(message.path("defectCount").asInt());
+            result.setQualityLevel(message.path("qualityLevel").asText("-"));
+            result.setProcessingTimeMs(message.path("processingTimeMs").asLong());
+            result.setErrorMessage(message.hasNonNull("error") ? message.get("error").asText() : null);
+            result.setStatus(completed ? Status.COMPLETED : Status.FAILED);
+            completionLatch.countDown();
+        }
+
+        notifyProgress(Collections.singletonList(result));
+    }
+
+    /**
+     * 回收租约并重新排队
+     *
+     * @param leaseIds 要回收的租约
+     */
+    private void releaseLeases(Set<Long> leaseIds) {
+        List<BatchTaskResult> notifications = new ArrayList<>();
+
+        synchronized (this) {
+            for (Long leaseId : new ArrayList<>(leaseIds)) {
+                Lease lease = activeLeases.remove(leaseId);
+                if (lease != null) {
+                    requeue(lease, notifications);
+                }
+            }
+            leaseIds.clear();
+        }
+
+        notifyProgress(notifications);
+    }
+
+    /**
+     * 回收已超时的租约
+     */
+    private void reapExpiredLeases() {
+        List<BatchTaskResult> notifications = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            Iterator<Lease> iterator = activeLeases.values().iterator();
+            while (iterator.hasNext()) {
+                Lease lease = iterator.next();
+                if (lease.deadline < now) {
+                    iterator.remove();
+                    lease.owner.remove(lease.leaseId);
+                    logger.warning("租约超时，重新分配: " + files.get(lease.taskIndex).getName()
+                            + "（工作节点 " + lease.workerId + "）");
+                    requeue(lease, notifications);
+                }
+            }
+        }
+
+        notifyProgress(notifications);
+    }
+
+    /**
+     * 将租约对应的任务重新排队，超过最大尝试次数时记为失败（需持有锁）
+     *
+     * @param lease 租约
+     * @param notifications 需要通知的任务结果
+     */
+    private void requeue(Lease lease, List<BatchTaskResult> notifications) {
+        BatchTaskResult result = results[lease.taskIndex];
+
+        if (attempts[lease.taskIndex] >= maxAttempts) {
+            result.setStatus(Status.FAILED);
+            result.setErrorMessage("超过最大尝试次数: " + maxAttempts);
+            completionLatch.countDown();
+        } else {
+            result.setStatus(Status.WAITING);
+            pending.addFirst(lease.taskIndex);
+        }
+        notifications.add(result);
+    }
+
+    /**
+     * 在锁外通知进度
+     *
+     * @param notifications 需要通知的任务结果
+     */
+    private void notifyProgress(List<BatchTaskResult> notifications) {
+        if (onProgressUpdate == null) {
+            return;
+        }
+        for (BatchTaskResult result : notifications) {
+            try {
+                onProgressUpdate.accept(result);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "进度回调执行失败: " + result.getFileName(), e);
+            }
+        }
+    }
+
+    /**
+     * 等待全部任务完成
+     *
+     * @param timeout 最长等待时间
+     * @param unit 时间单位
+     * @return 是否在超时前全部完成
+     * @throws InterruptedException 如果等待被中断
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        return completionLatch.await(timeout, unit);
+    }
+
+    /**
+     * 获取所有任务结果
+     *
+     * @return 任务结果列表，顺序与输入文件一致
+     */
+    public List<BatchTaskResult> getTaskResults() {
+        return Collections.unmodifiableList(Arrays.asList(results));
+    }
+
+    /**
+     * 关闭协调器
+     */
+    public synchronized void shutdown() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "关闭协调器端口失败", e);
+        }
+        if (connectionExecutor != null) {
+            connectionExecutor.shutdownNow();
+        }
+        if (reaperExecutor != null) {
+            reaperExecutor.shutdownNow();
+        }
+        logger.info("批处理协调器已关闭");
+    }
+
+    /**
+     * 租约
+     */
+    private static class Lease {
+        final long leaseId;
+        final int taskIndex;
+        final String workerId;
+        long deadline;
+        final Set<Long> owner;
+
+        Lease(long leaseId, int taskIndex, String workerId, long deadline, Set<Long> owner) {
+            this.leaseId = leaseId;
+            this.taskIndex = taskIndex;
+            this.workerId = workerId;
+            this.deadline = deadline;
+            this.owner = owner;
+        }
+    }
+}
@@ -1,30 +1,45 @@
 package com.example.fabricdefectdetection.detection;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.swing.SwingUtilities;
 
 import org.opencv.core.Mat;
 import org.opencv.imgcodecs.Imgcodecs;
 
 import com.example.fabricdefectdetection.analysis.DefectAnalysisAssistant;
 import com.example.fabricdefectdetection.analysis.DefectAnalysisReport;
-import com.example.fabricdefectdetection.database.DetectionResultDAO;
+import com.example.fabricdefectdetection.analysis.RollDefectStatistics;
+import com.example.fabricdefectdetection.database.DetectionResultSink;
 import com.example.fabricdefectdetection.detection.BatchTaskResult.Status;
+import com.example.fabricdefectdetection.util.ConfigurationManager;
 
 /**
  * 批量处理器
  * 
- * 用于批量处理图片文件，进行缺陷检测和分析
+ * 用于批量处理图片文件，进行缺陷检测和分析。
+ * 
+ * 分析方式由配置项 batch.analysis-mode 决定：
+ * - roll（默认）：每张图片的报告由本地规则生成，批次结束后把整卷的汇总统计通过一次
+ *   大语言模型调用生成整卷分析（参见getRollReport），API调用次数与图片数无关
+ * - image：每张图片单独调用大语言模型分析
+ * 
+ * 本类不依赖Swing/AWT，进度回调在工作线程中直接调用，
+ * 由调用方决定是否切换到界面线程（参见BatchProcessingPanel），
+ * 因此也可以在无界面的服务器上运行（参见HeadlessMain）。
  * 
  * @author FabricDefectDetection
  * @version 1.0
@@ -33,14 +48,22 @@ public class BatchProcessor {
     
     private static final Logger logger = Logger.getLogger(BatchProcessor.class.getName());
     private static final String[] SUPPORTED_EXTENSIONS = {".jpg", ".jpeg", ".png", ".bmp", ".tif", ".tiff"};
+    private static final DateTimeFormatter BATCH_ID_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final String ANALYSIS_MODE_IMAGE = "image";
     
     private final ExecutorService executorService;
     private final DefectDetector defectDetector;
     private final DefectAnalysisAssistant analysisAssistant;
-    private final DetectionResultDAO resultDAO;
+    private final DetectionResultSink resultSink;
+    private final DecodeMemoryBudget memoryBudget;
+    private final boolean rollAnalysis;
     
-    private boolean isProcessing = false;
+    private volatile boolean isProcessing = false;
     private List<BatchTaskResult> taskResults = new ArrayList<>();
+    private volatile String currentBatchId;
+    private RollDefectStatistics rollStatistics;
+    private volatile CompletableFuture<DefectAnalysisReport> rollReport;
+    private CountDownLatch completionLatch = new CountDownLatch(0);
     
     /**
      * 构造函数，初始化批处理器
@@ -51,9 +74,12 @@ public class BatchProcessor {
         this.executorService = Executors.newFixedThreadPool(threadCount);
         this.defectDetector = new DefectDetector();
         this.analysisAssistant = new DefectAnalysisAssistant();
-        this.resultDAO = new DetectionResultDAO();
+        this.resultSink = new DetectionResultSink();
+        this.memoryBudget = DecodeMemoryBudget.getInstance();
+        this.rollAnalysis = !ANALYSIS_MODE_IMAGE.equalsIgnoreCase(
+                ConfigurationManager.getInstance().getProperty("batch.analysis-mode", "roll").trim());
         
-        logger.info("批处理器初始化完成，线程池大小: " + threadCount);
+        logger.info("批处理器初始化完成，线程池大小: " + threadCount + "，分析方式: " + (rollAnalysis ? "整卷" : "逐张"));
     }
     
     /**
@@ -67,157 +93,260 @@ public class BatchProcessor {
      * 开始批量处理
      * 
      * @param directory 包含图片的目录
-     * @param onProgressUpdate 进度更新回调
+     * @param onProgressUpdate 进度更新回调（在工作线程中调用）
      * @return 任务结果列表
      */
     public List<BatchTaskResult> startProcessing(File directory, Consumer<BatchTaskResult> onProgressUpdate) {
+        if (directory == null || !directory.exists() || !directory.isDirectory()) {
+            logger.warning("指定的目录不存在或不是一个目录: " + directory);
+            return null;
+        }
+        
+        List<File> imageFiles = listImageFiles(directory);
+        if (imageFiles.isEmpty()) {
+            logger.warning("指定的目录中没有找到支持的图片文件: " + directory);
+        }
+        
+        return startProcessing(imageFiles, onProgressUpdate);
+    }
+    
+    /**
+     * 对给定的图片文件列表开始批量处理
+     * 
+     * @param imageFiles 图片文件列表
+     * @param onProgressUpdate 进度更新回调（在工作线程中调用）
+     * @return 任务结果列表
+     */
+    public synchronized List<BatchTaskResult> startProcessing(List<File> imageFiles, Consumer<BatchTaskResult> onProgressUpdate) {
         if (isProcessing) {
             logger.warning("已有批处理任务正在运行，请等待完成后再试");
             return null;
         }
         
-        if (directory == null || !directory.exists() || !directory.isDirectory()) {
-            logger.warning("指定的目录不存在或不是一个目录: " + directory);
-            return null;
+        taskResults = new ArrayList<>();
+        rollStatistics = null;
+        rollReport = null;
+        if (imageFiles == null || imageFiles.isEmpty()) {
+            return taskResults;
         }
         
         isProcessing = true;
-        taskResults.clear();
+        CountDownLatch latch = new CountDownLatch(imageFiles.size());
+        completionLatch = latch;
         
-        // 获取所有支持的图片文件
-        File[] imageFiles = directory.listFiles(file -> {
-            if (file.isFile()) {
-                String fileName = file.getName().toLowerCase();
-                for (String ext : SUPPORTED_EXTENSIONS) {
-                    if (fileName.endsWith(ext)) {
-                        return true;
-                    }
-                }
-            }
-            return false;
-        });
+        // 本次处理保存的检测记录都带有批次编号，可按批次整体删除
+        String batchId = "batch-" + LocalDateTime.now().format(BATCH_ID_FORMAT) + "-" + Integer.toHexString(
+                ThreadLocalRandom.current().nextInt(0x1000, 0x10000));
+        currentBatchId = batchId;
         
-        if (imageFiles == null || imageFiles.length == 0) {
-            logger.warning("指定的目录中没有找到支持的图片文件: " + directory);
-            isProcessing = false;
-            return taskResults;
-        }
+        RollDefectStatistics statistics = rollAnalysis ? new RollDefectStatistics(batchId, imageFiles.size()) : null;
+        rollStatistics = statistics;
+        rollReport = rollAnalysis ? new CompletableFuture<>() : null;
         
-        logger.info("开始批量处理 " + imageFiles.length + " 个图片文件...");
+        logger.info("开始批量处理 " + imageFiles.size() + " 个图片文件，批次: " + batchId);
         
-        // 创建任务结果并提交任务
-        Arrays.stream(imageFiles).forEach(file -> {
+        // 先创建全部任务结果，再提交任务，保证完成检查时列表已完整
+        List<BatchTaskResult> submitted = new ArrayList<>();
+        for (File file : imageFiles) {
             BatchTaskResult result = new BatchTaskResult(file.getName());
             taskResults.add(result);
+            submitted.add(result);
             
-            // 通知UI更新
-            if (onProgressUpdate != null) {
-                SwingUtilities.invokeLater(() -> onProgressUpdate.accept(result));
-            }
-            
-            // 提交任务到线程池
-            executorService.submit(() -> processImageFile(file, result, onProgressUpdate));
-        });
+            // 通知调用方
+            updateUI(result, onProgressUpdate);
+        }
+        
+        // 提交任务到线程池
+        for (int i = 0; i < imageFiles.size(); i++) {
+            File file = imageFiles.get(i);
+            BatchTaskResult result = submitted.get(i);
+            int imageIndex = i;
+            executorService.submit(() -> processImageFile(file, result, batchId, imageIndex, statistics,
+                    onProgressUpdate, latch));
+        }
         
         return taskResults;
     }
     
+    /**
+     * 列出目录中所有支持的图片文件（按文件名排序）
+     * 
+     * @param directory 图片目录
+     * @return 图片文件列表，目录无效时返回空列表
+     */
+    public static List<File> listImageFiles(File directory) {
+        File[] files = directory == null ? null : directory.listFiles(BatchProcessor::isSupportedImage);
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        
+        Arrays.sort(files);
+        return new ArrayList<>(Arrays.asList(files));
+    }
+    
+    /**
+     * 判断文件是否为支持的图片格式
+     * 
+     * @param file 文件
+     * @return 是否支持
+     */
+    public static boolean isSupportedImage(File file) {
+        if (file.isFile()) {
+            String fileName = file.getName().toLowerCase();
+            for (String ext : SUPPORTED_EXTENSIONS) {
+                if (fileName.endsWith(ext)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
     /**
      * 处理单个图片文件
      * 
      * @param file 图片文件
      * @param result 任务结果
+     * @param batchId 批次编号
+     * @param imageIndex 图片在批次中的序号
+     * @param statistics 整卷汇总统计，逐张分析时为null
      * @param onProgressUpdate 进度更新回调
+     * @param latch 本批次的完成计数，下一批可能在本任务计数前开始，因此不读取completionLatch字段
      */
-    private void processImageFile(File file, BatchTaskResult result, Consumer<BatchTaskResult> onProgressUpdate) {
+    private void processImageFile(File file, BatchTaskResult result, String batchId, int imageIndex,
+                                  RollDefectStatistics statistics, Consumer<BatchTaskResult> onProgressUpdate,
+                                  CountDownLatch latch) {
         try {
             // 更新状态为处理中
             result.setStatus(Status.PROCESSING);
             updateUI(result, onProgressUpdate);
             
-            // 读取图片
-            logger.info("处理图片: " + file.getName());
-            Mat image = Imgcodecs.imread(file.getAbsolutePath());
-            if (image.empty()) {
-                throw new IOException("无法读取图片: " + file.getName());
-            }
-            
-            // 预处理和检测
-            Preprocessor preprocessor = new Preprocessor();
-            Mat preprocessedImage = preprocessor.preprocess(image);
-            DetectionResult detectionResult = defectDetector.detectDefects(preprocessedImage);
-            detectionResult.setImageName(file.getName());
-            
-            // 分析结果
-            DefectAnalysisReport report = analysisAssistant.analyzeDefects(detectionResult);
-            
-            // 保存到数据库
-            resultDAO.saveResult(report, file.getName());
-            
-            // 保存到文件
-            saveReportToFile(report);
-            
-            // 更新结果
-            result.setDefectCount(detectionResult.getDefectCount());
-            result.setQualityLevel(report.getQualityLevel());
-            result.setStatus(Status.COMPLETED);
-            
-            // 释放OpenCV资源
-            image.release();
-            preprocessedImage.release();
-            
-            logger.info("完成处理: " + file.getName() + ", 缺陷数: " + detectionResult.getDefectCount());
-            
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "处理图片时发生错误: " + file.getName(), e);
-            result.setStatus(Status.FAILED);
-            result.setErrorMessage(e.getMessage());
+            processFile(file, result, batchId, imageIndex, statistics);
         } finally {
             updateUI(result, onProgressUpdate);
             
-            // 检查是否所有任务都已完成
+            // 先检查是否所有任务都已完成并清除处理中标志，再唤醒awaitCompletion，
+            // 保证等待返回的调用方可以立即开始下一批
             checkAllTasksCompleted();
+            latch.countDown();
         }
     }
     
     /**
-     * 将分析报告保存到文件
+     * 在当前线程中同步处理单个图片文件
+     * 
+     * 供分布式工作节点等不经过本处理器线程池的调用方使用
      * 
-     * @param report 要保存的分析报告
+     * @param file 图片文件
+     * @return 任务结果
      */
-    private void saveReportToFile(DefectAnalysisReport report) {
-        try {
-            // 确保reports目录存在
-            File reportsDir = new File("reports");
-            if (!reportsDir.exists()) {
-                reportsDir.mkdirs();
-            }
-            
-            // 创建文件名，格式：report_日期时间_质量等级.md
-            String timestamp = java.time.LocalDateTime.now().format(
-                    java.time.format.DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-            String fileName = String.format("reports/report_%s_%s.md", timestamp, report.getQualityLevel());
+    public BatchTaskResult processFile(File file) {
+        BatchTaskResult result = new BatchTaskResult(file.getName());
+        result.setStatus(Status.PROCESSING);
+        processFile(file, result, null, 0, null);
+        return result;
+    }
+    
+    /**
+     * 检测、分析并保存单个图片文件，结果写入任务结果对象
+     * 
+     * @param file 图片文件
+     * @param result 任务结果
+     * @param batchId 批次编号，不属于批量处理时为null
+     * @param imageIndex 图片在批次中的序号
+     * @param statistics 整卷汇总统计，为null时逐张调用大语言模型分析
+     */
+    private void processFile(File file, BatchTaskResult result, String batchId, int imageIndex,
+                             RollDefectStatistics statistics) {
+        long startTime = System.currentTimeMillis();
+        
+        // 解码前按文件头估算本地内存并申请额度，避免同时解码过多大图
+        try (DecodeMemoryBudget.Permit permit = memoryBudget.acquire(file)) {
+            Mat image = null;
+            Mat preprocessedImage = null;
+            DetectionResult detectionResult = null;
             
-            // 写入报告内容
-            try (java.io.FileWriter writer = new java.io.FileWriter(fileName)) {
-                writer.write(report.getMarkdownReport());
+            try {
+                // 读取图片
+                logger.info("处理图片: " + file.getName() + "，预估内存: " + (permit.getBytes() >> 20) + "MB");
+                image = Imgcodecs.imread(file.getAbsolutePath());
+                if (image.empty()) {
+                    throw new IOException("无法读取图片: " + file.getName());
+                }
+                
+                // 预处理和检测
+                Preprocessor preprocessor = new Preprocessor();
+                preprocessedImage = preprocessor.preprocess(image);
+                detectionResult = defectDetector.detectDefects(preprocessedImage);
+                detectionResult.setImageName(file.getName());
+                
+                // 分析结果：整卷分析时单张图片只生成本地报告，并计入整卷汇总
+                DefectAnalysisReport report;
+                if (statistics != null) {
+                    report = analysisAssistant.analyzeDefectsLocally(detectionResult);
+                    statistics.add(imageIndex, detectionResult, report.getQualityLevel(),
+                            preprocessedImage.cols(), preprocessedImage.rows());
+                } else {
+                    report = analysisAssistant.analyzeDefects(detectionResult);
+                }
+                
+                // 保存检测记录和报告（每个结果只写一次）
+                resultSink.persist(detectionResult, report, batchId);
+                
+                // 更新结果
+                result.setDefectCount(detectionResult.getDefectCount());
+                result.setQualityLevel(report.getQualityLevel());
+                result.setStatus(Status.COMPLETED);
+                
+                logger.info("完成处理: " + file.getName() + ", 缺陷数: " + detectionResult.getDefectCount());
+            } finally {
+                // 归还额度前释放OpenCV资源
+                releaseMat(image);
+                releaseMat(preprocessedImage);
+                if (detectionResult != null) {
+                    releaseMat(detectionResult.getResultImageMat());
+                }
             }
             
-            logger.info("分析报告已保存到文件: " + fileName);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.setStatus(Status.FAILED);
+            result.setErrorMessage("等待内存额度时被中断");
         } catch (Exception e) {
-            logger.log(Level.SEVERE, "保存分析报告到文件失败", e);
+            logger.log(Level.SEVERE, "处理图片时发生错误: " + file.getName(), e);
+            result.setStatus(Status.FAILED);
+            result.setErrorMessage(e.getMessage());
+        } finally {
+            result.setProcessingTimeMs(System.currentTimeMillis() - startTime);
         }
     }
     
     /**
-     * 更新UI
+     * 释放Mat占用的本地内存
+     * 
+     * @param mat 要释放的Mat，可以为null
+     */
+    private static void releaseMat(Mat mat) {
+        if (mat != null) {
+            mat.release();
+        }
+    }
+    
+    /**
+     * 通知进度更新
+     * 
+     * 回调在当前工作线程中执行，回调异常不会影响批处理本身
      * 
      * @param result 任务结果
      * @param onProgressUpdate 进度更新回调
      */
     private void updateUI(BatchTaskResult result, Consumer<BatchTaskResult> onProgressUpdate) {
         if (onProgressUpdate != null) {
-            SwingUtilities.invokeLater(() -> onProgressUpdate.accept(result));
+            try {
+                onProgressUpdate.accept(result);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "进度回调执行失败: " + result.getFileName(), e);
+            }
         }
     }
     
@@ -228,12 +357,56 @@ public class BatchProcessor {
         boolean allCompleted = taskResults.stream()
                 .allMatch(result -> result.isCompleted() || result.isFailed());
         
-        if (allCompleted) {
+        if (allCompleted && isProcessing) {
             isProcessing = false;
             logger.info("所有批处理任务已完成");
+            
+            // 整卷汇总只在批次结束时调用一次大语言模型
+            if (rollStatistics != null) {
+                completeRollReport(rollStatistics, rollReport);
+            }
         }
     }
     
+    /**
+     * 生成整卷分析报告，分析出错时以本地汇总报告完成，保证等待整卷报告的调用方不会一直阻塞
+     * 
+     * @param statistics 整卷汇总统计
+     * @param report 待完成的整卷报告
+     */
+    private void completeRollReport(RollDefectStatistics statistics, CompletableFuture<DefectAnalysisReport> report) {
+        try {
+            analysisAssistant.analyzeRollAsync(statistics).whenComplete((analysis, error) -> {
+                if (error != null || analysis == null) {
+                    logger.log(Level.WARNING, "整卷分析失败，使用本地汇总报告", error);
+                    report.complete(createLocalRollReport(statistics));
+                } else {
+                    report.complete(analysis);
+                }
+            });
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "整卷分析失败，使用本地汇总报告", e);
+            report.complete(createLocalRollReport(statistics));
+        }
+    }
+    
+    private static DefectAnalysisReport createLocalRollReport(RollDefectStatistics statistics) {
+        return new DefectAnalysisReport(statistics.getTotalDefects(), statistics.toLocalReport(),
+                statistics.getRollQualityLevel(), false);
+    }
+    
+    /**
+     * 等待当前批处理任务全部完成
+     * 
+     * @param timeout 最长等待时间
+     * @param unit 时间单位
+     * @return 是否在超时前全部完成
+     * @throws InterruptedException 如果等待被中断
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        return completionLatch.await(timeout, unit);
+    }
+    
     /**
      * 关闭批处理器
      */
@@ -251,6 +424,35 @@ public class BatchProcessor {
         return taskResults;
     }
     
+    /**
+     * 获取最近一次批量处理的整卷分析报告
+     * 
+     * 批次中的图片全部处理完成后开始生成，Future在分析完成后完成，不会异常完成。
+     * 
+     * @return 整卷分析报告，逐张分析（batch.analysis-mode=image）或尚未开始批量处理时为null
+     */
+    public CompletableFuture<DefectAnalysisReport> getRollReport() {
+        return rollReport;
+    }
+    
+    /**
+     * 获取最近一次批量处理的批次编号
+     * 
+     * @return 批次编号，尚未开始过批量处理时为null
+     */
+    public String getCurrentBatchId() {
+        return currentBatchId;
+    }
+    
+    /**
+     * 获取图像解码内存预算，可用于读取当前在途的本地内存
+     * 
+     * @return 内存预算
+     */
+    public DecodeMemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+    
     /**
      * 是否正在处理
      * 
@@ -32,6 +32,7 @@ public class BatchTaskResult {
     private int defectCount;
     private String qualityLevel;
     private String errorMessage;
+    private long processingTimeMs;
     
     /**
      * 创建一个新的批处理任务结果
@@ -136,6 +137,24 @@ public class BatchTaskResult {
         this.errorMessage = errorMessage;
     }
     
+    /**
+     * 获取处理耗时
+     * 
+     * @return 处理耗时（毫秒）
+     */
+    public long getProcessingTimeMs() {
+        return processingTimeMs;
+    }
+    
+    /**
+     * 设置处理耗时
+     * 
+     * @param processingTimeMs 处理耗时（毫秒）
+     */
+    public void setProcessingTimeMs(long processingTimeMs) {
+        this.processingTimeMs = processingTimeMs;
+    }
+    
     /**
      * 任务是否成功完成
      * 
@@ -0,0 +1,340 @@
+package com.example.fabricdefectdetection.detection;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.example.fabricdefectdetection.detection.BatchTaskResult.Status;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * 分布式批处理工作节点
+ *
+ * 连接到BatchCoordinator，按空闲线程数申请租约，在本地线程池中执行检测，
+ * 每完成一个任务立即回传结果。处理期间每隔租约超时时间的三分之一为全部在途租约续约一次，
+ * 耗时较长的任务不会因租约超时被协调器重新分配。协调器回复"done"后工作节点退出。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public class BatchWorker implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(BatchWorker.class.getName());
+
+    private final String host;
+    private final int port;
+    private final int concurrency;
+    private final Function<File, BatchTaskResult> processor;
+    private final String workerId;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Semaphore freeSlots;
+    private final AtomicInteger processedCount = new AtomicInteger();
+    private final Set<Long> inFlightLeases = ConcurrentHashMap.newKeySet();
+
+    private ExecutorService executorService;
+    private volatile ScheduledExecutorService renewalExecutor;
+    private volatile Socket socket;
+    private volatile PrintWriter writer;
+    private volatile boolean closed = false;
+
+    /**
+     * 构造函数，使用BatchProcessor执行检测
+     *
+     * @param host 协调器主机
+     * @param port 协调器端口
+     * @param concurrency 本节点并发处理的任务数
+     */
+    public BatchWorker(String host, int port, int concurrency) {
+        this(host, port, concurrency, new BatchProcessor(1)::processFile);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param host 协调器主机
+     * @param port 协调器端口
+     * @param concurrency 本节点并发处理的任务数
+     * @param processor 单个文件的处理函数
+     */
+    public BatchWorker(String host, int port, int concurrency, Function<File, BatchTaskResult> processor) {
+        this.host = host;
+        this.port = port;
+        this.concurrency = concurrency;
+        this.processor = processor;
+        this.workerId = localHostName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        this.freeSlots = new Semaphore(concurrency);
+    }
+
+    /**
+     * 连接协调器并持续处理任务，直到全部任务完成或连接断开
+     */
+    @Override
+    public void run() {
+        executorService = Executors.newFixedThreadPool(concurrency);
+
+        try (Socket connection = new Socket(host, port)) {
+            connection.setTcpNoDelay(true);
+            socket = connection;
+            writer = new PrintWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8));
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+
+            logger.info("工作节点 " + workerId + " 已连接到协调器 " + host + ":" + port);
+
+            while (!closed) {
+                // 至少有一个空闲线程时才申请租约，一次申请全部空闲线程的任务量
+                freeSlots.acquire();
+                int available = 1 + freeSlots.drainPermits();
+
+                ObjectNode request = objectMapper.createObjectNode();
+                request.put("op", "lease");
+                request.put("worker", workerId);
+                request.put("max", available);
+                send(request);
+
+                String line = reader.readLine();
+                if (line == null) {
+                    logger.warning("协调器关闭了连接");
+                    break;
+                }
+
+                JsonNode reply = objectMapper.readTree(line);
+                String op = reply.path("op").asText();
+
+                if ("done".equals(op)) {
+                    freeSlots.release(available);
+                    break;
+                } else if ("wait".equals(op)) {
+                    freeSlots.release(available);
+                    Thread.sleep(reply.path("retryMs").asLong(500));
+                } else if ("tasks".equals(op)) {
+                    startRenewal(reply.path("leaseMs").asLong(BatchCoordinator.DEFAULT_LEASE_TIMEOUT_MS));
+                    int granted = 0;
+                    int abandoned = 0;
+                    for (JsonNode lease : reply.path("leases")) {
+                        long leaseId = lease.path("leaseId").asLong();
+                        File file = new File(lease.path("path").asText());
+                        // close()关闭线程池后不能再提交，放弃的租约在断开连接后由协调器重新分配
+                        if (closed || !submitLease(leaseId, file)) {
+                            abandoned++;
+                            continue;
+                        }
+                        granted++;
+                    }
+                    freeSlots.release(available - granted);
+                    if (abandoned > 0) {
+                        logger.info("工作节点已关闭，放弃 " + abandoned + " 个未开始的租约");
+                        break;
+                    }
+                } else {
+                    logger.warning("未知的协调器回复: " + op);
+                    freeSlots.release(available);
+                }
+            }
+
+            // 等待已提交的任务回传结果
+            executorService.shutdown();
+            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        } catch (IOException e) {
+            if (!closed) {
+                logger.log(Level.SEVERE, "工作节点与协调器通信失败", e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executorService.shutdownNow();
+            if (renewalExecutor != null) {
+                renewalExecutor.shutdownNow();
+            }
+            logger.info("工作节点 " + workerId + " 已退出，共处理 " + processedCount.get() + " 个任务");
+        }
+    }
+
+    /**
+     * 提交租约到本地线程池
+     *
+     * @param leaseId 租约ID
+     * @param file 图片文件
+     * @return 是否提交成功，线程池已关闭时返回false
+     */
+    private boolean submitLease(long leaseId, File file) {
+        inFlightLeases.add(leaseId);
+        try {
+            executorService.submit(() -> processLease(leaseId, file));
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlightLeases.remove(leaseId);
+            return false;
+        }
+    }
+
+    /**
+     * 收到第一批租约时启动定期续约
+     *
+     * @param leaseMs 协调器的租约超时时间（毫秒）
+     */
+    private void startRenewal(long leaseMs) {
+        if (renewalExecutor != null) {
+            return;
+        }
+        renewalExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "batch-worker-renewal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, leaseMs / 3);
+        renewalExecutor.scheduleAtFixedRate(this::renewLeases, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 为全部在途租约续约
+     */
+    private void renewLeases() {
+        if (inFlightLeases.isEmpty() || closed) {
+            return;
+        }
+        ObjectNode message = objectMapper.createObjectNode();
+        message.put("op", "renew");
+        ArrayNode leaseIds = message.putArray("leaseIds");
+        for (Long leaseId : inFlightLeases) {
+            leaseIds.add(leaseId);
+        }
+        try {
+            send(message);
+        } catch (IOException e) {
+            // 连接已断开，协调器会回收全部租约
+            logger.fine("续约失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 处理单个租约并回传结果
+     *
+     * @param leaseId 租约ID
+     * @param file 图片文件
+     */
+    private void processLease(long leaseId, File file) {
+        try {
+            BatchTaskResult result;
+            try {
+                result = processor.apply(file);
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "处理图片时发生错误: " + file.getName(), e);
+                result = new BatchTaskResult(file.getName());
+                result.setStatus(Status.FAILED);
+                result.setErrorMessage(e.getMessage());
+            }
+
+            ObjectNode message = objectMapper.createObjectNode();
+            message.put("op", "result");
+            message.put("leaseId", leaseId);
+            message.put("status", result.getStatus().name());
+            message.put("defectCount", result.getDefectCount());
+            message.put("qualityLevel", result.getQualityLevel());
+            message.put("processingTimeMs", result.getProcessingTimeMs());
+            if (result.getErrorMessage() != null) {
+                message.put("error", result.getErrorMessage());
+            }
+            send(message);
+            processedCount.incrementAndGet();
+        } catch (IOException e) {
+            if (!closed) {
+                logger.log(Level.WARNING, "回传结果失败: " + file.getName(), e);
+            }
+        } finally {
+            inFlightLeases.remove(leaseId);
+            freeSlots.release();
+        }
+    }
+
+    /**
+     * 线程安全地发送一条消息
+     *
+     * @param message 消息
+     * @throws IOException 如果连接已断开
+     */
+    private void send(ObjectNode message) throws IOException {
+        String line = objectMapper.writeValueAsString(message);
+        PrintWriter out = writer;
+        synchronized (out) {
+            out.println(line);
+            out.flush();
+            if (out.checkError()) {
+                throw new IOException("与协调器的连接已断开");
+            }
+        }
+    }
+
+    /**
+     * 立即断开与协调器的连接，未完成的租约将由协调器重新分配
+     */
+    public void close() {
+        closed = true;
+        try {
+            Socket current = socket;
+            if (current != null) {
+                current.close();
+            }
+        } catch (IOException e) {
+            // 忽略关闭异常
+        }
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+        if (renewalExecutor != null) {
+            renewalExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 获取本节点已处理的任务数
+     *
+     * @return 已处理的任务数
+     */
+    public int getProcessedCount() {
+        return processedCount.get();
+    }
+
+    /**
+     * 获取本节点标识
+     *
+     * @return 工作节点标识
+     */
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    /**
+     * 获取本机主机名
+     */
+    private static String localHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "worker";
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.fabricdefectdetection.detection;
+
+import java.io.File;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.example.fabricdefectdetection.util.ConfigurationManager;
+import com.example.fabricdefectdetection.util.ImageHeaderReader;
+import com.example.fabricdefectdetection.util.ImageHeaderReader.ImageDimensions;
+
+/**
+ * 图像解码内存预算（准入控制）
+ *
+ * OpenCV解码出的Mat位于本地内存，不受JVM堆大小限制。批处理时在解码前
+ * 根据图像文件头估算整个检测流程的本地内存占用，并从按字节计权的信号量中
+ * 申请相应额度，额度不足时等待其他任务释放，避免同时解码大量大图导致进程崩溃。
+ * 单张图片的估算值超过总预算时按总预算计，保证其仍能单独运行。
+ *
+ * 预算大小取配置项 batch.decode-memory-mb（默认1024MB）。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public final class DecodeMemoryBudget {
+
+    private static final Logger logger = Logger.getLogger(DecodeMemoryBudget.class.getName());
+
+    private static final int DEFAULT_BUDGET_MB = 1024;
+
+    // 信号量以KB为单位计数，避免int溢出
+    private static final int PERMIT_UNIT_BYTES = 1024;
+
+    // imread默认解码为8位三通道BGR图像
+    private static final int DECODED_BYTES_PER_PIXEL = 3;
+
+    // 预处理和检测过程中同时存在的图像副本（克隆、灰度、模糊、二值化等）约为解码图像的4倍
+    private static final int PIPELINE_WORKING_SET_FACTOR = 4;
+
+    // 无法读取文件头时，按文件大小的倍数粗略估算
+    private static final int UNKNOWN_FORMAT_EXPANSION = 20;
+
+    private static DecodeMemoryBudget instance;
+
+    private final long budgetBytes;
+    private final Semaphore permits;
+    private final AtomicLong inFlightBytes = new AtomicLong();
+    private final AtomicLong peakInFlightBytes = new AtomicLong();
+    private final AtomicInteger waitingCount = new AtomicInteger();
+
+    /**
+     * 构造函数
+     *
+     * @param budgetBytes 本地内存预算（字节）
+     */
+    public DecodeMemoryBudget(long budgetBytes) {
+        this.budgetBytes = Math.max(PERMIT_UNIT_BYTES, budgetBytes);
+        this.permits = new Semaphore(toPermits(this.budgetBytes), true);
+    }
+
+    /**
+     * 获取全局共享的内存预算实例
+     *
+     * @return 内存预算实例
+     */
+    public static synchronized DecodeMemoryBudget getInstance() {
+        if (instance == null) {
+            int budgetMb = ConfigurationManager.getInstance()
+                    .getIntProperty("batch.decode-memory-mb", DEFAULT_BUDGET_MB);
+            instance = new DecodeMemoryBudget(budgetMb * 1024L * 1024L);
+            logger.info("图像解码内存预算: " + budgetMb + "MB");
+        }
+        return instance;
+    }
+
+    /**
+     * 根据图像文件头估算处理该图像所需的本地内存
+     *
+     * @param file 图像文件
+     * @return 估算的字节数
+     */
+    public static long estimateBytes(File file) {
+        ImageDimensions dimensions = ImageHeaderReader.readDimensions(file);
+        if (dimensions == null) {
+            return Math.max(PERMIT_UNIT_BYTES, file.length() * UNKNOWN_FORMAT_EXPANSION);
+        }
+
+        long decodedBytes = (long) dimensions.getWidth() * dimensions.getHeight() * DECODED_BYTES_PER_PIXEL;
+        return decodedBytes * PIPELINE_WORKING_SET_FACTOR;
+    }
+
+    /**
+     * 为图像文件申请内存额度，额度不足时阻塞等待
+     *
+     * @param file 图像文件
+     * @return 额度凭证，处理完成后必须关闭以归还额度
+     * @throws InterruptedException 如果等待被中断
+     */
+    public Permit acquire(File file) throws InterruptedException {
+        return acquire(estimateBytes(file));
+    }
+
+    /**
+     * 申请指定字节数的内存额度，额度不足时阻塞等待
+     *
+     * @param bytes 申请的字节数
+     * @return 额度凭证，处理完成后必须关闭以归还额度
+     * @throws InterruptedException 如果等待被中断
+     */
+    public Permit acquire(long bytes) throws InterruptedException {
+        long granted = Math.min(Math.max(bytes, PERMIT_UNIT_BYTES), budgetBytes);
+        int requestedPermits = toPermits(granted);
+
+        // 带超时的tryAcquire遵守公平顺序，不会越过正在排队的大图（无参版本会插队）
+        if (!permits.tryAcquire(requestedPermits, 0, TimeUnit.MILLISECONDS)) {
+            waitingCount.incrementAndGet();
+            try {
+                permits.acquire(requestedPermits);
+            } finally {
+                waitingCount.decrementAndGet();
+            }
+        }
+
+        long current = inFlightBytes.addAndGet(granted);
+        peakInFlightBytes.accumulateAndGet(current, Math::max);
+        return new Permit(requestedPermits, granted);
+    }
+
+    /**
+     * 获取当前已分配给正在处理的图像的本地内存（字节）
+     *
+     * @return 在途内存字节数
+     */
+    public long getInFlightBytes() {
+        return inFlightBytes.get();
+    }
+
+    /**
+     * 获取在途内存的峰值（字节）
+     *
+     * @return 峰值字节数
+     */
+    public long getPeakInFlightBytes() {
+        return peakInFlightBytes.get();
+    }
+
+    /**
+     * 获取总预算（字节）
+     *
+     * @return 预算字节数
+     */
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * 获取正在等待额度的任务数
+     *
+     * @return 等待中的任务数
+     */
+    public int getWaitingCount() {
+        return waitingCount.get();
+    }
+
+    private static int toPermits(long bytes) {
+        return (int) Math.min(Integer.MAX_VALUE, (bytes + PERMIT_UNIT_BYTES - 1) / PERMIT_UNIT_BYTES);
+    }
+
+    /**
+     * 内存额度凭证
+     */
+    public final class Permit implements AutoCloseable {
+        private final int permitCount;
+        private final long bytes;
+        private boolean released = false;
+
+        private Permit(int permitCount, long bytes) {
+            this.permitCount = permitCount;
+            this.bytes = bytes;
+        }
+
+        /**
+         * 获取本凭证占用的字节数
+         *
+         * @return 字节数
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * 归还额度
+         */
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                inFlightBytes.addAndGet(-bytes);
+                permits.release(permitCount);
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.fabricdefectdetection.detection.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.example.fabricdefectdetection.detection.BatchCoordinator;
+import com.example.fabricdefectdetection.detection.BatchTaskResult;
+import com.example.fabricdefectdetection.detection.BatchTaskResult.Status;
+import com.example.fabricdefectdetection.detection.BatchWorker;
+
+/**
+ * 分布式批处理功能测试类
+ *
+ * 在本机启动一个协调器和多个工作节点，使用模拟的处理函数（不依赖OpenCV），
+ * 验证任务全部完成且每个任务只计一次结果、工作节点中途断开后租约会被重新分配、
+ * 耗时超过租约超时时间的任务在续约下不会被重复处理，并对比单节点与多节点的耗时。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public class DistributedBatchTest {
+
+    private static final int TASK_COUNT = 200;
+    private static final long TASK_TIME_MS = 10;
+
+    /**
+     * 测试主方法
+     *
+     * @param args 命令行参数
+     */
+    public static void main(String[] args) {
+        System.out.println("开始分布式批处理测试...");
+
+        try {
+            List<File> files = createDummyFiles(TASK_COUNT);
+
+            // 测试单节点吞吐量
+            long singleWorkerTime = runBatch(files, 1, false);
+
+            // 测试多节点吞吐量
+            long multiWorkerTime = runBatch(files, 4, false);
+            System.out.println(String.format("单节点耗时 %dms，4节点耗时 %dms，加速比 %.2f",
+                    singleWorkerTime, multiWorkerTime, (double) singleWorkerTime / multiWorkerTime));
+
+            // 测试工作节点中途断开
+            runBatch(files, 3, true);
+
+            // 测试租约续约
+            testLeaseRenewal(files.subList(0, 4));
+
+            System.out.println("所有测试通过!");
+
+        } catch (Exception e) {
+            System.err.println("测试失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 运行一次分布式批处理并校验结果
+     *
+     * @param files 待处理文件
+     * @param workerCount 工作节点数
+     * @param killOneWorker 是否在处理过程中断开一个工作节点
+     * @return 耗时（毫秒）
+     * @throws Exception 如果校验失败
+     */
+    private static long runBatch(List<File> files, int workerCount, boolean killOneWorker) throws Exception {
+        System.out.println("测试 " + workerCount + " 个工作节点" + (killOneWorker ? "（中途断开一个）" : "") + "...");
+
+        Map<String, AtomicInteger> processed = new ConcurrentHashMap<>();
+        Function<File, BatchTaskResult> fakeProcessor = file -> {
+            try {
+                Thread.sleep(TASK_TIME_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            processed.computeIfAbsent(file.getName(), k -> new AtomicInteger()).incrementAndGet();
+
+            BatchTaskResult result = new BatchTaskResult(file.getName());
+            result.setDefectCount(file.getName().length() % 4);
+            result.setQualityLevel("一等品");
+            result.setStatus(Status.COMPLETED);
+            return result;
+        };
+
+        long startTime = System.currentTimeMillis();
+        BatchCoordinator coordinator = new BatchCoordinator(files, null, 2000, 3);
+        int port = coordinator.start(0);
+
+        List<BatchWorker> workers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < workerCount; i++) {
+            BatchWorker worker = new BatchWorker("localhost", port, 2, fakeProcessor);
+            Thread thread = new Thread(worker, "test-worker-" + i);
+            workers.add(worker);
+            threads.add(thread);
+            thread.start();
+        }
+
+        if (killOneWorker) {
+            Thread.sleep(TASK_TIME_MS * 5);
+            workers.get(0).close();
+        }
+
+        if (!coordinator.awaitCompletion(60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("批处理未在限定时间内完成");
+        }
+        long elapsed = System.currentTimeMillis() - startTime;
+
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        coordinator.shutdown();
+
+        // 校验结果
+        int completed = 0;
+        for (BatchTaskResult result : coordinator.getTaskResults()) {
+            if (result.getStatus() != Status.COMPLETED) {
+                throw new IllegalStateException("任务未完成: " + result.getFileName() + " -> " + result.getStatus());
+            }
+            completed++;
+        }
+        if (completed != files.size()) {
+            throw new IllegalStateException("完成数量不符: " + completed);
+        }
+        for (File file : files) {
+            if (!processed.containsKey(file.getName())) {
+                throw new IllegalStateException("文件未被处理: " + file.getName());
+            }
+        }
+
+        for (BatchWorker worker : workers) {
+            System.out.println("  工作节点 " + worker.getWorkerId() + " 处理了 " + worker.getProcessedCount() + " 个任务");
+        }
+        System.out.println("  完成 " + completed + " 个任务，耗时 " + elapsed + "ms");
+        return elapsed;
+    }
+
+    /**
+     * 单个任务耗时远超租约超时时间，工作节点续约期间租约不应被回收，每个文件只处理一次
+     *
+     * @param files 待处理文件
+     * @throws Exception 如果校验失败
+     */
+    private static void testLeaseRenewal(List<File> files) throws Exception {
+        System.out.println("测试租约续约...");
+
+        long leaseTimeoutMs = 300;
+        Map<String, AtomicInteger> processed = new ConcurrentHashMap<>();
+        Function<File, BatchTaskResult> slowProcessor = file -> {
+            processed.computeIfAbsent(file.getName(), k -> new AtomicInteger()).incrementAndGet();
+            try {
+                Thread.sleep(leaseTimeoutMs * 8);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            BatchTaskResult result = new BatchTaskResult(file.getName());
+            result.setQualityLevel("一等品");
+            result.setStatus(Status.COMPLETED);
+            return result;
+        };
+
+        BatchCoordinator coordinator = new BatchCoordinator(files, null, leaseTimeoutMs, 3);
+        int port = coordinator.start(0);
+        BatchWorker worker = new BatchWorker("localhost", port, files.size(), slowProcessor);
+        Thread thread = new Thread(worker, "test-worker-renewal");
+        thread.start();
+
+        if (!coordinator.awaitCompletion(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("批处理未在限定时间内完成");
+        }
+        thread.join(5000);
+        coordinator.shutdown();
+
+        for (BatchTaskResult result : coordinator.getTaskResults()) {
+            if (result.getStatus() != Status.COMPLETED) {
+                throw new IllegalStateException("任务未完成: " + result.getFileName() + " -> " + result.getStatus());
+            }
+        }
+        for (File file : files) {
+            AtomicInteger count = processed.get(file.getName());
+            if (count == null || count.get() != 1) {
+                throw new IllegalStateException("续约期间任务被重新分配: " + file.getName() + " 处理了 "
+                        + (count != null ? count.get() : 0) + " 次");
+            }
+        }
+        System.out.println("  " + files.size() + " 个任务各处理 1 次");
+    }
+
+    /**
+     * 创建用于测试的空文件
+     *
+     * @param count 文件数量
+     * @return 文件列表
+     * @throws IOException 如果文件创建失败
+     */
+    private static List<File> createDummyFiles(int count) throws IOException {
+        File directory = Files.createTempDirectory("distributed-batch-test").toFile();
+        directory.deleteOnExit();
+
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            File file = new File(directory, String.format("image_%04d.jpg", i));
+            file.createNewFile();
+            file.deleteOnExit();
+            files.add(file);
+        }
+        return files;
+    }
+}
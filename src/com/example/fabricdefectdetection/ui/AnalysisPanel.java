@@ -123,19 +123,33 @@ public class AnalysisPanel extends JPanel {
         htmlContent.append(report.getQualityLevel()).append("</span>");
         htmlContent.append("</div><br/>");
         
-        // 转换Markdown风格的内容为HTML
-        String content = report.getAnalysisContent();
-        content = convertMarkdownHeadingsToHtml(content);
-        content = content.replace("\n\n", "<br/><br/>")
-                         .replace("\n", "<br/>")
-                         .replace("- ", "• ");
-        
-        htmlContent.append(content);
+        htmlContent.append(convertContentToHtml(report.getAnalysisContent()));
         htmlContent.append("</body></html>");
         
         contentPane.setText(htmlContent.toString());
         contentPane.setCaretPosition(0);  // 滚动到顶部
     }
+    
+    /**
+     * 显示正在生成中的分析内容
+     * 
+     * 流式分析时随内容到达反复调用，每次传入目前收到的全部内容，
+     * 分析完成后再调用displayReport显示完整报告。
+     * 
+     * @param partialContent 目前已收到的分析内容
+     */
+    public void displayStreamingContent(String partialContent) {
+        this.currentReport = null;
+        
+        StringBuilder htmlContent = new StringBuilder();
+        htmlContent.append("<html><body>");
+        htmlContent.append("<h1>布匹缺陷分析报告 <span class='ai-badge'>AI分析中...</span></h1>");
+        htmlContent.append(convertContentToHtml(partialContent));
+        htmlContent.append("</body></html>");
+        
+        contentPane.setText(htmlContent.toString());
+        contentPane.setCaretPosition(contentPane.getDocument().getLength());  // 跟随最新内容
+    }
 
     /**
      * 设置并显示分析报告 (MainFrame中使用此方法)
@@ -146,6 +160,16 @@ public class AnalysisPanel extends JPanel {
         displayReport(report);
     }
     
+    /**
+     * 转换Markdown风格的分析内容为HTML
+     */
+    private String convertContentToHtml(String content) {
+        content = convertMarkdownHeadingsToHtml(content);
+        return content.replace("\n\n", "<br/><br/>")
+                      .replace("\n", "<br/>")
+                      .replace("- ", "• ");
+    }
+    
     /**
      * 转换Markdown风格的标题为HTML标题
      */
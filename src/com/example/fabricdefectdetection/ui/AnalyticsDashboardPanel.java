@@ -15,22 +15,31 @@ import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.TreeMap;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import javax.swing.table.DefaultTableModel;
 
-import com.example.fabricdefectdetection.database.DetectionResultDAO;
+import com.example.fabricdefectdetection.database.AsyncDetectionResultDAO;
+import com.example.fabricdefectdetection.database.HistoryFrame;
 
 /**
  * 统计分析面板
  * 
- * 提供数据可视化和统计分析功能
+ * 提供数据可视化和统计分析功能。
+ * 各项统计在数据库线程中并发查询，全部返回后在事件分发线程中更新图表。
+ * 各产线的AI增强比例不在汇总表中，由按列读取的检测摘要（HistoryFrame）分组计算。
  * 
  * @author FabricDefectDetection
  * @version 1.0
@@ -39,6 +48,7 @@ public class AnalyticsDashboardPanel extends JPanel {
     
     private static final long serialVersionUID = 1L;
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final int HEATMAP_GRID_SIZE = 10;
     
     private JTextField startDateField;
     private JTextField endDateField;
@@ -46,8 +56,10 @@ public class AnalyticsDashboardPanel extends JPanel {
     private PieChartPanel pieChartPanel;
     private BarChartPanel barChartPanel;
     private LineChartPanel lineChartPanel;
+    private HeatmapPanel heatmapPanel;
+    private DefaultTableModel lineSummaryModel;
     
-    private DetectionResultDAO resultDAO;
+    private AsyncDetectionResultDAO resultDAO;
     
     /**
      * 构造函数，初始化统计分析面板
@@ -57,7 +69,7 @@ public class AnalyticsDashboardPanel extends JPanel {
         setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
         
         // 初始化DAO
-        resultDAO = new DetectionResultDAO();
+        resultDAO = AsyncDetectionResultDAO.getInstance();
         
         // 创建查询面板
         createQueryPanel();
@@ -96,6 +108,12 @@ public class AnalyticsDashboardPanel extends JPanel {
         queryPanel.add(endDateField);
         queryPanel.add(queryButton);
         
+        // 统计报表依赖SQLite的汇总表，日志存储后端不支持
+        if (!resultDAO.supportsAnalytics()) {
+            queryButton.setEnabled(false);
+            queryPanel.add(new JLabel("当前检测结果存储不支持统计报表"));
+        }
+        
         add(queryPanel, BorderLayout.NORTH);
     }
     
@@ -119,18 +137,42 @@ public class AnalyticsDashboardPanel extends JPanel {
         barChartPanel.setBorder(BorderFactory.createTitledBorder("质量等级分布"));
         barChartPanel.setPreferredSize(new Dimension(400, 300));
         
-        // 添加饼图和柱状图到上部面板
+        // 创建缺陷位置热力图面板
+        heatmapPanel = new HeatmapPanel();
+        heatmapPanel.setBorder(BorderFactory.createTitledBorder("缺陷位置热力图"));
+        heatmapPanel.setPreferredSize(new Dimension(300, 300));
+        
+        // 添加饼图、柱状图和热力图到上部面板
         topChartsPanel.add(pieChartPanel, BorderLayout.WEST);
         topChartsPanel.add(barChartPanel, BorderLayout.CENTER);
+        topChartsPanel.add(heatmapPanel, BorderLayout.EAST);
         
         // 创建折线图面板
         lineChartPanel = new LineChartPanel();
         lineChartPanel.setBorder(BorderFactory.createTitledBorder("每日平均缺陷数趋势"));
         lineChartPanel.setPreferredSize(new Dimension(800, 250));
         
-        // 添加上部面板和折线图到图表容器
+        // 创建产线汇总表
+        lineSummaryModel = new DefaultTableModel(new String[] {"产线", "检测数", "平均缺陷数", "AI增强比例"}, 0) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        JScrollPane lineSummaryPane = new JScrollPane(new JTable(lineSummaryModel));
+        lineSummaryPane.setBorder(BorderFactory.createTitledBorder("产线汇总"));
+        lineSummaryPane.setPreferredSize(new Dimension(320, 250));
+        
+        // 折线图和产线汇总表并排放在下部
+        JPanel bottomPanel = new JPanel(new BorderLayout(10, 0));
+        bottomPanel.add(lineChartPanel, BorderLayout.CENTER);
+        bottomPanel.add(lineSummaryPane, BorderLayout.EAST);
+        
+        // 添加上部面板和下部面板到图表容器
         chartsContainer.add(topChartsPanel, BorderLayout.CENTER);
-        chartsContainer.add(lineChartPanel, BorderLayout.SOUTH);
+        chartsContainer.add(bottomPanel, BorderLayout.SOUTH);
         
         add(chartsContainer, BorderLayout.CENTER);
     }
@@ -151,91 +193,83 @@ public class AnalyticsDashboardPanel extends JPanel {
             return;
         }
         
-        try {
-            // 查询数据
-            List<Object[]> results = resultDAO.findResultsByDateRange(startDate, endDate);
-            
-            if (results.isEmpty()) {
-                JOptionPane.showMessageDialog(this, "选定日期范围内没有数据", "提示", JOptionPane.INFORMATION_MESSAGE);
-                return;
-            }
-            
-            // 分析数据
-            Map<String, Integer> defectTypeDistribution = analyzeDefectTypeDistribution(results);
-            Map<String, Integer> qualityLevelDistribution = analyzeQualityLevelDistribution(results);
-            Map<String, Double> dailyDefectTrend = analyzeDailyDefectTrend(results);
-            
-            // 更新图表
-            pieChartPanel.updateData(defectTypeDistribution);
-            barChartPanel.updateData(qualityLevelDistribution);
-            lineChartPanel.updateData(dailyDefectTrend);
-            
-            // 重绘面板
-            pieChartPanel.repaint();
-            barChartPanel.repaint();
-            lineChartPanel.repaint();
-            
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(this, "生成报表时发生错误: " + e.getMessage(), "错误", JOptionPane.ERROR_MESSAGE);
-            e.printStackTrace();
-        }
-    }
-    
-    /**
-     * 分析缺陷类型分布
-     */
-    private Map<String, Integer> analyzeDefectTypeDistribution(List<Object[]> results) {
-        // 示例数据，实际项目中应从数据库查询或解析结果
-        Map<String, Integer> distribution = new HashMap<>();
-        distribution.put("破洞", 25);
-        distribution.put("污渍", 35);
-        distribution.put("断线", 15);
-        distribution.put("色差", 10);
-        distribution.put("其他", 15);
-        return distribution;
+        // 并发查询各项统计，只查询一天时按小时显示趋势
+        boolean hourly = startDate.equals(endDate);
+        CompletableFuture<Map<String, Integer>> qualityFuture =
+                resultDAO.findQualityLevelDistribution(startDate, endDate);
+        CompletableFuture<Map<String, Integer>> defectTypeFuture =
+                resultDAO.findDefectTypeDistribution(startDate, endDate);
+        CompletableFuture<int[][]> heatmapFuture = resultDAO.findDefectHeatmap(startDate, endDate, HEATMAP_GRID_SIZE);
+        CompletableFuture<Map<String, Double>> trendFuture = resultDAO.findDefectTrend(startDate, endDate, hourly);
+        CompletableFuture<HistoryFrame> summariesFuture = resultDAO.findDetectionSummaries(startDate, endDate);
+        
+        queryButton.setEnabled(false);
+        CompletableFuture.allOf(qualityFuture, defectTypeFuture, heatmapFuture, trendFuture, summariesFuture)
+                .whenComplete((ignored, error) -> SwingUtilities.invokeLater(() -> {
+                    queryButton.setEnabled(true);
+                    if (error != null) {
+                        JOptionPane.showMessageDialog(this, "生成报表时发生错误: " + error.getMessage(), "错误",
+                                JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                    
+                    Map<String, Integer> qualityLevelDistribution = qualityFuture.join();
+                    if (qualityLevelDistribution.isEmpty()) {
+                        JOptionPane.showMessageDialog(this, "选定日期范围内没有数据", "提示",
+                                JOptionPane.INFORMATION_MESSAGE);
+                        return;
+                    }
+                    
+                    // 更新图表
+                    pieChartPanel.updateData(foldDefectTypes(defectTypeFuture.join()));
+                    barChartPanel.updateData(qualityLevelDistribution);
+                    lineChartPanel.updateData(trendFuture.join(), hourly);
+                    heatmapPanel.updateData(heatmapFuture.join());
+                    updateLineSummary(summariesFuture.join());
+                    
+                    // 重绘面板
+                    pieChartPanel.repaint();
+                    barChartPanel.repaint();
+                    lineChartPanel.repaint();
+                    heatmapPanel.repaint();
+                }));
     }
     
     /**
-     * 分析质量等级分布
+     * 按产线汇总检测数、平均缺陷数和AI增强比例
      */
-    private Map<String, Integer> analyzeQualityLevelDistribution(List<Object[]> results) {
-        Map<String, Integer> distribution = new HashMap<>();
-        
-        // 统计不同质量等级的数量
-        for (Object[] row : results) {
-            String qualityLevel = (String) row[4];
-            distribution.put(qualityLevel, distribution.getOrDefault(qualityLevel, 0) + 1);
+    private void updateLineSummary(HistoryFrame summaries) {
+        lineSummaryModel.setRowCount(0);
+        for (Map.Entry<String, HistoryFrame.GroupSummary> entry : summaries.summarizeByLine().entrySet()) {
+            HistoryFrame.GroupSummary summary = entry.getValue();
+            lineSummaryModel.addRow(new Object[] {
+                    entry.getKey(),
+                    summary.getCount(),
+                    String.format("%.2f", summary.getAverageDefects()),
+                    String.format("%.1f%%", summary.getAiEnhancedRatio() * 100)
+            });
         }
-        
-        return distribution;
     }
     
     /**
-     * 分析每日平均缺陷趋势
+     * 整理缺陷类型分布
+     * 
+     * 由数据库按缺陷明细聚合，超出饼图颜色数的类型合并为"其他"
      */
-    private Map<String, Double> analyzeDailyDefectTrend(List<Object[]> results) {
-        // 按日期分组统计
-        Map<String, List<Integer>> defectsByDate = new HashMap<>();
-        
-        for (Object[] row : results) {
-            String timestamp = (String) row[1];
-            String date = timestamp.split(" ")[0];  // 提取日期部分
-            int defectCount = (int) row[3];
-            
-            defectsByDate.computeIfAbsent(date, k -> new ArrayList<>()).add(defectCount);
+    private Map<String, Integer> foldDefectTypes(Map<String, Integer> counts) {
+        Map<String, Integer> distribution = new LinkedHashMap<>();
+        int otherCount = 0;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (counts.size() <= PieChartPanel.MAX_SLICES || distribution.size() < PieChartPanel.MAX_SLICES - 1) {
+                distribution.put(entry.getKey(), entry.getValue());
+            } else {
+                otherCount += entry.getValue();
+            }
         }
-        
-        // 计算每日平均值
-        Map<String, Double> dailyAverage = new TreeMap<>();  // TreeMap确保日期排序
-        for (Map.Entry<String, List<Integer>> entry : defectsByDate.entrySet()) {
-            String date = entry.getKey();
-            List<Integer> counts = entry.getValue();
-            
-            double average = counts.stream().mapToInt(Integer::intValue).average().orElse(0);
-            dailyAverage.put(date, average);
+        if (otherCount > 0) {
+            distribution.put("其他", otherCount);
         }
-        
-        return dailyAverage;
+        return distribution;
     }
     
     /**
@@ -243,6 +277,7 @@ public class AnalyticsDashboardPanel extends JPanel {
      */
     private class PieChartPanel extends JPanel {
         private static final long serialVersionUID = 1L;
+        private static final int MAX_SLICES = 5;
         private Map<String, Integer> data = new HashMap<>();
         private Color[] colors = {
             new Color(66, 133, 244),    // 蓝色
@@ -468,12 +503,18 @@ public class AnalyticsDashboardPanel extends JPanel {
     private class LineChartPanel extends JPanel {
         private static final long serialVersionUID = 1L;
         private Map<String, Double> data = new TreeMap<>();  // 使用TreeMap确保按日期排序
+        private boolean hourly = false;
         
         /**
          * 更新数据
+         * 
+         * @param data 时间标签到平均缺陷数的映射
+         * @param hourly 是否为按小时统计的数据
          */
-        public void updateData(Map<String, Double> data) {
+        public void updateData(Map<String, Double> data, boolean hourly) {
             this.data = data;
+            this.hourly = hourly;
+            setBorder(BorderFactory.createTitledBorder(hourly ? "每小时平均缺陷数趋势" : "每日平均缺陷数趋势"));
         }
         
         @Override
@@ -548,7 +589,7 @@ public class AnalyticsDashboardPanel extends JPanel {
                 if (i % dateSkip == 0 || i == pointCount - 1) {
                     g2d.setColor(Color.BLACK);
                     g2d.setFont(new Font("SansSerif", Font.PLAIN, 10));
-                    String shortDate = date.substring(5);  // 仅显示月-日
+                    String shortDate = date.substring(hourly ? 11 : 5);  // 按小时只显示小时，按天显示月-日
                     int labelWidth = g2d.getFontMetrics().stringWidth(shortDate);
                     g2d.drawString(shortDate, x - labelWidth / 2, axisY + 15);
                 }
@@ -563,7 +604,7 @@ public class AnalyticsDashboardPanel extends JPanel {
             // 绘制Y轴标题
             g2d.setColor(Color.BLACK);
             g2d.setFont(new Font("SansSerif", Font.BOLD, 12));
-            String yTitle = "每日平均缺陷数 (DPU)";
+            String yTitle = (hourly ? "每小时" : "每日") + "平均缺陷数 (DPU)";
             g2d.rotate(-Math.PI/2, axisX - 35, axisY - height/2);
             g2d.drawString(yTitle, axisX - 35, axisY - height/2);
             g2d.rotate(Math.PI/2, axisX - 35, axisY - height/2);
@@ -581,4 +622,71 @@ public class AnalyticsDashboardPanel extends JPanel {
             g2d.drawString(message, x, y);
         }
     }
+    
+    /**
+     * 缺陷位置热力图面板
+     */
+    private class HeatmapPanel extends JPanel {
+        private static final long serialVersionUID = 1L;
+        private int[][] data = new int[0][0];
+        
+        /**
+         * 更新数据
+         */
+        public void updateData(int[][] data) {
+            this.data = data;
+        }
+        
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            Graphics2D g2d = (Graphics2D) g;
+            
+            int maxValue = 0;
+            for (int[] row : data) {
+                for (int value : row) {
+                    maxValue = Math.max(maxValue, value);
+                }
+            }
+            
+            if (maxValue == 0) {
+                drawNoDataMessage(g2d);
+                return;
+            }
+            
+            // 绘制网格，颜色由浅黄到深红表示缺陷密度
+            int margin = 20;
+            int size = Math.min(getWidth(), getHeight()) - 2 * margin;
+            int cellSize = Math.max(1, size / data.length);
+            int x0 = (getWidth() - cellSize * data.length) / 2;
+            int y0 = (getHeight() - cellSize * data.length) / 2;
+            
+            for (int row = 0; row < data.length; row++) {
+                for (int column = 0; column < data[row].length; column++) {
+                    float intensity = (float) data[row][column] / maxValue;
+                    g2d.setColor(new Color(255, (int) (240 * (1 - intensity)), (int) (200 * (1 - intensity))));
+                    g2d.fillRect(x0 + column * cellSize, y0 + row * cellSize, cellSize, cellSize);
+                }
+            }
+            
+            // 绘制边框和最大值说明
+            g2d.setColor(Color.GRAY);
+            g2d.drawRect(x0, y0, cellSize * data.length, cellSize * data.length);
+            g2d.setColor(Color.BLACK);
+            g2d.setFont(new Font("SansSerif", Font.PLAIN, 10));
+            g2d.drawString("单格最大缺陷数: " + maxValue, x0, y0 + cellSize * data.length + 12);
+        }
+        
+        /**
+         * 绘制无数据信息
+         */
+        private void drawNoDataMessage(Graphics2D g2d) {
+            g2d.setColor(Color.GRAY);
+            g2d.setFont(new Font("SansSerif", Font.BOLD, 14));
+            String message = "暂无数据";
+            int x = (getWidth() - g2d.getFontMetrics().stringWidth(message)) / 2;
+            int y = getHeight() / 2;
+            g2d.drawString(message, x, y);
+        }
+    }
 } 
\ No newline at end of file
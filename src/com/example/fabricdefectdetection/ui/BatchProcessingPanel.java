@@ -8,6 +8,7 @@ import java.awt.Font;
 import java.io.File;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
@@ -17,11 +18,15 @@ import javax.swing.JPanel;
 import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
+import javax.swing.JTextArea;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.DefaultTableModel;
 
+import com.example.fabricdefectdetection.analysis.DefectAnalysisReport;
+import com.example.fabricdefectdetection.database.AsyncDetectionResultDAO;
 import com.example.fabricdefectdetection.detection.BatchProcessor;
 import com.example.fabricdefectdetection.detection.BatchTaskResult;
 
@@ -39,6 +44,7 @@ public class BatchProcessingPanel extends JPanel {
     
     private JButton selectFolderButton;
     private JButton startProcessingButton;
+    private JButton deleteBatchButton;
     private JTable resultsTable;
     private DefaultTableModel tableModel;
     private JLabel statusLabel;
@@ -46,6 +52,7 @@ public class BatchProcessingPanel extends JPanel {
     
     private File selectedDirectory;
     private BatchProcessor batchProcessor;
+    private CompletableFuture<DefectAnalysisReport> shownRollReport;
     
     /**
      * 构造函数，初始化批量处理面板
@@ -81,8 +88,15 @@ public class BatchProcessingPanel extends JPanel {
         startProcessingButton.setEnabled(false);
         startProcessingButton.addActionListener(e -> startProcessing());
         
+        deleteBatchButton = new JButton("删除本批次结果");
+        deleteBatchButton.setEnabled(false);
+        deleteBatchButton.addActionListener(e -> deleteBatchResults());
+        // 日志存储后端不记录批次编号，无法按批次删除
+        deleteBatchButton.setVisible(AsyncDetectionResultDAO.getInstance().supportsBatchDelete());
+        
         controlPanel.add(selectFolderButton);
         controlPanel.add(startProcessingButton);
+        controlPanel.add(deleteBatchButton);
         
         add(controlPanel, BorderLayout.NORTH);
     }
@@ -190,13 +204,15 @@ public class BatchProcessingPanel extends JPanel {
         // 禁用按钮
         selectFolderButton.setEnabled(false);
         startProcessingButton.setEnabled(false);
+        deleteBatchButton.setEnabled(false);
         
         // 更新状态
         statusLabel.setText("正在处理...");
         progressBar.setValue(0);
         
-        // 开始处理
-        List<BatchTaskResult> results = batchProcessor.startProcessing(selectedDirectory, this::updateTaskResult);
+        // 开始处理（进度回调在工作线程中触发，需切换到EDT更新表格）
+        List<BatchTaskResult> results = batchProcessor.startProcessing(selectedDirectory,
+                result -> SwingUtilities.invokeLater(() -> updateTaskResult(result)));
         
         if (results == null || results.isEmpty()) {
             JOptionPane.showMessageDialog(this, "在所选文件夹中没有找到支持的图片文件", "警告", JOptionPane.WARNING_MESSAGE);
@@ -259,9 +275,67 @@ public class BatchProcessingPanel extends JPanel {
         if (completed == total) {
             statusLabel.setText("处理完成. 总计: " + total + " 个文件");
             resetUI();
+            showRollReportWhenReady();
         } else {
-            statusLabel.setText("正在处理... " + completed + "/" + total);
+            long inFlightMb = batchProcessor.getMemoryBudget().getInFlightBytes() >> 20;
+            statusLabel.setText("正在处理... " + completed + "/" + total + "，解码内存占用: " + inFlightMb + "MB");
+        }
+    }
+    
+    /**
+     * 删除最近一次批处理写入的全部检测记录
+     */
+    private void deleteBatchResults() {
+        String batchId = batchProcessor.getCurrentBatchId();
+        if (batchId == null || batchProcessor.isProcessing()) {
+            return;
+        }
+        
+        int confirm = JOptionPane.showConfirmDialog(this,
+                "确定删除本批次（" + batchId + "）写入的全部检测记录吗？删除后无法恢复。",
+                "确认删除", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+        if (confirm != JOptionPane.YES_OPTION) {
+            return;
         }
+        
+        deleteBatchButton.setEnabled(false);
+        statusLabel.setText("正在删除本批次的检测记录...");
+        AsyncDetectionResultDAO.getInstance().deleteResultsByBatch(batchId)
+                .whenComplete((deleted, error) -> SwingUtilities.invokeLater(() -> {
+                    if (error != null) {
+                        statusLabel.setText("删除本批次检测记录失败");
+                        deleteBatchButton.setEnabled(true);
+                    } else {
+                        statusLabel.setText("已删除本批次的 " + deleted + " 条检测记录");
+                    }
+                }));
+    }
+    
+    /**
+     * 整卷分析模式下，在整卷分析完成后显示报告
+     */
+    private void showRollReportWhenReady() {
+        CompletableFuture<DefectAnalysisReport> rollReport = batchProcessor.getRollReport();
+        if (rollReport == null || rollReport == shownRollReport) {
+            return;
+        }
+        shownRollReport = rollReport;
+        
+        String batchId = batchProcessor.getCurrentBatchId();
+        statusLabel.setText(statusLabel.getText() + "，正在生成整卷分析...");
+        rollReport.thenAccept(report -> SwingUtilities.invokeLater(() -> {
+            statusLabel.setText("处理完成. 整卷质量等级: " + report.getQualityLevel()
+                    + "，缺陷总数: " + report.getDefectCount());
+            
+            JTextArea reportArea = new JTextArea(report.getAnalysisContent());
+            reportArea.setEditable(false);
+            reportArea.setLineWrap(true);
+            reportArea.setWrapStyleWord(true);
+            JScrollPane scrollPane = new JScrollPane(reportArea);
+            scrollPane.setPreferredSize(new Dimension(640, 480));
+            JOptionPane.showMessageDialog(this, scrollPane, "整卷分析 - " + batchId,
+                    JOptionPane.INFORMATION_MESSAGE);
+        }));
     }
     
     /**
@@ -270,6 +344,7 @@ public class BatchProcessingPanel extends JPanel {
     private void resetUI() {
         selectFolderButton.setEnabled(true);
         startProcessingButton.setEnabled(selectedDirectory != null);
+        deleteBatchButton.setEnabled(batchProcessor.getCurrentBatchId() != null);
     }
     
     /**
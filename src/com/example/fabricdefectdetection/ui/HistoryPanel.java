@@ -6,11 +6,18 @@ import java.awt.FlowLayout;
 import java.awt.Font;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
 import javax.swing.BorderFactory;
+import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
@@ -22,17 +29,24 @@ import javax.swing.JTable;
 import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 import javax.swing.RowFilter;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableRowSorter;
 
-import com.example.fabricdefectdetection.database.DetectionResultDAO;
+import com.example.fabricdefectdetection.database.AsyncDetectionResultDAO;
+import com.example.fabricdefectdetection.database.HistoryPage;
+import com.example.fabricdefectdetection.database.HistoryRecord;
+import com.example.fabricdefectdetection.database.ImageStore;
 
 /**
  * 历史记录面板
  * 
- * 提供查询和显示检测历史记录的功能，支持多维度筛选和排序
+ * 提供查询和显示检测历史记录的功能，支持多维度筛选和排序。
+ * 记录按页加载，每次查询只读取一页，需要时再点击"加载更多"。
+ * 查询在数据库线程中执行，结果返回后在事件分发线程中更新表格。
+ * 也可以按关键词全文搜索分析报告，搜索结果按相关度排列。
  * 
  * @author FabricDefectDetection
  * @version 2.0
@@ -41,18 +55,35 @@ public class HistoryPanel extends JPanel {
     
     private static final long serialVersionUID = 1L;
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final int PAGE_SIZE = 500;
+    private static final int SEARCH_LIMIT = 200;
     
     private JTextField startDateField;
     private JTextField endDateField;
     private JComboBox<String> qualityLevelComboBox;
     private JCheckBox aiEnhancedCheckBox;
     private JButton queryButton;
+    private JTextField searchField;
+    private JButton searchButton;
+    private JButton loadMoreButton;
+    private JButton deleteButton;
     private JTable resultsTable;
     private DefaultTableModel tableModel;
     private TableRowSorter<DefaultTableModel> tableSorter;
     private JLabel statusLabel;
     
-    private DetectionResultDAO resultDAO;
+    private AsyncDetectionResultDAO resultDAO;
+    
+    // 表格中各行对应的记录，下标与表格模型的行号一致
+    private final List<HistoryRecord> loadedRecords = new ArrayList<>();
+    
+    // 当前查询条件和下一页游标
+    private String queryStartDate;
+    private String queryEndDate;
+    private HistoryPage.Cursor nextCursor;
+    
+    // 正在执行的分页查询或报告搜索，开始新查询时取消
+    private CompletableFuture<?> pendingQuery;
     
     /**
      * 构造函数，初始化历史记录面板
@@ -62,7 +93,7 @@ public class HistoryPanel extends JPanel {
         setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
         
         // 初始化DAO
-        resultDAO = new DetectionResultDAO();
+        resultDAO = AsyncDetectionResultDAO.getInstance();
         
         // 创建查询面板
         createQueryPanel();
@@ -105,6 +136,22 @@ public class HistoryPanel extends JPanel {
         queryButton = new JButton("查询");
         queryButton.addActionListener(e -> performQuery());
         
+        // 报告关键词搜索
+        JLabel searchLabel = new JLabel("报告关键词:");
+        searchField = new JTextField(12);
+        searchField.setToolTipText("多个关键词以空格分隔，例如: 纬斜 浆斑");
+        searchField.addActionListener(e -> performSearch());
+        searchButton = new JButton("搜索报告");
+        searchButton.addActionListener(e -> performSearch());
+        if (!resultDAO.supportsAnalytics()) {
+            String tip = "当前检测结果存储不支持报告搜索";
+            searchLabel.setEnabled(false);
+            searchField.setEnabled(false);
+            searchField.setToolTipText(tip);
+            searchButton.setEnabled(false);
+            searchButton.setToolTipText(tip);
+        }
+        
         // 添加组件到查询面板
         queryPanel.add(startDateLabel);
         queryPanel.add(startDateField);
@@ -114,6 +161,9 @@ public class HistoryPanel extends JPanel {
         queryPanel.add(qualityLevelComboBox);
         queryPanel.add(aiEnhancedCheckBox);
         queryPanel.add(queryButton);
+        queryPanel.add(searchLabel);
+        queryPanel.add(searchField);
+        queryPanel.add(searchButton);
         
         add(queryPanel, BorderLayout.NORTH);
     }
@@ -144,7 +194,9 @@ public class HistoryPanel extends JPanel {
         tableSorter = new TableRowSorter<>(tableModel);
         resultsTable.setRowSorter(tableSorter);
         
-        resultsTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        resultsTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        resultsTable.getSelectionModel().addListSelectionListener(e ->
+                deleteButton.setEnabled(resultsTable.getSelectedRowCount() > 0));
         resultsTable.setRowHeight(25);
         resultsTable.getTableHeader().setReorderingAllowed(false);
         
@@ -188,11 +240,24 @@ public class HistoryPanel extends JPanel {
         statusLabel = new JLabel("就绪");
         statusLabel.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
         
-        JLabel tipLabel = new JLabel("提示: 双击记录查看详细报告，点击表头排序");
+        JLabel tipLabel = new JLabel("提示: 双击记录查看详细报告，点击表头排序，按住Ctrl或Shift可选择多条记录");
         tipLabel.setFont(new Font(Font.SANS_SERIF, Font.ITALIC, 12));
         tipLabel.setHorizontalAlignment(SwingConstants.RIGHT);
         
-        statusPanel.add(statusLabel, BorderLayout.WEST);
+        loadMoreButton = new JButton("加载更多");
+        loadMoreButton.setEnabled(false);
+        loadMoreButton.addActionListener(e -> loadNextPage());
+        
+        deleteButton = new JButton("删除所选");
+        deleteButton.setEnabled(false);
+        deleteButton.addActionListener(e -> deleteSelected());
+        
+        JPanel statusLeftPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+        statusLeftPanel.add(statusLabel);
+        statusLeftPanel.add(loadMoreButton);
+        statusLeftPanel.add(deleteButton);
+        
+        statusPanel.add(statusLeftPanel, BorderLayout.WEST);
         statusPanel.add(tipLabel, BorderLayout.EAST);
         
         add(statusPanel, BorderLayout.SOUTH);
@@ -214,29 +279,176 @@ public class HistoryPanel extends JPanel {
             return;
         }
         
+        // 取消尚未返回的上一次查询
+        cancelPendingQuery();
+        
         // 清空表格
-        tableModel.setRowCount(0);
+        clearRecords();
         
-        // 查询数据
-        List<Object[]> results = resultDAO.findResultsByDateRange(startDate, endDate);
+        // 记录查询条件，从第一页开始加载
+        queryStartDate = startDate;
+        queryEndDate = endDate;
+        nextCursor = null;
         
-        // 更新表格
-        for (Object[] row : results) {
-            tableModel.addRow(new Object[]{
-                row[0],  // ID
-                row[1],  // 检测时间
-                row[2],  // 图片名称
-                row[3],  // 缺陷数
-                row[4],  // 质量等级
-                row[5]   // AI增强
-            });
+        // 应用筛选条件
+        applyFilters();
+        
+        loadNextPage();
+    }
+    
+    /**
+     * 按关键词搜索分析报告，结果按相关度排列，不分页
+     */
+    private void performSearch() {
+        String query = searchField.getText().trim();
+        if (query.isEmpty()) {
+            return;
         }
         
-        // 应用筛选条件
+        cancelPendingQuery();
+        clearRecords();
+        queryStartDate = null;
+        queryEndDate = null;
+        nextCursor = null;
         applyFilters();
         
+        loadMoreButton.setEnabled(false);
+        statusLabel.setText("正在搜索...");
+        CompletableFuture<List<HistoryRecord>> future = resultDAO.searchReports(query, SEARCH_LIMIT);
+        pendingQuery = future;
+        future.whenComplete((rows, error) -> SwingUtilities.invokeLater(() -> {
+            if (pendingQuery != future) {
+                return;
+            }
+            pendingQuery = null;
+            if (error != null) {
+                statusLabel.setText(error instanceof TimeoutException ? "搜索超时" : "搜索失败");
+                return;
+            }
+            for (HistoryRecord record : rows) {
+                addRecord(record);
+            }
+            statusLabel.setText("找到 " + rows.size() + " 条相关报告"
+                    + (rows.size() == SEARCH_LIMIT ? "（仅显示最相关的 " + SEARCH_LIMIT + " 条）" : "")
+                    + "，符合筛选条件 " + tableSorter.getViewRowCount() + " 条");
+        }));
+    }
+    
+    private void cancelPendingQuery() {
+        if (pendingQuery != null) {
+            pendingQuery.cancel(true);
+            pendingQuery = null;
+        }
+    }
+    
+    /**
+     * 按当前查询条件加载下一页记录并追加到表格
+     */
+    private void loadNextPage() {
+        if (queryStartDate == null || pendingQuery != null) {
+            return;
+        }
+        
+        // 在数据库线程中查询，返回后回到事件分发线程
+        loadMoreButton.setEnabled(false);
+        statusLabel.setText("正在查询...");
+        CompletableFuture<HistoryPage> future =
+                resultDAO.findResultsPage(queryStartDate, queryEndDate, nextCursor, PAGE_SIZE);
+        pendingQuery = future;
+        future.whenComplete((page, error) -> SwingUtilities.invokeLater(() -> {
+            // 已被新查询取代的结果直接丢弃
+            if (pendingQuery != future) {
+                return;
+            }
+            pendingQuery = null;
+            if (error != null) {
+                statusLabel.setText(error instanceof TimeoutException ? "查询超时，请缩小日期范围" : "查询失败");
+                loadMoreButton.setEnabled(nextCursor != null);
+                return;
+            }
+            appendPage(page);
+        }));
+    }
+    
+    /**
+     * 把一页记录追加到表格
+     */
+    private void appendPage(HistoryPage page) {
+        nextCursor = page.getNextCursor();
+        
+        // 更新表格
+        for (HistoryRecord record : page.getRows()) {
+            addRecord(record);
+        }
+        
         // 更新状态
-        statusLabel.setText("查询完成，找到 " + tableSorter.getViewRowCount() + " 条记录");
+        loadMoreButton.setEnabled(page.hasMore());
+        statusLabel.setText("已加载 " + tableModel.getRowCount() + " 条记录，符合筛选条件 "
+                + tableSorter.getViewRowCount() + " 条" + (page.hasMore() ? "，还有更多记录" : ""));
+    }
+    
+    /**
+     * 删除表格中选中的记录
+     *
+     * 删除在数据库线程中分块执行，完成后从表格中移除已删除的记录。
+     */
+    private void deleteSelected() {
+        int[] selectedRows = resultsTable.getSelectedRows();
+        if (selectedRows.length == 0) {
+            return;
+        }
+        
+        int confirm = JOptionPane.showConfirmDialog(this,
+                "确定删除选中的 " + selectedRows.length + " 条检测记录吗？删除后无法恢复。",
+                "确认删除", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+        if (confirm != JOptionPane.YES_OPTION) {
+            return;
+        }
+        
+        Set<Integer> ids = new HashSet<>();
+        for (int row : selectedRows) {
+            ids.add((int) loadedRecords.get(resultsTable.convertRowIndexToModel(row)).getId());
+        }
+        
+        deleteButton.setEnabled(false);
+        statusLabel.setText("正在删除 " + ids.size() + " 条记录...");
+        resultDAO.deleteResults(ids).whenComplete((deleted, error) -> SwingUtilities.invokeLater(() -> {
+            if (error != null) {
+                statusLabel.setText("删除失败");
+                deleteButton.setEnabled(resultsTable.getSelectedRowCount() > 0);
+                return;
+            }
+            
+            // 从后往前移除，保持表格模型和记录列表的行号一致
+            for (int modelRow = loadedRecords.size() - 1; modelRow >= 0; modelRow--) {
+                if (ids.contains((int) loadedRecords.get(modelRow).getId())) {
+                    loadedRecords.remove(modelRow);
+                    tableModel.removeRow(modelRow);
+                }
+            }
+            statusLabel.setText("已删除 " + deleted + " 条记录" + (deleted < ids.size()
+                    ? "，" + (ids.size() - deleted) + " 条不存在或位于只读的归档分区" : ""));
+        }));
+    }
+    
+    /**
+     * 在表格末尾追加一条记录
+     */
+    private void addRecord(HistoryRecord record) {
+        loadedRecords.add(record);
+        tableModel.addRow(new Object[]{
+            (int) record.getId(),
+            record.getDetectionTime(),
+            record.getImageName(),
+            record.getDefectCount(),
+            record.getQualityLevel(),
+            record.isAiEnhanced()
+        });
+    }
+    
+    private void clearRecords() {
+        loadedRecords.clear();
+        tableModel.setRowCount(0);
     }
     
     /**
@@ -284,28 +496,34 @@ public class HistoryPanel extends JPanel {
         // 转换为模型索引
         int modelRow = resultsTable.convertRowIndexToModel(selectedRow);
         
-        // 获取ID
-        int id = (int) tableModel.getValueAt(modelRow, 0);
-        
-        // 获取报告内容
-        String reportContent = resultDAO.getAnalysisReportById(id);
-        if (reportContent == null || reportContent.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "无法获取报告内容", "错误", JOptionPane.ERROR_MESSAGE);
-            return;
-        }
-        
         // 获取记录信息
-        String time = (String) tableModel.getValueAt(modelRow, 1);
-        String imageName = (String) tableModel.getValueAt(modelRow, 2);
-        int defectCount = (int) tableModel.getValueAt(modelRow, 3);
-        String qualityLevel = (String) tableModel.getValueAt(modelRow, 4);
-        boolean isAiEnhanced = (boolean) tableModel.getValueAt(modelRow, 5);
-        
-        // 显示报告对话框
-        ReportViewerDialog dialog = new ReportViewerDialog(
-                JOptionPane.getFrameForComponent(this),
-                id, time, imageName, defectCount, qualityLevel, isAiEnhanced, reportContent);
-        dialog.setVisible(true);
+        HistoryRecord record = loadedRecords.get(modelRow);
+        int id = (int) record.getId();
+        
+        // 在后台读取报告内容和检测结果图像（图像可能已被淘汰或未保存）
+        CompletableFuture<String> reportFuture = resultDAO.getAnalysisReportById(id);
+        CompletableFuture<Object[]> imageFuture = resultDAO.findImageHashes(id).thenApply(imageHashes ->
+                imageHashes == null
+                        ? new Object[] {null, null}
+                        : new Object[] {ImageStore.getInstance().loadImage(imageHashes[0]), imageHashes[1]});
+        
+        reportFuture.thenCombine(imageFuture, (reportContent, images) -> new Object[] {reportContent, images})
+                .whenComplete((detail, error) -> SwingUtilities.invokeLater(() -> {
+                    String reportContent = error == null ? (String) detail[0] : null;
+                    if (reportContent == null || reportContent.isEmpty()) {
+                        JOptionPane.showMessageDialog(this, "无法获取报告内容", "错误", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                    Object[] images = (Object[]) detail[1];
+                    
+                    // 显示报告对话框
+                    ReportViewerDialog dialog = new ReportViewerDialog(
+                            JOptionPane.getFrameForComponent(this),
+                            id, record.getDetectionTime(), record.getImageName(), record.getDefectCount(),
+                            record.getQualityLevel(), record.isAiEnhanced(), reportContent,
+                            (BufferedImage) images[0], (String) images[1]);
+                    dialog.setVisible(true);
+                }));
     }
     
     /**
@@ -319,9 +537,11 @@ public class HistoryPanel extends JPanel {
          * 构造函数
          */
         public ReportViewerDialog(java.awt.Frame parent, int id, String time, String imageName, 
-                int defectCount, String qualityLevel, boolean isAiEnhanced, String reportContent) {
+                int defectCount, String qualityLevel, boolean isAiEnhanced, String reportContent,
+                BufferedImage thumbnail, String fullImageHash) {
             super(parent, "检测报告 #" + id, true);
-            initComponents(id, time, imageName, defectCount, qualityLevel, isAiEnhanced, reportContent);
+            initComponents(id, time, imageName, defectCount, qualityLevel, isAiEnhanced, reportContent,
+                    thumbnail, fullImageHash);
             setSize(800, 600);
             setLocationRelativeTo(parent);
         }
@@ -330,7 +550,8 @@ public class HistoryPanel extends JPanel {
          * 初始化组件
          */
         private void initComponents(int id, String time, String imageName, 
-                int defectCount, String qualityLevel, boolean isAiEnhanced, String reportContent) {
+                int defectCount, String qualityLevel, boolean isAiEnhanced, String reportContent,
+                BufferedImage thumbnail, String fullImageHash) {
             JPanel panel = new JPanel(new BorderLayout(10, 10));
             panel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
             
@@ -350,6 +571,13 @@ public class HistoryPanel extends JPanel {
             JLabel infoLabel = new JLabel(infoHtml.toString());
             infoPanel.add(infoLabel, BorderLayout.CENTER);
             
+            // 检测结果缩略图
+            if (thumbnail != null) {
+                JLabel thumbnailLabel = new JLabel(new ImageIcon(thumbnail));
+                thumbnailLabel.setBorder(BorderFactory.createTitledBorder("检测结果"));
+                infoPanel.add(thumbnailLabel, BorderLayout.EAST);
+            }
+            
             // 创建内容面板
             JPanel contentPanel = new JPanel(new BorderLayout());
             contentPanel.setBorder(BorderFactory.createTitledBorder("分析内容"));
@@ -365,6 +593,11 @@ public class HistoryPanel extends JPanel {
             
             // 创建按钮面板
             JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+            if (fullImageHash != null) {
+                JButton fullImageButton = new JButton("查看原图");
+                fullImageButton.addActionListener(e -> showFullImage(fullImageHash));
+                buttonPanel.add(fullImageButton);
+            }
             JButton closeButton = new JButton("关闭");
             closeButton.addActionListener(e -> dispose());
             buttonPanel.add(closeButton);
@@ -376,5 +609,22 @@ public class HistoryPanel extends JPanel {
             
             setContentPane(panel);
         }
+        
+        /**
+         * 显示完整的检测结果图像
+         */
+        private void showFullImage(String hash) {
+            BufferedImage image = ImageStore.getInstance().loadImage(hash);
+            if (image == null) {
+                JOptionPane.showMessageDialog(this, "原图已被清理", "提示", JOptionPane.INFORMATION_MESSAGE);
+                return;
+            }
+            
+            javax.swing.JDialog imageDialog = new javax.swing.JDialog(this, "检测结果原图", true);
+            imageDialog.setContentPane(new JScrollPane(new JLabel(new ImageIcon(image))));
+            imageDialog.setSize(1000, 750);
+            imageDialog.setLocationRelativeTo(this);
+            imageDialog.setVisible(true);
+        }
     }
 } 
\ No newline at end of file
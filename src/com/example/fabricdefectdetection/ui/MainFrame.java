@@ -12,6 +12,8 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.InputStream;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,6 +22,7 @@ import org.opencv.imgcodecs.Imgcodecs;
 
 import com.example.fabricdefectdetection.analysis.DefectAnalysisAssistant;
 import com.example.fabricdefectdetection.analysis.DefectAnalysisReport;
+import com.example.fabricdefectdetection.database.DetectionResultSink;
 import com.example.fabricdefectdetection.detection.DefectDetector;
 import com.example.fabricdefectdetection.detection.DetectionResult;
 import com.example.fabricdefectdetection.util.ConfigurationManager;
@@ -76,8 +79,10 @@ public class MainFrame extends JFrame {
     private File currentImageFile;
     private Mat originalMat;
     private DetectionResult detectionResult;
+    private CompletableFuture<DefectAnalysisReport> analysisFuture;  // 进行中的流式分析
     private DefectDetector defectDetector;
     private DefectAnalysisAssistant analysisAssistant;  // 分析助手
+    private DetectionResultSink resultSink;  // 检测结果持久化
     private ConfigurationManager configManager; // 配置管理器
     
     /**
@@ -92,6 +97,7 @@ public class MainFrame extends JFrame {
         // 初始化检测器和分析助手
         this.defectDetector = new DefectDetector();
         this.analysisAssistant = new DefectAnalysisAssistant();
+        this.resultSink = new DetectionResultSink();
         
         // 设置窗口属性
         setSize(DEFAULT_WIDTH, DEFAULT_HEIGHT);
@@ -292,7 +298,13 @@ public class MainFrame extends JFrame {
         analyzeButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                startAnalysis();
+                // 分析进行中时按钮用于停止分析
+                if (analysisFuture != null) {
+                    cancelAnalysis();
+                    updateStatus("分析已停止");
+                } else {
+                    startAnalysis();
+                }
             }
         });
         
@@ -373,6 +385,7 @@ public class MainFrame extends JFrame {
                 originalImagePanel.setImage(originalImage);
                 
                 // 清除之前的结果
+                cancelAnalysis();
                 resultImagePanel.setImage(null);
                 detectionResult = null;
                 
@@ -418,6 +431,7 @@ public class MainFrame extends JFrame {
         }
         
         // 更新UI状态
+        cancelAnalysis();
         detectButton.setEnabled(false);
         aiDetectButton.setEnabled(false);
         openMenuItem.setEnabled(false);
@@ -497,6 +511,8 @@ public class MainFrame extends JFrame {
     
     /**
      * 开始分析检测结果
+     * 
+     * 分析内容以流式方式边生成边显示，分析期间分析按钮变为"停止分析"。
      */
     private void startAnalysis() {
         if (detectionResult == null) {
@@ -509,46 +525,82 @@ public class MainFrame extends JFrame {
         }
         
         // 更新UI状态
-        analyzeButton.setEnabled(false);
+        analyzeButton.setText("停止分析");
         updateStatus(STATUS_ANALYZING);
         
-        // 使用SwingWorker在后台线程执行分析，避免阻塞UI
-        SwingWorker<DefectAnalysisReport, Void> worker = new SwingWorker<DefectAnalysisReport, Void>() {
-            @Override
-            protected DefectAnalysisReport doInBackground() throws Exception {
-                // 调用分析助手执行分析
-                return analysisAssistant.analyzeDefects(detectionResult);
+        // 网络线程收到的片段先累积起来，事件分发线程中最多排队一次刷新，避免逐个片段重绘
+        DetectionResult result = detectionResult;
+        StringBuffer received = new StringBuffer();
+        AtomicBoolean refreshPending = new AtomicBoolean();
+        CompletableFuture<DefectAnalysisReport> future = analysisAssistant.analyzeDefectsStreaming(result, token -> {
+            received.append(token);
+            if (refreshPending.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(() -> {
+                    refreshPending.set(false);
+                    if (analysisFuture != null) {
+                        analysisPanel.displayStreamingContent(received.toString());
+                    }
+                });
             }
-            
-            @Override
-            protected void done() {
-                try {
-                    // 获取分析结果
-                    DefectAnalysisReport report = get();
-                    
-                    // 在分析面板中显示分析报告
-                    analysisPanel.setAnalysisReport(report);
-                    
-                    // 更新状态
-                    updateStatus("分析完成: 检测到" + report.getDefectCount() + "个缺陷，质量等级：" + report.getQualityLevel());
-                    
-                } catch (Exception e) {
-                    JOptionPane.showMessageDialog(
-                            MainFrame.this,
-                            "分析过程中发生错误:\n" + e.getMessage(),
-                            "错误",
-                            JOptionPane.ERROR_MESSAGE);
-                    logger.log(Level.SEVERE, "分析过程中发生错误", e);
-                    updateStatus("分析失败");
-                } finally {
-                    // 恢复UI状态
-                    analyzeButton.setEnabled(true);
-                }
+        });
+        analysisFuture = future;
+        
+        future.whenComplete((report, error) -> {
+            if (future.isCancelled()) {
+                return;
             }
-        };
+            // 保存检测记录和报告
+            if (report != null) {
+                resultSink.persistAsync(result, report).exceptionally(e -> {
+                    logger.log(Level.SEVERE, "保存分析结果失败", e);
+                    return null;
+                });
+            }
+            SwingUtilities.invokeLater(() -> finishAnalysis(future, report, error));
+        });
+    }
+    
+    /**
+     * 在事件分发线程中显示分析结果
+     */
+    private void finishAnalysis(CompletableFuture<DefectAnalysisReport> future, DefectAnalysisReport report,
+                                Throwable error) {
+        if (future != analysisFuture) {
+            // 分析已被取消，或已开始新的分析
+            return;
+        }
+        analysisFuture = null;
+        analyzeButton.setText("分析结果");
         
-        // 启动后台任务
-        worker.execute();
+        if (error != null) {
+            JOptionPane.showMessageDialog(
+                    MainFrame.this,
+                    "分析过程中发生错误:\n" + error.getMessage(),
+                    "错误",
+                    JOptionPane.ERROR_MESSAGE);
+            logger.log(Level.SEVERE, "分析过程中发生错误", error);
+            updateStatus("分析失败");
+            return;
+        }
+        
+        // 在分析面板中显示分析报告
+        analysisPanel.setAnalysisReport(report);
+        
+        // 更新状态
+        updateStatus("分析完成: 检测到" + report.getDefectCount() + "个缺陷，质量等级：" + report.getQualityLevel());
+    }
+    
+    /**
+     * 停止进行中的分析，中止API请求并释放连接，已显示的部分内容保留
+     */
+    private void cancelAnalysis() {
+        CompletableFuture<DefectAnalysisReport> future = analysisFuture;
+        if (future == null) {
+            return;
+        }
+        analysisFuture = null;
+        future.cancel(true);
+        analyzeButton.setText("分析结果");
     }
     
     /**
@@ -565,6 +617,7 @@ public class MainFrame extends JFrame {
         }
         
         // 更新UI状态
+        cancelAnalysis();
         detectButton.setEnabled(false);
         aiDetectButton.setEnabled(false);
         openMenuItem.setEnabled(false);
@@ -652,6 +705,8 @@ public class MainFrame extends JFrame {
      */
     @Override
     public void dispose() {
+        cancelAnalysis();
+        
         // 关闭批量处理面板资源
         if (batchProcessingPanel != null) {
             batchProcessingPanel.close();
@@ -31,8 +31,17 @@ public class ConfigurationManager {
      * 私有构造函数，加载或创建配置文件
      */
     private ConfigurationManager() {
-        properties = new Properties();
-        configFile = new File(CONFIG_FILE);
+        this(new File(CONFIG_FILE));
+    }
+    
+    /**
+     * 私有构造函数，使用指定的配置文件
+     * 
+     * @param configFile 配置文件
+     */
+    private ConfigurationManager(File configFile) {
+        this.properties = new Properties();
+        this.configFile = configFile;
         
         // 加载配置文件
         if (configFile.exists()) {
@@ -55,6 +64,19 @@ public class ConfigurationManager {
         return instance;
     }
     
+    /**
+     * 使用指定的配置文件替换当前的配置管理器实例
+     * 
+     * 供命令行模式在其他组件读取配置之前调用
+     * 
+     * @param path 配置文件路径
+     * @return 新的配置管理器实例
+     */
+    public static synchronized ConfigurationManager useConfigFile(String path) {
+        instance = new ConfigurationManager(new File(path));
+        return instance;
+    }
+    
     /**
      * 加载配置文件
      */
@@ -78,13 +100,72 @@ public class ConfigurationManager {
         properties.setProperty("api.model", "deepseek-chat");
         properties.setProperty("api.timeout", "PT60S");
         
+        // 大语言模型API客户端配置：在途请求上限、重试退避和熔断
+        properties.setProperty("llm.max-in-flight", "4");
+        properties.setProperty("llm.max-attempts", "3");
+        properties.setProperty("llm.backoff-initial-ms", "500");
+        properties.setProperty("llm.backoff-max-ms", "8000");
+        properties.setProperty("llm.breaker-failure-threshold", "5");
+        properties.setProperty("llm.breaker-open-seconds", "30");
+        
+        // AI分析缓存配置，analysis.cache.enabled为false时绕过缓存
+        properties.setProperty("analysis.cache.enabled", "true");
+        properties.setProperty("analysis.cache.dir", "analysis-cache");
+        properties.setProperty("analysis.cache.memory-entries", "1000");
+        properties.setProperty("analysis.cache.ttl-hours", "168");
+        
+        // AI图像检测的载荷预算：图像缩小、裁剪到候选缺陷区域并调整JPEG质量，使请求不超出预算
+        properties.setProperty("ai-detection.max-prompt-tokens", "48000");
+        properties.setProperty("ai-detection.max-image-bytes", "65536");
+        properties.setProperty("ai-detection.max-dimension", "1024");
+        properties.setProperty("ai-detection.min-dimension", "256");
+        properties.setProperty("ai-detection.jpeg-quality-max", "85");
+        properties.setProperty("ai-detection.jpeg-quality-min", "30");
+        properties.setProperty("ai-detection.roi-crop", "true");
+        properties.setProperty("ai-detection.roi-padding", "32");
+        
         // 系统配置
         properties.setProperty("system.auto-analyze", "true");
         properties.setProperty("system.thread-count", "4");
+        properties.setProperty("batch.decode-memory-mb", "1024");
+        // 批量处理的分析方式：roll为批次结束后整卷调用一次AI分析，image为每张图片调用一次
+        properties.setProperty("batch.analysis-mode", "roll");
+        
+        // 数据库写入配置
+        properties.setProperty("database.commit-batch-size", "256");
+        properties.setProperty("database.commit-interval-ms", "50");
+        properties.setProperty("database.async-threads", "4");
+        properties.setProperty("database.query-timeout-ms", "30000");
+        properties.setProperty("database.analytics-readers", "2");
+        properties.setProperty("database.analytics-timeout-ms", "30000");
+        properties.setProperty("database.full-vacuum-free-percent", "25");
+        
+        // 检测结果图像存储配置
+        properties.setProperty("image.store-dir", "images");
+        properties.setProperty("image.thumbnail-size", "320");
+        properties.setProperty("image.store-full", "false");
+        properties.setProperty("image.jpeg-quality", "85");
+        properties.setProperty("image.max-store-mb", "2048");
+        properties.setProperty("image.encoder-threads", "2");
+        
+        // 检测结果存储后端配置，可用 storage.backend.<产线ID> 为单条产线指定 sqlite 或 log
+        properties.setProperty("storage.backend", "sqlite");
+        properties.setProperty("store.log-dir", "results");
+        properties.setProperty("store.segment-size-mb", "64");
+        properties.setProperty("store.compact-interval-minutes", "10");
+        properties.setProperty("store.compact-min-garbage-percent", "50");
+        
+        // 历史分区配置，history.retention-months为0表示永久保留
+        properties.setProperty("history.partition-dir", "history");
+        properties.setProperty("history.hot-months", "3");
+        properties.setProperty("history.archive-after-months", "12");
+        properties.setProperty("history.retention-months", "0");
+        properties.setProperty("history.maintenance-interval-hours", "6");
         
         // 检测参数配置
         properties.setProperty("detection.min-defect-area", "100");
         properties.setProperty("detection.max-defect-area", "10000");
+        properties.setProperty("detection.line-id", "default");
         
         // 保存默认配置
         saveConfiguration();
@@ -0,0 +1,204 @@
+package com.example.fabricdefectdetection.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * 图像文件头读取工具类
+ *
+ * 只读取文件头中的宽、高和通道数，不解码像素数据，
+ * 用于在解码前估算图像解码后占用的内存。支持PNG、JPEG、BMP和TIFF格式。
+ *
+ * @author FabricDefectDetection
+ * @version 1.0
+ */
+public final class ImageHeaderReader {
+
+    /**
+     * 私有构造函数，防止实例化
+     */
+    private ImageHeaderReader() {
+        throw new AssertionError("工具类不应被实例化");
+    }
+
+    /**
+     * 图像尺寸信息
+     */
+    public static final class ImageDimensions {
+        private final int width;
+        private final int height;
+        private final int channels;
+
+        ImageDimensions(int width, int height, int channels) {
+            this.width = width;
+            this.height = height;
+            this.channels = channels;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getChannels() {
+            return channels;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "x" + channels;
+        }
+    }
+
+    /**
+     * 读取图像文件的尺寸信息
+     *
+     * @param file 图像文件
+     * @return 尺寸信息，格式不支持或文件头无法解析时返回null
+     */
+    public static ImageDimensions readDimensions(File file) {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            byte[] magic = new byte[4];
+            input.readFully(magic);
+            input.seek(0);
+
+            if ((magic[0] & 0xFF) == 0x89 && magic[1] == 'P' && magic[2] == 'N' && magic[3] == 'G') {
+                return readPng(input);
+            } else if ((magic[0] & 0xFF) == 0xFF && (magic[1] & 0xFF) == 0xD8) {
+                return readJpeg(input);
+            } else if (magic[0] == 'B' && magic[1] == 'M') {
+                return readBmp(input);
+            } else if ((magic[0] == 'I' && magic[1] == 'I') || (magic[0] == 'M' && magic[1] == 'M')) {
+                // 仅支持经典TIFF，不支持BigTIFF
+                return readTiff(input, magic[0] == 'I');
+            }
+        } catch (IOException e) {
+            // 文件头损坏或被截断，交由调用方按未知尺寸处理
+        }
+        return null;
+    }
+
+    /**
+     * 读取PNG文件头（IHDR块）
+     */
+    private static ImageDimensions readPng(RandomAccessFile input) throws IOException {
+        input.seek(16);
+        int width = input.readInt();
+        int height = input.readInt();
+        input.readUnsignedByte();  // 位深度
+        int colorType = input.readUnsignedByte();
+
+        int channels;
+        switch (colorType) {
+            case 0: channels = 1; break;  // 灰度
+            case 4: channels = 2; break;  // 灰度+透明
+            case 6: channels = 4; break;  // RGBA
+            default: channels = 3;        // RGB或调色板
+        }
+        return new ImageDimensions(width, height, channels);
+    }
+
+    /**
+     * 读取JPEG文件头（查找SOF段）
+     */
+    private static ImageDimensions readJpeg(RandomAccessFile input) throws IOException {
+        input.seek(2);
+        while (true) {
+            int marker = input.readUnsignedByte();
+            if (marker != 0xFF) {
+                return null;
+            }
+            int type = input.readUnsignedByte();
+            while (type == 0xFF) {
+                type = input.readUnsignedByte();
+            }
+
+            // 无长度字段的标记
+            if (type == 0x01 || (type >= 0xD0 && type <= 0xD7)) {
+                continue;
+            }
+            if (type == 0xD9 || type == 0xDA) {
+                return null;
+            }
+
+            int length = input.readUnsignedShort();
+            boolean isSof = type >= 0xC0 && type <= 0xCF && type != 0xC4 && type != 0xC8 && type != 0xCC;
+            if (isSof) {
+                input.readUnsignedByte();  // 采样精度
+                int height = input.readUnsignedShort();
+                int width = input.readUnsignedShort();
+                int channels = input.readUnsignedByte();
+                return new ImageDimensions(width, height, channels);
+            }
+            input.seek(input.getFilePointer() + length - 2);
+        }
+    }
+
+    /**
+     * 读取BMP文件头
+     */
+    private static ImageDimensions readBmp(RandomAccessFile input) throws IOException {
+        input.seek(18);
+        int width = Integer.reverseBytes(input.readInt());
+        int height = Math.abs(Integer.reverseBytes(input.readInt()));
+        input.readShort();  // 颜色平面数
+        int bitsPerPixel = Short.reverseBytes(input.readShort()) & 0xFFFF;
+        return new ImageDimensions(width, height, Math.max(1, bitsPerPixel / 8));
+    }
+
+    /**
+     * 读取TIFF文件第一个IFD中的宽、高和每像素采样数
+     */
+    private static ImageDimensions readTiff(RandomAccessFile input, boolean littleEndian) throws IOException {
+        input.seek(4);
+        long ifdOffset = readUnsignedInt(input, littleEndian);
+        input.seek(ifdOffset);
+
+        int entryCount = readUnsignedShort(input, littleEndian);
+        int width = -1;
+        int height = -1;
+        int channels = 1;
+
+        for (int i = 0; i < entryCount; i++) {
+            int tag = readUnsignedShort(input, littleEndian);
+            int fieldType = readUnsignedShort(input, littleEndian);
+            readUnsignedInt(input, littleEndian);  // 值个数
+            long value;
+            if (fieldType == 3) {
+                // SHORT类型，值位于4字节字段的前2字节
+                value = readUnsignedShort(input, littleEndian);
+                input.readShort();
+            } else {
+                value = readUnsignedInt(input, littleEndian);
+            }
+
+            if (tag == 256) {
+                width = (int) value;
+            } else if (tag == 257) {
+                height = (int) value;
+            } else if (tag == 277) {
+                channels = (int) value;
+            }
+        }
+
+        if (width <= 0 || height <= 0) {
+            throw new EOFException("TIFF文件缺少尺寸标签");
+        }
+        return new ImageDimensions(width, height, channels);
+    }
+
+    private static int readUnsignedShort(RandomAccessFile input, boolean littleEndian) throws IOException {
+        int value = input.readUnsignedShort();
+        return littleEndian ? (Short.reverseBytes((short) value) & 0xFFFF) : value;
+    }
+
+    private static long readUnsignedInt(RandomAccessFile input, boolean littleEndian) throws IOException {
+        int value = input.readInt();
+        return (littleEndian ? Integer.reverseBytes(value) : value) & 0xFFFFFFFFL;
+    }
+}
@@ -35,6 +35,16 @@ public class OpenCVLoader {
      * @return 是否成功加载
      */
     public static boolean loadOpenCV() {
+        return loadOpenCV(true);
+    }
+    
+    /**
+     * 加载OpenCV库
+     * 
+     * @param showDialog 加载失败时是否弹出错误对话框（无界面模式下应为false）
+     * @return 是否成功加载
+     */
+    public static boolean loadOpenCV(boolean showDialog) {
         boolean loaded = false;
         
         // 首先尝试系统属性指定的库名
@@ -65,7 +75,9 @@ public class OpenCVLoader {
                     + "4. 或使用-Dopencv.libname=<OpenCV库名> 指定具体的库名";
             
             System.err.println(message);
-            JOptionPane.showMessageDialog(null, message, "OpenCV加载错误", JOptionPane.ERROR_MESSAGE);
+            if (showDialog) {
+                JOptionPane.showMessageDialog(null, message, "OpenCV加载错误", JOptionPane.ERROR_MESSAGE);
+            }
         } else {
             System.out.println("OpenCV库加载成功");
         }